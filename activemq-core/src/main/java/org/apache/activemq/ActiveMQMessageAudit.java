@@ -16,23 +16,40 @@
  */
 package org.apache.activemq;
 
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.util.BitArrayBin;
+import org.apache.activemq.util.LRUCache;
 
 /**
  * Provides basic audit functions for Messages
  * 
- * 
+ * The producers are spread over stripes, each an audit of its own with its
+ * own lock, so threads auditing the messages of different producers don't
+ * wait for each other. The stripes share the count of producers tracked, a
+ * stripe forgets its least recently used producer once the audit as a whole
+ * tracks more than the maximum number of producers, so producers unevenly
+ * spread over the stripes are not forgotten early.
  */
 public class ActiveMQMessageAudit extends ActiveMQMessageAuditNoSync {
 
     private static final long serialVersionUID = 1L;
+    private static final int MAXIMUM_STRIPES = 16;
+    private static final int MINIMUM_PRODUCERS_PER_STRIPE = 64;
+
+    private final ActiveMQMessageAuditNoSync[] stripes;
+    // the number of producers tracked by all the stripes
+    private final AtomicInteger producers = new AtomicInteger();
 
     /**
      * Default Constructor windowSize = 2048, maximumNumberOfProducersToTrack =
      * 64
      */
     public ActiveMQMessageAudit() {
-        super();
+        this(DEFAULT_WINDOW_SIZE, MAXIMUM_PRODUCER_COUNT);
     }
 
     /**
@@ -44,40 +61,173 @@ public class ActiveMQMessageAudit extends ActiveMQMessageAuditNoSync {
      */
     public ActiveMQMessageAudit(int auditDepth, final int maximumNumberOfProducersToTrack) {
         super(auditDepth, maximumNumberOfProducersToTrack);
+        int count = 1;
+        while (count < MAXIMUM_STRIPES && maximumNumberOfProducersToTrack / (count * 2) >= MINIMUM_PRODUCERS_PER_STRIPE) {
+            count *= 2;
+        }
+        stripes = new ActiveMQMessageAuditNoSync[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ActiveMQMessageAuditNoSync(auditDepth, maximumNumberOfProducersToTrack, new ProducerCache(
+                    maximumNumberOfProducersToTrack, producers));
+        }
     }
-    
+
+    @Override
+    public void setAuditDepth(int auditDepth) {
+        super.setAuditDepth(auditDepth);
+        for (ActiveMQMessageAuditNoSync stripe : stripes) {
+            synchronized (stripe) {
+                stripe.setAuditDepth(auditDepth);
+            }
+        }
+    }
+
+    @Override
+    public void setMaximumNumberOfProducersToTrack(int maximumNumberOfProducersToTrack) {
+        super.setMaximumNumberOfProducersToTrack(maximumNumberOfProducersToTrack);
+        for (ActiveMQMessageAuditNoSync stripe : stripes) {
+            synchronized (stripe) {
+                stripe.setMaximumNumberOfProducersToTrack(maximumNumberOfProducersToTrack);
+            }
+        }
+    }
+
     @Override
     public boolean isDuplicate(String id) {
-        synchronized (this) {
-            return super.isDuplicate(id);
+        ActiveMQMessageAuditNoSync stripe = getStripe(id);
+        synchronized (stripe) {
+            return stripe.isDuplicate(id);
         }
     }
 
     @Override
     public boolean isDuplicate(final MessageId id) {
-        synchronized (this) {
-            return super.isDuplicate(id);
+        ActiveMQMessageAuditNoSync stripe = getStripe(id);
+        synchronized (stripe) {
+            return stripe.isDuplicate(id);
         }
     }
 
     @Override
     public void rollback(final  MessageId id) {
-        synchronized (this) {
-            super.rollback(id);
+        ActiveMQMessageAuditNoSync stripe = getStripe(id);
+        synchronized (stripe) {
+            stripe.rollback(id);
+        }
+    }
+
+    @Override
+    public void rollback(final String id) {
+        ActiveMQMessageAuditNoSync stripe = getStripe(id);
+        synchronized (stripe) {
+            stripe.rollback(id);
         }
     }
     
     @Override
     public boolean isInOrder(final String id) {
-        synchronized (this) {
-            return super.isInOrder(id);
+        ActiveMQMessageAuditNoSync stripe = getStripe(id);
+        synchronized (stripe) {
+            return stripe.isInOrder(id);
         }
     }
     
     @Override
     public boolean isInOrder(final MessageId id) {
-        synchronized (this) {
-            return super.isInOrder(id);
+        ActiveMQMessageAuditNoSync stripe = getStripe(id);
+        synchronized (stripe) {
+            return stripe.isInOrder(id);
+        }
+    }
+
+    @Override
+    public long getLastSeqId(ProducerId id) {
+        String key = id.toString();
+        ActiveMQMessageAuditNoSync stripe = stripes[index(key.hashCode())];
+        synchronized (stripe) {
+            return stripe.getLastSeqId(id);
+        }
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        for (ActiveMQMessageAuditNoSync stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    private ActiveMQMessageAuditNoSync getStripe(MessageId id) {
+        if (id == null || id.getProducerId() == null) {
+            return stripes[0];
+        }
+        return stripes[index(id.getProducerId().hashCode())];
+    }
+
+    /**
+     * @return the stripe of the producer of the message id, the same stripe
+     *         as the producer id string gets
+     */
+    private ActiveMQMessageAuditNoSync getStripe(String id) {
+        if (id == null) {
+            return stripes[0];
+        }
+        // the hash code of the seed of the id, without copying it
+        int end = id.lastIndexOf(':');
+        if (end <= 0 || end + 1 >= id.length()) {
+            end = id.length();
+        }
+        int hash = 0;
+        for (int i = 0; i < end; i++) {
+            hash = 31 * hash + id.charAt(i);
+        }
+        return stripes[index(hash)];
+    }
+
+    private int index(int hash) {
+        return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+    }
+
+    /**
+     * The producers of a stripe, evicted when all the stripes together track
+     * too many.
+     */
+    private static final class ProducerCache extends LRUCache<Object, BitArrayBin> {
+
+        private static final long serialVersionUID = 1L;
+        private final AtomicInteger producers;
+
+        ProducerCache(int maximumCacheSize, AtomicInteger producers) {
+            super(0, maximumCacheSize, 0.75f, true);
+            this.producers = producers;
+        }
+
+        @Override
+        public BitArrayBin put(Object key, BitArrayBin value) {
+            if (!containsKey(key)) {
+                producers.incrementAndGet();
+            }
+            return super.put(key, value);
+        }
+
+        @Override
+        public void clear() {
+            producers.addAndGet(-size());
+            super.clear();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, BitArrayBin> eldest) {
+            // a stripe keeps the producer it just added, so the audit tracks
+            // at most one more producer per stripe than the maximum
+            if (size() > 1 && producers.get() > maxCacheSize) {
+                producers.decrementAndGet();
+                onCacheEviction(eldest);
+                return true;
+            }
+            return false;
         }
     }
 }
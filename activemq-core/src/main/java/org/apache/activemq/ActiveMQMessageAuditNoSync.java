@@ -59,9 +59,13 @@ public class ActiveMQMessageAuditNoSync implements Serializable {
      *                the system
      */
     public ActiveMQMessageAuditNoSync(int auditDepth, final int maximumNumberOfProducersToTrack) {
+        this(auditDepth, maximumNumberOfProducersToTrack, new LRUCache<Object, BitArrayBin>(0, maximumNumberOfProducersToTrack, 0.75f, true));
+    }
+
+    ActiveMQMessageAuditNoSync(int auditDepth, int maximumNumberOfProducersToTrack, LRUCache<Object, BitArrayBin> map) {
         this.auditDepth = auditDepth;
-        this.maximumNumberOfProducersToTrack=maximumNumberOfProducersToTrack;
-        this.map = new LRUCache<Object, BitArrayBin>(0, maximumNumberOfProducersToTrack, 0.75f, true);
+        this.maximumNumberOfProducersToTrack = maximumNumberOfProducersToTrack;
+        this.map = map;
     }
     
     /**
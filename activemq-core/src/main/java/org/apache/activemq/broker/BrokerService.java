@@ -58,6 +58,7 @@ import org.apache.activemq.broker.jmx.FTConnectorView;
 import org.apache.activemq.broker.jmx.JmsConnectorView;
 import org.apache.activemq.broker.jmx.JobSchedulerView;
 import org.apache.activemq.broker.jmx.JobSchedulerViewMBean;
+import org.apache.activemq.broker.jmx.KahaDBPersistenceAdapterView;
 import org.apache.activemq.broker.jmx.ManagedRegionBroker;
 import org.apache.activemq.broker.jmx.ManagementContext;
 import org.apache.activemq.broker.jmx.NetworkConnectorView;
@@ -523,6 +524,9 @@ public class BrokerService implements Service {
                 deleteAllMessages();
             }
             getPersistenceAdapter().start();
+            if (isUseJmx()) {
+                registerPersistenceAdapterViewMBean(getPersistenceAdapter());
+            }
             slave = false;
             startDestinations();
             addShutdownHook();
@@ -1897,6 +1901,20 @@ public class BrokerService implements Service {
         }
     }
 
+    protected void registerPersistenceAdapterViewMBean(PersistenceAdapter adapter) throws IOException {
+        if (adapter instanceof KahaDBPersistenceAdapter) {
+            KahaDBPersistenceAdapterView view = new KahaDBPersistenceAdapterView((KahaDBPersistenceAdapter) adapter);
+            try {
+                ObjectName objectName = new ObjectName(getManagementContext().getJmxDomainName() + ":" + "BrokerName="
+                        + JMXSupport.encodeObjectNamePart(getBrokerName()) + "," + "Type=PersistenceAdapter,"
+                        + "PersistenceAdapterName=KahaDB");
+                AnnotatedMBean.registerMBean(getManagementContext(), view, objectName);
+            } catch (Throwable e) {
+                throw IOExceptionSupport.create("Persistence adapter could not be registered in JMX: " + e.getMessage(), e);
+            }
+        }
+    }
+
     protected void registerJmsConnectorMBean(JmsConnector connector) throws IOException {
         JmsConnectorView view = new JmsConnectorView(connector);
         try {
@@ -21,6 +21,7 @@ import org.apache.activemq.broker.region.ConnectionStatistics;
 import org.apache.activemq.broker.region.RegionBroker;
 import org.apache.activemq.command.*;
 import org.apache.activemq.network.DemandForwardingBridge;
+import org.apache.activemq.network.DemandForwardingBridgeSupport;
 import org.apache.activemq.network.MBeanNetworkListener;
 import org.apache.activemq.network.NetworkBridgeConfiguration;
 import org.apache.activemq.network.NetworkBridgeFactory;
@@ -1214,6 +1215,7 @@ public class TransportConnection implements Connection, Task, CommandVisitor {
             try {
                 Properties properties = MarshallingSupport.stringToProperties(info.getNetworkProperties());
                 Map<String, String> props = createMap(properties);
+                String stripe = props.remove(DemandForwardingBridgeSupport.NETWORK_STRIPE_PROPERTY);
                 NetworkBridgeConfiguration config = new NetworkBridgeConfiguration();
                 IntrospectionSupport.setProperties(config, props, "");
                 config.setBrokerName(broker.getBrokerName());
@@ -1225,6 +1227,10 @@ public class TransportConnection implements Connection, Task, CommandVisitor {
                 // and the duplex network connector side wanting to open a new one
                 // In this case, the old connection must be broken
                 String duplexNetworkConnectorId = config.getName() + "@" + info.getBrokerId();
+                if (stripe != null) {
+                    // each parallel connection of a striped bridge is a duplex connection of its own
+                    duplexNetworkConnectorId += "#" + stripe;
+                }
                 CopyOnWriteArrayList<TransportConnection> connections = this.connector.getConnections();
                 synchronized (connections) {
                     for (Iterator<TransportConnection> iter = connections.iterator(); iter.hasNext(); ) {
@@ -1253,6 +1259,9 @@ public class TransportConnection implements Connection, Task, CommandVisitor {
                 listener.setCreatedByDuplex(true);
                 duplexBridge = NetworkBridgeFactory.createBridge(config, localTransport, remoteBridgeTransport, listener);
                 duplexBridge.setBrokerService(broker.getBrokerService());
+                if (stripe != null) {
+                    duplexBridge.setStripe(Integer.parseInt(stripe));
+                }
                 // now turn duplex off this side
                 info.setDuplexConnection(false);
                 duplexBridge.setCreatedByDuplex(true);
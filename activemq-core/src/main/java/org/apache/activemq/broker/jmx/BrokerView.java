@@ -38,6 +38,8 @@ import org.apache.activemq.command.ConsumerId;
 import org.apache.activemq.command.ConsumerInfo;
 import org.apache.activemq.command.RemoveSubscriptionInfo;
 import org.apache.activemq.network.NetworkConnector;
+import org.apache.activemq.thread.TaskRunnerFactory;
+import org.apache.activemq.thread.WorkStealingTaskRunnerFactory;
 import org.apache.activemq.util.BrokerSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -159,6 +161,29 @@ public class BrokerView implements BrokerViewMBean {
         brokerService.getSystemUsage().getTempUsage().setLimit(limit);
     }
 
+    public long getTaskRunnerQueueDepth() {
+        WorkStealingTaskRunnerFactory factory = getWorkStealingTaskRunnerFactory();
+        return factory != null ? factory.getQueueDepth() : 0;
+    }
+
+    public long getTaskRunnerStolenCount() {
+        WorkStealingTaskRunnerFactory factory = getWorkStealingTaskRunnerFactory();
+        return factory != null ? factory.getStolenCount() : 0;
+    }
+
+    public String[] getTaskRunnerWorkerStatistics() {
+        WorkStealingTaskRunnerFactory factory = getWorkStealingTaskRunnerFactory();
+        return factory != null ? factory.getWorkerStatistics() : new String[0];
+    }
+
+    private WorkStealingTaskRunnerFactory getWorkStealingTaskRunnerFactory() {
+        TaskRunnerFactory factory = brokerService.getTaskRunnerFactory();
+        if (factory instanceof WorkStealingTaskRunnerFactory) {
+            return (WorkStealingTaskRunnerFactory) factory;
+        }
+        return null;
+    }
+
     public void resetStatistics() {
         safeGetBroker().getDestinationStatistics().reset();
     }
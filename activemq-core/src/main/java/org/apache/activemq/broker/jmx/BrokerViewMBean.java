@@ -104,6 +104,15 @@ public interface BrokerViewMBean extends Service {
 
     void setTempLimit(@MBeanInfo("bytes") long limit);
 
+    @MBeanInfo("Number of destination task runs waiting for a worker thread of the work stealing task runner pool.")
+    long getTaskRunnerQueueDepth();
+
+    @MBeanInfo("Number of destination task runs executed by an idle worker thread other than the one they were queued on.")
+    long getTaskRunnerStolenCount();
+
+    @MBeanInfo("Queue depth and run time statistics of each worker thread of the work stealing task runner pool.")
+    String[] getTaskRunnerWorkerStatistics();
+
     @MBeanInfo("Messages are synchronized to disk.")
     boolean isPersistent();
 
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.jmx;
+
+import org.apache.activemq.store.kahadb.KahaDBPersistenceAdapter;
+
+public class KahaDBPersistenceAdapterView implements KahaDBPersistenceAdapterViewMBean {
+
+    private final KahaDBPersistenceAdapter adapter;
+
+    public KahaDBPersistenceAdapterView(KahaDBPersistenceAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    public String getDirectory() {
+        return adapter.getDirectory() != null ? adapter.getDirectory().getAbsolutePath() : null;
+    }
+
+    public long getSize() {
+        return adapter.size();
+    }
+
+    public long getIndexOffHeapCacheSize() {
+        return adapter.getIndexOffHeapCacheSize();
+    }
+
+    public long getIndexOffHeapCacheUsage() {
+        return adapter.getIndexOffHeapCacheUsage();
+    }
+
+    public long getIndexOffHeapCacheHits() {
+        return adapter.getIndexOffHeapCacheHits();
+    }
+
+    public long getIndexOffHeapCacheMisses() {
+        return adapter.getIndexOffHeapCacheMisses();
+    }
+
+    public long getIndexOffHeapCacheEvictions() {
+        return adapter.getIndexOffHeapCacheEvictions();
+    }
+
+    public long getIndexLockWaitTime() {
+        return adapter.getIndexLockWaitTime();
+    }
+
+    public long getMaxIndexLockWaitTime() {
+        return adapter.getMaxIndexLockWaitTime();
+    }
+
+    public long getIndexLockCount() {
+        return adapter.getIndexLockCount();
+    }
+
+    public void resetStatistics() {
+        adapter.resetIndexOffHeapCacheStatistics();
+        adapter.resetIndexLockStatistics();
+    }
+}
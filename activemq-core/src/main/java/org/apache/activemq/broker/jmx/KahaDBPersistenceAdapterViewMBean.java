@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.jmx;
+
+public interface KahaDBPersistenceAdapterViewMBean {
+
+    @MBeanInfo("The directory holding the journal and the index.")
+    String getDirectory();
+
+    @MBeanInfo("Disk space used by the journal and the index, in bytes.")
+    long getSize();
+
+    @MBeanInfo("The size of the off heap index page cache, in bytes.")
+    long getIndexOffHeapCacheSize();
+
+    @MBeanInfo("The part of the off heap index page cache holding pages, in bytes.")
+    long getIndexOffHeapCacheUsage();
+
+    @MBeanInfo("Index page reads served from the off heap page cache.")
+    long getIndexOffHeapCacheHits();
+
+    @MBeanInfo("Index page reads that missed the off heap page cache and went to disk.")
+    long getIndexOffHeapCacheMisses();
+
+    @MBeanInfo("Index pages evicted from the off heap page cache.")
+    long getIndexOffHeapCacheEvictions();
+
+    @MBeanInfo("Total time spent waiting for the index lock, in milliseconds.")
+    long getIndexLockWaitTime();
+
+    @MBeanInfo("Longest wait for the index lock, in milliseconds.")
+    long getMaxIndexLockWaitTime();
+
+    @MBeanInfo("Number of times the index lock was taken.")
+    long getIndexLockCount();
+
+    @MBeanInfo("Resets the index page cache and index lock statistics.")
+    void resetStatistics();
+}
@@ -59,6 +59,22 @@ public class NetworkBridgeView implements NetworkBridgeViewMBean {
         return bridge.getDequeueCounter();
     }
 
+    public long getForwardWindowSize() {
+        return bridge.getForwardWindowSize();
+    }
+
+    public double getAverageForwardLatency() {
+        return bridge.getAverageForwardLatency();
+    }
+
+    public long getMaxForwardLatency() {
+        return bridge.getMaxForwardLatency();
+    }
+
+    public int getStripe() {
+        return bridge.getStripe();
+    }
+
     public boolean isCreatedByDuplex() {
         return createByDuplex;
     }
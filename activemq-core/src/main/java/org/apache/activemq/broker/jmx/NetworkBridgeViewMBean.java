@@ -32,6 +32,14 @@ public interface NetworkBridgeViewMBean extends Service {
 
     long getDequeueCounter();
 
+    long getForwardWindowSize();
+
+    double getAverageForwardLatency();
+
+    long getMaxForwardLatency();
+
+    int getStripe();
+
     boolean isCreatedByDuplex();
 
 }
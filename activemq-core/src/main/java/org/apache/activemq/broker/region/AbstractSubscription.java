@@ -33,6 +33,7 @@ import org.apache.activemq.filter.DestinationFilter;
 import org.apache.activemq.filter.LogicExpression;
 import org.apache.activemq.filter.MessageEvaluationContext;
 import org.apache.activemq.filter.NoLocalExpression;
+import org.apache.activemq.selector.SelectorCompiler;
 import org.apache.activemq.selector.SelectorParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,7 +63,11 @@ public abstract class AbstractSubscription implements Subscription {
     private static BooleanExpression parseSelector(ConsumerInfo info) throws InvalidSelectorException {
         BooleanExpression rc = null;
         if (info.getSelector() != null) {
-            rc = SelectorParser.parse(info.getSelector());
+            if (SelectorCompiler.isEnabled()) {
+                rc = SelectorCompiler.compile(info.getSelector());
+            } else {
+                rc = SelectorParser.parse(info.getSelector());
+            }
         }
         if (info.isNoLocal()) {
             if (rc == null) {
@@ -18,6 +18,7 @@ package org.apache.activemq.broker.region;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.jms.ResourceAllocationException;
 import org.apache.activemq.advisory.AdvisorySupport;
 import org.apache.activemq.broker.Broker;
@@ -62,6 +63,10 @@ public abstract class BaseDestination implements Destination {
     protected SystemUsage systemUsage;
     protected MemoryUsage memoryUsage;
     private boolean producerFlowControl = true;
+    private boolean asyncFlowControl;
+    // the size of the async sends waiting for space as continuations
+    private final AtomicLong waitingAsyncSendSize = new AtomicLong();
+    private final Object waitingAsyncSendMutex = new Object();
     private boolean alwaysRetroactive = false;
     protected boolean warnOnProducerFlowControl = true;
     protected long blockedProducerWarningInterval = DEFAULT_BLOCKED_PRODUCER_WARNING_INTERVAL;
@@ -153,6 +158,20 @@ public abstract class BaseDestination implements Destination {
         this.producerFlowControl = producerFlowControl;
     }
 
+    public boolean isAsyncFlowControl() {
+        return asyncFlowControl;
+    }
+
+    /**
+     * @param asyncFlowControl when producer flow control blocks an async
+     *            send from a producer without a producer window, queue it to
+     *            be sent when space frees up instead of blocking the
+     *            connection thread
+     */
+    public void setAsyncFlowControl(boolean asyncFlowControl) {
+        this.asyncFlowControl = asyncFlowControl;
+    }
+
     public boolean isAlwaysRetroactive() {
         return alwaysRetroactive;
     }
@@ -632,6 +651,48 @@ public abstract class BaseDestination implements Destination {
         }
     }
 
+    /**
+     * @return true if async sends are waiting for space, later sends have to
+     *         wait behind them to stay in order
+     */
+    protected final boolean hasWaitingAsyncSends() {
+        return waitingAsyncSendSize.get() > 0;
+    }
+
+    /**
+     * Decides whether an async send that has to wait for space can wait as a
+     * continuation, see {@link #setAsyncFlowControl(boolean)}. Sends in a
+     * transaction or with a send timeout always block. The waiting sends are
+     * bounded by the memory limit, past it the connection thread blocks until
+     * they are sent, so the producer is still throttled.
+     *
+     * @return true if the send is to wait as a continuation, which must call
+     *         {@link #asyncSendDone(Message)} once it has run
+     */
+    protected final boolean waitAsync(ConnectionContext context, Message message) throws IOException, InterruptedException {
+        if (!asyncFlowControl || context.isInTransaction() || systemUsage.getSendFailIfNoSpaceAfterTimeout() != 0) {
+            return false;
+        }
+        synchronized (waitingAsyncSendMutex) {
+            while (waitingAsyncSendSize.get() > 0
+                    && waitingAsyncSendSize.get() + message.getSize() > memoryUsage.getLimit()) {
+                if (context.getStopping().get()) {
+                    throw new IOException("Connection closed, send aborted.");
+                }
+                waitingAsyncSendMutex.wait(1000);
+            }
+            waitingAsyncSendSize.addAndGet(message.getSize());
+        }
+        return true;
+    }
+
+    protected final void asyncSendDone(Message message) {
+        waitingAsyncSendSize.addAndGet(-message.getSize());
+        synchronized (waitingAsyncSendMutex) {
+            waitingAsyncSendMutex.notifyAll();
+        }
+    }
+
     protected abstract Logger getLog();
 
     public void setSlowConsumerStrategy(SlowConsumerStrategy slowConsumerStrategy) {
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.activemq.command.MessageId;
+
+/**
+ * The messages dispatched to a subscription and not yet acknowledged, in
+ * dispatch order, indexed by message id.
+ *
+ * Adding a message, and finding or removing one by id, takes constant time,
+ * so an ack of k messages costs O(k) whatever the prefetch size, and nothing
+ * is copied on dispatch. Iteration, which may start at the message with a
+ * given id, is weakly consistent: iterators never throw a
+ * ConcurrentModificationException, skip messages removed after they were
+ * created and support {@link Iterator#remove()}.
+ */
+public class DispatchedMessageList extends AbstractCollection<MessageReference> {
+
+    private final HashMap<MessageId, Entry> index = new HashMap<MessageId, Entry>();
+    private Entry head;
+    private Entry tail;
+    private volatile int size;
+    // entries not in the index as an earlier entry has the same message id
+    private int unindexed;
+
+    @Override
+    public synchronized boolean add(MessageReference reference) {
+        Entry entry = new Entry(reference);
+        if (tail == null) {
+            head = entry;
+        } else {
+            tail.next = entry;
+            entry.prev = tail;
+        }
+        tail = entry;
+        if (index.containsKey(reference.getMessageId())) {
+            unindexed++;
+        } else {
+            index.put(reference.getMessageId(), entry);
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * @return the dispatched message with the id, null if there is none
+     */
+    public synchronized MessageReference get(MessageId messageId) {
+        Entry entry = index.get(messageId);
+        return entry != null ? entry.reference : null;
+    }
+
+    @Override
+    public synchronized boolean contains(Object o) {
+        if (!(o instanceof MessageReference)) {
+            return false;
+        }
+        return find((MessageReference) o) != null;
+    }
+
+    @Override
+    public synchronized boolean remove(Object o) {
+        if (!(o instanceof MessageReference)) {
+            return false;
+        }
+        Entry entry = find((MessageReference) o);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeAll(Collection<?> c) {
+        boolean rc = false;
+        for (Object o : c) {
+            rc |= remove(o);
+        }
+        return rc;
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (Entry entry = head; entry != null; entry = entry.next) {
+            entry.removed = true;
+        }
+        head = null;
+        tail = null;
+        index.clear();
+        unindexed = 0;
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<MessageReference> iterator() {
+        synchronized (this) {
+            return new EntryIterator(head);
+        }
+    }
+
+    /**
+     * @return an iterator over the messages dispatched from the one with the
+     *         id on, or over all of them if the id is null. The iterator is
+     *         empty if no dispatched message has the id.
+     */
+    public Iterator<MessageReference> iterator(MessageId from) {
+        if (from == null) {
+            return iterator();
+        }
+        synchronized (this) {
+            return new EntryIterator(index.get(from));
+        }
+    }
+
+    private Entry find(MessageReference reference) {
+        Entry entry = index.get(reference.getMessageId());
+        if (entry == null || entry.reference == reference) {
+            return entry;
+        }
+        if (unindexed > 0) {
+            // look for the other entries with the same id
+            for (Entry e = entry.next; e != null; e = e.next) {
+                if (e.reference == reference) {
+                    return e;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void unlink(Entry entry) {
+        // the removed entry keeps its next pointer, so iterators positioned
+        // on it can move on.
+        if (entry.prev == null) {
+            head = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next == null) {
+            tail = entry.prev;
+        } else {
+            entry.next.prev = entry.prev;
+        }
+        entry.removed = true;
+        size--;
+
+        MessageId messageId = entry.reference.getMessageId();
+        if (index.get(messageId) == entry) {
+            index.remove(messageId);
+            if (unindexed > 0) {
+                for (Entry e = entry.next; e != null; e = e.next) {
+                    if (e.reference.getMessageId().equals(messageId)) {
+                        index.put(messageId, e);
+                        unindexed--;
+                        break;
+                    }
+                }
+            }
+        } else {
+            unindexed--;
+        }
+    }
+
+    private static final class Entry {
+        final MessageReference reference;
+        Entry next;
+        Entry prev;
+        boolean removed;
+
+        Entry(MessageReference reference) {
+            this.reference = reference;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<MessageReference> {
+        private Entry next;
+        private Entry last;
+
+        EntryIterator(Entry first) {
+            next = first;
+        }
+
+        public boolean hasNext() {
+            synchronized (DispatchedMessageList.this) {
+                while (next != null && next.removed) {
+                    next = next.next;
+                }
+                return next != null;
+            }
+        }
+
+        public MessageReference next() {
+            synchronized (DispatchedMessageList.this) {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = next.next;
+                return last.reference;
+            }
+        }
+
+        public void remove() {
+            synchronized (DispatchedMessageList.this) {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                if (!last.removed) {
+                    unlink(last);
+                }
+                last = null;
+            }
+        }
+    }
+}
@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -57,7 +56,7 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
     protected final Scheduler scheduler;
 
     protected PendingMessageCursor pending;
-    protected final List<MessageReference> dispatched = new CopyOnWriteArrayList<MessageReference>();
+    protected final DispatchedMessageList dispatched = new DispatchedMessageList();
     protected final AtomicInteger prefetchExtension = new AtomicInteger();
     protected boolean usePrefetchExtension = true;
     protected long enqueueCounter;
@@ -205,50 +204,44 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
                 // Acknowledge all dispatched messages up till the message id of
                 // the acknowledgment.
                 int index = 0;
-                boolean inAckRange = false;
                 List<MessageReference> removeList = new ArrayList<MessageReference>();
-                for (final MessageReference node : dispatched) {
+                for (Iterator<MessageReference> iter = dispatched.iterator(ack.getFirstMessageId()); iter.hasNext();) {
+                    final MessageReference node = iter.next();
                     MessageId messageId = node.getMessageId();
-                    if (ack.getFirstMessageId() == null
-                            || ack.getFirstMessageId().equals(messageId)) {
-                        inAckRange = true;
+                    // Don't remove the nodes until we are committed.
+                    if (!context.isInTransaction()) {
+                        dequeueCounter++;
+                        node.getRegionDestination().getDestinationStatistics().getInflight().decrement();
+                        removeList.add(node);
+                    } else {
+                        registerRemoveSync(context, node);
                     }
-                    if (inAckRange) {
-                        // Don't remove the nodes until we are committed.
-                        if (!context.isInTransaction()) {
-                            dequeueCounter++;
-                            node.getRegionDestination().getDestinationStatistics().getInflight().decrement();
-                            removeList.add(node);
-                        } else {
-                            registerRemoveSync(context, node);
-                        }
-                        index++;
-                        acknowledge(context, ack, node);
-                        if (ack.getLastMessageId().equals(messageId)) {
-                            // contract prefetch if dispatch required a pull
-                            if (getPrefetchSize() == 0) {
-                                // Protect extension update against parallel updates.
-                                while (true) {
-                                    int currentExtension = prefetchExtension.get();
-                                    int newExtension = Math.max(0, currentExtension - index);
-                                    if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
-                                        break;
-                                    }
+                    index++;
+                    acknowledge(context, ack, node);
+                    if (ack.getLastMessageId().equals(messageId)) {
+                        // contract prefetch if dispatch required a pull
+                        if (getPrefetchSize() == 0) {
+                            // Protect extension update against parallel updates.
+                            while (true) {
+                                int currentExtension = prefetchExtension.get();
+                                int newExtension = Math.max(0, currentExtension - index);
+                                if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
+                                    break;
                                 }
-                            } else if (usePrefetchExtension && context.isInTransaction()) {
-                                // extend prefetch window only if not a pulling consumer
-                                while (true) {
-                                    int currentExtension = prefetchExtension.get();
-                                    int newExtension = Math.max(currentExtension, index);
-                                    if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
-                                        break;
-                                    }
+                            }
+                        } else if (usePrefetchExtension && context.isInTransaction()) {
+                            // extend prefetch window only if not a pulling consumer
+                            while (true) {
+                                int currentExtension = prefetchExtension.get();
+                                int newExtension = Math.max(currentExtension, index);
+                                if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
+                                    break;
                                 }
                             }
-                            destination = node.getRegionDestination();
-                            callDispatchMatched = true;
-                            break;
                         }
+                        destination = node.getRegionDestination();
+                        callDispatchMatched = true;
+                        break;
                     }
                 }
                 for (final MessageReference node : removeList) {
@@ -263,31 +256,28 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
             } else if (ack.isIndividualAck()) {
                 // Message was delivered and acknowledge - but only delete the
                 // individual message
-                for (final MessageReference node : dispatched) {
-                    MessageId messageId = node.getMessageId();
-                    if (ack.getLastMessageId().equals(messageId)) {
-                        // Don't remove the nodes until we are committed - immediateAck option
-                        if (!context.isInTransaction()) {
-                            dequeueCounter++;
-                            node.getRegionDestination().getDestinationStatistics().getInflight().decrement();
-                            dispatched.remove(node);
-                        } else {
-                            registerRemoveSync(context, node);
-                        }
+                final MessageReference node = dispatched.get(ack.getLastMessageId());
+                if (node != null) {
+                    // Don't remove the nodes until we are committed - immediateAck option
+                    if (!context.isInTransaction()) {
+                        dequeueCounter++;
+                        node.getRegionDestination().getDestinationStatistics().getInflight().decrement();
+                        dispatched.remove(node);
+                    } else {
+                        registerRemoveSync(context, node);
+                    }
 
-                        // Protect extension update against parallel updates.
-                        while (true) {
-                            int currentExtension = prefetchExtension.get();
-                            int newExtension = Math.max(0, currentExtension - 1);
-                            if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
-                                break;
-                            }
+                    // Protect extension update against parallel updates.
+                    while (true) {
+                        int currentExtension = prefetchExtension.get();
+                        int newExtension = Math.max(0, currentExtension - 1);
+                        if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
+                            break;
                         }
-                        acknowledge(context, ack, node);
-                        destination = node.getRegionDestination();
-                        callDispatchMatched = true;
-                        break;
                     }
+                    acknowledge(context, ack, node);
+                    destination = node.getRegionDestination();
+                    callDispatchMatched = true;
                 }
             }else if (ack.isDeliveredAck()) {
                 // Message was delivered but not acknowledged: update pre-fetch
@@ -325,19 +315,13 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
             } else if (ack.isRedeliveredAck()) {
                 // Message was re-delivered but it was not yet considered to be
                 // a DLQ message.
-                boolean inAckRange = false;
-                for (final MessageReference node : dispatched) {
+                for (Iterator<MessageReference> iter = dispatched.iterator(ack.getFirstMessageId()); iter.hasNext();) {
+                    final MessageReference node = iter.next();
                     MessageId messageId = node.getMessageId();
-                    if (ack.getFirstMessageId() == null
-                            || ack.getFirstMessageId().equals(messageId)) {
-                        inAckRange = true;
-                    }
-                    if (inAckRange) {
-                        if (ack.getLastMessageId().equals(messageId)) {
-                            destination = node.getRegionDestination();
-                            callDispatchMatched = true;
-                            break;
-                        }
+                    if (ack.getLastMessageId().equals(messageId)) {
+                        destination = node.getRegionDestination();
+                        callDispatchMatched = true;
+                        break;
                     }
                 }
                 if (!callDispatchMatched) {
@@ -354,38 +338,32 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
                             + ack);
                 }
                 int index = 0;
-                boolean inAckRange = false;
                 List<MessageReference> removeList = new ArrayList<MessageReference>();
-                for (final MessageReference node : dispatched) {
+                for (Iterator<MessageReference> iter = dispatched.iterator(ack.getFirstMessageId()); iter.hasNext();) {
+                    final MessageReference node = iter.next();
                     MessageId messageId = node.getMessageId();
-                    if (ack.getFirstMessageId() == null
-                            || ack.getFirstMessageId().equals(messageId)) {
-                        inAckRange = true;
+                    if (ack.getPoisonCause() != null) {
+                        node.getMessage().setProperty(ActiveMQMessage.DLQ_DELIVERY_FAILURE_CAUSE_PROPERTY,
+                                ack.getPoisonCause().toString());
                     }
-                    if (inAckRange) {
-                        if (ack.getPoisonCause() != null) {
-                            node.getMessage().setProperty(ActiveMQMessage.DLQ_DELIVERY_FAILURE_CAUSE_PROPERTY,
-                                    ack.getPoisonCause().toString());
-                        }
-                        sendToDLQ(context, node);
-                        node.getRegionDestination().getDestinationStatistics()
-                                .getInflight().decrement();
-                        removeList.add(node);
-                        dequeueCounter++;
-                        index++;
-                        acknowledge(context, ack, node);
-                        if (ack.getLastMessageId().equals(messageId)) {
-                            while (true) {
-                                int currentExtension = prefetchExtension.get();
-                                int newExtension = Math.max(0, currentExtension - (index + 1));
-                                if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
-                                    break;
-                                }
+                    sendToDLQ(context, node);
+                    node.getRegionDestination().getDestinationStatistics()
+                            .getInflight().decrement();
+                    removeList.add(node);
+                    dequeueCounter++;
+                    index++;
+                    acknowledge(context, ack, node);
+                    if (ack.getLastMessageId().equals(messageId)) {
+                        while (true) {
+                            int currentExtension = prefetchExtension.get();
+                            int newExtension = Math.max(0, currentExtension - (index + 1));
+                            if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
+                                break;
                             }
-                            destination = node.getRegionDestination();
-                            callDispatchMatched = true;
-                            break;
                         }
+                        destination = node.getRegionDestination();
+                        callDispatchMatched = true;
+                        break;
                     }
                 }
                 for (final MessageReference node : removeList) {
@@ -453,23 +431,16 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
         MessageId firstAckedMsg = ack.getFirstMessageId();
         MessageId lastAckedMsg = ack.getLastMessageId();
         int checkCount = 0;
-        boolean checkFoundStart = false;
+        boolean checkFoundStart = firstAckedMsg == null || dispatched.get(firstAckedMsg) != null;
         boolean checkFoundEnd = false;
-        for (MessageReference node : dispatched) {
-
-            if (firstAckedMsg == null) {
-                checkFoundStart = true;
-            } else if (!checkFoundStart && firstAckedMsg.equals(node.getMessageId())) {
-                checkFoundStart = true;
-            }
-
-            if (checkFoundStart) {
+        if (checkFoundStart) {
+            for (Iterator<MessageReference> iter = dispatched.iterator(firstAckedMsg); iter.hasNext();) {
+                MessageReference node = iter.next();
                 checkCount++;
-            }
-
-            if (lastAckedMsg != null && lastAckedMsg.equals(node.getMessageId())) {
-                checkFoundEnd = true;
-                break;
+                if (lastAckedMsg != null && lastAckedMsg.equals(node.getMessageId())) {
+                    checkFoundEnd = true;
+                    break;
+                }
             }
         }
         if (!checkFoundStart && firstAckedMsg != null)
@@ -116,6 +116,10 @@ public class Queue extends BaseDestination implements Task, UsageListener {
     private final Map<MessageId, Runnable> messagesWaitingForSpace = new LinkedHashMap<MessageId, Runnable>();
     private boolean useConsumerPriority = true;
     private boolean strictOrderDispatch = false;
+    private boolean roundRobinCursorDispatch = false;
+    private volatile QueueConsumerCursor consumerCursor = QueueConsumerCursor.EMPTY;
+    private boolean useSelectorIndex = false;
+    private final QueueSelectorIndex selectorIndex = new QueueSelectorIndex();
     private final QueueDispatchSelector dispatchSelector;
     private boolean optimizedDispatch = false;
     private boolean iterationRunning = false;
@@ -440,6 +444,9 @@ public class Queue extends BaseDestination implements Task, UsageListener {
                 }
 
                 addToConsumerList(sub);
+                if (useSelectorIndex) {
+                    selectorIndex.add(sub);
+                }
                 if (sub.getConsumerInfo().isExclusive() || isAllConsumersExclusiveByDefault()) {
                     Subscription exclusiveConsumer = dispatchSelector.getExclusiveConsumer();
                     if (exclusiveConsumer == null) {
@@ -491,6 +498,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
             consumersLock.writeLock().lock();
             try {
                 removeFromConsumerList(sub);
+                selectorIndex.remove(sub);
                 if (sub.getConsumerInfo().isExclusive()) {
                     Subscription exclusiveConsumer = dispatchSelector.getExclusiveConsumer();
                     if (exclusiveConsumer == sub) {
@@ -600,9 +608,11 @@ public class Queue extends BaseDestination implements Task, UsageListener {
             }
             return;
         }
-        if (memoryUsage.isFull()) {
-            isFull(context, memoryUsage);
-            fastProducer(context, producerInfo);
+        if (memoryUsage.isFull() || hasWaitingAsyncSends()) {
+            if (memoryUsage.isFull()) {
+                isFull(context, memoryUsage);
+                fastProducer(context, producerInfo);
+            }
             if (isProducerFlowControl() && context.isProducerFlowControl()) {
                 if (warnOnProducerFlowControl) {
                     warnOnProducerFlowControl = false;
@@ -615,7 +625,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
                                     + " See http://activemq.apache.org/producer-flow-control.html for more info");
                 }
 
-                if (!context.isNetworkConnection() && systemUsage.isSendFailIfNoSpace()) {
+                if (!context.isNetworkConnection() && systemUsage.isSendFailIfNoSpace() && memoryUsage.isFull()) {
                     throw new ResourceAllocationException("Usage Manager Memory Limit reached. Stopping producer ("
                             + message.getProducerId() + ") to prevent flooding "
                             + getActiveMQDestination().getQualifiedName() + "."
@@ -624,8 +634,11 @@ public class Queue extends BaseDestination implements Task, UsageListener {
 
                 // We can avoid blocking due to low usage if the producer is
                 // sending
-                // a sync message or if it is using a producer window
-                if (producerInfo.getWindowSize() > 0 || message.isResponseRequired()) {
+                // a sync message or if it is using a producer window, or
+                // with async flow control
+                final boolean waitAsync = producerInfo.getWindowSize() <= 0 && !message.isResponseRequired()
+                        && waitAsync(context, message);
+                if (producerInfo.getWindowSize() > 0 || message.isResponseRequired() || waitAsync) {
                     // copy the exchange state since the context will be
                     // modified while we are waiting
                     // for space.
@@ -655,20 +668,24 @@ public class Queue extends BaseDestination implements Task, UsageListener {
                                         ProducerAck ack = new ProducerAck(producerInfo.getProducerId(), message
                                                 .getSize());
                                         context.getConnection().dispatchAsync(ack);
-                                    } else {
+                                    } else if (message.isResponseRequired()) {
                                         Response response = new Response();
                                         response.setCorrelationId(message.getCommandId());
                                         context.getConnection().dispatchAsync(response);
                                     }
 
                                 } catch (Exception e) {
-                                    if (!sendProducerAck && !context.isInRecoveryMode()) {
+                                    if (!sendProducerAck && message.isResponseRequired() && !context.isInRecoveryMode()) {
                                         ExceptionResponse response = new ExceptionResponse(e);
                                         response.setCorrelationId(message.getCommandId());
                                         context.getConnection().dispatchAsync(response);
                                     } else {
                                         LOG.debug("unexpected exception on deferred send of :" + message, e);
                                     }
+                                } finally {
+                                    if (waitAsync) {
+                                        asyncSendDone(message);
+                                    }
                                 }
                             }
                         });
@@ -972,6 +989,41 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         this.strictOrderDispatch = strictOrderDispatch;
     }
 
+    public boolean isRoundRobinCursorDispatch() {
+        return roundRobinCursorDispatch;
+    }
+
+    public void setRoundRobinCursorDispatch(boolean roundRobinCursorDispatch) {
+        consumersLock.writeLock().lock();
+        try {
+            this.roundRobinCursorDispatch = roundRobinCursorDispatch;
+            consumerCursor = roundRobinCursorDispatch ? new QueueConsumerCursor(consumers, useConsumerPriority)
+                    : QueueConsumerCursor.EMPTY;
+        } finally {
+            consumersLock.writeLock().unlock();
+        }
+    }
+
+    public boolean isUseSelectorIndex() {
+        return useSelectorIndex;
+    }
+
+    public void setUseSelectorIndex(boolean useSelectorIndex) {
+        consumersLock.writeLock().lock();
+        try {
+            this.useSelectorIndex = useSelectorIndex;
+            for (Subscription sub : consumers) {
+                if (useSelectorIndex) {
+                    selectorIndex.add(sub);
+                } else {
+                    selectorIndex.remove(sub);
+                }
+            }
+        } finally {
+            consumersLock.writeLock().unlock();
+        }
+    }
+
     public boolean isOptimizedDispatch() {
         return optimizedDispatch;
     }
@@ -1859,6 +1911,9 @@ public class Queue extends BaseDestination implements Task, UsageListener {
      *         were not full.
      */
     private PendingList doActualDispatch(PendingList list) throws Exception {
+        if (roundRobinCursorDispatch) {
+            return doCursorDispatch(list);
+        }
         List<Subscription> consumers;
         consumersLock.writeLock().lock();
 
@@ -1880,10 +1935,14 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         }
 
         Set<Subscription> fullConsumers = new HashSet<Subscription>(this.consumers.size());
+        QueueSelectorIndex.Candidates candidates = useSelectorIndex ? selectorIndex.newCandidates() : null;
 
         for (Iterator<MessageReference> iterator = list.iterator(); iterator.hasNext();) {
 
             MessageReference node = (MessageReference) iterator.next();
+            if (candidates != null) {
+                candidates.reset(node);
+            }
             Subscription target = null;
             int interestCount = 0;
             for (Subscription s : consumers) {
@@ -1892,7 +1951,8 @@ public class Queue extends BaseDestination implements Task, UsageListener {
                     continue;
                 }
                 if (!fullConsumers.contains(s) && !s.isFull()) {
-                    if (dispatchSelector.canSelect(s, node) && assignMessageGroup(s, (QueueMessageReference)node)) {
+                    if ((candidates == null || candidates.contains(s)) && dispatchSelector.canSelect(s, node)
+                            && assignMessageGroup(s, (QueueMessageReference)node)) {
                         // Dispatch it.
                         s.add(node);
                         target = s;
@@ -1938,6 +1998,85 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         return rc;
     }
 
+    /**
+     * Variant of {@link #doActualDispatch(PendingList)} that works against the
+     * current {@link QueueConsumerCursor} snapshot, so no consumers lock is
+     * taken and the consumer list is neither copied nor reordered per message.
+     */
+    private PendingList doCursorDispatch(PendingList list) throws Exception {
+        QueueConsumerCursor cursor = consumerCursor;
+        if (cursor.isEmpty() || isSlave()) {
+            // slave dispatch happens in processDispatchNotification
+            return list;
+        }
+
+        PendingList rc;
+        if(isPrioritizedMessages()) {
+            rc = new PrioritizedPendingList();
+        } else {
+            rc = new OrderedPendingList();
+        }
+
+        final int size = cursor.size();
+        boolean[] fullConsumers = new boolean[size];
+        QueueSelectorIndex.Candidates candidates = useSelectorIndex ? selectorIndex.newCandidates() : null;
+
+        for (Iterator<MessageReference> iterator = list.iterator(); iterator.hasNext();) {
+
+            MessageReference node = iterator.next();
+            if (candidates != null) {
+                candidates.reset(node);
+            }
+            Subscription target = null;
+            int targetSlot = -1;
+            int interestCount = 0;
+            for (int position = 0; position < size; position++) {
+                int slot = cursor.slot(position);
+                Subscription s = cursor.get(slot);
+                if (s instanceof QueueBrowserSubscription) {
+                    interestCount++;
+                    continue;
+                }
+                if (!fullConsumers[slot] && !s.isFull()) {
+                    if ((candidates == null || candidates.contains(s)) && dispatchSelector.canSelect(s, node)
+                            && assignMessageGroup(s, (QueueMessageReference)node)) {
+                        // Dispatch it.
+                        s.add(node);
+                        target = s;
+                        targetSlot = slot;
+                        break;
+                    }
+                } else {
+                    // no further dispatch of list to a full consumer to
+                    // avoid out of order message receipt
+                    fullConsumers[slot] = true;
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Sub full " + s);
+                    }
+                }
+                // make sure it gets dispatched again
+                if (!node.isDropped() && !((QueueMessageReference) node).isAcked() &&
+                        (!node.isDropped() || s.getConsumerInfo().isBrowser())) {
+                    interestCount++;
+                }
+            }
+
+            if (target == null && interestCount > 0) {
+                // This means all subs were full
+                rc.addMessageLast((QueueMessageReference) node);
+            }
+
+            // If it got dispatched, move the cursor past the target to get
+            // round robin distribution.
+            if (target != null && !strictOrderDispatch && size > 1
+                    && !dispatchSelector.isExclusiveConsumer(target)) {
+                cursor.dispatched(targetSlot);
+            }
+        }
+
+        return rc;
+    }
+
     protected boolean assignMessageGroup(Subscription subscription, QueueMessageReference node) throws Exception {
         boolean result = true;
         // Keep message groups together.
@@ -2002,10 +2141,17 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         } else {
             consumers.add(sub);
         }
+        if (roundRobinCursorDispatch) {
+            consumerCursor = new QueueConsumerCursor(consumers, useConsumerPriority);
+        }
     }
 
     private boolean removeFromConsumerList(Subscription sub) {
-        return consumers.remove(sub);
+        boolean removed = consumers.remove(sub);
+        if (removed && roundRobinCursorDispatch) {
+            consumerCursor = new QueueConsumerCursor(consumers, useConsumerPriority);
+        }
+        return removed;
     }
 
     private int getConsumerMessageCountBeforeFull() throws Exception {
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import java.util.List;
+
+/**
+ * An immutable snapshot of the consumers of a {@link Queue}, in priority
+ * order, with a rotating start position for each band of equal priority
+ * consumers.
+ *
+ * Round robin distribution is achieved by moving the start position of a
+ * band past the consumer that was last dispatched to, rather than by
+ * reordering and copying the consumer list for every message. A new cursor
+ * is created whenever a consumer is added or removed; the rotation state is
+ * only ever advanced by the (single) dispatching thread.
+ */
+public class QueueConsumerCursor {
+
+    public static final QueueConsumerCursor EMPTY = new QueueConsumerCursor(new Subscription[0], false);
+
+    private final Subscription[] consumers;
+    // band index of each consumer slot
+    private final int[] band;
+    // first slot of each band, with a trailing entry holding consumers.length
+    private final int[] bandStart;
+    // rotation of each band, relative to its first slot
+    private final int[] bandOffset;
+
+    public QueueConsumerCursor(List<Subscription> consumers, boolean useConsumerPriority) {
+        this(consumers.toArray(new Subscription[consumers.size()]), useConsumerPriority);
+    }
+
+    private QueueConsumerCursor(Subscription[] consumers, boolean useConsumerPriority) {
+        this.consumers = consumers;
+        this.band = new int[consumers.length];
+        int bands = 0;
+        int[] starts = new int[consumers.length + 1];
+        for (int i = 0; i < consumers.length; i++) {
+            if (i == 0 || (useConsumerPriority && priority(consumers[i]) != priority(consumers[i - 1]))) {
+                starts[bands++] = i;
+            }
+            band[i] = bands - 1;
+        }
+        this.bandStart = new int[bands + 1];
+        System.arraycopy(starts, 0, bandStart, 0, bands);
+        this.bandStart[bands] = consumers.length;
+        this.bandOffset = new int[bands];
+    }
+
+    public int size() {
+        return consumers.length;
+    }
+
+    public boolean isEmpty() {
+        return consumers.length == 0;
+    }
+
+    /**
+     * Maps a position in dispatch order to the slot of the consumer that
+     * should be tried at that position.
+     *
+     * @param position 0 based position in dispatch order
+     * @return the slot of the consumer, a stable index for this snapshot
+     */
+    public int slot(int position) {
+        int b = band[position];
+        int start = bandStart[b];
+        int length = bandStart[b + 1] - start;
+        return start + ((position - start + bandOffset[b]) % length);
+    }
+
+    public Subscription get(int slot) {
+        return consumers[slot];
+    }
+
+    /**
+     * Rotates the band of the given slot so the consumer in the following slot
+     * is tried first next time.
+     */
+    public void dispatched(int slot) {
+        int b = band[slot];
+        int start = bandStart[b];
+        bandOffset[b] = (slot - start + 1) % (bandStart[b + 1] - start);
+    }
+
+    private static int priority(Subscription sub) {
+        return sub.getConsumerInfo().getPriority();
+    }
+}
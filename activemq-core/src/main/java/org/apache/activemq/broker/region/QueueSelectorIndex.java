@@ -0,0 +1,294 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.Message;
+import org.apache.activemq.filter.BooleanExpression;
+import org.apache.activemq.filter.ComparisonExpression;
+import org.apache.activemq.filter.ConstantExpression;
+import org.apache.activemq.filter.Expression;
+import org.apache.activemq.filter.LogicExpression;
+import org.apache.activemq.filter.PropertyExpression;
+import org.apache.activemq.filter.UnaryExpression;
+import org.apache.activemq.selector.SelectorCompiler;
+
+/**
+ * Indexes the queue subscriptions whose selector can only match when a
+ * property has one of a set of string values, such as <code>region = 'x'</code>
+ * or <code>region IN ('x', 'y')</code>, possibly ANDed with other conditions.
+ *
+ * Besides the entry of each indexed subscription the index keeps, for every
+ * indexed property, the subscriptions by the values they accept. Dispatch
+ * resets its {@link Candidates} to each message, which looks the indexed
+ * properties of the message up once and takes the subscriptions accepting
+ * their values straight from the index. A subscription whose selector can't
+ * match is then ruled out by a hash lookup instead of an evaluation of its
+ * selector. Subscriptions with selectors that are not indexable are always
+ * candidates, they are evaluated as before.
+ */
+public class QueueSelectorIndex {
+
+    // the value of a property that could not be looked up
+    private static final Object UNKNOWN = new Object();
+    // matches of a property value that accepts all or none of its subscriptions
+    private static final Set<Subscription> ALL = Collections.unmodifiableSet(new HashSet<Subscription>());
+    private static final Set<Subscription> NONE = Collections.emptySet();
+
+    private final ConcurrentHashMap<Subscription, Entry> entries = new ConcurrentHashMap<Subscription, Entry>();
+    private final ConcurrentHashMap<String, PropertyIndex> properties = new ConcurrentHashMap<String, PropertyIndex>();
+
+    /**
+     * Indexes the subscription if its selector is indexable.
+     */
+    public synchronized void add(Subscription sub) {
+        if (sub instanceof AbstractSubscription && !sub.isBrowser()) {
+            BooleanExpression selector = ((AbstractSubscription) sub).getSelectorExpression();
+            Entry entry = createEntry(selector, selector);
+            if (entry != null) {
+                Entry previous = entries.remove(sub);
+                if (previous != null) {
+                    unindex(sub, previous);
+                }
+                // index the values before the entry is visible to dispatch
+                PropertyIndex index = properties.get(entry.property.getName());
+                if (index == null) {
+                    index = new PropertyIndex(entry.property);
+                    properties.put(entry.property.getName(), index);
+                }
+                for (String value : entry.values) {
+                    Set<Subscription> subs = index.subscriptions.get(value);
+                    if (subs == null) {
+                        subs = Collections.newSetFromMap(new ConcurrentHashMap<Subscription, Boolean>());
+                        index.subscriptions.put(value, subs);
+                    }
+                    subs.add(sub);
+                }
+                index.count++;
+                entries.put(sub, entry);
+            }
+        }
+    }
+
+    public synchronized void remove(Subscription sub) {
+        Entry entry = entries.remove(sub);
+        if (entry != null) {
+            unindex(sub, entry);
+        }
+    }
+
+    private void unindex(Subscription sub, Entry entry) {
+        PropertyIndex index = properties.get(entry.property.getName());
+        for (String value : entry.values) {
+            Set<Subscription> subs = index.subscriptions.get(value);
+            if (subs != null) {
+                subs.remove(sub);
+                if (subs.isEmpty()) {
+                    index.subscriptions.remove(value);
+                }
+            }
+        }
+        if (--index.count == 0) {
+            properties.remove(entry.property.getName());
+        }
+    }
+
+    public boolean isIndexed(Subscription sub) {
+        return entries.containsKey(sub);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return candidates to be {@link Candidates#reset(MessageReference) reset}
+     *         to each message of a dispatch pass; not thread safe
+     */
+    public Candidates newCandidates() {
+        return new Candidates();
+    }
+
+    /**
+     * The subscriptions a message could be dispatched to.
+     */
+    public final class Candidates {
+
+        // per indexed property name: the subscriptions accepting the value of
+        // the message, or ALL/NONE when the value decides nothing/everything
+        private final Map<String, Set<Subscription>> matches = new HashMap<String, Set<Subscription>>();
+        private boolean empty = true;
+
+        private Candidates() {
+        }
+
+        /**
+         * Looks the indexed properties of the message up.
+         */
+        public void reset(MessageReference node) {
+            matches.clear();
+            empty = entries.isEmpty();
+            if (empty) {
+                return;
+            }
+            Message message = node.getMessage();
+            for (PropertyIndex index : properties.values()) {
+                Set<Subscription> match;
+                Object value = value(index.property, node, message);
+                if (value == null) {
+                    // neither = nor IN matches a missing property
+                    match = NONE;
+                } else if (value.getClass() != String.class) {
+                    // = converts other types, leave those to the selector
+                    match = ALL;
+                } else {
+                    match = index.subscriptions.get(value);
+                    if (match == null) {
+                        match = NONE;
+                    }
+                }
+                matches.put(index.property.getName(), match);
+            }
+        }
+
+        /**
+         * @return false if the selector of the subscription can't match the
+         *         message, true if it has to be evaluated
+         */
+        public boolean contains(Subscription sub) {
+            if (empty) {
+                return true;
+            }
+            Entry entry = entries.get(sub);
+            if (entry == null || ((AbstractSubscription) sub).getSelectorExpression() != entry.selector) {
+                // not indexed, or the selector was changed since.
+                return true;
+            }
+            Set<Subscription> match = matches.get(entry.property.getName());
+            if (match == null || match == ALL) {
+                // property indexed after the reset, or its value can't be told
+                return true;
+            }
+            return match.contains(sub);
+        }
+    }
+
+    private static Object value(PropertyExpression property, MessageReference node, Message message) {
+        if (node.isDropped()) {
+            return null;
+        } else if (message == null) {
+            return UNKNOWN;
+        }
+        try {
+            return property.evaluate(message);
+        } catch (JMSException e) {
+            // let the selector deal with it
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * @return the entry of an indexable selector, null otherwise
+     */
+    static Entry createEntry(BooleanExpression selector, Expression expression) {
+        if (expression instanceof SelectorCompiler.CompiledExpression) {
+            expression = ((SelectorCompiler.CompiledExpression) expression).getExpression();
+        }
+        if (expression instanceof ComparisonExpression) {
+            ComparisonExpression comparison = (ComparisonExpression) expression;
+            if ("=".equals(comparison.getExpressionSymbol())) {
+                Entry entry = createEntry(selector, comparison.getLeft(), comparison.getRight());
+                if (entry == null) {
+                    entry = createEntry(selector, comparison.getRight(), comparison.getLeft());
+                }
+                return entry;
+            }
+        } else if (expression instanceof UnaryExpression.InExpression) {
+            UnaryExpression.InExpression in = (UnaryExpression.InExpression) expression;
+            if (!in.isNot()) {
+                Set<String> values = new HashSet<String>();
+                if (in.getInList() != null) {
+                    for (Object value : in.getInList()) {
+                        if (!(value instanceof String)) {
+                            return null;
+                        }
+                        values.add((String) value);
+                    }
+                }
+                return new Entry(selector, in.getProperty(), values);
+            }
+        } else if (expression instanceof LogicExpression) {
+            LogicExpression logic = (LogicExpression) expression;
+            Entry left = createEntry(selector, logic.getLeft());
+            if ("AND".equals(logic.getExpressionSymbol())) {
+                // it's enough for one side to rule the message out
+                return left != null ? left : createEntry(selector, logic.getRight());
+            } else if (left != null && "OR".equals(logic.getExpressionSymbol())) {
+                Entry right = createEntry(selector, logic.getRight());
+                if (right != null && left.property.getName().equals(right.property.getName())) {
+                    Set<String> values = new HashSet<String>(left.values);
+                    values.addAll(right.values);
+                    return new Entry(selector, left.property, values);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Entry createEntry(BooleanExpression selector, Expression property, Expression value) {
+        if (property instanceof PropertyExpression && value instanceof ConstantExpression) {
+            Object constant = ((ConstantExpression) value).getValue();
+            if (constant instanceof String) {
+                Set<String> values = new HashSet<String>();
+                values.add((String) constant);
+                return new Entry(selector, (PropertyExpression) property, values);
+            }
+        }
+        return null;
+    }
+
+    private static final class PropertyIndex {
+        final PropertyExpression property;
+        final ConcurrentHashMap<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<String, Set<Subscription>>();
+        // indexed subscriptions on the property, guarded by the index
+        int count;
+
+        PropertyIndex(PropertyExpression property) {
+            this.property = property;
+        }
+    }
+
+    static final class Entry {
+        final BooleanExpression selector;
+        final PropertyExpression property;
+        final Set<String> values;
+
+        Entry(BooleanExpression selector, PropertyExpression property, Set<String> values) {
+            this.selector = selector;
+            this.property = property;
+            this.values = values;
+        }
+    }
+}
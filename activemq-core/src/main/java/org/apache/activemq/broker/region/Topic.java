@@ -301,9 +301,11 @@ public class Topic extends BaseDestination implements Task {
             return;
         }
 
-        if (memoryUsage.isFull()) {
-            isFull(context, memoryUsage);
-            fastProducer(context, producerInfo);
+        if (memoryUsage.isFull() || hasWaitingAsyncSends()) {
+            if (memoryUsage.isFull()) {
+                isFull(context, memoryUsage);
+                fastProducer(context, producerInfo);
+            }
 
             if (isProducerFlowControl() && context.isProducerFlowControl()) {
 
@@ -315,7 +317,7 @@ public class Topic extends BaseDestination implements Task {
                                     + " See http://activemq.apache.org/producer-flow-control.html for more info");
                 }
 
-                if (!context.isNetworkConnection() && systemUsage.isSendFailIfNoSpace()) {
+                if (!context.isNetworkConnection() && systemUsage.isSendFailIfNoSpace() && memoryUsage.isFull()) {
                     throw new javax.jms.ResourceAllocationException("Usage Manager memory limit ("
                             + memoryUsage.getLimit() + ") reached. Rejecting send for producer (" + message.getProducerId()
                             + ") to prevent flooding " + getActiveMQDestination().getQualifiedName() + "."
@@ -325,8 +327,10 @@ public class Topic extends BaseDestination implements Task {
                 // We can avoid blocking due to low usage if the producer is
                 // sending
                 // a sync message or
-                // if it is using a producer window
-                if (producerInfo.getWindowSize() > 0 || message.isResponseRequired()) {
+                // if it is using a producer window, or with async flow control
+                final boolean waitAsync = producerInfo.getWindowSize() <= 0 && !message.isResponseRequired()
+                        && waitAsync(context, message);
+                if (producerInfo.getWindowSize() > 0 || message.isResponseRequired() || waitAsync) {
                     synchronized (messagesWaitingForSpace) {
                         messagesWaitingForSpace.add(new Runnable() {
                             public void run() {
@@ -345,17 +349,23 @@ public class Topic extends BaseDestination implements Task {
                                         ProducerAck ack = new ProducerAck(producerInfo.getProducerId(), message
                                                 .getSize());
                                         context.getConnection().dispatchAsync(ack);
-                                    } else {
+                                    } else if (message.isResponseRequired()) {
                                         Response response = new Response();
                                         response.setCorrelationId(message.getCommandId());
                                         context.getConnection().dispatchAsync(response);
                                     }
 
                                 } catch (Exception e) {
-                                    if (!sendProducerAck && !context.isInRecoveryMode()) {
+                                    if (!sendProducerAck && message.isResponseRequired() && !context.isInRecoveryMode()) {
                                         ExceptionResponse response = new ExceptionResponse(e);
                                         response.setCorrelationId(message.getCommandId());
                                         context.getConnection().dispatchAsync(response);
+                                    } else if (waitAsync) {
+                                        LOG.debug("unexpected exception on deferred send of :" + message, e);
+                                    }
+                                } finally {
+                                    if (waitAsync) {
+                                        asyncSendDone(message);
                                     }
                                 }
 
@@ -30,9 +30,9 @@ import org.apache.activemq.broker.region.QueueMessageReference;
 import org.apache.activemq.command.Message;
 import org.apache.activemq.filter.NonCachedMessageEvaluationContext;
 import org.apache.activemq.openwire.OpenWireFormat;
-import org.apache.activemq.store.kahadb.plist.PList;
 import org.apache.activemq.store.kahadb.plist.PListEntry;
 import org.apache.activemq.store.kahadb.plist.PListStore;
+import org.apache.activemq.store.kahadb.plist.SegmentedPList;
 import org.apache.activemq.usage.SystemUsage;
 import org.apache.activemq.usage.Usage;
 import org.apache.activemq.usage.UsageListener;
@@ -54,7 +54,7 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
     private final PListStore store;
     private final String name;
     private PendingList memoryList;
-    private PList diskList;
+    private SegmentedPList diskList;
     private Iterator<MessageReference> iter;
     private Destination regionDestination;
     private boolean iterating;
@@ -139,9 +139,6 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
     @Override
     public synchronized void release() {
         iterating = false;
-        if (iter instanceof DiskIterator) {
-           ((DiskIterator)iter).release();
-        };
         if (flushRequired) {
             flushRequired = false;
             if (!hasSpace()) {
@@ -163,7 +160,7 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
 
     private void destroyDiskList() throws Exception {
         if (diskList != null) {
-            store.removePList(name);
+            store.removeSegmentedPList(name);
             diskList = null;
         }
     }
@@ -358,7 +355,7 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         memoryList.clear();
         if (!isDiskListEmpty()) {
             try {
-                getDiskList().destroy();
+                getDiskList().clear();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -454,10 +451,10 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         return diskList == null || diskList.isEmpty();
     }
 
-    protected PList getDiskList() {
+    protected SegmentedPList getDiskList() {
         if (diskList == null) {
             try {
-                diskList = store.getPList(name);
+                diskList = store.getSegmentedPList(name);
             } catch (Exception e) {
                 LOG.error("Caught an IO Exception getting the DiskList " + name, e);
                 throw new RuntimeException(e);
@@ -490,13 +487,9 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
     }
 
     final class DiskIterator implements Iterator<MessageReference> {
-        private final PList.PListIterator iterator;
+        private final Iterator<PListEntry> iterator;
         DiskIterator() {
-            try {
-                iterator = getDiskList().iterator();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+            iterator = getDiskList().iterator();
         }
 
         public boolean hasNext() {
@@ -516,9 +509,5 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         public void remove() {
             iterator.remove();
         }
-
-        public void release() {
-            iterator.release();
-        }
     }
 }
@@ -61,6 +61,7 @@ public class PolicyEntry extends DestinationMapEntry {
     private int maxQueueAuditDepth=BaseDestination.MAX_AUDIT_DEPTH;
     private boolean enableAudit=true;
     private boolean producerFlowControl = true;
+    private boolean asyncFlowControl = false;
     private boolean alwaysRetroactive = false;
     private long blockedProducerWarningInterval = Destination.DEFAULT_BLOCKED_PRODUCER_WARNING_INTERVAL;
     private boolean optimizedDispatch=false;
@@ -70,6 +71,8 @@ public class PolicyEntry extends DestinationMapEntry {
     private long minimumMessageSize=1024;
     private boolean useConsumerPriority=true;
     private boolean strictOrderDispatch=false;
+    private boolean roundRobinCursorDispatch=false;
+    private boolean useSelectorIndex=false;
     private boolean lazyDispatch=false;
     private int timeBeforeDispatchStarts = 0;
     private int consumersBeforeDispatchStarts = 0;
@@ -120,6 +123,8 @@ public class PolicyEntry extends DestinationMapEntry {
         
         queue.setUseConsumerPriority(isUseConsumerPriority());
         queue.setStrictOrderDispatch(isStrictOrderDispatch());
+        queue.setRoundRobinCursorDispatch(isRoundRobinCursorDispatch());
+        queue.setUseSelectorIndex(isUseSelectorIndex());
         queue.setOptimizedDispatch(isOptimizedDispatch());
         queue.setLazyDispatch(isLazyDispatch());
         queue.setTimeBeforeDispatchStarts(getTimeBeforeDispatchStarts());
@@ -146,6 +151,7 @@ public class PolicyEntry extends DestinationMapEntry {
     
     public void baseConfiguration(Broker broker,BaseDestination destination) {
         destination.setProducerFlowControl(isProducerFlowControl());
+        destination.setAsyncFlowControl(isAsyncFlowControl());
         destination.setAlwaysRetroactive(isAlwaysRetroactive());
         destination.setBlockedProducerWarningInterval(getBlockedProducerWarningInterval());
         destination.setEnableAudit(isEnableAudit());
@@ -421,6 +427,24 @@ public class PolicyEntry extends DestinationMapEntry {
         this.producerFlowControl = producerFlowControl;
     }
 
+    /**
+     * @return true if blocked async sends wait for space as continuations
+     */
+    public boolean isAsyncFlowControl() {
+        return asyncFlowControl;
+    }
+
+    /**
+     * @param asyncFlowControl
+     *            when producer flow control blocks an async send from a
+     *            producer without a producer window, queue the send to be
+     *            resumed when memory usage drops instead of blocking the
+     *            transport thread of the connection
+     */
+    public void setAsyncFlowControl(boolean asyncFlowControl) {
+        this.asyncFlowControl = asyncFlowControl;
+    }
+
     /**
      * @return true if topic is always retroactive
      */
@@ -563,6 +587,44 @@ public class PolicyEntry extends DestinationMapEntry {
         this.strictOrderDispatch = strictOrderDispatch;
     }
 
+    /**
+     * @return true if queue consumers are selected with a rotating cursor over
+     *         an immutable consumer snapshot rather than by reordering the
+     *         consumer list on every dispatch
+     */
+    public boolean isRoundRobinCursorDispatch() {
+        return this.roundRobinCursorDispatch;
+    }
+
+    /**
+     * @param roundRobinCursorDispatch
+     *            select queue consumers with a rotating cursor over an
+     *            immutable consumer snapshot, avoiding the consumers write lock
+     *            and a copy of the consumer list for every dispatched message
+     */
+    public void setRoundRobinCursorDispatch(boolean roundRobinCursorDispatch) {
+        this.roundRobinCursorDispatch = roundRobinCursorDispatch;
+    }
+
+    /**
+     * @return true if queue consumers with simple property equality or IN
+     *         selectors are indexed by the selected values
+     */
+    public boolean isUseSelectorIndex() {
+        return this.useSelectorIndex;
+    }
+
+    /**
+     * @param useSelectorIndex
+     *            index queue consumers whose selectors test a property for
+     *            equality with, or membership of a list of, string literals,
+     *            so dispatch can rule them out for a message without
+     *            evaluating their selectors
+     */
+    public void setUseSelectorIndex(boolean useSelectorIndex) {
+        this.useSelectorIndex = useSelectorIndex;
+    }
+
     public boolean isLazyDispatch() {
         return lazyDispatch;
     }
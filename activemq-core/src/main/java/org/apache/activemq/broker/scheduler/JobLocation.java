@@ -45,6 +45,17 @@ class JobLocation {
     public JobLocation() {
         this(new Location());
     }
+
+    JobLocation(JobLocation job) {
+        this(new Location(job.getLocation()));
+        this.jobId = job.getJobId();
+        this.repeat = job.getRepeat();
+        this.startTime = job.getStartTime();
+        this.delay = job.getDelay();
+        this.nextTime = job.getNextTime();
+        this.period = job.getPeriod();
+        this.cronEntry = job.getCronEntry();
+    }
    
     public void readExternal(DataInput in) throws IOException {
         this.jobId = in.readUTF();
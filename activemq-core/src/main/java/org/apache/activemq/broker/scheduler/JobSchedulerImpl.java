@@ -20,14 +20,19 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.jms.MessageFormatException;
 
+import org.apache.activemq.util.IOExceptionSupport;
 import org.apache.activemq.util.IdGenerator;
 import org.apache.activemq.util.ServiceStopper;
 import org.apache.activemq.util.ServiceSupport;
@@ -40,8 +45,24 @@ import org.apache.kahadb.util.ByteSequence;
 import org.apache.kahadb.util.LongMarshaller;
 import org.apache.kahadb.util.VariableMarshaller;
 
+/**
+ * A job scheduler that keeps its jobs in a {@link BTreeIndex} of the lists of
+ * jobs due at each time.
+ *
+ * The jobs due within the next {@link #HORIZON} are also held in a
+ * {@link TimingWheel}, so the scheduler thread fires jobs without reading the
+ * index, and loads the index a horizon at a time. Index updates are queued and
+ * applied in batches, each in a single transaction, by whichever thread gets
+ * the index first, so concurrent producers share index writes and the list of
+ * a time is written once per batch rather than once per job.
+ */
 class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler {
     private static final Logger LOG = LoggerFactory.getLogger(JobSchedulerImpl.class);
+    static final long HORIZON = 60 * 1000;
+    static final int MAX_LOADED_JOBS = 100000;
+    static final int MAX_BATCH_SIZE = 1000;
+    private static final long TICK = 10;
+    private static final int WHEEL_SIZE = 256;
     final JobSchedulerStore store;
     private final AtomicBoolean running = new AtomicBoolean();
     private String name;
@@ -50,6 +71,12 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
     private final List<JobListener> jobListeners = new CopyOnWriteArrayList<JobListener>();
     private static final IdGenerator ID_GENERATOR = new IdGenerator();
     private final ScheduleTime scheduleTime = new ScheduleTime();
+    private final ConcurrentLinkedQueue<IndexUpdate> pendingUpdates = new ConcurrentLinkedQueue<IndexUpdate>();
+    // guards the index, and keeps the wheel in step with it
+    private final Object indexMutex = new Object();
+    private final TimingWheel wheel = new TimingWheel(TICK, WHEEL_SIZE, System.currentTimeMillis());
+    // the wheel holds all the jobs of the index due before this time
+    private volatile long loadedUntil;
 
     JobSchedulerImpl(JobSchedulerStore store) {
 
@@ -88,49 +115,70 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         this.jobListeners.remove(l);
     }
 
-    public synchronized void schedule(final String jobId, final ByteSequence payload, final long delay) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                schedule(tx, jobId, payload, "", 0, delay, 0);
-            }
-        });
+    public void schedule(final String jobId, final ByteSequence payload, final long delay) throws IOException {
+        schedule(jobId, payload, "", 0, delay, 0);
     }
 
-    public synchronized void schedule(final String jobId, final ByteSequence payload, final String cronEntry) throws Exception {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                schedule(tx, jobId, payload, cronEntry, 0, 0, 0);
-            }
-        });
-
+    public void schedule(final String jobId, final ByteSequence payload, final String cronEntry) throws Exception {
+        schedule(jobId, payload, cronEntry, 0, 0, 0);
     }
 
-    public synchronized void schedule(final String jobId, final ByteSequence payload, final String cronEntry, final long delay,
+    public void schedule(final String jobId, final ByteSequence payload, final String cronEntry, final long delay,
             final long period, final int repeat) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                schedule(tx, jobId, payload, cronEntry, delay, period, repeat);
+        long startTime = System.currentTimeMillis();
+        // round startTime - so we can schedule more jobs
+        // at the same time
+        startTime = (startTime / 1000) * 1000;
+        long time = 0;
+        if (cronEntry != null && cronEntry.length() > 0) {
+            try {
+                time = CronParser.getNextScheduledTime(cronEntry, startTime);
+            } catch (MessageFormatException e) {
+                throw new IOException(e.getMessage());
             }
-        });
+        }
+
+        if (time == 0) {
+            // start time not set by CRON - so it it to the current time
+            time = startTime;
+        }
+        if (delay > 0) {
+            time += delay;
+        } else {
+            time += period;
+        }
 
+        final long nextExecutionTime = time;
+        final long jobStartTime = startTime;
+        update(new IndexUpdate() {
+            void apply(IndexBatch batch) throws IOException {
+                // the payload is written with the index update, so the
+                // journal file can't be removed before the job references it.
+                Location location = store.write(payload, false);
+                JobLocation jobLocation = new JobLocation(location);
+                batch.incrementJournalCount(location);
+                jobLocation.setJobId(jobId);
+                jobLocation.setStartTime(jobStartTime);
+                jobLocation.setCronEntry(cronEntry);
+                jobLocation.setDelay(delay);
+                jobLocation.setPeriod(period);
+                jobLocation.setRepeat(repeat);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Scheduling " + jobLocation);
+                }
+                storeJob(batch, jobLocation, nextExecutionTime);
+            }
+        });
     }
 
     /*
      * (non-Javadoc)
      * @see org.apache.activemq.beanstalk.JobScheduler#remove(long)
      */
-    public synchronized void remove(final long time) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                remove(tx, time);
-            }
-        });
-    }
-
-    synchronized void removeFromIndex(final long time, final String jobId) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                removeFromIndex(tx, time, jobId);
+    public void remove(final long time) throws IOException {
+        update(new IndexUpdate() {
+            void apply(IndexBatch batch) throws IOException {
+                remove(batch, time);
             }
         });
     }
@@ -140,10 +188,10 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
      * @see org.apache.activemq.beanstalk.JobScheduler#remove(long,
      * java.lang.String)
      */
-    public synchronized void remove(final long time, final String jobId) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                remove(tx, time, jobId);
+    public void remove(final long time, final String jobId) throws IOException {
+        update(new IndexUpdate() {
+            void apply(IndexBatch batch) throws IOException {
+                remove(batch, time, jobId);
             }
         });
     }
@@ -152,214 +200,252 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
      * (non-Javadoc)
      * @see org.apache.activemq.beanstalk.JobScheduler#remove(java.lang.String)
      */
-    public synchronized void remove(final String jobId) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                remove(tx, jobId);
+    public void remove(final String jobId) throws IOException {
+        update(new IndexUpdate() {
+            void apply(IndexBatch batch) throws IOException {
+                remove(batch, jobId);
             }
         });
     }
 
-    public synchronized long getNextScheduleTime() throws IOException {
-        Map.Entry<Long, List<JobLocation>> first = this.index.getFirst(this.store.getPageFile().tx());
-        return first != null ? first.getKey() : -1l;
+    public long getNextScheduleTime() throws IOException {
+        synchronized (this.indexMutex) {
+            applyPendingUpdates();
+            Map.Entry<Long, List<JobLocation>> first = this.index.getFirst(this.store.getPageFile().tx());
+            return first != null ? first.getKey() : -1l;
+        }
     }
 
     /*
      * (non-Javadoc)
      * @see org.apache.activemq.beanstalk.JobScheduler#getNextScheduleJobs()
      */
-    public synchronized List<Job> getNextScheduleJobs() throws IOException {
+    public List<Job> getNextScheduleJobs() throws IOException {
         final List<Job> result = new ArrayList<Job>();
-
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                Map.Entry<Long, List<JobLocation>> first = index.getFirst(store.getPageFile().tx());
-                if (first != null) {
-                    for (JobLocation jl : first.getValue()) {
-                        ByteSequence bs = getPayload(jl.getLocation());
-                        Job job = new JobImpl(jl, bs);
-                        result.add(job);
+        synchronized (this.indexMutex) {
+            applyPendingUpdates();
+            this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
+                public void execute(Transaction tx) throws IOException {
+                    Map.Entry<Long, List<JobLocation>> first = index.getFirst(store.getPageFile().tx());
+                    if (first != null) {
+                        for (JobLocation jl : first.getValue()) {
+                            ByteSequence bs = getPayload(jl.getLocation());
+                            Job job = new JobImpl(jl, bs);
+                            result.add(job);
+                        }
                     }
                 }
-            }
-        });
+            });
+        }
         return result;
     }
 
-    public synchronized List<Job> getAllJobs() throws IOException {
+    public List<Job> getAllJobs() throws IOException {
         final List<Job> result = new ArrayList<Job>();
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                Iterator<Map.Entry<Long, List<JobLocation>>> iter = index.iterator(store.getPageFile().tx());
-                while (iter.hasNext()) {
-                    Map.Entry<Long, List<JobLocation>> next = iter.next();
-                    if (next != null) {
-                        for (JobLocation jl : next.getValue()) {
-                            ByteSequence bs = getPayload(jl.getLocation());
-                            Job job = new JobImpl(jl, bs);
-                            result.add(job);
+        synchronized (this.indexMutex) {
+            applyPendingUpdates();
+            this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
+                public void execute(Transaction tx) throws IOException {
+                    Iterator<Map.Entry<Long, List<JobLocation>>> iter = index.iterator(store.getPageFile().tx());
+                    while (iter.hasNext()) {
+                        Map.Entry<Long, List<JobLocation>> next = iter.next();
+                        if (next != null) {
+                            for (JobLocation jl : next.getValue()) {
+                                ByteSequence bs = getPayload(jl.getLocation());
+                                Job job = new JobImpl(jl, bs);
+                                result.add(job);
+                            }
+                        } else {
+                            break;
                         }
-                    } else {
-                        break;
                     }
-                }
 
-            }
-        });
+                }
+            });
+        }
         return result;
     }
 
-    public synchronized List<Job> getAllJobs(final long start, final long finish) throws IOException {
+    public List<Job> getAllJobs(final long start, final long finish) throws IOException {
         final List<Job> result = new ArrayList<Job>();
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                Iterator<Map.Entry<Long, List<JobLocation>>> iter = index.iterator(store.getPageFile().tx(), start);
-                while (iter.hasNext()) {
-                    Map.Entry<Long, List<JobLocation>> next = iter.next();
-                    if (next != null && next.getKey().longValue() <= finish) {
-                        for (JobLocation jl : next.getValue()) {
-                            ByteSequence bs = getPayload(jl.getLocation());
-                            Job job = new JobImpl(jl, bs);
-                            result.add(job);
+        synchronized (this.indexMutex) {
+            applyPendingUpdates();
+            this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
+                public void execute(Transaction tx) throws IOException {
+                    Iterator<Map.Entry<Long, List<JobLocation>>> iter = index.iterator(store.getPageFile().tx(), start);
+                    while (iter.hasNext()) {
+                        Map.Entry<Long, List<JobLocation>> next = iter.next();
+                        if (next != null && next.getKey().longValue() <= finish) {
+                            for (JobLocation jl : next.getValue()) {
+                                ByteSequence bs = getPayload(jl.getLocation());
+                                Job job = new JobImpl(jl, bs);
+                                result.add(job);
+                            }
+                        } else {
+                            break;
                         }
-                    } else {
-                        break;
                     }
-                }
 
-            }
-        });
+                }
+            });
+        }
         return result;
     }
 
-    public synchronized void removeAllJobs() throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                destroy(tx);
+    public void removeAllJobs() throws IOException {
+        update(new IndexUpdate() {
+            void apply(IndexBatch batch) throws IOException {
+                destroy(batch);
             }
         });
     }
 
-    public synchronized void removeAllJobs(final long start, final long finish) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                destroy(tx, start, finish);
+    public void removeAllJobs(final long start, final long finish) throws IOException {
+        update(new IndexUpdate() {
+            void apply(IndexBatch batch) throws IOException {
+                destroy(batch, start, finish);
             }
         });
-
     }
 
     ByteSequence getPayload(Location location) throws IllegalStateException, IOException {
         return this.store.getPayload(location);
     }
 
-    void schedule(Transaction tx, String jobId, ByteSequence payload, String cronEntry, long delay, long period,
-            int repeat) throws IOException {
-        long startTime = System.currentTimeMillis();
-        // round startTime - so we can schedule more jobs
-        // at the same time
-        startTime = (startTime / 1000) * 1000;
-        long time = 0;
-        if (cronEntry != null && cronEntry.length() > 0) {
-            try {
-                time = CronParser.getNextScheduledTime(cronEntry, startTime);
-            } catch (MessageFormatException e) {
-                throw new IOException(e.getMessage());
+    /**
+     * Queues the update and waits for it to be applied to the index, with
+     * the other updates queued meanwhile.
+     */
+    private void update(IndexUpdate update) throws IOException {
+        this.pendingUpdates.add(update);
+        synchronized (this.indexMutex) {
+            while (!update.done) {
+                applyPendingUpdates();
             }
         }
+        if (update.failure != null) {
+            throw update.failure;
+        }
+    }
 
-        if (time == 0) {
-            // start time not set by CRON - so it it to the current time
-            time = startTime;
+    private void update(List<IndexUpdate> updates) throws IOException {
+        if (updates.isEmpty()) {
+            return;
         }
-        if (delay > 0) {
-            time += delay;
-        } else {
-            time += period;
+        this.pendingUpdates.addAll(updates);
+        IndexUpdate last = updates.get(updates.size() - 1);
+        synchronized (this.indexMutex) {
+            while (!last.done) {
+                applyPendingUpdates();
+            }
         }
-
-        Location location = this.store.write(payload, false);
-        JobLocation jobLocation = new JobLocation(location);
-        this.store.incrementJournalCount(tx, location);
-        jobLocation.setJobId(jobId);
-        jobLocation.setStartTime(startTime);
-        jobLocation.setCronEntry(cronEntry);
-        jobLocation.setDelay(delay);
-        jobLocation.setPeriod(period);
-        jobLocation.setRepeat(repeat);
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Scheduling " + jobLocation);
+        for (IndexUpdate update : updates) {
+            if (update.failure != null) {
+                throw update.failure;
+            }
         }
-        storeJob(tx, jobLocation, time);
-        this.scheduleTime.newJob();
     }
 
-    synchronized void storeJob(final JobLocation jobLocation, final long nextExecutionTime) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            public void execute(Transaction tx) throws IOException {
-                storeJob(tx, jobLocation, nextExecutionTime);
+    /**
+     * Applies a batch of the queued updates in one transaction. Must be called
+     * holding the indexMutex.
+     */
+    private void applyPendingUpdates() {
+        if (this.pendingUpdates.isEmpty()) {
+            return;
+        }
+        final List<IndexUpdate> updates = new ArrayList<IndexUpdate>();
+        IndexUpdate update;
+        while (updates.size() < MAX_BATCH_SIZE && (update = this.pendingUpdates.poll()) != null) {
+            updates.add(update);
+        }
+        final List<Runnable> wheelUpdates = new ArrayList<Runnable>();
+        IOException failure = null;
+        try {
+            this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
+                public void execute(Transaction tx) throws IOException {
+                    IndexBatch batch = new IndexBatch(tx, wheelUpdates);
+                    for (IndexUpdate u : updates) {
+                        u.apply(batch);
+                    }
+                    batch.flush();
+                }
+            });
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = IOExceptionSupport.create(e);
+        }
+        if (failure == null) {
+            // only committed jobs are fired
+            for (Runnable wheelUpdate : wheelUpdates) {
+                wheelUpdate.run();
             }
-        });
+        }
+        for (IndexUpdate u : updates) {
+            u.failure = failure;
+            u.done = true;
+        }
     }
 
-    void storeJob(final Transaction tx, final JobLocation jobLocation, final long nextExecutionTime) throws IOException {
-        List<JobLocation> values = null;
+    void storeJob(final IndexBatch batch, final JobLocation jobLocation, final long nextExecutionTime) throws IOException {
         jobLocation.setNextTime(nextExecutionTime);
-        if (this.index.containsKey(tx, nextExecutionTime)) {
-            values = this.index.remove(tx, nextExecutionTime);
-        }
-        if (values == null) {
-            values = new ArrayList<JobLocation>();
+        batch.getJobs(nextExecutionTime).add(jobLocation);
+        if (nextExecutionTime < this.loadedUntil) {
+            // the index may cache its values, the wheel gets a copy
+            batch.addToWheel(new JobLocation(jobLocation));
         }
-        values.add(jobLocation);
-        this.index.put(tx, nextExecutionTime, values);
-
     }
 
-    void remove(Transaction tx, long time, String jobId) throws IOException {
-        JobLocation result = removeFromIndex(tx, time, jobId);
+    void remove(IndexBatch batch, long time, String jobId) throws IOException {
+        JobLocation result = removeFromIndex(batch, time, jobId);
         if (result != null) {
-            this.store.decrementJournalCount(tx, result.getLocation());
+            batch.decrementJournalCount(result.getLocation());
         }
     }
 
-    JobLocation removeFromIndex(Transaction tx, long time, String jobId) throws IOException {
+    JobLocation removeFromIndex(IndexBatch batch, long time, String jobId) throws IOException {
         JobLocation result = null;
-        List<JobLocation> values = this.index.remove(tx, time);
-        if (values != null) {
-            for (int i = 0; i < values.size(); i++) {
-                JobLocation jl = values.get(i);
-                if (jl.getJobId().equals(jobId)) {
-                    values.remove(i);
-                    if (!values.isEmpty()) {
-                        this.index.put(tx, time, values);
-                    }
-                    result = jl;
-                    break;
-                }
+        List<JobLocation> values = batch.getJobs(time);
+        for (int i = 0; i < values.size(); i++) {
+            JobLocation jl = values.get(i);
+            if (jl.getJobId().equals(jobId)) {
+                values.remove(i);
+                result = jl;
+                break;
             }
         }
+        if (result != null && time < this.loadedUntil) {
+            batch.removeFromWheel(time, jobId);
+        }
         return result;
     }
 
-    void remove(Transaction tx, long time) throws IOException {
-        List<JobLocation> values = this.index.remove(tx, time);
-        if (values != null) {
-            for (JobLocation jl : values) {
-                this.store.decrementJournalCount(tx, jl.getLocation());
-            }
+    void remove(IndexBatch batch, long time) throws IOException {
+        List<JobLocation> values = batch.getJobs(time);
+        for (JobLocation jl : values) {
+            batch.decrementJournalCount(jl.getLocation());
+        }
+        values.clear();
+        if (time < this.loadedUntil) {
+            batch.removeFromWheel(time, time);
         }
     }
 
-    void remove(Transaction tx, String id) throws IOException {
-        for (Iterator<Map.Entry<Long, List<JobLocation>>> i = this.index.iterator(tx); i.hasNext();) {
+    void remove(IndexBatch batch, String id) throws IOException {
+        long time = batch.getWheelTime(id);
+        if (time != -1) {
+            remove(batch, time, id);
+            return;
+        }
+        batch.flush();
+        for (Iterator<Map.Entry<Long, List<JobLocation>>> i = this.index.iterator(batch.tx); i.hasNext();) {
             Map.Entry<Long, List<JobLocation>> entry = i.next();
             List<JobLocation> values = entry.getValue();
             if (values != null) {
                 for (JobLocation jl : values) {
                     if (jl.getJobId().equals(id)) {
-                        remove(tx, entry.getKey(), id);
+                        remove(batch, entry.getKey(), id);
                         return;
                     }
                 }
@@ -367,33 +453,50 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         }
     }
 
-    synchronized void destroy(Transaction tx) throws IOException {
+    void destroy(Transaction tx) throws IOException {
+        synchronized (this.indexMutex) {
+            // the scheduler is stopped, so there is no need to wait for the
+            // commit to clear the wheel
+            List<Runnable> wheelUpdates = new ArrayList<Runnable>();
+            IndexBatch batch = new IndexBatch(tx, wheelUpdates);
+            destroy(batch);
+            batch.flush();
+            for (Runnable wheelUpdate : wheelUpdates) {
+                wheelUpdate.run();
+            }
+        }
+    }
+
+    void destroy(IndexBatch batch) throws IOException {
+        batch.flush();
         List<Long> keys = new ArrayList<Long>();
-        for (Iterator<Map.Entry<Long, List<JobLocation>>> i = this.index.iterator(tx); i.hasNext();) {
+        for (Iterator<Map.Entry<Long, List<JobLocation>>> i = this.index.iterator(batch.tx); i.hasNext();) {
             Map.Entry<Long, List<JobLocation>> entry = i.next();
             keys.add(entry.getKey());
             List<JobLocation> values = entry.getValue();
             if (values != null) {
                 for (JobLocation jl : values) {
-                    this.store.decrementJournalCount(tx, jl.getLocation());
+                    batch.decrementJournalCount(jl.getLocation());
                 }
             }
         }
         for (Long l : keys) {
-            this.index.remove(tx, l);
+            this.index.remove(batch.tx, l);
         }
+        batch.clearWheel();
     }
 
-    synchronized void destroy(Transaction tx, long start, long finish) throws IOException {
+    void destroy(IndexBatch batch, long start, long finish) throws IOException {
+        batch.flush();
         List<Long> keys = new ArrayList<Long>();
-        for (Iterator<Map.Entry<Long, List<JobLocation>>> i = this.index.iterator(tx, start); i.hasNext();) {
+        for (Iterator<Map.Entry<Long, List<JobLocation>>> i = this.index.iterator(batch.tx, start); i.hasNext();) {
             Map.Entry<Long, List<JobLocation>> entry = i.next();
             if (entry.getKey().longValue() <= finish) {
                 keys.add(entry.getKey());
                 List<JobLocation> values = entry.getValue();
                 if (values != null) {
                     for (JobLocation jl : values) {
-                        this.store.decrementJournalCount(tx, jl.getLocation());
+                        batch.decrementJournalCount(jl.getLocation());
                     }
                 }
             } else {
@@ -401,17 +504,58 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
             }
         }
         for (Long l : keys) {
-            this.index.remove(tx, l);
+            this.index.remove(batch.tx, l);
         }
+        batch.removeFromWheel(start, finish);
     }
 
-    private synchronized Map.Entry<Long, List<JobLocation>> getNextToSchedule() throws IOException {
-        if (!this.store.isStopped() && !this.store.isStopping()) {
-            Map.Entry<Long, List<JobLocation>> first = this.index.getFirst(this.store.getPageFile().tx());
-            return first;
+    /**
+     * Loads the jobs of the index due before the end of the next horizon into
+     * the wheel, or as many of them as fit.
+     */
+    private void loadJobs(long currentTime) throws IOException {
+        synchronized (this.indexMutex) {
+            // so the updates already queued aren't also loaded
+            applyPendingUpdates();
+            long until = currentTime + HORIZON;
+            int loaded = this.wheel.size();
+            try {
+                Transaction tx = this.store.getPageFile().tx();
+                for (Iterator<Map.Entry<Long, List<JobLocation>>> i = this.index.iterator(tx, this.loadedUntil); i.hasNext();) {
+                    Map.Entry<Long, List<JobLocation>> entry = i.next();
+                    long time = entry.getKey();
+                    if (time >= until) {
+                        break;
+                    }
+                    if (loaded >= MAX_LOADED_JOBS) {
+                        until = time;
+                        break;
+                    }
+                    for (JobLocation jl : entry.getValue()) {
+                        // the index may cache its values, the wheel gets a copy
+                        JobLocation job = new JobLocation(jl);
+                        job.setNextTime(time);
+                        this.wheel.add(job);
+                        loaded++;
+                    }
+                }
+            } catch (IOException e) {
+                resetWheel();
+                throw e;
+            }
+            this.loadedUntil = until;
         }
-        return null;
+    }
 
+    private boolean isLoadDue(long currentTime) {
+        return currentTime >= this.loadedUntil - HORIZON / 2 && this.wheel.size() < MAX_LOADED_JOBS / 2;
+    }
+
+    private void resetWheel() {
+        synchronized (this.indexMutex) {
+            this.wheel.clear();
+            this.loadedUntil = 0;
+        }
     }
 
     void fireJob(JobLocation job) throws IllegalStateException, IOException {
@@ -424,6 +568,62 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         }
     }
 
+    /**
+     * Fires the jobs taken from the wheel, then removes them from the index
+     * or reschedules them in one batch.
+     */
+    private void fireJobs(List<JobLocation> jobs, long currentTime) throws Exception {
+        List<IndexUpdate> updates = new ArrayList<IndexUpdate>(jobs.size());
+        List<JobLocation> cronJobs = new ArrayList<JobLocation>();
+        try {
+            for (JobLocation job : jobs) {
+                int repeat = job.getRepeat();
+                long nextExecutionTime = calculateNextExecutionTime(job, currentTime, repeat);
+                if (job.isCron() == false) {
+                    fireJob(job);
+                    if (repeat != 0) {
+                        repeat--;
+                        updates.add(new Reschedule(job, repeat, nextExecutionTime));
+                    } else {
+                        updates.add(new Removal(job));
+                    }
+                } else {
+                    // cron job
+                    if (repeat == 0) {
+                        // we haven't got a separate scheduler to
+                        // execute at
+                        // this time - just a cron job - so fire it
+                        fireJob(job);
+                    }
+                    if (nextExecutionTime > currentTime) {
+                        // we will run again ...
+                        updates.add(new Reschedule(job, repeat, nextExecutionTime));
+                        if (repeat != 0) {
+                            // we have a separate schedule to run at
+                            // this time
+                            // so the cron job is used to set of a
+                            // seperate scheule
+                            // hence we won't fire the original cron
+                            // job to the listeners
+                            // but we do need to start a separate
+                            // schedule
+                            cronJobs.add(job);
+                        }
+                    } else {
+                        updates.add(new Removal(job));
+                    }
+                }
+            }
+        } finally {
+            update(updates);
+        }
+        for (JobLocation job : cronJobs) {
+            String jobId = ID_GENERATOR.generateId();
+            ByteSequence payload = getPayload(job.getLocation());
+            schedule(jobId, payload, "", job.getDelay(), job.getPeriod(), job.getRepeat());
+        }
+    }
+
     public void run() {
         try {
             mainLoop();
@@ -449,94 +649,31 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
 
     protected void mainLoop() {
         while (this.running.get()) {
-            this.scheduleTime.clearNewJob();
             try {
-                // peek the next job
                 long currentTime = System.currentTimeMillis();
+                if (this.store.isStopped() || this.store.isStopping()) {
+                    this.scheduleTime.pause(currentTime + ScheduleTime.DEFAULT_WAIT);
+                    continue;
+                }
+                if (isLoadDue(currentTime)) {
+                    loadJobs(currentTime);
+                }
+                List<JobLocation> jobs = this.wheel.expire(currentTime);
+                if (!jobs.isEmpty()) {
+                    fireJobs(jobs, currentTime);
+                    continue;
+                }
 
-                // Reads the list of the next entries and removes them from the store in one atomic step.
-                // Prevents race conditions on short delays, when storeJob() tries to append new items to the
-                // existing list during this read operation (see AMQ-3141).
-                synchronized (this) {
-                    Map.Entry<Long, List<JobLocation>> first = getNextToSchedule();
-                    if (first != null) {
-                        List<JobLocation> list = new ArrayList<JobLocation>(first.getValue());
-                        final long executionTime = first.getKey();
-                        long nextExecutionTime = 0;
-                        if (executionTime <= currentTime) {
-                            for (final JobLocation job : list) {
-                                int repeat = job.getRepeat();
-                                nextExecutionTime = calculateNextExecutionTime(job, currentTime, repeat);
-                                long waitTime = nextExecutionTime - currentTime;
-                                this.scheduleTime.setWaitTime(waitTime);
-                                if (job.isCron() == false) {
-                                    fireJob(job);
-                                    if (repeat != 0) {
-                                        repeat--;
-                                        job.setRepeat(repeat);
-                                        // remove this job from the index - so it
-                                        // doesn't get destroyed
-                                        removeFromIndex(executionTime, job.getJobId());
-                                        // and re-store it
-                                        storeJob(job, nextExecutionTime);
-                                    }
-                                } else {
-                                    // cron job
-                                    if (repeat == 0) {
-                                        // we haven't got a separate scheduler to
-                                        // execute at
-                                        // this time - just a cron job - so fire it
-                                        fireJob(job);
-                                        //this.scheduleTime.setWaitTime(this.scheduleTime.DEFAULT_WAIT);
-                                    }
-                                    if (nextExecutionTime > currentTime) {
-                                        // we will run again ...
-                                        // remove this job from the index - so it
-                                        // doesn't get destroyed
-                                        removeFromIndex(executionTime, job.getJobId());
-                                        // and re-store it
-                                        storeJob(job, nextExecutionTime);
-                                        if (repeat != 0) {
-                                            // we have a separate schedule to run at
-                                            // this time
-                                            // so the cron job is used to set of a
-                                            // seperate scheule
-                                            // hence we won't fire the original cron
-                                            // job to the listeners
-                                            // but we do need to start a separate
-                                            // schedule
-                                            String jobId = ID_GENERATOR.generateId();
-                                            ByteSequence payload = getPayload(job.getLocation());
-                                            schedule(jobId, payload, "", job.getDelay(), job.getPeriod(), job.getRepeat());
-                                            waitTime = job.getDelay() != 0 ? job.getDelay() : job.getPeriod();
-                                            this.scheduleTime.setWaitTime(waitTime);
-                                        }
-                                    }
-                                }
-                            }
-                            // now remove all jobs that have not been
-                            // rescheduled from this execution time
-                            remove(executionTime);
-
-                            // If there is a job that should fire before the currently set wait time
-                            // we need to reset wait time otherwise we'll miss it.
-                            Map.Entry<Long, List<JobLocation>> nextUp = getNextToSchedule();
-                            if (nextUp != null) {
-	                            final long timeUntilNextScheduled = nextUp.getKey() - currentTime;
-	                            if (timeUntilNextScheduled < this.scheduleTime.getWaitTime()) {
-	                            	this.scheduleTime.setWaitTime(timeUntilNextScheduled);
-	                            }
-                            }
-
-                        } else {
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug("Not yet time to execute the job, waiting " + (executionTime - currentTime) + " ms");
-                            }
-                            this.scheduleTime.setWaitTime(executionTime - currentTime);
-                        }
-                    }
+                // wait for the next job, or until the next horizon is due
+                long wakeTime = this.loadedUntil - HORIZON / 2;
+                long nextTime = this.wheel.getNextTime();
+                if (nextTime != -1 && (nextTime < wakeTime || this.wheel.size() >= MAX_LOADED_JOBS / 2)) {
+                    wakeTime = nextTime;
                 }
-                this.scheduleTime.pause();
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Not yet time to execute the next job, waiting " + (wakeTime - currentTime) + " ms");
+                }
+                this.scheduleTime.pause(wakeTime);
 
             } catch (Exception ioe) {
                 LOG.error(this.name + " Failed to schedule job", ioe);
@@ -551,6 +688,7 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
 
     @Override
     protected void doStart() throws Exception {
+        resetWheel();
         this.running.set(true);
         this.thread = new Thread(this, "JobScheduler:" + this.name);
         this.thread.setDaemon(true);
@@ -623,53 +761,235 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         }
     }
 
-    static class ScheduleTime {
-        private final int DEFAULT_WAIT = 500;
-        private final int DEFAULT_NEW_JOB_WAIT = 100;
-        private boolean newJob;
-        private long waitTime = DEFAULT_WAIT;
-        private final Object mutex = new Object();
+
+    /**
+     * The lists of jobs of the times touched by a batch of updates, read from
+     * the index once and written back once when the batch is flushed, with the
+     * changes to the journal file reference counts. The changes to the wheel
+     * are recorded, to be made once the transaction has committed.
+     */
+    final class IndexBatch {
+        final Transaction tx;
+        private final Map<Long, List<JobLocation>> jobs = new HashMap<Long, List<JobLocation>>();
+        private final Map<Integer, Integer> journalCounts = new HashMap<Integer, Integer>();
+        private final List<Runnable> wheelUpdates;
+        // the times of the jobs this batch adds to the wheel
+        private final Map<String, Long> wheelAdds = new HashMap<String, Long>();
+        // the jobs and the ranges of times this batch removes from the wheel
+        private final Set<String> wheelRemovals = new HashSet<String>();
+        private final List<long[]> wheelRangeRemovals = new ArrayList<long[]>();
+        private boolean wheelCleared;
+
+        IndexBatch(Transaction tx, List<Runnable> wheelUpdates) {
+            this.tx = tx;
+            this.wheelUpdates = wheelUpdates;
+        }
+
+        void addToWheel(final JobLocation job) {
+            this.wheelAdds.put(job.getJobId(), job.getNextTime());
+            this.wheelUpdates.add(new Runnable() {
+                public void run() {
+                    wheel.add(job);
+                    scheduleTime.newJob(job.getNextTime());
+                }
+            });
+        }
+
+        void removeFromWheel(final long time, final String jobId) {
+            this.wheelAdds.remove(jobId);
+            this.wheelRemovals.add(jobId);
+            this.wheelUpdates.add(new Runnable() {
+                public void run() {
+                    wheel.remove(time, jobId);
+                }
+            });
+        }
+
+        void removeFromWheel(final long start, final long finish) {
+            for (Iterator<Long> i = this.wheelAdds.values().iterator(); i.hasNext();) {
+                long time = i.next();
+                if (time >= start && time <= finish) {
+                    i.remove();
+                }
+            }
+            this.wheelRangeRemovals.add(new long[] {start, finish});
+            this.wheelUpdates.add(new Runnable() {
+                public void run() {
+                    wheel.remove(start, finish);
+                }
+            });
+        }
+
+        void clearWheel() {
+            this.wheelAdds.clear();
+            this.wheelCleared = true;
+            this.wheelUpdates.add(new Runnable() {
+                public void run() {
+                    wheel.clear();
+                }
+            });
+        }
 
         /**
-         * @return the waitTime
+         * @return the time of the job in the wheel, as it will be once this
+         *         batch has committed, or -1 if it is not in the wheel
          */
-        long getWaitTime() {
-            return this.waitTime;
+        long getWheelTime(String jobId) {
+            Long added = this.wheelAdds.get(jobId);
+            if (added != null) {
+                return added.longValue();
+            }
+            if (this.wheelCleared || this.wheelRemovals.contains(jobId)) {
+                return -1;
+            }
+            long time = wheel.getTime(jobId);
+            for (long[] range : this.wheelRangeRemovals) {
+                if (time >= range[0] && time <= range[1]) {
+                    return -1;
+                }
+            }
+            return time;
         }
+
         /**
-         * @param waitTime
-         *            the waitTime to set
+         * @return the jobs due at the time, to be updated in place
          */
-        void setWaitTime(long waitTime) {
-            if (!this.newJob) {
-                this.waitTime = waitTime > 0 ? waitTime : DEFAULT_WAIT;
+        List<JobLocation> getJobs(long time) throws IOException {
+            List<JobLocation> values = this.jobs.get(time);
+            if (values == null) {
+                // taken out of the index and put back when flushed, rather
+                // than overwritten, as that can overflow a single key node.
+                values = index.remove(this.tx, time);
+                if (values == null) {
+                    values = new ArrayList<JobLocation>();
+                }
+                this.jobs.put(time, values);
             }
+            return values;
         }
 
-        void pause() {
-            synchronized (mutex) {
-                try {
-                    mutex.wait(this.waitTime);
-                } catch (InterruptedException e) {
+        void incrementJournalCount(Location location) {
+            updateJournalCount(location.getDataFileId(), 1);
+        }
+
+        void decrementJournalCount(Location location) {
+            updateJournalCount(location.getDataFileId(), -1);
+        }
+
+        private void updateJournalCount(int logId, int delta) {
+            Integer count = this.journalCounts.get(logId);
+            this.journalCounts.put(logId, count != null ? count.intValue() + delta : delta);
+        }
+
+        /**
+         * Writes the changes made so far to the index.
+         */
+        void flush() throws IOException {
+            for (Map.Entry<Long, List<JobLocation>> entry : this.jobs.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    index.put(this.tx, entry.getKey(), entry.getValue());
                 }
             }
+            this.jobs.clear();
+            for (Map.Entry<Integer, Integer> entry : this.journalCounts.entrySet()) {
+                if (entry.getValue().intValue() != 0) {
+                    store.updateJournalCount(this.tx, entry.getKey(), entry.getValue());
+                }
+            }
+            this.journalCounts.clear();
         }
+    }
+
+    abstract static class IndexUpdate {
+        // set holding the indexMutex
+        private boolean done;
+        private IOException failure;
 
-        void newJob() {
-            this.newJob = true;
-            this.waitTime = DEFAULT_NEW_JOB_WAIT;
-            wakeup();
+        abstract void apply(IndexBatch batch) throws IOException;
+    }
+
+    /**
+     * Removes a fired job from the index.
+     */
+    private final class Removal extends IndexUpdate {
+        private final JobLocation job;
+
+        Removal(JobLocation job) {
+            this.job = job;
         }
 
-        void clearNewJob() {
-            this.newJob = false;
+        void apply(IndexBatch batch) throws IOException {
+            remove(batch, this.job.getNextTime(), this.job.getJobId());
         }
+    }
 
-        void wakeup() {
+    /**
+     * Moves a fired job to the next time it is due, unless it was removed
+     * meanwhile.
+     */
+    private final class Reschedule extends IndexUpdate {
+        private final JobLocation job;
+        private final int repeat;
+        private final long nextExecutionTime;
+
+        Reschedule(JobLocation job, int repeat, long nextExecutionTime) {
+            this.job = job;
+            this.repeat = repeat;
+            this.nextExecutionTime = nextExecutionTime;
+        }
+
+        void apply(IndexBatch batch) throws IOException {
+            // remove this job from the index - so it
+            // doesn't get destroyed
+            if (removeFromIndex(batch, this.job.getNextTime(), this.job.getJobId()) != null) {
+                // and re-store it
+                this.job.setRepeat(this.repeat);
+                storeJob(batch, this.job, this.nextExecutionTime);
+            }
+        }
+    }
+
+    static class ScheduleTime {
+        static final int DEFAULT_WAIT = 500;
+        private final Object mutex = new Object();
+        // the time the scheduler thread waits for, while it waits
+        private long wakeTime = Long.MAX_VALUE;
+        private boolean wakeup;
+
+        /**
+         * Waits until the time, or until a job due earlier is added.
+         */
+        void pause(long time) {
+            synchronized (this.mutex) {
+                this.wakeTime = time;
+                try {
+                    long wait;
+                    while (!this.wakeup && (wait = this.wakeTime - System.currentTimeMillis()) > 0) {
+                        this.mutex.wait(wait);
+                    }
+                } catch (InterruptedException e) {
+                } finally {
+                    this.wakeup = false;
+                    this.wakeTime = Long.MAX_VALUE;
+                }
+            }
+        }
+
+        /**
+         * Wakes the scheduler thread if it waits for a time later than the
+         * new job is due.
+         */
+        void newJob(long time) {
             synchronized (this.mutex) {
-                mutex.notifyAll();
+                if (time < this.wakeTime) {
+                    this.wakeup = true;
+                    this.mutex.notifyAll();
+                }
             }
         }
 
+        void wakeup() {
+            newJob(Long.MIN_VALUE);
+        }
     }
 }
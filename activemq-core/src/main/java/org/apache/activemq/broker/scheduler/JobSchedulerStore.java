@@ -290,17 +290,20 @@ public class JobSchedulerStore extends ServiceSupport {
     }
 
     synchronized void incrementJournalCount(Transaction tx, Location location) throws IOException {
-        int logId = location.getDataFileId();
-        Integer val = this.metaData.journalRC.get(tx, logId);
-        int refCount = val != null ? val.intValue() + 1 : 1;
-        this.metaData.journalRC.put(tx, logId, refCount);
-
+        updateJournalCount(tx, location.getDataFileId(), 1);
     }
 
     synchronized void decrementJournalCount(Transaction tx, Location location) throws IOException {
-        int logId = location.getDataFileId();
-        int refCount = this.metaData.journalRC.get(tx, logId);
-        refCount--;
+        updateJournalCount(tx, location.getDataFileId(), -1);
+    }
+
+    /**
+     * Adds the delta to the count of jobs referencing the journal file, the
+     * file is removed when no job references it any more.
+     */
+    synchronized void updateJournalCount(Transaction tx, int logId, int delta) throws IOException {
+        Integer val = this.metaData.journalRC.get(tx, logId);
+        int refCount = (val != null ? val.intValue() : 0) + delta;
         if (refCount <= 0) {
             this.metaData.journalRC.remove(tx, logId);
             Set<Integer> set = new HashSet<Integer>();
@@ -309,7 +312,6 @@ public class JobSchedulerStore extends ServiceSupport {
         } else {
             this.metaData.journalRC.put(tx, logId, refCount);
         }
-
     }
 
     synchronized ByteSequence getPayload(Location location) throws IllegalStateException, IOException {
@@ -0,0 +1,300 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An in memory hierarchical timing wheel of the jobs due in the near future.
+ *
+ * Each level of the wheel is a ring of buckets, a bucket holding the jobs due
+ * in one tick of the level, and each level's tick is the span of the whole
+ * level below it. Adding or removing a job takes constant time whatever the
+ * number of jobs. The buckets holding jobs are queued by the time they are
+ * due, so finding the next job to fire doesn't scan the wheel: when a bucket
+ * is due its jobs are moved down a level, until the jobs of the current tick
+ * of the lowest level are ordered by time and handed out as they are due.
+ */
+class TimingWheel {
+
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        public int compare(Entry e1, Entry e2) {
+            if (e1.time != e2.time) {
+                return e1.time < e2.time ? -1 : 1;
+            }
+            return e1.sequence < e2.sequence ? -1 : (e1.sequence == e2.sequence ? 0 : 1);
+        }
+    };
+
+    private final PriorityQueue<Bucket> buckets = new PriorityQueue<Bucket>(64, new Comparator<Bucket>() {
+        public int compare(Bucket b1, Bucket b2) {
+            return b1.expiration < b2.expiration ? -1 : (b1.expiration == b2.expiration ? 0 : 1);
+        }
+    });
+    // the jobs of the current tick of the lowest level
+    private final PriorityQueue<Entry> current = new PriorityQueue<Entry>(64, ENTRY_ORDER);
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    private final Level root;
+    private long sequence;
+    private int size;
+
+    /**
+     * @param tick the span of a bucket of the lowest level in milliseconds
+     * @param wheelSize the number of buckets of each level
+     * @param startTime the current time
+     */
+    TimingWheel(long tick, int wheelSize, long startTime) {
+        this.root = new Level(tick, wheelSize, startTime);
+    }
+
+    synchronized void add(JobLocation job) {
+        Entry entry = new Entry(job, job.getNextTime(), sequence++);
+        Entry same = entries.put(job.getJobId(), entry);
+        if (same != null) {
+            // rare, but job ids are not guaranteed to be unique
+            entry.sameId = same;
+        }
+        insert(entry);
+        size++;
+    }
+
+    /**
+     * Removes the job with the id that is due at the time.
+     *
+     * @return the job, or null if the wheel doesn't hold it
+     */
+    synchronized JobLocation remove(long time, String jobId) {
+        for (Entry entry = entries.get(jobId); entry != null; entry = entry.sameId) {
+            if (entry.time == time) {
+                unlink(entry);
+                return entry.job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the time the job with the id is due, or -1 if the wheel
+     *         doesn't hold it
+     */
+    synchronized long getTime(String jobId) {
+        Entry entry = entries.get(jobId);
+        return entry != null ? entry.time : -1;
+    }
+
+    /**
+     * Removes the jobs due from start to finish, inclusive.
+     */
+    synchronized void remove(long start, long finish) {
+        List<Entry> removed = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            for (Entry e = entry; e != null; e = e.sameId) {
+                if (e.time >= start && e.time <= finish) {
+                    removed.add(e);
+                }
+            }
+        }
+        for (Entry entry : removed) {
+            unlink(entry);
+        }
+    }
+
+    synchronized void clear() {
+        for (Level level = root; level != null; level = level.overflow) {
+            for (Bucket bucket : level.buckets) {
+                bucket.flush();
+            }
+        }
+        buckets.clear();
+        current.clear();
+        entries.clear();
+        size = 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the time the next job may be due, or -1 if the wheel is empty.
+     *         The time is never later than the next job is due, but may be
+     *         earlier.
+     */
+    synchronized long getNextTime() {
+        long rc = -1;
+        Entry entry = current.peek();
+        if (entry != null) {
+            rc = entry.time;
+        }
+        Bucket bucket = buckets.peek();
+        if (bucket != null && (rc == -1 || bucket.expiration < rc)) {
+            rc = bucket.expiration;
+        }
+        return rc;
+    }
+
+    /**
+     * Removes the jobs due by the time.
+     *
+     * @return the jobs due, in the order they are due
+     */
+    synchronized List<JobLocation> expire(long time) {
+        Bucket bucket;
+        while ((bucket = buckets.peek()) != null && bucket.expiration <= time) {
+            buckets.poll();
+            root.advance(bucket.expiration);
+            for (Entry entry : bucket.flush()) {
+                insert(entry);
+            }
+        }
+        // no bucket is due by the time, so the clock can move on to it
+        root.advance(time);
+        List<JobLocation> result = Collections.emptyList();
+        Entry entry;
+        while ((entry = current.peek()) != null && entry.time <= time) {
+            current.poll();
+            entry.bucket = null;
+            unindex(entry);
+            if (result.isEmpty()) {
+                result = new ArrayList<JobLocation>();
+            }
+            result.add(entry.job);
+        }
+        return result;
+    }
+
+    private void insert(Entry entry) {
+        if (!root.add(entry)) {
+            entry.bucket = null;
+            current.add(entry);
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.bucket != null) {
+            entry.bucket.entries.remove(entry);
+            entry.bucket = null;
+        } else {
+            current.remove(entry);
+        }
+        unindex(entry);
+    }
+
+    private void unindex(Entry entry) {
+        String jobId = entry.job.getJobId();
+        Entry first = entries.get(jobId);
+        if (first == entry) {
+            if (entry.sameId != null) {
+                entries.put(jobId, entry.sameId);
+            } else {
+                entries.remove(jobId);
+            }
+        } else {
+            for (Entry e = first; e != null; e = e.sameId) {
+                if (e.sameId == entry) {
+                    e.sameId = entry.sameId;
+                    break;
+                }
+            }
+        }
+        entry.sameId = null;
+        size--;
+    }
+
+    private final class Level {
+        final long tick;
+        final long interval;
+        final Bucket[] buckets;
+        long currentTime;
+        Level overflow;
+
+        Level(long tick, int wheelSize, long startTime) {
+            this.tick = tick;
+            this.interval = tick * wheelSize;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                this.buckets[i] = new Bucket();
+            }
+            this.currentTime = startTime - (startTime % tick);
+        }
+
+        /**
+         * @return false if the entry is due in the current tick
+         */
+        boolean add(Entry entry) {
+            if (entry.time < currentTime + tick) {
+                return false;
+            }
+            if (entry.time < currentTime + interval) {
+                long virtualId = entry.time / tick;
+                Bucket bucket = buckets[(int) (virtualId % buckets.length)];
+                bucket.entries.add(entry);
+                entry.bucket = bucket;
+                if (bucket.expiration != virtualId * tick) {
+                    bucket.expiration = virtualId * tick;
+                    TimingWheel.this.buckets.add(bucket);
+                }
+                return true;
+            }
+            if (overflow == null) {
+                overflow = new Level(interval, buckets.length, currentTime);
+            }
+            return overflow.add(entry);
+        }
+
+        void advance(long time) {
+            if (time >= currentTime + tick) {
+                currentTime = time - (time % tick);
+                if (overflow != null) {
+                    overflow.advance(currentTime);
+                }
+            }
+        }
+    }
+
+    private static final class Bucket {
+        final LinkedHashSet<Entry> entries = new LinkedHashSet<Entry>();
+        long expiration = -1;
+
+        List<Entry> flush() {
+            List<Entry> rc = new ArrayList<Entry>(entries);
+            entries.clear();
+            expiration = -1;
+            return rc;
+        }
+    }
+
+    private static final class Entry {
+        final JobLocation job;
+        final long time;
+        final long sequence;
+        Bucket bucket;
+        Entry sameId;
+
+        Entry(JobLocation job, long time, long sequence) {
+            this.job = job;
+            this.time = time;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -108,10 +108,12 @@ public class ActiveMQTextMessage extends ActiveMQMessage implements TextMessage
 
         ByteSequence content = getContent();
         if (content == null && text != null) {
-            ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-            OutputStream os = bytesOut;
             ActiveMQConnection connection = getConnection();
-            if (connection != null && connection.isUseCompression()) {
+            boolean compress = connection != null && connection.isUseCompression();
+            // sized to hold ascii text and its length without growing
+            ByteArrayOutputStream bytesOut = compress ? new ByteArrayOutputStream() : new ByteArrayOutputStream(text.length() + 4);
+            OutputStream os = bytesOut;
+            if (compress) {
                 compressed = true;
                 os = new DeflaterOutputStream(os);
             }
@@ -161,6 +161,25 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
         return properties.get(name);
     }
 
+    /**
+     * Looks up a property for read only access, such as the evaluation of a
+     * selector. Unlike {@link #getProperty(String)} it does not unmarshal the
+     * properties when they are still marshalled.
+     */
+    public Object lookupProperty(String name) throws IOException {
+        // read the marshalled properties first, lazyCreateProperties() clears
+        // them after setting the map
+        ByteSequence marshalled = marshalledProperties;
+        Map<String, Object> map = properties;
+        if (map != null) {
+            return map.get(name);
+        }
+        if (marshalled == null) {
+            return null;
+        }
+        return MarshallingSupport.lookupPrimitiveMapValue(marshalled, name);
+    }
+
     @SuppressWarnings("unchecked")
     public Map<String, Object> getProperties() throws IOException {
         if (properties == null) {
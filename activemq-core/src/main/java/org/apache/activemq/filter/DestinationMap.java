@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.activemq.command.ActiveMQDestination;
 
@@ -34,18 +35,26 @@ import org.apache.activemq.command.ActiveMQDestination;
  * destination steps. So looking up the values for "TEST.*" or "*.TEST" will be
  * pretty fast. <br>
  * Looking up of a value could return a single value or a List of matching
- * values if a wildcard or composite destination is used.
+ * values if a wildcard or composite destination is used. <br>
+ * Lookups don't lock the map: the matches of a destination are cached until
+ * the map next changes, only a destination that is not cached is matched
+ * against the index under the lock of the map. The index must therefore only
+ * be changed through the methods of this class.
  *
  *
  */
 public class DestinationMap {
     protected static final String ANY_DESCENDENT = DestinationFilter.ANY_DESCENDENT;
     protected static final String ANY_CHILD = DestinationFilter.ANY_CHILD;
+    protected static final int MAX_CACHE_SIZE = 1000;
 
     private DestinationMapNode queueRootNode = new DestinationMapNode(null);
     private DestinationMapNode tempQueueRootNode = new DestinationMapNode(null);
     private DestinationMapNode topicRootNode = new DestinationMapNode(null);
     private DestinationMapNode tempTopicRootNode = new DestinationMapNode(null);
+    // the matches of looked up destinations, replaced after every change
+    @SuppressWarnings("rawtypes")
+    private volatile ConcurrentHashMap<ActiveMQDestination, Set> cache = new ConcurrentHashMap<ActiveMQDestination, Set>();
 
     /**
      * Looks up the value(s) matching the given Destination key. For simple
@@ -58,7 +67,7 @@ public class DestinationMap {
      *         matching values.
      */
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    public synchronized Set get(ActiveMQDestination key) {
+    public Set get(ActiveMQDestination key) {
         if (key.isComposite()) {
             ActiveMQDestination[] destinations = key.getCompositeDestinations();
             Set answer = new HashSet(destinations.length);
@@ -87,6 +96,7 @@ public class DestinationMap {
         }
         String[] paths = key.getDestinationPaths();
         getRootNode(key).add(paths, 0, value);
+        invalidateCache();
     }
 
     /**
@@ -103,7 +113,7 @@ public class DestinationMap {
         }
         String[] paths = key.getDestinationPaths();
         getRootNode(key).remove(paths, 0, value);
-
+        invalidateCache();
     }
 
     public int getTopicRootChildCount() {
@@ -163,10 +173,28 @@ public class DestinationMap {
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
     protected Set findWildcardMatches(ActiveMQDestination key) {
-        String[] paths = key.getDestinationPaths();
-        Set answer = new HashSet();
-        getRootNode(key).appendMatchingValues(answer, paths, 0);
-        return answer;
+        ConcurrentHashMap<ActiveMQDestination, Set> cache = this.cache;
+        Set matches = cache.get(key);
+        if (matches == null) {
+            synchronized (this) {
+                String[] paths = key.getDestinationPaths();
+                matches = new HashSet();
+                getRootNode(key).appendMatchingValues(matches, paths, 0);
+            }
+            // temporary destinations come and go, don't let them fill the
+            // cache. If the map changed since the cache was read the matches
+            // go to the discarded cache.
+            if (!key.isTemporary() && cache.size() < MAX_CACHE_SIZE) {
+                cache.put(key, matches);
+            }
+        }
+        // callers are free to modify the answer
+        return new HashSet(matches);
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected void invalidateCache() {
+        cache = new ConcurrentHashMap<ActiveMQDestination, Set>();
     }
 
     /**
@@ -174,7 +202,7 @@ public class DestinationMap {
      * @return
      */
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    public Set removeAll(ActiveMQDestination key) {
+    public synchronized Set removeAll(ActiveMQDestination key) {
         Set rc = new HashSet();
         if (key.isComposite()) {
             ActiveMQDestination[] destinations = key.getCompositeDestinations();
@@ -185,6 +213,7 @@ public class DestinationMap {
         }
         String[] paths = key.getDestinationPaths();
         getRootNode(key).removeAll(rc, paths, 0);
+        invalidateCache();
         return rc;
     }
 
@@ -225,11 +254,12 @@ public class DestinationMap {
         }
     }
 
-    public void reset() {
+    public synchronized void reset() {
         queueRootNode = new DestinationMapNode(null);
         tempQueueRootNode = new DestinationMapNode(null);
         topicRootNode = new DestinationMapNode(null);
         tempTopicRootNode = new DestinationMapNode(null);
+        invalidateCache();
     }
 
     public static Set union(Set existing, Set candidates) {
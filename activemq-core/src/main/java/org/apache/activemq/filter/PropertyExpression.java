@@ -179,7 +179,7 @@ public class PropertyExpression implements Expression {
                 return jmsPropertyExpression.evaluate(message.getMessage());
             }
             try {
-                return message.getMessage().getProperty(name);
+                return message.getMessage().lookupProperty(name);
             } catch (IOException ioe) {
                 throw JMSExceptionSupport.create("Could not get property: " + name + " reason: " + ioe.getMessage(), ioe);
             }
@@ -194,7 +194,7 @@ public class PropertyExpression implements Expression {
             return jmsPropertyExpression.evaluate(message);
         }
         try {
-            return message.getProperty(name);
+            return message.lookupProperty(name);
         } catch (IOException ioe) {
             throw JMSExceptionSupport.create(ioe);
         }
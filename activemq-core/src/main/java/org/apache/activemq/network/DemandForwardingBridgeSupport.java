@@ -29,6 +29,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jms.JMSException;
 import javax.management.ObjectName;
 import org.apache.activemq.Service;
 import org.apache.activemq.advisory.AdvisorySupport;
@@ -44,6 +45,7 @@ import org.apache.activemq.broker.region.policy.PolicyEntry;
 import org.apache.activemq.command.*;
 import org.apache.activemq.filter.DestinationFilter;
 import org.apache.activemq.filter.MessageEvaluationContext;
+import org.apache.activemq.management.TimeStatisticImpl;
 import org.apache.activemq.thread.DefaultThreadPools;
 import org.apache.activemq.thread.TaskRunnerFactory;
 import org.apache.activemq.transport.DefaultTransportListener;
@@ -53,8 +55,10 @@ import org.apache.activemq.transport.Transport;
 import org.apache.activemq.transport.TransportDisposedIOException;
 import org.apache.activemq.transport.TransportFilter;
 import org.apache.activemq.transport.tcp.SslTransport;
+import org.apache.activemq.transport.vm.VMTransport;
 import org.apache.activemq.util.IdGenerator;
 import org.apache.activemq.util.IntrospectionSupport;
+import org.apache.activemq.util.JMSExceptionSupport;
 import org.apache.activemq.util.LongSequenceGenerator;
 import org.apache.activemq.util.MarshallingSupport;
 import org.apache.activemq.util.ServiceStopper;
@@ -67,6 +71,9 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class DemandForwardingBridgeSupport implements NetworkBridge, BrokerServiceAware {
     private static final Logger LOG = LoggerFactory.getLogger(DemandForwardingBridgeSupport.class);
+    // the network property telling the other end of a duplex connection the
+    // stripe of the bridge
+    public static final String NETWORK_STRIPE_PROPERTY = "networkStripe";
     private final TaskRunnerFactory asyncTaskRunner = DefaultThreadPools.getDefaultTaskRunnerFactory();
     protected static final String DURABLE_SUB_PREFIX = "NC-DS_";
     protected final Transport localBroker;
@@ -104,9 +111,13 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
 
     final AtomicLong enqueueCounter = new AtomicLong();
     final AtomicLong dequeueCounter = new AtomicLong();
+    // the time it takes the remote broker to answer a forwarded message
+    final TimeStatisticImpl forwardLatency = new TimeStatisticImpl("forwardLatency", "The time it takes the remote broker to receive a forwarded message");
 
     private NetworkBridgeListener networkBridgeListener;
     private boolean createdByDuplex;
+    // the index of this bridge among the parallel bridges to the remote broker
+    private int stripe;
     private BrokerInfo localBrokerInfo;
     private BrokerInfo remoteBrokerInfo;
 
@@ -130,6 +141,14 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
     }
 
     public void start() throws Exception {
+        if (configuration.getParallelConnections() > 1 && configuration.isStripeByMessageGroup()) {
+            // the stripe is checked by the filter of the local subscription,
+            // which only reaches the broker as it is when it is not marshalled
+            VMTransport vmTransport = localBroker.narrow(VMTransport.class);
+            if (vmTransport == null || vmTransport.isMarshal()) {
+                throw new IllegalStateException("stripeByMessageGroup needs a vm:// local transport that does not marshal, not: " + localBroker);
+            }
+        }
         if (started.compareAndSet(false, true)) {
             localBroker.setTransportListener(new DefaultTransportListener() {
 
@@ -213,7 +232,7 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
                 if (!disposed.get()) {
                     localConnectionInfo = new ConnectionInfo();
                     localConnectionInfo.setConnectionId(new ConnectionId(idGenerator.generateId()));
-                    localClientId = configuration.getName() + "_" + remoteBrokerName + "_inbound_" + configuration.getBrokerName();
+                    localClientId = configuration.getName() + "_" + remoteBrokerName + "_inbound_" + configuration.getBrokerName() + getStripeSuffix();
                     localConnectionInfo.setClientId(localClientId);
                     localConnectionInfo.setUserName(configuration.getUserName());
                     localConnectionInfo.setPassword(configuration.getPassword());
@@ -269,6 +288,10 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
                     // set our properties
                     Properties props = new Properties();
                     IntrospectionSupport.getProperties(configuration, props, null);
+                    if (configuration.getParallelConnections() > 1) {
+                        // for the bridge at the other end of a duplex connection
+                        props.setProperty(NETWORK_STRIPE_PROPERTY, String.valueOf(stripe));
+                    }
                     String str = MarshallingSupport.propertiesToString(props);
                     brokerInfo.setNetworkProperties(str);
                     brokerInfo.setBrokerId(this.localBrokerId);
@@ -279,7 +302,7 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
                 }
                 remoteConnectionInfo = new ConnectionInfo();
                 remoteConnectionInfo.setConnectionId(new ConnectionId(idGenerator.generateId()));
-                remoteConnectionInfo.setClientId(configuration.getName() + "_" + configuration.getBrokerName() + "_outbound");
+                remoteConnectionInfo.setClientId(configuration.getName() + "_" + configuration.getBrokerName() + "_outbound" + getStripeSuffix());
                 remoteConnectionInfo.setUserName(configuration.getUserName());
                 remoteConnectionInfo.setPassword(configuration.getPassword());
                 remoteBroker.oneway(remoteConnectionInfo);
@@ -542,6 +565,12 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
                 }
                 return;
             }
+            if (!isStripeDestination(info.getDestination())) {
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace(configuration.getBrokerName() + " Ignoring sub from " + remoteBrokerName + ", destination " + info.getDestination() + " is bridged by another stripe :" + info);
+                }
+                return;
+            }
 
             // in a cyclic network there can be multiple bridges per broker that can propagate
             // a network subscription so there is a need to synchronise on a shared entity
@@ -659,13 +688,18 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
                     final DemandSubscription sub = subscriptionMapByLocalId.get(md.getConsumerId());
                     if (sub != null && md.getMessage() != null && sub.incrementOutstandingResponses()) {
 
+                        // in batched mode every message dispatched goes
+                        // through the window, so that the range acks match
+                        final DemandSubscription.Forward forward = configuration.getForwardBatchSize() > 0 ? sub.addForward(md) : null;
+                        sub.incrementForwardWindow();
+
                         if (suppressMessageDispatch(md, sub)) {
                             if (LOG.isDebugEnabled()) {
                                 LOG.debug(configuration.getBrokerName() + " message not forwarded to " + remoteBrokerName + " because message came from there or fails networkTTL, brokerPath: " + Arrays.toString(md.getMessage().getBrokerPath()) + ", message: " + md.getMessage());
                             }
                             // still ack as it may be durable
                             try {
-                                localBroker.oneway(new MessageAck(md, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
+                                acknowledgeForward(sub, md, forward);
                             } finally {
                                 sub.decrementOutstandingResponses();
                             }
@@ -685,7 +719,7 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
                             // of message loss).
                             try {
                                 remoteBroker.oneway(message);
-                                localBroker.oneway(new MessageAck(md, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
+                                acknowledgeForward(sub, md, forward);
                                 dequeueCounter.incrementAndGet();
                             } finally {
                                 sub.decrementOutstandingResponses();
@@ -697,15 +731,19 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
                             // should only ack the local
                             // broker when we get confirmation that the remote
                             // broker has received the message.
+                            final long start = System.currentTimeMillis();
                             ResponseCallback callback = new ResponseCallback() {
                                 public void onCompletion(FutureResponse future) {
                                     try {
                                         Response response = future.getResult();
                                         if (response.isException()) {
                                             ExceptionResponse er = (ExceptionResponse) response;
+                                            // never acked, the local broker redelivers it
+                                            sub.decrementForwardWindow(1);
                                             serviceLocalException(er.getException());
                                         } else {
-                                            localBroker.oneway(new MessageAck(md, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
+                                            forwardLatency.addTime(System.currentTimeMillis() - start);
+                                            acknowledgeForward(sub, md, forward);
                                             dequeueCounter.incrementAndGet();
                                         }
                                     } catch (IOException e) {
@@ -748,6 +786,27 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
         }
     }
 
+    /**
+     * Acks a message the remote broker received, or that was not forwarded, to
+     * the local broker. In batched mode the message is acked along with the
+     * others of its range, when the range is complete.
+     */
+    private void acknowledgeForward(DemandSubscription sub, MessageDispatch md, DemandSubscription.Forward forward) throws IOException {
+        MessageAck ack;
+        if (forward == null) {
+            ack = new MessageAck(md, MessageAck.INDIVIDUAL_ACK_TYPE, 1);
+        } else {
+            ack = sub.completeForward(forward, configuration.getForwardBatchSize());
+        }
+        if (ack != null) {
+            try {
+                localBroker.oneway(ack);
+            } finally {
+                sub.decrementForwardWindow(ack.getMessageCount());
+            }
+        }
+    }
+
     private boolean suppressMessageDispatch(MessageDispatch md, DemandSubscription sub) throws Exception {
         boolean suppress = false;
         // for durable subs, suppression via filter leaves dangling acks so we need to
@@ -847,6 +906,26 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
         this.createdByDuplex = createdByDuplex;
     }
 
+    public int getStripe() {
+        return stripe;
+    }
+
+    /**
+     * @param stripe the index of this bridge among the parallel bridges to the
+     *            remote broker
+     */
+    public void setStripe(int stripe) {
+        this.stripe = stripe;
+    }
+
+    /**
+     * @return true if this bridge is one of parallel bridges to the remote
+     *         broker
+     */
+    public boolean isStriped() {
+        return configuration.getParallelConnections() > 1;
+    }
+
     public static boolean contains(BrokerId[] brokerPath, BrokerId brokerId) {
         if (brokerPath != null) {
             for (int i = 0; i < brokerPath.length; i++) {
@@ -937,6 +1016,9 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
         if (dests != null) {
             for (int i = 0; i < dests.length; i++) {
                 ActiveMQDestination dest = dests[i];
+                if (!isStripeDestination(dest)) {
+                    continue;
+                }
                 DemandSubscription sub = createDemandSubscription(dest);
                 try {
                     addSubscription(sub);
@@ -983,6 +1065,10 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
                 consumerInfo.getDestination().isTopic() && !configuration.isSuppressDuplicateTopicSubscriptions()) {
             return suppress;
         }
+        if (isStripedByMessageGroup(consumerInfo.getDestination())) {
+            // the subscriptions of the other stripes are not duplicates
+            return suppress;
+        }
 
         List<ConsumerId> candidateConsumers = consumerInfo.getNetworkConsumerIds();
         Collection<Subscription> currentSubs =
@@ -1196,7 +1282,64 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
                 filterFactory = entry.getNetworkBridgeFilterFactory();
             }
         }
-        return filterFactory.create(info, getRemoteBrokerPath(), configuration.getNetworkTTL());
+        NetworkBridgeFilter filter = filterFactory.create(info, getRemoteBrokerPath(), configuration.getNetworkTTL());
+        if (isStripedByMessageGroup(info.getDestination())) {
+            filter = new MessageGroupStripeFilter(filter, stripe, configuration.getParallelConnections());
+        }
+        return filter;
+    }
+
+    /**
+     * @return true if this bridge forwards the messages of the destination
+     *         rather than one of the other parallel bridges to the remote
+     *         broker
+     */
+    protected boolean isStripeDestination(ActiveMQDestination destination) {
+        int stripes = configuration.getParallelConnections();
+        if (stripes <= 1 || isStripedByMessageGroup(destination)) {
+            return true;
+        }
+        return stripeOf(destination.getQualifiedName(), stripes) == stripe;
+    }
+
+    private boolean isStripedByMessageGroup(ActiveMQDestination destination) {
+        return configuration.getParallelConnections() > 1 && configuration.isStripeByMessageGroup() && destination.isQueue();
+    }
+
+    private String getStripeSuffix() {
+        // the first stripe keeps the client ids of a bridge that is not striped
+        return stripe > 0 ? "_stripe" + stripe : "";
+    }
+
+    static int stripeOf(String key, int stripes) {
+        return key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % stripes;
+    }
+
+    /**
+     * Only matches the messages of the message groups of a stripe, on top of
+     * the filter of the bridge.
+     */
+    private static class MessageGroupStripeFilter extends NetworkBridgeFilter {
+        private final NetworkBridgeFilter filter;
+        private final int stripe;
+        private final int stripes;
+
+        MessageGroupStripeFilter(NetworkBridgeFilter filter, int stripe, int stripes) {
+            super(filter.getNetworkBrokerId(), filter.getNetworkTTL());
+            this.filter = filter;
+            this.stripe = stripe;
+            this.stripes = stripes;
+        }
+
+        @Override
+        public boolean matches(MessageEvaluationContext mec) throws JMSException {
+            try {
+                Message message = mec.getMessage();
+                return message != null && stripeOf(message.getGroupID(), stripes) == stripe && filter.matches(mec);
+            } catch (IOException e) {
+                throw JMSExceptionSupport.create(e);
+            }
+        }
     }
 
     protected void serviceLocalBrokerInfo(Command command) throws InterruptedException {
@@ -1276,6 +1419,26 @@ public abstract class DemandForwardingBridgeSupport implements NetworkBridge, Br
         return enqueueCounter.get();
     }
 
+    /**
+     * @return the messages dispatched to the live subscriptions of the bridge
+     *         and not yet acked locally
+     */
+    public long getForwardWindowSize() {
+        long rc = 0;
+        for (DemandSubscription sub : subscriptionMapByRemoteId.values()) {
+            rc += sub.getForwardWindowSize();
+        }
+        return rc;
+    }
+
+    public double getAverageForwardLatency() {
+        return forwardLatency.getAverageTime();
+    }
+
+    public long getMaxForwardLatency() {
+        return forwardLatency.getMaxTime();
+    }
+
     protected boolean isDuplex() {
         return configuration.isDuplex() || createdByDuplex;
     }
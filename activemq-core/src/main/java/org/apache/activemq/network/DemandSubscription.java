@@ -16,6 +16,8 @@
  */
 package org.apache.activemq.network;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -23,6 +25,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.activemq.command.ConsumerId;
 import org.apache.activemq.command.ConsumerInfo;
+import org.apache.activemq.command.MessageAck;
+import org.apache.activemq.command.MessageDispatch;
 import org.apache.activemq.command.NetworkBridgeFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +46,13 @@ public class DemandSubscription {
     private AtomicInteger dispatched = new AtomicInteger(0);
     private AtomicBoolean activeWaiter = new AtomicBoolean();
     private NetworkBridgeFilter networkBridgeFilter;
+    // the messages forwarded in batches and not yet acked locally, in the
+    // order they were dispatched
+    private final List<Forward> forwards = new ArrayList<Forward>();
+    // the number of completed forwards at the start of the list
+    private int completedForwards;
+    // the messages dispatched to the bridge and not yet acked locally
+    private final AtomicInteger forwardWindowSize = new AtomicInteger();
 
     DemandSubscription(ConsumerInfo info) {
         remoteInfo = info;
@@ -138,4 +149,58 @@ public class DemandSubscription {
     public void setNetworkBridgeFilter(NetworkBridgeFilter networkBridgeFilter) {
         this.networkBridgeFilter = networkBridgeFilter;
     }
+
+    void incrementForwardWindow() {
+        forwardWindowSize.incrementAndGet();
+    }
+
+    void decrementForwardWindow(int count) {
+        forwardWindowSize.addAndGet(-count);
+    }
+
+    public int getForwardWindowSize() {
+        return forwardWindowSize.get();
+    }
+
+    /**
+     * Adds a message forwarded in batches to the end of the window of
+     * messages waiting for their local ack.
+     */
+    synchronized Forward addForward(MessageDispatch md) {
+        Forward forward = new Forward(md);
+        forwards.add(forward);
+        return forward;
+    }
+
+    /**
+     * Marks the forward of a message as complete.
+     *
+     * @return the ack of the completed forwards at the start of the window,
+     *         once there are batchSize of them or all the forwards are
+     *         complete, null otherwise
+     */
+    synchronized MessageAck completeForward(Forward forward, int batchSize) {
+        forward.completed = true;
+        while (completedForwards < forwards.size() && forwards.get(completedForwards).completed) {
+            completedForwards++;
+        }
+        if (completedForwards == 0 || (completedForwards < batchSize && completedForwards < forwards.size())) {
+            return null;
+        }
+        List<Forward> completed = forwards.subList(0, completedForwards);
+        MessageAck ack = new MessageAck(completed.get(completedForwards - 1).md, MessageAck.STANDARD_ACK_TYPE, completedForwards);
+        ack.setFirstMessageId(completed.get(0).md.getMessage().getMessageId());
+        completed.clear();
+        completedForwards = 0;
+        return ack;
+    }
+
+    static final class Forward {
+        final MessageDispatch md;
+        boolean completed;
+
+        Forward(MessageDispatch md) {
+            this.md = md;
+        }
+    }
 }
@@ -19,8 +19,11 @@ package org.apache.activemq.network;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.activemq.broker.BrokerService;
@@ -114,38 +117,33 @@ public class DiscoveryNetworkConnector extends NetworkConnector implements Disco
             }
             LOG.info("Establishing network connection from " + localURI + " to " + connectUri);
 
-            Transport remoteTransport;
-            Transport localTransport;
-            try {
-                // Allows the transport to access the broker's ssl configuration.
-                SslContext.setCurrentSslContext(getBrokerService().getSslContext());
-                try {
-                    remoteTransport = TransportFactory.connect(connectUri);
-                } catch (Exception e) {
-                    LOG.warn("Could not connect to remote URI: " + connectUri + ": " + e.getMessage());
-                    LOG.debug("Connection failure exception: " + e, e);
-                    return;
-                }
-                try {
-                    localTransport = createLocalTransport();
-                } catch (Exception e) {
-                    ServiceSupport.dispose(remoteTransport);
-                    LOG.warn("Could not connect to local URI: " + localURI + ": " + e.getMessage());
-                    LOG.debug("Connection failure exception: " + e, e);
-                    return;
+            List<Transport> transports = new ArrayList<Transport>();
+            NetworkBridge bridge;
+            if (getParallelConnections() > 1) {
+                bridge = createStripedBridge(connectUri, event, transports);
+            } else {
+                Transport[] pair = connect(connectUri);
+                if (pair != null) {
+                    transports.addAll(Arrays.asList(pair));
                 }
-            } finally {
-                SslContext.setCurrentSslContext(null);
+                bridge = pair == null ? null : createBridge(pair[0], pair[1], event);
+            }
+            if (bridge == null) {
+                return;
             }
-            NetworkBridge bridge = createBridge(localTransport, remoteTransport, event);
             try {
                 bridge.start();
                 synchronized (bridges) {
                     bridges.put(uri, bridge);
                 }
             } catch (Exception e) {
-                ServiceSupport.dispose(localTransport);
-                ServiceSupport.dispose(remoteTransport);
+                if (bridge instanceof StripedNetworkBridge) {
+                    ServiceSupport.dispose(bridge);
+                }
+                // the bridges that did not start do not stop their transports
+                for (Transport transport : transports) {
+                    ServiceSupport.dispose(transport);
+                }
                 LOG.warn("Could not start network bridge between: " + localURI + " and: " + uri + " due to: " + e);
                 LOG.debug("Start failure exception: " + e, e);
                 try {
@@ -157,6 +155,65 @@ public class DiscoveryNetworkConnector extends NetworkConnector implements Disco
         }
     }
 
+    /**
+     * @return the local and the remote transport of a bridge, null if either
+     *         could not be connected
+     */
+    private Transport[] connect(URI connectUri) {
+        Transport remoteTransport;
+        Transport localTransport;
+        try {
+            // Allows the transport to access the broker's ssl configuration.
+            SslContext.setCurrentSslContext(getBrokerService().getSslContext());
+            try {
+                remoteTransport = TransportFactory.connect(connectUri);
+            } catch (Exception e) {
+                LOG.warn("Could not connect to remote URI: " + connectUri + ": " + e.getMessage());
+                LOG.debug("Connection failure exception: " + e, e);
+                return null;
+            }
+            try {
+                localTransport = createLocalTransport();
+            } catch (Exception e) {
+                ServiceSupport.dispose(remoteTransport);
+                LOG.warn("Could not connect to local URI: " + localURI + ": " + e.getMessage());
+                LOG.debug("Connection failure exception: " + e, e);
+                return null;
+            }
+        } finally {
+            SslContext.setCurrentSslContext(null);
+        }
+        return new Transport[] {localTransport, remoteTransport};
+    }
+
+    /**
+     * @param transports gets the transports of the bridges, which are disposed
+     *            here when not all of them could be connected
+     * @return the parallel bridges to the remote broker, null if they could not
+     *         all be connected
+     */
+    private NetworkBridge createStripedBridge(URI connectUri, DiscoveryEvent event, List<Transport> transports) {
+        StripedNetworkBridge result = new StripedNetworkBridge();
+        result.setNetworkBridgeListener(createBridgeListener(event));
+        for (int i = 0; i < getParallelConnections(); i++) {
+            Transport[] pair = connect(connectUri);
+            if (pair == null) {
+                // none of the bridges was started, so stopping them would not
+                // stop their transports
+                for (Transport transport : transports) {
+                    ServiceSupport.dispose(transport);
+                }
+                return null;
+            }
+            transports.addAll(Arrays.asList(pair));
+            DemandForwardingBridge stripe = NetworkBridgeFactory.createBridge(this, pair[0], pair[1]);
+            stripe.setBrokerService(getBrokerService());
+            result.addStripe(stripe);
+            configureBridge(stripe);
+        }
+        return result;
+    }
+
     public void onServiceRemove(DiscoveryEvent event) {
         String url = event.getServiceName();
         if (url != null) {
@@ -172,6 +229,10 @@ public class DiscoveryNetworkConnector extends NetworkConnector implements Disco
             synchronized (bridges) {
                 bridge = bridges.remove(uri);
             }
+            if (bridge instanceof StripedNetworkBridge) {
+                // the stripes that did not fail are still running
+                ServiceSupport.dispose(bridge);
+            }
         }
     }
 
@@ -214,6 +275,14 @@ public class DiscoveryNetworkConnector extends NetworkConnector implements Disco
     }
 
     protected NetworkBridge createBridge(Transport localTransport, Transport remoteTransport, final DiscoveryEvent event) {
+        NetworkBridgeListener listener = createBridgeListener(event);
+
+        DemandForwardingBridge result = NetworkBridgeFactory.createBridge(this, localTransport, remoteTransport, listener);
+        result.setBrokerService(getBrokerService());
+        return configureBridge(result);
+    }
+
+    private NetworkBridgeListener createBridgeListener(final DiscoveryEvent event) {
         class DiscoverNetworkBridgeListener extends MBeanNetworkListener {
 
             public DiscoverNetworkBridgeListener(BrokerService brokerService, ObjectName connectorName) {
@@ -230,11 +299,7 @@ public class DiscoveryNetworkConnector extends NetworkConnector implements Disco
 
             }
         }
-        NetworkBridgeListener listener = new DiscoverNetworkBridgeListener(getBrokerService(), getObjectName());
-
-        DemandForwardingBridge result = NetworkBridgeFactory.createBridge(this, localTransport, remoteTransport, listener);
-        result.setBrokerService(getBrokerService());
-        return configureBridge(result);
+        return new DiscoverNetworkBridgeListener(getBrokerService(), getObjectName());
     }
 
     @Override
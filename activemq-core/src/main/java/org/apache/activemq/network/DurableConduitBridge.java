@@ -58,7 +58,7 @@ public class DurableConduitBridge extends ConduitBridge {
         if (dests != null) {
             for (int i = 0; i < dests.length; i++) {
                 ActiveMQDestination dest = dests[i];
-                if (isPermissableDestination(dest) && !doesConsumerExist(dest)) {
+                if (isPermissableDestination(dest) && isStripeDestination(dest) && !doesConsumerExist(dest)) {
                     DemandSubscription sub = createDemandSubscription(dest);
                     if (dest.isTopic()) {
                         sub.getLocalInfo().setSubscriptionName(getSubscriberName(dest));
@@ -84,9 +84,15 @@ public class MBeanNetworkListener implements NetworkBridgeListener {
 
     protected ObjectName createNetworkBridgeObjectName(NetworkBridge bridge) throws MalformedObjectNameException {
         Map<String, String> map = new HashMap<String, String>(connectorName.getKeyPropertyList());
-        return new ObjectName(connectorName.getDomain() + ":" + "BrokerName=" + JMXSupport.encodeObjectNamePart((String) map.get("BrokerName")) + "," + "Type=NetworkBridge,"
-                              + "NetworkConnectorName=" + JMXSupport.encodeObjectNamePart((String)map.get("NetworkConnectorName")) + "," + "Name="
-                              + JMXSupport.encodeObjectNamePart(JMXSupport.encodeObjectNamePart(bridge.getRemoteAddress())));
+        String name = connectorName.getDomain() + ":" + "BrokerName=" + JMXSupport.encodeObjectNamePart((String) map.get("BrokerName")) + "," + "Type=NetworkBridge,"
+                      + "NetworkConnectorName=" + JMXSupport.encodeObjectNamePart((String)map.get("NetworkConnectorName")) + "," + "Name="
+                      + JMXSupport.encodeObjectNamePart(JMXSupport.encodeObjectNamePart(bridge.getRemoteAddress()));
+        // the parallel bridges to a remote broker share its address, the
+        // striped bridge that sums them up keeps the name without a stripe
+        if (bridge instanceof DemandForwardingBridgeSupport && ((DemandForwardingBridgeSupport) bridge).isStriped()) {
+            name += ",Stripe=" + bridge.getStripe();
+        }
+        return new ObjectName(name);
     }
 
     public void setCreatedByDuplex(boolean createdByDuplex) {
@@ -58,6 +58,30 @@ public interface NetworkBridge extends Service {
 
     long getDequeueCounter();
 
+    /**
+     * @return the number of messages dispatched to the bridge and not yet
+     *         acked to the local broker
+     */
+    long getForwardWindowSize();
+
+    /**
+     * @return the average time in milliseconds the remote broker took to
+     *         receive a forwarded message
+     */
+    double getAverageForwardLatency();
+
+    /**
+     * @return the longest time in milliseconds the remote broker took to
+     *         receive a forwarded message
+     */
+    long getMaxForwardLatency();
+
+    /**
+     * @return the index of the bridge among the parallel bridges to the remote
+     *         broker, 0 if there is only one
+     */
+    int getStripe();
+
     void setMbeanObjectName(ObjectName objectName);
 
     ObjectName getMbeanObjectName();
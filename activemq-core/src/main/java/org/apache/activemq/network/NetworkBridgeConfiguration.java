@@ -53,6 +53,9 @@ public class NetworkBridgeConfiguration {
 
     private boolean alwaysSyncSend = false;
     private boolean staticBridge = false;
+    private int forwardBatchSize = 0;
+    private int parallelConnections = 1;
+    private boolean stripeByMessageGroup = false;
 
     /**
      * @return the conduitSubscriptions
@@ -348,6 +351,54 @@ public class NetworkBridgeConfiguration {
         this.alwaysSyncSend = alwaysSyncSend;
     }
 
+    public int getForwardBatchSize() {
+        return forwardBatchSize;
+    }
+
+    /**
+     * @param forwardBatchSize when greater than 0, the messages a subscription
+     * forwards are acked to the local broker with a single ack for a range of
+     * them, once the remote broker has received forwardBatchSize messages in a
+     * row, or all the messages forwarded so far. When 0, each message is acked
+     * on its own once the remote broker received it. The number of messages in
+     * flight remains bounded by the prefetchSize, which should be larger than
+     * the forwardBatchSize for forwards to carry on while a batch completes.
+     */
+    public void setForwardBatchSize(int forwardBatchSize) {
+        this.forwardBatchSize = forwardBatchSize;
+    }
+
+    public int getParallelConnections() {
+        return parallelConnections;
+    }
+
+    /**
+     * @param parallelConnections the number of bridges, each with connections
+     * of its own, to open to a remote broker found by discovery. The
+     * destinations are striped over the bridges by the hash of their name, so
+     * the messages of a destination are forwarded in order by a single bridge.
+     * A subscription to a wildcard destination is bridged as one destination.
+     */
+    public void setParallelConnections(int parallelConnections) {
+        this.parallelConnections = parallelConnections;
+    }
+
+    public boolean isStripeByMessageGroup() {
+        return stripeByMessageGroup;
+    }
+
+    /**
+     * @param stripeByMessageGroup when true, and there are parallelConnections,
+     * the messages of a queue are striped over the bridges by the hash of their
+     * JMSXGroupID, so each message group is forwarded in order by a single
+     * bridge. Messages without a group are all forwarded by the first bridge.
+     * Topics are still striped by destination. The bridges fail to start when
+     * the local transport is not a vm:// transport, or marshals.
+     */
+    public void setStripeByMessageGroup(boolean stripeByMessageGroup) {
+        this.stripeByMessageGroup = stripeByMessageGroup;
+    }
+
     public int getConsumerPriorityBase() {
         return consumerPriorityBase;
     }
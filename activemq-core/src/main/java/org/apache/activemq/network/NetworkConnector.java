@@ -290,6 +290,11 @@ public abstract class NetworkConnector extends NetworkBridgeConfiguration implem
                     removeSucceeded = true;
                     break;
                 }
+            } else if (bridge instanceof StripedNetworkBridge) {
+                if (((StripedNetworkBridge) bridge).removeDemandSubscriptionByLocalId(consumerId)) {
+                    removeSucceeded = true;
+                    break;
+                }
             }
         }
         return removeSucceeded;
@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.network;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.ObjectName;
+
+import org.apache.activemq.command.ConsumerId;
+import org.apache.activemq.util.ServiceStopper;
+
+/**
+ * The parallel bridges to a remote broker, each with connections of its own,
+ * managed as one bridge. The destinations, or the message groups of the
+ * queues, are striped over the bridges so the messages of each are forwarded
+ * in order by a single bridge.
+ *
+ * The bridges are started and stopped together, and once one of them fails
+ * the listener of the striped bridge is told so, once. The striped bridge is
+ * registered in JMX with the counters of its bridges summed up, and each
+ * bridge is registered on its own with its stripe.
+ */
+public class StripedNetworkBridge implements NetworkBridge {
+
+    private final List<DemandForwardingBridgeSupport> stripes = new CopyOnWriteArrayList<DemandForwardingBridgeSupport>();
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private final AtomicBoolean registered = new AtomicBoolean();
+    private volatile NetworkBridgeListener networkBridgeListener;
+    private ObjectName mbeanObjectName;
+
+    /**
+     * Adds the next stripe, which reports to the listener of the striped
+     * bridge.
+     */
+    public void addStripe(DemandForwardingBridgeSupport bridge) {
+        bridge.setStripe(stripes.size());
+        bridge.setNetworkBridgeListener(new StripeListener());
+        stripes.add(bridge);
+    }
+
+    public List<DemandForwardingBridgeSupport> getStripes() {
+        return stripes;
+    }
+
+    public void start() throws Exception {
+        for (DemandForwardingBridgeSupport bridge : stripes) {
+            bridge.start();
+        }
+    }
+
+    public void stop() throws Exception {
+        ServiceStopper stopper = new ServiceStopper();
+        for (DemandForwardingBridgeSupport bridge : stripes) {
+            stopper.stop(bridge);
+        }
+        NetworkBridgeListener l = networkBridgeListener;
+        if (l != null && registered.compareAndSet(true, false)) {
+            l.onStop(this);
+        }
+        stopper.throwFirstException();
+    }
+
+    public void serviceRemoteException(Throwable error) {
+        for (DemandForwardingBridgeSupport bridge : stripes) {
+            bridge.serviceRemoteException(error);
+        }
+    }
+
+    public void serviceLocalException(Throwable error) {
+        for (DemandForwardingBridgeSupport bridge : stripes) {
+            bridge.serviceLocalException(error);
+        }
+    }
+
+    public void setNetworkBridgeListener(NetworkBridgeListener listener) {
+        this.networkBridgeListener = listener;
+    }
+
+    /**
+     * @return true if one of the stripes removed the demand subscription
+     */
+    public boolean removeDemandSubscriptionByLocalId(ConsumerId consumerId) {
+        for (DemandForwardingBridgeSupport bridge : stripes) {
+            if (bridge.removeDemandSubscriptionByLocalId(consumerId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getRemoteAddress() {
+        return stripes.isEmpty() ? null : stripes.get(0).getRemoteAddress();
+    }
+
+    public String getRemoteBrokerName() {
+        return stripes.isEmpty() ? null : stripes.get(0).getRemoteBrokerName();
+    }
+
+    public String getLocalAddress() {
+        return stripes.isEmpty() ? null : stripes.get(0).getLocalAddress();
+    }
+
+    public String getLocalBrokerName() {
+        return stripes.isEmpty() ? null : stripes.get(0).getLocalBrokerName();
+    }
+
+    public long getEnqueueCounter() {
+        long rc = 0;
+        for (DemandForwardingBridgeSupport bridge : stripes) {
+            rc += bridge.getEnqueueCounter();
+        }
+        return rc;
+    }
+
+    public long getDequeueCounter() {
+        long rc = 0;
+        for (DemandForwardingBridgeSupport bridge : stripes) {
+            rc += bridge.getDequeueCounter();
+        }
+        return rc;
+    }
+
+    public long getForwardWindowSize() {
+        long rc = 0;
+        for (DemandForwardingBridgeSupport bridge : stripes) {
+            rc += bridge.getForwardWindowSize();
+        }
+        return rc;
+    }
+
+    public double getAverageForwardLatency() {
+        double total = 0;
+        long count = 0;
+        for (DemandForwardingBridgeSupport bridge : stripes) {
+            long forwards = bridge.forwardLatency.getCount();
+            total += bridge.getAverageForwardLatency() * forwards;
+            count += forwards;
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    public long getMaxForwardLatency() {
+        long rc = 0;
+        for (DemandForwardingBridgeSupport bridge : stripes) {
+            rc = Math.max(rc, bridge.getMaxForwardLatency());
+        }
+        return rc;
+    }
+
+    public int getStripe() {
+        return 0;
+    }
+
+    public void setMbeanObjectName(ObjectName objectName) {
+        this.mbeanObjectName = objectName;
+    }
+
+    public ObjectName getMbeanObjectName() {
+        return mbeanObjectName;
+    }
+
+    @Override
+    public String toString() {
+        return "StripedNetworkBridge" + stripes;
+    }
+
+    private class StripeListener implements NetworkBridgeListener {
+
+        public void bridgeFailed() {
+            NetworkBridgeListener l = networkBridgeListener;
+            if (l != null && failed.compareAndSet(false, true)) {
+                l.bridgeFailed();
+            }
+        }
+
+        public void onStart(NetworkBridge bridge) {
+            NetworkBridgeListener l = networkBridgeListener;
+            if (l != null) {
+                // the striped bridge is there once the first stripe is
+                if (registered.compareAndSet(false, true)) {
+                    l.onStart(StripedNetworkBridge.this);
+                }
+                l.onStart(bridge);
+            }
+        }
+
+        public void onStop(NetworkBridge bridge) {
+            NetworkBridgeListener l = networkBridgeListener;
+            if (l != null) {
+                l.onStop(bridge);
+            }
+        }
+    }
+}
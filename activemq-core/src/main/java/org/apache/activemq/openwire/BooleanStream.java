@@ -20,6 +20,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public final class BooleanStream {
 
@@ -109,6 +110,16 @@ public final class BooleanStream {
         bytePos = 0;
     }
 
+    /**
+     * Empties the stream so it can be written again.
+     */
+    void reset() {
+        Arrays.fill(data, 0, arrayLimit, (byte)0);
+        arrayLimit = 0;
+        arrayPos = 0;
+        bytePos = 0;
+    }
+
     public int marshalledSize() {
         if (arrayLimit < 64) {
             return 1 + arrayLimit;
@@ -33,8 +33,19 @@ import org.apache.activemq.util.DataByteArrayOutputStream;
 import org.apache.activemq.wireformat.WireFormat;
 
 /**
- * 
- * 
+ * The OpenWire wire format.
+ *
+ * Marshalling and unmarshalling keep their state, the output and input
+ * streams and the {@link BooleanStream}, per call, so any number of threads
+ * can marshal through one format concurrently. The exception is the value
+ * cache: when it is enabled the cache indexes written to the stream have to
+ * follow the order the commands are marshalled in, so the cached format
+ * marshals and unmarshals one command at a time, as it always did.
+ *
+ * The scratch state that does not escape a call, the {@link BooleanStream}
+ * and the buffer a loosely encoded command is framed in, is recycled by the
+ * thread, so marshalling onto a transport's output stream does not allocate
+ * it per command.
  */
 public final class OpenWireFormat implements WireFormat {
 
@@ -45,15 +56,21 @@ public final class OpenWireFormat implements WireFormat {
     static final byte NULL_TYPE = CommandTypes.NULL;
     private static final int MARSHAL_CACHE_SIZE = Short.MAX_VALUE / 2;
     private static final int MARSHAL_CACHE_FREE_SPACE = 100;
-
-    private DataStreamMarshaller dataMarshallers[];
-    private int version;
-    private boolean stackTraceEnabled;
-    private boolean tcpNoDelayEnabled;
-    private boolean cacheEnabled;
-    private boolean tightEncodingEnabled;
-    private boolean sizePrefixDisabled;
-    private long maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    // a larger frame buffer is dropped after use, not kept by the thread
+    private static final int MAX_RECYCLED_FRAME_SIZE = 64 * 1024;
+
+    // taken by a thread while it marshals, so a nested call gets its own
+    private static final ThreadLocal<BooleanStream> BOOLEAN_STREAMS = new ThreadLocal<BooleanStream>();
+    private static final ThreadLocal<DataByteArrayOutputStream> FRAME_BUFFERS = new ThreadLocal<DataByteArrayOutputStream>();
+
+    private volatile DataStreamMarshaller dataMarshallers[];
+    private volatile int version;
+    private volatile boolean stackTraceEnabled;
+    private volatile boolean tcpNoDelayEnabled;
+    private volatile boolean cacheEnabled;
+    private volatile boolean tightEncodingEnabled;
+    private volatile boolean sizePrefixDisabled;
+    private volatile long maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
 
     // The following fields are used for value caching
     private short nextMarshallCacheIndex;
@@ -61,8 +78,6 @@ public final class OpenWireFormat implements WireFormat {
     private Map<DataStructure, Short> marshallCacheMap = new HashMap<DataStructure, Short>();
     private DataStructure marshallCache[] = null;
     private DataStructure unmarshallCache[] = null;
-    private DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream();
-    private DataByteArrayInputStream bytesIn = new DataByteArrayInputStream();
     private WireFormatInfo preferedWireFormatInfo;
     
     public OpenWireFormat() {
@@ -113,11 +128,17 @@ public final class OpenWireFormat implements WireFormat {
         return version;
     }
 
-    public synchronized ByteSequence marshal(Object command) throws IOException {
-
+    public ByteSequence marshal(Object command) throws IOException {
         if (cacheEnabled) {
-            runMarshallCacheEvictionSweep();
+            synchronized (this) {
+                runMarshallCacheEvictionSweep();
+                return doMarshal(command);
+            }
         }
+        return doMarshal(command);
+    }
+
+    private ByteSequence doMarshal(Object command) throws IOException {
 
 //        MarshallAware ma = null;
 //        // If not using value caching, then the marshaled form is always the
@@ -144,11 +165,11 @@ public final class OpenWireFormat implements WireFormat {
                 }
                 if (tightEncodingEnabled) {
 
-                    BooleanStream bs = new BooleanStream();
+                    BooleanStream bs = takeBooleanStream();
                     size += dsm.tightMarshal1(this, c, bs);
                     size += bs.marshalledSize();
 
-                    bytesOut.restart(size);
+                    DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream(size);
                     if (!sizePrefixDisabled) {
                         bytesOut.writeInt(size);
                     }
@@ -156,9 +177,10 @@ public final class OpenWireFormat implements WireFormat {
                     bs.marshal(bytesOut);
                     dsm.tightMarshal2(this, c, bytesOut, bs);
                     sequence = bytesOut.toByteSequence();
+                    recycle(bs);
 
                 } else {
-                    bytesOut.restart();
+                    DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream();
                     if (!sizePrefixDisabled) {
                         bytesOut.writeInt(0); // we don't know the final size
                                                 // yet but write this here for
@@ -177,7 +199,7 @@ public final class OpenWireFormat implements WireFormat {
                 }
 
             } else {
-                bytesOut.restart(5);
+                DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream(5);
                 bytesOut.writeInt(size);
                 bytesOut.writeByte(NULL_TYPE);
                 sequence = bytesOut.toByteSequence();
@@ -190,8 +212,17 @@ public final class OpenWireFormat implements WireFormat {
         return sequence;
     }
 
-    public synchronized Object unmarshal(ByteSequence sequence) throws IOException {
-        bytesIn.restart(sequence);
+    public Object unmarshal(ByteSequence sequence) throws IOException {
+        if (cacheEnabled) {
+            synchronized (this) {
+                return doUnmarshal(sequence);
+            }
+        }
+        return doUnmarshal(sequence);
+    }
+
+    private Object doUnmarshal(ByteSequence sequence) throws IOException {
+        DataByteArrayInputStream bytesIn = new DataByteArrayInputStream(sequence);
         // DataInputStream dis = new DataInputStream(new
         // ByteArrayInputStream(sequence));
 
@@ -214,11 +245,18 @@ public final class OpenWireFormat implements WireFormat {
         return command;
     }
 
-    public synchronized void marshal(Object o, DataOutput dataOut) throws IOException {
-
+    public void marshal(Object o, DataOutput dataOut) throws IOException {
         if (cacheEnabled) {
-            runMarshallCacheEvictionSweep();
+            synchronized (this) {
+                runMarshallCacheEvictionSweep();
+                doMarshal(o, dataOut);
+            }
+        } else {
+            doMarshal(o, dataOut);
         }
+    }
+
+    private void doMarshal(Object o, DataOutput dataOut) throws IOException {
 
         int size = 1;
         if (o != null) {
@@ -230,7 +268,7 @@ public final class OpenWireFormat implements WireFormat {
                 throw new IOException("Unknown data type: " + type);
             }
             if (tightEncodingEnabled) {
-                BooleanStream bs = new BooleanStream();
+                BooleanStream bs = takeBooleanStream();
                 size += dsm.tightMarshal1(this, c, bs);
                 size += bs.marshalledSize();
 
@@ -241,12 +279,14 @@ public final class OpenWireFormat implements WireFormat {
                 dataOut.writeByte(type);
                 bs.marshal(dataOut);
                 dsm.tightMarshal2(this, c, dataOut, bs);
+                recycle(bs);
 
             } else {
                 DataOutput looseOut = dataOut;
 
+                DataByteArrayOutputStream bytesOut = null;
                 if (!sizePrefixDisabled) {
-                    bytesOut.restart();
+                    bytesOut = takeFrameBuffer();
                     looseOut = bytesOut;
                 }
 
@@ -257,6 +297,7 @@ public final class OpenWireFormat implements WireFormat {
                     ByteSequence sequence = bytesOut.toByteSequence();
                     dataOut.writeInt(sequence.getLength());
                     dataOut.write(sequence.getData(), sequence.getOffset(), sequence.getLength());
+                    recycle(bytesOut);
                 }
 
             }
@@ -366,9 +407,10 @@ public final class OpenWireFormat implements WireFormat {
             }
             Object data = dsm.createObject();
             if (this.tightEncodingEnabled) {
-                BooleanStream bs = new BooleanStream();
+                BooleanStream bs = takeBooleanStream();
                 bs.unmarshal(dis);
                 dsm.tightUnmarshal(this, data, dis, bs);
+                recycle(bs);
             } else {
                 dsm.looseUnmarshal(this, data, dis);
             }
@@ -378,6 +420,36 @@ public final class OpenWireFormat implements WireFormat {
         }
     }
 
+    private static BooleanStream takeBooleanStream() {
+        BooleanStream bs = BOOLEAN_STREAMS.get();
+        if (bs == null) {
+            return new BooleanStream();
+        }
+        BOOLEAN_STREAMS.set(null);
+        bs.reset();
+        return bs;
+    }
+
+    private static void recycle(BooleanStream bs) {
+        BOOLEAN_STREAMS.set(bs);
+    }
+
+    private static DataByteArrayOutputStream takeFrameBuffer() {
+        DataByteArrayOutputStream buffer = FRAME_BUFFERS.get();
+        if (buffer == null) {
+            return new DataByteArrayOutputStream();
+        }
+        FRAME_BUFFERS.set(null);
+        buffer.reset();
+        return buffer;
+    }
+
+    private static void recycle(DataByteArrayOutputStream buffer) {
+        if (buffer.getData().length <= MAX_RECYCLED_FRAME_SIZE) {
+            FRAME_BUFFERS.set(buffer);
+        }
+    }
+
     // public void debug(String msg) {
     // String t = (Thread.currentThread().getName()+" ").substring(0, 40);
     // System.out.println(t+": "+msg);
@@ -611,7 +683,7 @@ public final class OpenWireFormat implements WireFormat {
         this.maxFrameSize = maxFrameSize;
     }
 
-    public void renegotiateWireFormat(WireFormatInfo info) throws IOException {
+    public synchronized void renegotiateWireFormat(WireFormatInfo info) throws IOException {
 
         if (preferedWireFormatInfo == null) {
             throw new IllegalStateException("Wireformat cannot not be renegotiated.");
@@ -304,14 +304,11 @@ public abstract class BaseDataStreamMarshaller implements DataStreamMarshaller {
 
             int strlen = value.length();
             int utflen = 0;
-            char[] charr = new char[strlen];
             int c = 0;
             boolean isOnlyAscii = true;
 
-            value.getChars(0, strlen, charr, 0);
-
             for (int i = 0; i < strlen; i++) {
-                c = charr[i];
+                c = value.charAt(i);
                 if ((c >= 0x0001) && (c <= 0x007F)) {
                     utflen++;
                 } else if (c > 0x07FF) {
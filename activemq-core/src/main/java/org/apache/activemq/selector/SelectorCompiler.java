@@ -0,0 +1,459 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.selector;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+
+import org.apache.activemq.filter.BooleanExpression;
+import org.apache.activemq.filter.ComparisonExpression;
+import org.apache.activemq.filter.ConstantExpression;
+import org.apache.activemq.filter.Expression;
+import org.apache.activemq.filter.LogicExpression;
+import org.apache.activemq.filter.MessageEvaluationContext;
+import org.apache.activemq.filter.PropertyExpression;
+import org.apache.activemq.filter.UnaryExpression;
+import org.apache.activemq.util.LRUCache;
+
+/**
+ * Compiles the expression tree of a selector, as created by the
+ * {@link SelectorParser}, into a tree of evaluators specialized for the
+ * operand types the selector was written with.
+ *
+ * The interpreted tree returns a boxed Boolean, or null, from every node and
+ * works out the operand types of each comparison for every message. The
+ * compiled tree returns a primitive three valued result and compares
+ * properties against numeric and string literals with primitive comparisons,
+ * so no node allocates. Only when a property turns out to have a type the
+ * literal was not written for, such as a string property compared with a
+ * number, is the comparison handed back to the interpreted node, so a compiled
+ * selector always gives the same result as the interpreted one.
+ *
+ * Parts of a selector that can't be specialized, such as LIKE or XPATH, are
+ * evaluated by their interpreted nodes. Compiled selectors are cached by
+ * selector text. Compilation is enabled with the
+ * <code>org.apache.activemq.selector.compile</code> system property.
+ */
+public final class SelectorCompiler {
+
+    static final int FALSE = 0;
+    static final int TRUE = 1;
+    static final int UNKNOWN = 2;
+
+    private static final boolean ENABLED = "true".equalsIgnoreCase(System.getProperty("org.apache.activemq.selector.compile"));
+    private static final Map<String, BooleanExpression> CACHE = Collections.synchronizedMap(new LRUCache<String, BooleanExpression>(100));
+
+    private SelectorCompiler() {
+    }
+
+    /**
+     * @return true if the broker should compile the selectors of its
+     *         subscriptions
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Parses and compiles a selector.
+     */
+    public static BooleanExpression compile(String selector) throws InvalidSelectorException {
+        BooleanExpression result = CACHE.get(selector);
+        if (result == null) {
+            result = compile(SelectorParser.parse(selector));
+            CACHE.put(selector, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the compiled expression, or the expression itself if none of it
+     *         can be specialized
+     */
+    public static BooleanExpression compile(BooleanExpression expression) {
+        Node node = compileNode(expression);
+        if (node instanceof Interpreted) {
+            return expression;
+        }
+        return new CompiledExpression(expression, node);
+    }
+
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * A compiled selector, it evaluates to the same result as the expression
+     * it was compiled from.
+     */
+    public static final class CompiledExpression implements BooleanExpression {
+
+        private final BooleanExpression expression;
+        private final Node node;
+
+        CompiledExpression(BooleanExpression expression, Node node) {
+            this.expression = expression;
+            this.node = node;
+        }
+
+        /**
+         * @return the interpreted expression this one was compiled from
+         */
+        public BooleanExpression getExpression() {
+            return expression;
+        }
+
+        public boolean matches(MessageEvaluationContext message) throws JMSException {
+            return node.test(message) == TRUE;
+        }
+
+        public Object evaluate(MessageEvaluationContext message) throws JMSException {
+            return toBoolean(node.test(message));
+        }
+
+        public String toString() {
+            return expression.toString();
+        }
+    }
+
+    static Node compileNode(Expression expression) {
+        if (expression instanceof CompiledExpression) {
+            return ((CompiledExpression) expression).node;
+        }
+        if (expression instanceof LogicExpression) {
+            LogicExpression logic = (LogicExpression) expression;
+            Node left = compileNode(logic.getLeft());
+            Node right = compileNode(logic.getRight());
+            if ("AND".equals(logic.getExpressionSymbol())) {
+                return new And(left, right);
+            } else if ("OR".equals(logic.getExpressionSymbol())) {
+                return new Or(left, right);
+            }
+        } else if (expression instanceof ComparisonExpression) {
+            Node node = compileComparison((ComparisonExpression) expression);
+            if (node != null) {
+                return node;
+            }
+        } else if (expression instanceof UnaryExpression.InExpression) {
+            UnaryExpression.InExpression in = (UnaryExpression.InExpression) expression;
+            Set<Object> values = new HashSet<Object>();
+            if (in.getInList() != null) {
+                values.addAll(in.getInList());
+            }
+            return new In(in.getProperty(), values, in.isNot());
+        } else if (expression instanceof UnaryExpression) {
+            UnaryExpression unary = (UnaryExpression) expression;
+            if ("NOT".equals(unary.getExpressionSymbol()) && unary instanceof BooleanExpression) {
+                return new Not(compileNode(unary.getRight()));
+            }
+            if ("".equals(unary.getExpressionSymbol()) && unary.getRight() instanceof PropertyExpression) {
+                return new BooleanProperty((PropertyExpression) unary.getRight());
+            }
+        } else if (expression == ConstantExpression.TRUE) {
+            return new Constant(TRUE);
+        } else if (expression == ConstantExpression.FALSE) {
+            return new Constant(FALSE);
+        }
+        return new Interpreted(expression);
+    }
+
+    private static Node compileComparison(ComparisonExpression comparison) {
+        if (!(comparison.getLeft() instanceof PropertyExpression) || !(comparison.getRight() instanceof ConstantExpression)) {
+            return null;
+        }
+        PropertyExpression property = (PropertyExpression) comparison.getLeft();
+        Object value = ((ConstantExpression) comparison.getRight()).getValue();
+        String symbol = comparison.getExpressionSymbol();
+        if ("=".equals(symbol)) {
+            if (value == null) {
+                return new IsNull(property);
+            } else if (value instanceof String) {
+                return new StringEquals(comparison, property, (String) value);
+            }
+        }
+        int operator;
+        if ("=".equals(symbol)) {
+            operator = NumericComparison.EQ;
+        } else if (">".equals(symbol)) {
+            operator = NumericComparison.GT;
+        } else if (">=".equals(symbol)) {
+            operator = NumericComparison.GE;
+        } else if ("<".equals(symbol)) {
+            operator = NumericComparison.LT;
+        } else if ("<=".equals(symbol)) {
+            operator = NumericComparison.LE;
+        } else {
+            return null;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Double) {
+            return new NumericComparison(comparison, property, (Number) value, operator);
+        }
+        return null;
+    }
+
+    static Boolean toBoolean(int result) {
+        if (result == UNKNOWN) {
+            return null;
+        }
+        return result == TRUE ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    static int toResult(Object value) {
+        if (value == null) {
+            return UNKNOWN;
+        }
+        return ((Boolean) value).booleanValue() ? TRUE : FALSE;
+    }
+
+    abstract static class Node {
+        abstract int test(MessageEvaluationContext message) throws JMSException;
+    }
+
+    /**
+     * Evaluates a part of the selector that can't be compiled.
+     */
+    static final class Interpreted extends Node {
+        private final Expression expression;
+
+        Interpreted(Expression expression) {
+            this.expression = expression;
+        }
+
+        int test(MessageEvaluationContext message) throws JMSException {
+            return toResult(expression.evaluate(message));
+        }
+    }
+
+    static final class Constant extends Node {
+        private final int result;
+
+        Constant(int result) {
+            this.result = result;
+        }
+
+        int test(MessageEvaluationContext message) {
+            return result;
+        }
+    }
+
+    static final class And extends Node {
+        private final Node left;
+        private final Node right;
+
+        And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        int test(MessageEvaluationContext message) throws JMSException {
+            int lv = left.test(message);
+            if (lv != TRUE) {
+                return lv;
+            }
+            return right.test(message);
+        }
+    }
+
+    static final class Or extends Node {
+        private final Node left;
+        private final Node right;
+
+        Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        int test(MessageEvaluationContext message) throws JMSException {
+            if (left.test(message) == TRUE) {
+                return TRUE;
+            }
+            return right.test(message);
+        }
+    }
+
+    static final class Not extends Node {
+        private final Node operand;
+
+        Not(Node operand) {
+            this.operand = operand;
+        }
+
+        int test(MessageEvaluationContext message) throws JMSException {
+            int rc = operand.test(message);
+            if (rc == UNKNOWN) {
+                return UNKNOWN;
+            }
+            return rc == TRUE ? FALSE : TRUE;
+        }
+    }
+
+    static final class BooleanProperty extends Node {
+        private final PropertyExpression property;
+
+        BooleanProperty(PropertyExpression property) {
+            this.property = property;
+        }
+
+        int test(MessageEvaluationContext message) throws JMSException {
+            Object value = property.evaluate(message);
+            if (value == null) {
+                return UNKNOWN;
+            }
+            if (value.getClass() != Boolean.class) {
+                return FALSE;
+            }
+            return ((Boolean) value).booleanValue() ? TRUE : FALSE;
+        }
+    }
+
+    static final class IsNull extends Node {
+        private final PropertyExpression property;
+
+        IsNull(PropertyExpression property) {
+            this.property = property;
+        }
+
+        int test(MessageEvaluationContext message) throws JMSException {
+            return property.evaluate(message) == null ? TRUE : FALSE;
+        }
+    }
+
+    static final class In extends Node {
+        private final PropertyExpression property;
+        private final Set<Object> values;
+        private final boolean not;
+
+        In(PropertyExpression property, Set<Object> values, boolean not) {
+            this.property = property;
+            this.values = values;
+            this.not = not;
+        }
+
+        int test(MessageEvaluationContext message) throws JMSException {
+            Object value = property.evaluate(message);
+            if (value == null || value.getClass() != String.class) {
+                return UNKNOWN;
+            }
+            return values.contains(value) ^ not ? TRUE : FALSE;
+        }
+    }
+
+    static final class StringEquals extends Node {
+        private final Expression interpreted;
+        private final PropertyExpression property;
+        private final String value;
+
+        StringEquals(Expression interpreted, PropertyExpression property, String value) {
+            this.interpreted = interpreted;
+            this.property = property;
+            this.value = value;
+        }
+
+        int test(MessageEvaluationContext message) throws JMSException {
+            Object lv = property.evaluate(message);
+            if (lv == null) {
+                return FALSE;
+            }
+            if (lv.getClass() == String.class) {
+                return value.equals(lv) ? TRUE : FALSE;
+            }
+            // = converts the other types
+            return toResult(interpreted.evaluate(message));
+        }
+    }
+
+    /**
+     * Compares a numeric property with a numeric literal, converting the
+     * operands the same way {@link ComparisonExpression} does, but without
+     * boxing them.
+     */
+    static final class NumericComparison extends Node {
+        static final int EQ = 0;
+        static final int GT = 1;
+        static final int GE = 2;
+        static final int LT = 3;
+        static final int LE = 4;
+
+        private final Expression interpreted;
+        private final PropertyExpression property;
+        private final boolean integral;
+        private final long longValue;
+        private final double doubleValue;
+        private final int operator;
+
+        NumericComparison(Expression interpreted, PropertyExpression property, Number value, int operator) {
+            this.interpreted = interpreted;
+            this.property = property;
+            this.integral = !(value instanceof Double);
+            this.longValue = value.longValue();
+            this.doubleValue = value.doubleValue();
+            this.operator = operator;
+        }
+
+        int test(MessageEvaluationContext message) throws JMSException {
+            Object lv = property.evaluate(message);
+            if (lv == null) {
+                // = is false for a missing property, the others unknown
+                return operator == EQ ? FALSE : UNKNOWN;
+            }
+            Class<?> type = lv.getClass();
+            int cmp;
+            if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+                if (integral) {
+                    long l = ((Number) lv).longValue();
+                    cmp = l < longValue ? -1 : (l == longValue ? 0 : 1);
+                } else {
+                    cmp = Double.compare(((Number) lv).doubleValue(), doubleValue);
+                }
+            } else if (type == Double.class) {
+                cmp = Double.compare(((Double) lv).doubleValue(), doubleValue);
+            } else if (type == Float.class) {
+                if (integral) {
+                    cmp = Float.compare(((Float) lv).floatValue(), (float) longValue);
+                } else {
+                    cmp = Double.compare(((Float) lv).doubleValue(), doubleValue);
+                }
+            } else {
+                // strings are converted, other types never match
+                return toResult(interpreted.evaluate(message));
+            }
+            boolean rc;
+            switch (operator) {
+            case EQ:
+                rc = cmp == 0;
+                break;
+            case GT:
+                rc = cmp > 0;
+                break;
+            case GE:
+                rc = cmp >= 0;
+                break;
+            case LT:
+                rc = cmp < 0;
+                break;
+            default:
+                rc = cmp <= 0;
+            }
+            return rc ? TRUE : FALSE;
+        }
+    }
+}
@@ -59,7 +59,6 @@ public class ConnectionStateTracker extends CommandVisitorAdapter {
     private static final Logger LOG = LoggerFactory.getLogger(ConnectionStateTracker.class);
 
     private static final Tracked TRACKED_RESPONSE_MARKER = new Tracked(null);
-    private static final int MESSAGE_PULL_SIZE = 400;
     protected final ConcurrentHashMap<ConnectionId, ConnectionState> connectionStates = new ConcurrentHashMap<ConnectionId, ConnectionState>(); 
 
     private boolean trackTransactions;
@@ -70,23 +69,9 @@ public class ConnectionStateTracker extends CommandVisitorAdapter {
     private boolean trackMessages = true;
     private boolean trackTransactionProducers = true;
     private int maxCacheSize = 128 * 1024;
-    private int currentCacheSize;
-    private Map<Object,Command> messageCache = new LinkedHashMap<Object,Command>(){
-        protected boolean removeEldestEntry(Map.Entry<Object,Command> eldest) {
-            boolean result = currentCacheSize > maxCacheSize;
-            if (result) {
-                if (eldest.getValue() instanceof Message) {
-                    currentCacheSize -= ((Message)eldest.getValue()).getSize();
-                } else if (eldest.getValue() instanceof MessagePull) {
-                    currentCacheSize -= MESSAGE_PULL_SIZE;
-                }
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace("removing tracked message: " + eldest.getKey());
-                }
-            }
-            return result;
-        }
-    };
+    private final MessageReplayCache messageCache = new MessageReplayCache();
+    // the last pull of each consumer
+    private final Map<ConsumerId, MessagePull> pullCache = new LinkedHashMap<ConsumerId, MessagePull>();
     
     private class RemoveTransactionAction implements ResponseHandler {
         private final TransactionInfo info;
@@ -134,16 +119,15 @@ public class ConnectionStateTracker extends CommandVisitorAdapter {
         }
     }
     
+    /**
+     * Called once the command was sent, caches the messages that are to be
+     * replayed.
+     */
     public void trackBack(Command command) {
-        if (command != null) {
-            if (trackMessages && command.isMessage()) {
-                Message message = (Message) command;
-                if (message.getTransactionId()==null) {
-                    currentCacheSize = currentCacheSize +  message.getSize();
-                }
-            } else if (command instanceof MessagePull) {
-                // just needs to be a rough estimate of size, ~4 identifiers
-                currentCacheSize += MESSAGE_PULL_SIZE;
+        if (trackMessages && command != null && command.isMessage()) {
+            Message message = (Message) command;
+            if (message.getTransactionId() == null || !trackTransactions) {
+                messageCache.add(message, maxCacheSize);
             }
         }
     }
@@ -168,11 +152,15 @@ public class ConnectionStateTracker extends CommandVisitorAdapter {
             }
         }
         //now flush messages
-        for (Command msg:messageCache.values()) {
+        int replayed = messageCache.replay(transport);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("replayed " + replayed + " cached messages");
+        }
+        for (MessagePull pull : pullCache.values()) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("command: " + (msg.isMessage() ? ((Message) msg).getMessageId() : msg));
+                LOG.debug("command: " + pull);
             }
-            transport.oneway(msg);
+            transport.oneway(pull);
         }
     }
 
@@ -390,6 +378,7 @@ public class ConnectionStateTracker extends CommandVisitorAdapter {
 
     public Response processRemoveConsumer(ConsumerId id, long lastDeliveredSequenceId) {
         if (id != null) {
+            pullCache.remove(id);
             SessionId sessionId = id.getParentId();
             if (sessionId != null) {
                 ConnectionId connectionId = sessionId.getParentId();
@@ -470,8 +459,6 @@ public class ConnectionStateTracker extends CommandVisitorAdapter {
                     }
                 }
                 return TRACKED_RESPONSE_MARKER;
-            }else if (trackMessages) {
-                messageCache.put(send.getMessageId(), send);
             }
         }
         return null;
@@ -582,8 +569,7 @@ public class ConnectionStateTracker extends CommandVisitorAdapter {
     public Response processMessagePull(MessagePull pull) throws Exception {
         if (pull != null) {
             // leave a single instance in the cache
-            final String id = pull.getDestination() + "::" + pull.getConsumerId();
-            messageCache.put(id.intern(), pull);
+            pullCache.put(pull.getConsumerId(), pull);
         }
         return null;
     }
@@ -652,6 +638,33 @@ public class ConnectionStateTracker extends CommandVisitorAdapter {
         this.maxCacheSize = maxCacheSize;
     }
 
+    /**
+     * @return the size of the messages cached for replay
+     */
+    public long getCurrentCacheSize() {
+        return messageCache.getSize();
+    }
+
+    public int getCachedMessageCount() {
+        return messageCache.getCount();
+    }
+
+    /**
+     * @return the number of messages evicted from the cache to keep it under
+     *         the max cache size
+     */
+    public long getEvictedMessageCount() {
+        return messageCache.getEvictedCount();
+    }
+
+    /**
+     * @return the number of cached messages replayed on the transports
+     *         established since the tracker was created
+     */
+    public long getReplayedMessageCount() {
+        return messageCache.getReplayedCount();
+    }
+
     public void connectionInterruptProcessingComplete(Transport transport, ConnectionId connectionId) {
         ConnectionState connectionState = connectionStates.get(connectionId);
         if (connectionState != null) {
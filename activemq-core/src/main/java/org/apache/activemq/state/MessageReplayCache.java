@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.state;
+
+import java.io.IOException;
+
+import org.apache.activemq.command.Message;
+import org.apache.activemq.transport.Transport;
+
+/**
+ * The messages sent on a connection that are replayed when its transport is
+ * re-established, bounded by their size.
+ *
+ * The messages are kept in send order in a ring, so adding a message and
+ * evicting the oldest ones to make room takes constant time and allocates
+ * nothing, unlike a linked map entry per message. The messages were
+ * marshalled when they were first sent, so they keep their marshalled
+ * content and properties, and a replay only marshals their headers again.
+ *
+ * The cache is not thread safe, the tracker is used under the lock of the
+ * failover transport, but the counters can be read from any thread.
+ */
+final class MessageReplayCache {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Message[] messages = new Message[INITIAL_CAPACITY];
+    private int[] sizes = new int[INITIAL_CAPACITY];
+    // index of the oldest message
+    private int head;
+    private volatile int count;
+    private volatile long size;
+    private volatile long evictedCount;
+    private volatile long replayedCount;
+
+    /**
+     * Adds the message, and evicts the oldest messages while the cache is
+     * larger than the max size.
+     */
+    void add(Message message, int maxSize) {
+        if (count == messages.length) {
+            grow();
+        }
+        int index = (head + count) % messages.length;
+        int messageSize = message.getSize();
+        messages[index] = message;
+        sizes[index] = messageSize;
+        count++;
+        size += messageSize;
+        while (size > maxSize && count > 0) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * Sends the messages on the transport, oldest first.
+     *
+     * @return the number of messages sent
+     */
+    int replay(Transport transport) throws IOException {
+        int replayed = 0;
+        for (int i = 0; i < count; i++) {
+            transport.oneway(messages[(head + i) % messages.length]);
+            replayed++;
+            replayedCount++;
+        }
+        return replayed;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getEvictedCount() {
+        return evictedCount;
+    }
+
+    long getReplayedCount() {
+        return replayedCount;
+    }
+
+    private void evictOldest() {
+        size -= sizes[head];
+        messages[head] = null;
+        head = (head + 1) % messages.length;
+        count--;
+        evictedCount++;
+    }
+
+    private void grow() {
+        Message[] newMessages = new Message[messages.length * 2];
+        int[] newSizes = new int[messages.length * 2];
+        for (int i = 0; i < count; i++) {
+            newMessages[i] = messages[(head + i) % messages.length];
+            newSizes[i] = sizes[(head + i) % messages.length];
+        }
+        messages = newMessages;
+        sizes = newSizes;
+        head = 0;
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.jdbc;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the statements of concurrent non transacted sends and acks into
+ * one JDBC batch and a single commit.
+ *
+ * There is no commit thread: the first caller that finds no commit in
+ * progress leads the next group. It waits up to the linger time for more
+ * work to queue up, runs the work of up to max batch size callers on one
+ * {@link TransactionContext} and commits it, while the other callers wait
+ * for the commit of their group. If a group fails to commit, its work is
+ * retried one caller at a time, so a failure is only reported to the caller
+ * whose work failed.
+ *
+ * Work can also be submitted without waiting for its commit: the group is
+ * then led by whoever first waits on a returned future, so a queue can
+ * dispatch a message outside its send lock while the add is grouped with
+ * those of the other producers.
+ */
+public class GroupCommitter {
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommitter.class);
+
+    /**
+     * The statements of a caller, run on the transaction context of its group.
+     */
+    public interface Work {
+        void run(TransactionContext c) throws SQLException, IOException;
+    }
+
+    private final JDBCPersistenceAdapter persistenceAdapter;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final LinkedList<Request> pending = new LinkedList<Request>();
+    private boolean committing;
+    private long groupCount;
+    private int largestGroupSize;
+
+    public GroupCommitter(JDBCPersistenceAdapter persistenceAdapter, int maxBatchSize, long linger) {
+        this.persistenceAdapter = persistenceAdapter;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(linger);
+    }
+
+    /**
+     * Runs the work and returns once it is committed.
+     */
+    public void execute(Work work) throws SQLException, IOException {
+        Request request = new Request(work);
+        enqueue(request);
+        request.await();
+        if (request.failure instanceof SQLException) {
+            throw (SQLException) request.failure;
+        } else if (request.failure instanceof IOException) {
+            throw (IOException) request.failure;
+        } else if (request.failure instanceof RuntimeException) {
+            throw (RuntimeException) request.failure;
+        } else if (request.failure != null) {
+            throw (Error) request.failure;
+        }
+    }
+
+    /**
+     * Queues the work for the next group and returns without waiting for it.
+     * Getting the result of the returned future waits for the commit, or
+     * leads it, and fails with the exception of the work, if any.
+     */
+    public Future<Object> submit(Work work) {
+        Request request = new Request(work);
+        enqueue(request);
+        return request;
+    }
+
+    /**
+     * @return the number of groups committed, with work of more than one caller
+     */
+    public long getGroupCount() {
+        lock.lock();
+        try {
+            return groupCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the size of the largest group committed
+     */
+    public int getLargestGroupSize() {
+        lock.lock();
+        try {
+            return largestGroupSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Request request) {
+        lock.lock();
+        try {
+            pending.add(request);
+            if (pending.size() >= maxBatchSize) {
+                // wake up a lingering leader
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the request to be committed, leading the next group whenever
+     * no commit is in progress. Needs the lock.
+     */
+    private void lead(Request request) {
+        while (!request.done) {
+            if (committing) {
+                changed.awaitUninterruptibly();
+                continue;
+            }
+            committing = true;
+            try {
+                List<Request> group = nextGroup();
+                lock.unlock();
+                try {
+                    commit(group);
+                } finally {
+                    lock.lock();
+                }
+            } finally {
+                committing = false;
+                changed.signalAll();
+            }
+        }
+    }
+
+    private List<Request> nextGroup() {
+        long remaining = lingerNanos;
+        while (remaining > 0 && pending.size() < maxBatchSize) {
+            try {
+                remaining = changed.awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        List<Request> group = new ArrayList<Request>(Math.min(pending.size(), maxBatchSize));
+        while (!pending.isEmpty() && group.size() < maxBatchSize) {
+            group.add(pending.removeFirst());
+        }
+        return group;
+    }
+
+    private void commit(List<Request> group) {
+        if (group.size() > 1) {
+            try {
+                run(group);
+                complete(group, null);
+                return;
+            } catch (Throwable e) {
+                LOG.debug("Group of " + group.size() + " failed to commit, retrying them one at a time: " + e, e);
+            }
+        }
+        for (Request request : group) {
+            commit(request);
+        }
+    }
+
+    private void commit(Request request) {
+        List<Request> group = new ArrayList<Request>(1);
+        group.add(request);
+        try {
+            run(group);
+            complete(group, null);
+        } catch (Throwable e) {
+            complete(group, e);
+        }
+    }
+
+    private void run(List<Request> group) throws SQLException, IOException {
+        TransactionContext c = persistenceAdapter.getTransactionContext();
+        c.begin();
+        try {
+            for (Request request : group) {
+                request.work.run(c);
+            }
+        } catch (SQLException e) {
+            rollback(c);
+            throw e;
+        } catch (IOException e) {
+            rollback(c);
+            throw e;
+        } catch (RuntimeException e) {
+            rollback(c);
+            throw e;
+        } catch (Error e) {
+            rollback(c);
+            throw e;
+        }
+        c.commit();
+    }
+
+    private void rollback(TransactionContext c) {
+        try {
+            c.rollback();
+        } catch (IOException e) {
+            LOG.debug("Rollback of a failed group failed: " + e, e);
+        }
+    }
+
+    private void complete(List<Request> group, Throwable failure) {
+        lock.lock();
+        try {
+            for (Request request : group) {
+                request.failure = failure;
+                request.done = true;
+            }
+            if (failure == null && group.size() > 1) {
+                groupCount++;
+                largestGroupSize = Math.max(largestGroupSize, group.size());
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private final class Request implements Future<Object> {
+        final Work work;
+        Throwable failure;
+        boolean done;
+
+        Request(Work work) {
+            this.work = work;
+        }
+
+        void await() {
+            lock.lock();
+            try {
+                lead(this);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            lock.lock();
+            try {
+                return done;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public Object get() throws ExecutionException {
+            await();
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return null;
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws ExecutionException, TimeoutException {
+            // the caller may have to lead the commit of the group, which is not bounded
+            return get();
+        }
+    }
+}
@@ -17,7 +17,18 @@
 package org.apache.activemq.store.jdbc;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.activemq.ActiveMQMessageAudit;
@@ -28,6 +39,7 @@ import org.apache.activemq.command.MessageAck;
 import org.apache.activemq.command.MessageId;
 import org.apache.activemq.store.AbstractMessageStore;
 import org.apache.activemq.store.MessageRecoveryListener;
+import org.apache.activemq.usage.SystemUsage;
 import org.apache.activemq.util.ByteSequence;
 import org.apache.activemq.util.ByteSequenceData;
 import org.apache.activemq.util.IOExceptionSupport;
@@ -67,6 +79,14 @@ public class JDBCMessageStore extends AbstractMessageStore {
     protected AtomicLong lastRecoveredPriority = new AtomicLong(Byte.MAX_VALUE -1);
 
     protected ActiveMQMessageAudit audit;
+
+    private final Object readAheadMutex = new Object();
+    // the next messages of the cursor, read ahead
+    private ReadAhead readAhead;
+    // changes when a read ahead may no longer be what a query would return
+    private final AtomicLong readAheadGeneration = new AtomicLong();
+    // the async adds whose group has not committed yet
+    private final ConcurrentHashMap<MessageId, Future<Object>> pendingAdds = new ConcurrentHashMap<MessageId, Future<Object>>();
     
     public JDBCMessageStore(JDBCPersistenceAdapter persistenceAdapter, JDBCAdapter adapter, WireFormat wireFormat, ActiveMQDestination destination, ActiveMQMessageAudit audit) throws IOException {
         super(destination);
@@ -95,21 +115,42 @@ public class JDBCMessageStore extends AbstractMessageStore {
         }
     }
 
-    public void addMessage(ConnectionContext context, Message message) throws IOException {
-        MessageId messageId = message.getMessageId();
+    public void addMessage(ConnectionContext context, final Message message) throws IOException {
+        doAddMessage(context, message, false);
+    }
+
+    /**
+     * Adds a message to a queue without waiting for the commit of its group,
+     * so the queue can dispatch it while the add is grouped with those of
+     * the other producers. Transacted adds and those of stores without group
+     * commit complete before this returns.
+     */
+    @Override
+    public Future<Object> asyncAddQueueMessage(ConnectionContext context, Message message) throws IOException {
+        Future<Object> result = doAddMessage(context, message, destination.isQueue());
+        return result != null ? result : FUTURE;
+    }
+
+    @Override
+    public Future<Object> asyncAddQueueMessage(ConnectionContext context, Message message, boolean canOptimizeHint) throws IOException {
+        return asyncAddQueueMessage(context, message);
+    }
+
+    private Future<Object> doAddMessage(ConnectionContext context, final Message message, boolean async) throws IOException {
+        final MessageId messageId = message.getMessageId();
         if (audit != null && audit.isDuplicate(message)) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug(destination.getPhysicalName()
                     + " ignoring duplicated (add) message, already stored: "
                     + messageId);
             }
-            return;
+            return null;
         }
         
-        long sequenceId = persistenceAdapter.getNextSequenceId();
+        final long sequenceId = persistenceAdapter.getNextSequenceId();
         
         // Serialize the Message..
-        byte data[];
+        final byte data[];
         try {
             ByteSequence packet = wireFormat.marshal(message);
             data = ByteSequenceData.toByteArray(packet);
@@ -118,10 +159,26 @@ public class JDBCMessageStore extends AbstractMessageStore {
         }
 
         // Get a connection and insert the message into the DB.
+        Future<Object> result = null;
         TransactionContext c = persistenceAdapter.getTransactionContext(context);
         try {      
-            adapter.doAddMessage(c,sequenceId, messageId, destination, data, message.getExpiration(),
-                    this.isPrioritizedMessages() ? message.getPriority() : 0);
+            if (isGroupCommit(c)) {
+                GroupCommitter.Work work = new GroupCommitter.Work() {
+                    public void run(TransactionContext c) throws SQLException, IOException {
+                        adapter.doAddMessage(c, sequenceId, messageId, destination, data, message.getExpiration(),
+                                isPrioritizedMessages() ? message.getPriority() : 0);
+                    }
+                };
+                if (async) {
+                    result = new PendingAdd(messageId, persistenceAdapter.getGroupCommitter().submit(work));
+                    pendingAdds.put(messageId, result);
+                } else {
+                    persistenceAdapter.getGroupCommitter().execute(work);
+                }
+            } else {
+                adapter.doAddMessage(c,sequenceId, messageId, destination, data, message.getExpiration(),
+                        this.isPrioritizedMessages() ? message.getPriority() : 0);
+            }
         } catch (SQLException e) {
             JDBCPersistenceAdapter.log("JDBC Failure: ", e);
             throw IOExceptionSupport.create("Failed to broker message: " + messageId + " in container: " + e, e);
@@ -129,11 +186,20 @@ public class JDBCMessageStore extends AbstractMessageStore {
             c.close();
         }
         onAdd(messageId, sequenceId, message.getPriority());
+        return result;
     }
 
     protected void onAdd(MessageId messageId, long sequenceId, byte priority) {
     }
 
+    /**
+     * @return true if the work of the transaction context is committed with
+     *         that of the other non transacted sends and acks
+     */
+    protected boolean isGroupCommit(TransactionContext c) {
+        return persistenceAdapter.getGroupCommitter() != null && !c.isInTransaction();
+    }
+
     public void addMessageReference(ConnectionContext context, MessageId messageId, long expirationTime, String messageRef) throws IOException {
         // Get a connection and insert the message into the DB.
         TransactionContext c = persistenceAdapter.getTransactionContext(context);
@@ -186,13 +252,37 @@ public class JDBCMessageStore extends AbstractMessageStore {
     }
 
     public void removeMessage(ConnectionContext context, MessageAck ack) throws IOException {
-    	
-    	long seq = getStoreSequenceIdForMessageId(ack.getLastMessageId())[0];
+        // the message may be dispatched and acked before its add is committed
+        Future<Object> pendingAdd = pendingAdds.get(ack.getLastMessageId());
+        if (pendingAdd != null) {
+            try {
+                pendingAdd.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the add of: " + ack.getLastMessageId());
+            } catch (ExecutionException e) {
+                // the add failed, so there is nothing to remove
+            }
+        }
+
+    	final long seq = getStoreSequenceIdForMessageId(ack.getLastMessageId())[0];
+        if (seq > lastRecoveredSequenceId.get()) {
+            // not recovered by the cursor yet, so possibly read ahead
+            invalidateReadAhead();
+        }
 
         // Get a connection and remove the message from the DB
         TransactionContext c = persistenceAdapter.getTransactionContext(context);
         try {
-            adapter.doRemoveMessage(c, seq);
+            if (isGroupCommit(c)) {
+                persistenceAdapter.getGroupCommitter().execute(new GroupCommitter.Work() {
+                    public void run(TransactionContext c) throws SQLException, IOException {
+                        adapter.doRemoveMessage(c, seq);
+                    }
+                });
+            } else {
+                adapter.doRemoveMessage(c, seq);
+            }
         } catch (SQLException e) {
             JDBCPersistenceAdapter.log("JDBC Failure: ", e);
             throw IOExceptionSupport.create("Failed to broker message: " + ack.getLastMessageId() + " in container: " + e, e);
@@ -230,6 +320,7 @@ public class JDBCMessageStore extends AbstractMessageStore {
      * @see org.apache.activemq.store.MessageStore#removeAllMessages(ConnectionContext)
      */
     public void removeAllMessages(ConnectionContext context) throws IOException {
+        invalidateReadAhead();
         // Get a connection and remove the message from the DB
         TransactionContext c = persistenceAdapter.getTransactionContext(context);
         try {
@@ -266,7 +357,12 @@ public class JDBCMessageStore extends AbstractMessageStore {
      *      org.apache.activemq.store.MessageRecoveryListener)
      */
     public void recoverNextMessages(int maxReturned, final MessageRecoveryListener listener) throws Exception {
+        if (isReadAhead()) {
+            recoverNextMessagesReadAhead(maxReturned, listener);
+            return;
+        }
         TransactionContext c = persistenceAdapter.getTransactionContext();
+        long start = System.currentTimeMillis();
         try {
             adapter.doRecoverNextMessages(c, destination, lastRecoveredSequenceId.get(), lastRecoveredPriority.get(),
                     maxReturned, isPrioritizedMessages(), new JDBCMessageRecoveryListener() {
@@ -296,8 +392,236 @@ public class JDBCMessageStore extends AbstractMessageStore {
             JDBCPersistenceAdapter.log("JDBC Failure: ", e);
         } finally {
             c.close();
+            long time = System.currentTimeMillis() - start;
+            persistenceAdapter.getRecoverQueryTime().addTime(time);
+            persistenceAdapter.getRecoverWaitTime().addTime(time);
+        }
+
+    }
+
+    /**
+     * Only the messages of queues recovered in sequence order are read ahead.
+     */
+    protected boolean isReadAhead() {
+        return persistenceAdapter.isReadAhead() && !isPrioritizedMessages()
+                && !persistenceAdapter.isUseExternalMessageReferences();
+    }
+
+    private void recoverNextMessagesReadAhead(int maxReturned, MessageRecoveryListener listener) throws Exception {
+        long start = System.currentTimeMillis();
+        long from = lastRecoveredSequenceId.get();
+        ReadAhead page;
+        synchronized (readAheadMutex) {
+            page = readAhead;
+            readAhead = null;
+        }
+        List<Row> rows = null;
+        long generation = 0;
+        if (page != null) {
+            if (page.from == from) {
+                rows = page.get();
+                // checked once the page is read, a message of it may have
+                // been removed while it was
+                generation = page.generation;
+                if (rows != null && generation == readAheadGeneration.get()) {
+                    persistenceAdapter.getReadAheadHits().increment();
+                } else {
+                    rows = null;
+                }
+            }
+            page.release();
+        }
+        if (rows == null) {
+            generation = readAheadGeneration.get();
+            rows = queryNextMessages(from, maxReturned);
+        }
+        persistenceAdapter.getRecoverWaitTime().addTime(System.currentTimeMillis() - start);
+
+        int recovered = 0;
+        for (Row row : rows) {
+            if (!listener.hasSpace()) {
+                break;
+            }
+            Message msg = (Message)wireFormat.unmarshal(new ByteSequence(row.data));
+            msg.getMessageId().setBrokerSequenceId(row.sequenceId);
+            listener.recoverMessage(msg);
+            lastRecoveredSequenceId.set(row.sequenceId);
+            lastRecoveredPriority.set(msg.getPriority());
+            recovered++;
+        }
+
+        if (recovered < rows.size()) {
+            // keep the messages there was no space for
+            // a copy, so the pages kept do not chain views of each other
+            page = new ReadAhead(lastRecoveredSequenceId.get(), generation, new ArrayList<Row>(rows.subList(recovered, rows.size())));
+        } else if (rows.size() == maxReturned && !isMemoryFull()) {
+            page = new ReadAhead(lastRecoveredSequenceId.get(), generation, maxReturned);
+        } else {
+            return;
+        }
+        synchronized (readAheadMutex) {
+            readAhead = page;
+        }
+        if (readAheadGeneration.get() != generation) {
+            // a message of the page may have been removed meanwhile
+            invalidateReadAhead();
+        } else if (!page.start()) {
+            invalidateReadAhead();
+        }
+    }
+
+    private List<Row> queryNextMessages(long from, int maxReturned) throws Exception {
+        final List<Row> rows = new ArrayList<Row>(maxReturned);
+        TransactionContext c = persistenceAdapter.getTransactionContext();
+        long start = System.currentTimeMillis();
+        try {
+            adapter.doRecoverNextMessages(c, destination, from, 0, maxReturned, false, new JDBCMessageRecoveryListener() {
+
+                public boolean recoverMessage(long sequenceId, byte[] data) throws Exception {
+                    rows.add(new Row(sequenceId, data));
+                    return true;
+                }
+
+                public boolean recoverMessageReference(String reference) throws Exception {
+                    return false;
+                }
+
+            });
+        } catch (SQLException e) {
+            JDBCPersistenceAdapter.log("JDBC Failure: ", e);
+        } finally {
+            c.close();
+            persistenceAdapter.getRecoverQueryTime().addTime(System.currentTimeMillis() - start);
+        }
+        return rows;
+    }
+
+    private void invalidateReadAhead() {
+        readAheadGeneration.incrementAndGet();
+        ReadAhead page;
+        synchronized (readAheadMutex) {
+            page = readAhead;
+            readAhead = null;
+        }
+        if (page != null) {
+            page.release();
+        }
+    }
+
+    private boolean isMemoryFull() {
+        SystemUsage usage = persistenceAdapter.getUsageManager();
+        return usage != null && usage.getMemoryUsage().isFull();
+    }
+
+    private static final class Row {
+        final long sequenceId;
+        final byte[] data;
+
+        Row(long sequenceId, byte[] data) {
+            this.sequenceId = sequenceId;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The messages that follow the last one recovered by the cursor, read in
+     * the background and counted in the memory usage of the broker until the
+     * cursor takes them, or they are found stale.
+     */
+    private final class ReadAhead implements Callable<List<Row>> {
+        final long from;
+        final long generation;
+        final int maxReturned;
+        final FutureTask<List<Row>> task;
+        List<Row> rows;
+        long size;
+        boolean released;
+
+        ReadAhead(long from, long generation, int maxReturned) {
+            this.from = from;
+            this.generation = generation;
+            this.maxReturned = maxReturned;
+            this.task = new FutureTask<List<Row>>(this);
+        }
+
+        ReadAhead(long from, long generation, List<Row> rows) {
+            this.from = from;
+            this.generation = generation;
+            this.maxReturned = rows.size();
+            this.task = null;
+            this.rows = rows;
+            account(rows);
+        }
+
+        boolean start() {
+            if (task == null) {
+                return true;
+            }
+            try {
+                persistenceAdapter.getReadAheadExecutor().execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        public List<Row> call() throws Exception {
+            List<Row> result = queryNextMessages(from, maxReturned);
+            account(result);
+            return result;
+        }
+
+        /**
+         * @return the messages read ahead, null if they could not be read
+         */
+        List<Row> get() {
+            if (task == null) {
+                return rows;
+            }
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOG.debug(destination.getPhysicalName() + " failed to read ahead: " + e.getCause(), e.getCause());
+            }
+            return null;
         }
 
+        void release() {
+            if (task != null) {
+                task.cancel(false);
+            }
+            long bytes;
+            synchronized (this) {
+                bytes = size;
+                size = 0;
+                released = true;
+            }
+            SystemUsage usage = persistenceAdapter.getUsageManager();
+            if (usage != null && bytes > 0) {
+                usage.getMemoryUsage().decreaseUsage(bytes);
+            }
+        }
+
+        private void account(List<Row> result) {
+            SystemUsage usage = persistenceAdapter.getUsageManager();
+            long bytes = 0;
+            for (Row row : result) {
+                bytes += row.data.length;
+            }
+            if (usage == null || bytes == 0) {
+                return;
+            }
+            usage.getMemoryUsage().increaseUsage(bytes);
+            synchronized (this) {
+                if (!released) {
+                    size = bytes;
+                    return;
+                }
+            }
+            usage.getMemoryUsage().decreaseUsage(bytes);
+        }
     }
 
     /**
@@ -309,11 +633,12 @@ public class JDBCMessageStore extends AbstractMessageStore {
         }
         lastRecoveredSequenceId.set(-1);
         lastRecoveredPriority.set(Byte.MAX_VALUE - 1);
-
+        invalidateReadAhead();
     }
 
     @Override
     public void setBatch(MessageId messageId) {
+        invalidateReadAhead();
         try {
             long[] storedValues = getStoreSequenceIdForMessageId(messageId);
             lastRecoveredSequenceId.set(storedValues[0]);
@@ -345,4 +670,49 @@ public class JDBCMessageStore extends AbstractMessageStore {
     public void setPrioritizedMessages(boolean prioritizedMessages) {
         super.setPrioritizedMessages(prioritizedMessages);
     }   
+
+    /**
+     * The grouped add of a message, forgotten once its group has committed.
+     */
+    private class PendingAdd implements Future<Object> {
+        private final MessageId messageId;
+        private final Future<Object> commit;
+
+        PendingAdd(MessageId messageId, Future<Object> commit) {
+            this.messageId = messageId;
+            this.commit = commit;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return commit.isDone();
+        }
+
+        public Object get() throws InterruptedException, ExecutionException {
+            try {
+                return commit.get();
+            } finally {
+                if (commit.isDone()) {
+                    pendingAdds.remove(messageId, this);
+                }
+            }
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                return commit.get(timeout, unit);
+            } finally {
+                if (commit.isDone()) {
+                    pendingAdds.remove(messageId, this);
+                }
+            }
+        }
+    }
 }
@@ -23,8 +23,10 @@ import java.sql.SQLException;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
@@ -39,6 +41,8 @@ import org.apache.activemq.command.ActiveMQTopic;
 import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageId;
 import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.management.CountStatisticImpl;
+import org.apache.activemq.management.TimeStatisticImpl;
 import org.apache.activemq.openwire.OpenWireFormat;
 import org.apache.activemq.store.MessageStore;
 import org.apache.activemq.store.PersistenceAdapter;
@@ -102,6 +106,17 @@ public class JDBCPersistenceAdapter extends DataSourceSupport implements Persist
     
     protected LongSequenceGenerator sequenceGenerator = new LongSequenceGenerator();
     protected int maxRows = DefaultJDBCAdapter.MAX_ROWS;
+    protected boolean groupCommit;
+    protected int groupCommitMaxBatchSize = 100;
+    protected long groupCommitLinger;
+    private GroupCommitter groupCommitter;
+    protected boolean readAhead;
+    protected int maxReadAheadThreads = 5;
+    private ThreadPoolExecutor readAheadExecutor;
+    private SystemUsage usageManager;
+    private final TimeStatisticImpl recoverQueryTime = new TimeStatisticImpl("recoverQueryTime", "The time it takes to query the next messages of a cursor");
+    private final TimeStatisticImpl recoverWaitTime = new TimeStatisticImpl("recoverWaitTime", "The time a cursor waits for its next messages");
+    private final CountStatisticImpl readAheadHits = new CountStatisticImpl("readAheadHits", "The pages of messages a cursor took from a read ahead");
 
     public JDBCPersistenceAdapter() {
     }
@@ -325,6 +340,10 @@ public class JDBCPersistenceAdapter extends DataSourceSupport implements Persist
             }, 0, cleanupPeriod, TimeUnit.MILLISECONDS);
         }
         
+        if (groupCommit) {
+            groupCommitter = new GroupCommitter(this, groupCommitMaxBatchSize, groupCommitLinger);
+        }
+
         createMessageAudit();
     }
 
@@ -338,6 +357,11 @@ public class JDBCPersistenceAdapter extends DataSourceSupport implements Persist
             keepAliveTicket = null;
         }
         
+        if (readAheadExecutor != null) {
+            readAheadExecutor.shutdownNow();
+            readAheadExecutor = null;
+        }
+
         // do not shutdown clockDaemon as it may kill the thread initiating shutdown
         DatabaseLocker service = getDatabaseLocker();
         if (service != null) {
@@ -610,6 +634,11 @@ public class JDBCPersistenceAdapter extends DataSourceSupport implements Persist
      *                destination's memory usage.
      */
     public void setUsageManager(SystemUsage usageManager) {
+        this.usageManager = usageManager;
+    }
+
+    public SystemUsage getUsageManager() {
+        return usageManager;
     }
 
     protected void databaseLockKeepAlive() {
@@ -768,4 +797,115 @@ public class JDBCPersistenceAdapter extends DataSourceSupport implements Persist
     public void setMaxRows(int maxRows) {
         this.maxRows = maxRows;
     }
+
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Coalesce the statements of concurrent non transacted sends and acks
+     * into one batch and a single commit, rather than commit each on its own
+     * connection. A send or ack returns once its group is committed.
+     */
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    public int getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize;
+    }
+
+    /**
+     * @param groupCommitMaxBatchSize the most sends and acks committed together
+     */
+    public void setGroupCommitMaxBatchSize(int groupCommitMaxBatchSize) {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+    public long getGroupCommitLinger() {
+        return groupCommitLinger;
+    }
+
+    /**
+     * @param groupCommitLinger how long, in milliseconds, a group waits for
+     *                more sends and acks before it is committed, unless it is
+     *                full. By default it does not wait, groups are made of the
+     *                work queued up during the previous commit.
+     */
+    public void setGroupCommitLinger(long groupCommitLinger) {
+        this.groupCommitLinger = groupCommitLinger;
+    }
+
+    /**
+     * @return the group committer of the non transacted sends and acks, null
+     *         unless group commit is enabled
+     */
+    public GroupCommitter getGroupCommitter() {
+        return groupCommitter;
+    }
+
+    public boolean isReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Read the next messages of a queue cursor in the background while it
+     * dispatches the messages it recovered, rather than only once it asks for
+     * more. A page read ahead is held in memory, it is only read when the
+     * memory usage of the broker is not full.
+     */
+    public void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    public int getMaxReadAheadThreads() {
+        return maxReadAheadThreads;
+    }
+
+    /**
+     * @param maxReadAheadThreads the most pages read ahead at a time, and
+     *                the most connections used to read them
+     */
+    public void setMaxReadAheadThreads(int maxReadAheadThreads) {
+        this.maxReadAheadThreads = maxReadAheadThreads;
+    }
+
+    public synchronized ThreadPoolExecutor getReadAheadExecutor() {
+        if (readAheadExecutor == null) {
+            readAheadExecutor = new ThreadPoolExecutor(maxReadAheadThreads, maxReadAheadThreads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ActiveMQ JDBC Read Ahead");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            readAheadExecutor.allowCoreThreadTimeOut(true);
+        }
+        return readAheadExecutor;
+    }
+
+    /**
+     * @return the time it takes to query the next messages of a cursor, read
+     *         ahead or not
+     */
+    public TimeStatisticImpl getRecoverQueryTime() {
+        return recoverQueryTime;
+    }
+
+    /**
+     * @return the time a cursor waits for its next messages, which is shorter
+     *         than the query time when they were read ahead
+     */
+    public TimeStatisticImpl getRecoverWaitTime() {
+        return recoverWaitTime;
+    }
+
+    /**
+     * @return the pages of messages a cursor took from a read ahead, rather
+     *         than query them
+     */
+    public CountStatisticImpl getReadAheadHits() {
+        return readAheadHits;
+    }
 }
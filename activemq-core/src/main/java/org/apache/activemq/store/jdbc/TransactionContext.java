@@ -150,6 +150,10 @@ public class TransactionContext {
         }
     }
 
+    public boolean isInTransaction() {
+        return inTx;
+    }
+
     public void begin() throws IOException {
         if (inTx) {
             throw new IOException("Already started.");
@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.util.IOExceptionSupport;
+import org.apache.kahadb.journal.DataFile;
+import org.apache.kahadb.journal.DataFileScanner;
+import org.apache.kahadb.journal.Journal;
+import org.apache.kahadb.journal.Location;
+
+/**
+ * Reads and decodes the journal records to replay on recovery with several
+ * threads, one data file per thread at a time, and hands them out in
+ * journal order.
+ *
+ * Each data file is read into a queue of its own, bounded by the size of
+ * its records, so no more than the read ahead of each thread is held in
+ * memory. Like a replay on a
+ * single thread, records are only read up to the first record that cannot
+ * be read, and the data files after it are ignored.
+ */
+class JournalReplay {
+
+    private static final Record END = new Record(null, null);
+
+    private final MessageDatabase store;
+    private final Journal journal;
+    private final Location start;
+    private final int threads;
+    private final int readAheadSize;
+    private final List<FileReader> readers = new ArrayList<FileReader>();
+    private ExecutorService executor;
+    private int current;
+
+    /**
+     * @param start the location of the first record to replay
+     * @param threads the number of data files read at a time
+     * @param readAheadSize the size of the records read ahead of the replay,
+     *            per data file
+     */
+    JournalReplay(MessageDatabase store, Journal journal, Location start, int threads, int readAheadSize) {
+        this.store = store;
+        this.journal = journal;
+        this.start = start;
+        this.threads = threads;
+        this.readAheadSize = readAheadSize;
+    }
+
+    void start() {
+        for (DataFile dataFile = journal.getFileMap().get(start.getDataFileId()); dataFile != null; dataFile = dataFile.getNext()) {
+            readers.add(new FileReader(dataFile, readers.isEmpty() ? start : null));
+        }
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ActiveMQ Journal Recovery Reader " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // the data files are read in journal order, as their records are
+        // replayed in that order
+        for (FileReader reader : readers) {
+            executor.execute(reader);
+        }
+    }
+
+    /**
+     * @return the next record, in journal order, null once they were all
+     *         replayed
+     */
+    Record next() throws IOException {
+        while (current < readers.size()) {
+            FileReader reader = readers.get(current);
+            Record record;
+            try {
+                record = reader.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the journal to be read");
+            }
+            if (record != END) {
+                return record;
+            }
+            if (reader.failure != null) {
+                throw IOExceptionSupport.create("Failed to read journal file " + reader.dataFile + ": " + reader.failure, reader.failure);
+            }
+            current++;
+            if (!reader.complete) {
+                // as far as the journal can be read
+                break;
+            }
+        }
+        current = readers.size();
+        return null;
+    }
+
+    void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static final class Record {
+        final Location location;
+        final JournalCommand<?> command;
+
+        Record(Location location, JournalCommand<?> command) {
+            this.location = location;
+            this.command = command;
+        }
+    }
+
+    private final class FileReader implements Runnable {
+        final DataFile dataFile;
+        final Location first;
+        final LinkedList<Record> records = new LinkedList<Record>();
+        long recordsSize;
+        volatile Throwable failure;
+        // true if every record up to the end of the file was read
+        volatile boolean complete;
+
+        FileReader(DataFile dataFile, Location first) {
+            this.dataFile = dataFile;
+            this.first = first;
+        }
+
+        synchronized void put(Record record) throws InterruptedException {
+            int size = record.location != null ? Math.max(record.location.getSize(), 0) : 0;
+            // a record larger than the read ahead is queued on its own
+            while (!records.isEmpty() && recordsSize + size > readAheadSize) {
+                wait();
+            }
+            records.addLast(record);
+            recordsSize += size;
+            notifyAll();
+        }
+
+        synchronized Record take() throws InterruptedException {
+            while (records.isEmpty()) {
+                wait();
+            }
+            Record record = records.removeFirst();
+            if (record.location != null) {
+                recordsSize -= Math.max(record.location.getSize(), 0);
+            }
+            notifyAll();
+            return record;
+        }
+
+        public void run() {
+            try {
+                // the record headers are read with an accessor of this
+                // reader, not through the journal, whose monitor would
+                // serialize the readers
+                DataFileScanner scanner = null;
+                try {
+                    scanner = journal.openScanner(dataFile);
+                    Location location;
+                    if (first == null) {
+                        // the first record of the data file
+                        location = scanner.getNextLocation(null);
+                    } else if (first.getSize() == -1) {
+                        // load in the size of the record
+                        location = journal.getNextLocation(first);
+                    } else {
+                        location = first;
+                    }
+                    Location last = null;
+                    while (location != null) {
+                        if (location == first || location.getType() == Journal.USER_RECORD_TYPE) {
+                            put(new Record(location, store.load(location)));
+                        }
+                        last = location;
+                        location = scanner.getNextLocation(location);
+                    }
+                    long end = last == null ? (first != null ? first.getOffset() : 0) : last.getOffset() + last.getSize();
+                    complete = end >= dataFile.getLength();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Throwable e) {
+                    failure = e;
+                } finally {
+                    if (scanner != null) {
+                        scanner.close();
+                    }
+                }
+                put(END);
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }
+    }
+}
@@ -375,6 +375,66 @@ public class KahaDBPersistenceAdapter implements PersistenceAdapter, BrokerServi
         this.letter.setEnableJournalDiskSyncs(enableJournalDiskSyncs);
     }
 
+    /**
+     * Get the journalRecoveryThreads
+     *
+     * @return the journalRecoveryThreads
+     */
+    public int getJournalRecoveryThreads() {
+        return this.letter.getJournalRecoveryThreads();
+    }
+
+    /**
+     * When more than one, the journal records replayed on recovery, or to
+     * rebuild a missing index, are read and decoded by that many threads, a
+     * data file each, ahead of the replay. The index is still updated on
+     * a single thread, in journal order.
+     *
+     * @param journalRecoveryThreads
+     *            the journalRecoveryThreads to set
+     */
+    public void setJournalRecoveryThreads(int journalRecoveryThreads) {
+        this.letter.setJournalRecoveryThreads(journalRecoveryThreads);
+    }
+
+    /**
+     * @return the percentage of the journal replayed by the recovery in
+     *         progress, 100 if there is none
+     */
+    public float getRecoveryProgress() {
+        return this.letter.getRecoveryProgress();
+    }
+
+    /**
+     * @return an estimate of the milliseconds left to the recovery in
+     *         progress, -1 if there is no estimate
+     */
+    public long getRecoveryTimeRemaining() {
+        return this.letter.getRecoveryTimeRemaining();
+    }
+
+    /**
+     * Get the enableJournalMemoryMappedReads
+     * 
+     * @return the enableJournalMemoryMappedReads
+     */
+    public boolean isEnableJournalMemoryMappedReads() {
+        return this.letter.isEnableJournalMemoryMappedReads();
+    }
+
+    /**
+     * When enabled, messages in journal data files that are no longer being
+     * appended to are read through a read only memory mapping rather than
+     * with a seek and read per message. The data file currently being
+     * written is always read the regular way.
+     * 
+     * @param enableJournalMemoryMappedReads
+     *            the enableJournalMemoryMappedReads to set
+     */
+    public void setEnableJournalMemoryMappedReads(boolean enableJournalMemoryMappedReads) {
+        this.letter.setEnableJournalMemoryMappedReads(enableJournalMemoryMappedReads);
+    }
+
     /**
      * Get the indexCacheSize
      * 
@@ -395,6 +455,60 @@ public class KahaDBPersistenceAdapter implements PersistenceAdapter, BrokerServi
         this.letter.setIndexCacheSize(indexCacheSize);
     }
 
+    /**
+     * Get the indexOffHeapCacheSize
+     *
+     * @return the indexOffHeapCacheSize
+     */
+    public long getIndexOffHeapCacheSize() {
+        return this.letter.getIndexOffHeapCacheSize();
+    }
+
+    /**
+     * Set the indexOffHeapCacheSize, the size in bytes of a cache of index
+     * pages held in direct memory rather than on the java heap. 0, the
+     * default, disables it.
+     * When set using Xbean, values of the form "20 Mb", "1024kb", and "1g" can be used
+     * @org.apache.xbean.Property propertyEditor="org.apache.activemq.util.MemoryPropertyEditor"
+     * @param indexOffHeapCacheSize
+     *            the indexOffHeapCacheSize to set
+     */
+    public void setIndexOffHeapCacheSize(long indexOffHeapCacheSize) {
+        this.letter.setIndexOffHeapCacheSize(indexOffHeapCacheSize);
+    }
+
+    /**
+     * @return the number of index page reads served by the off heap cache
+     */
+    public long getIndexOffHeapCacheHits() {
+        return this.letter.getIndexOffHeapCacheHits();
+    }
+
+    /**
+     * @return the number of index page reads that missed the off heap cache
+     */
+    public long getIndexOffHeapCacheMisses() {
+        return this.letter.getIndexOffHeapCacheMisses();
+    }
+
+    /**
+     * @return the number of index pages evicted from the off heap cache
+     */
+    public long getIndexOffHeapCacheEvictions() {
+        return this.letter.getIndexOffHeapCacheEvictions();
+    }
+
+    /**
+     * @return the number of bytes of the off heap cache holding index pages
+     */
+    public long getIndexOffHeapCacheUsage() {
+        return this.letter.getIndexOffHeapCacheUsage();
+    }
+
+    public void resetIndexOffHeapCacheStatistics() {
+        this.letter.resetIndexOffHeapCacheStatistics();
+    }
+
     /**
      * Get the ignoreMissingJournalfiles
      * 
@@ -559,6 +673,90 @@ public class KahaDBPersistenceAdapter implements PersistenceAdapter, BrokerServi
         return letter.isEnableIndexPageCaching();
     }
 
+    /**
+     * Get the enableIndexLockStriping
+     *
+     * @return the enableIndexLockStriping
+     */
+    public boolean isEnableIndexLockStriping() {
+        return letter.isEnableIndexLockStriping();
+    }
+
+    /**
+     * Set the enableIndexLockStriping, when true index updates and lookups of
+     * different destinations no longer exclude each other, only checkpoints and
+     * updates spanning destinations take the index lock exclusively
+     *
+     * @param enableIndexLockStriping
+     */
+    public void setEnableIndexLockStriping(boolean enableIndexLockStriping) {
+        letter.setEnableIndexLockStriping(enableIndexLockStriping);
+    }
+
+    /**
+     * Get the enableIndexIncrementalCheckpoint
+     *
+     * @return the enableIndexIncrementalCheckpoint
+     */
+    public boolean isEnableIndexIncrementalCheckpoint() {
+        return letter.isEnableIndexIncrementalCheckpoint();
+    }
+
+    /**
+     * Set the enableIndexIncrementalCheckpoint, when true a checkpoint first
+     * writes the dirty index pages without holding the index lock and only
+     * writes the remainder, and runs the cleanup, while holding it
+     *
+     * @param enableIndexIncrementalCheckpoint
+     */
+    public void setEnableIndexIncrementalCheckpoint(boolean enableIndexIncrementalCheckpoint) {
+        letter.setEnableIndexIncrementalCheckpoint(enableIndexIncrementalCheckpoint);
+    }
+
+    /**
+     * Get the indexLockStripes
+     *
+     * @return the indexLockStripes
+     */
+    public int getIndexLockStripes() {
+        return letter.getIndexLockStripes();
+    }
+
+    /**
+     * Set the number of locks destinations are spread over when
+     * enableIndexLockStriping is set
+     *
+     * @param indexLockStripes
+     */
+    public void setIndexLockStripes(int indexLockStripes) {
+        letter.setIndexLockStripes(indexLockStripes);
+    }
+
+    /**
+     * @return the total time in milliseconds spent waiting for the index lock
+     */
+    public long getIndexLockWaitTime() {
+        return letter.getIndexLockWaitTime();
+    }
+
+    /**
+     * @return the longest wait in milliseconds for the index lock
+     */
+    public long getMaxIndexLockWaitTime() {
+        return letter.getMaxIndexLockWaitTime();
+    }
+
+    /**
+     * @return the number of times the index lock was taken
+     */
+    public long getIndexLockCount() {
+        return letter.getIndexLockCount();
+    }
+
+    public void resetIndexLockStatistics() {
+        letter.resetIndexLockStatistics();
+    }
+
     public KahaDBStore getStore() {
         return letter;
     }
@@ -31,6 +31,8 @@ import java.util.Map.Entry;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import org.apache.activemq.ActiveMQMessageAuditNoSync;
 import org.apache.activemq.broker.ConnectionContext;
 import org.apache.activemq.broker.region.Destination;
 import org.apache.activemq.broker.region.RegionBroker;
@@ -249,11 +251,11 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
 
     void incrementRedeliveryAndReWrite(final String key, final KahaDestination destination) throws IOException {
         Location location;
-        this.indexLock.writeLock().lock();
+        Lock lock = lockIndex(destination);
         try {
               location = findMessageLocation(key, destination);
         } finally {
-            this.indexLock.writeLock().unlock();
+            unlockIndex(lock);
         }
 
         if (location != null) {
@@ -269,7 +271,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
 
             final Location rewriteLocation = journal.write(toByteSequence(addMessage), true);
 
-            this.indexLock.writeLock().lock();
+            lock = lockIndex(destination);
             try {
                 pageFile.tx().execute(new Transaction.Closure<IOException>() {
                     public void execute(Transaction tx) throws IOException {
@@ -280,7 +282,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                     }
                 });
             } finally {
-                this.indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
         }
     }
@@ -456,11 +458,11 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
             // operations... but for now we must
             // externally synchronize...
             Location location;
-            indexLock.writeLock().lock();
+            Lock lock = lockIndex(dest);
             try {
                 location = findMessageLocation(key, dest);
             }finally {
-                indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
             if (location == null) {
                 return null;
@@ -472,7 +474,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
         public int getMessageCount() throws IOException {
             try {
                 lockAsyncJobQueue();
-                indexLock.writeLock().lock();
+                Lock lock = lockIndex(dest);
                 try {
                     return pageFile.tx().execute(new Transaction.CallableClosure<Integer, IOException>() {
                         public Integer execute(Transaction tx) throws IOException {
@@ -490,7 +492,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                         }
                     });
                 }finally {
-                    indexLock.writeLock().unlock();
+                    unlockIndex(lock);
                 }
             } finally {
                 unlockAsyncJobQueue();
@@ -499,7 +501,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
 
         @Override
         public boolean isEmpty() throws IOException {
-            indexLock.writeLock().lock();
+            Lock lock = lockIndex(dest);
             try {
                 return pageFile.tx().execute(new Transaction.CallableClosure<Boolean, IOException>() {
                     public Boolean execute(Transaction tx) throws IOException {
@@ -510,13 +512,13 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                     }
                 });
             }finally {
-                indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
         }
 
         public void recover(final MessageRecoveryListener listener) throws Exception {
             // recovery may involve expiry which will modify
-            indexLock.writeLock().lock();
+            Lock lock = lockIndex(dest);
             try {
                 pageFile.tx().execute(new Transaction.Closure<Exception>() {
                     public void execute(Transaction tx) throws Exception {
@@ -534,13 +536,13 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                     }
                 });
             }finally {
-                indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
         }
 
 
         public void recoverNextMessages(final int maxReturned, final MessageRecoveryListener listener) throws Exception {
-            indexLock.writeLock().lock();
+            Lock lock = lockIndex(dest);
             try {
                 pageFile.tx().execute(new Transaction.Closure<Exception>() {
                     public void execute(Transaction tx) throws Exception {
@@ -564,13 +566,13 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                     }
                 });
             }finally {
-                indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
         }
 
         public void resetBatching() {
             if (pageFile.isLoaded()) {
-                indexLock.writeLock().lock();
+                Lock lock = lockIndex(dest);
                 try {
                     pageFile.tx().execute(new Transaction.Closure<Exception>() {
                         public void execute(Transaction tx) throws Exception {
@@ -582,7 +584,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                 } catch (Exception e) {
                     LOG.error("Failed to reset batching",e);
                 }finally {
-                    indexLock.writeLock().unlock();
+                    unlockIndex(lock);
                 }
             }
         }
@@ -597,7 +599,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                 // operations... but for now we must
                 // externally synchronize...
 
-                indexLock.writeLock().lock();
+                Lock lock = lockIndex(dest);
                 try {
                     pageFile.tx().execute(new Transaction.Closure<IOException>() {
                         public void execute(Transaction tx) throws IOException {
@@ -609,7 +611,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                         }
                     });
                 } finally {
-                    indexLock.writeLock().unlock();
+                    unlockIndex(lock);
                 }
             } finally {
                 unlockAsyncJobQueue();
@@ -739,7 +741,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
         public SubscriptionInfo[] getAllSubscriptions() throws IOException {
 
             final ArrayList<SubscriptionInfo> subscriptions = new ArrayList<SubscriptionInfo>();
-            indexLock.writeLock().lock();
+            Lock lock = lockIndex(dest);
             try {
                 pageFile.tx().execute(new Transaction.Closure<IOException>() {
                     public void execute(Transaction tx) throws IOException {
@@ -755,7 +757,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                     }
                 });
             }finally {
-                indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
 
             SubscriptionInfo[] rc = new SubscriptionInfo[subscriptions.size()];
@@ -765,7 +767,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
 
         public SubscriptionInfo lookupSubscription(String clientId, String subscriptionName) throws IOException {
             final String subscriptionKey = subscriptionKey(clientId, subscriptionName);
-            indexLock.writeLock().lock();
+            Lock lock = lockIndex(dest);
             try {
                 return pageFile.tx().execute(new Transaction.CallableClosure<SubscriptionInfo, IOException>() {
                     public SubscriptionInfo execute(Transaction tx) throws IOException {
@@ -779,13 +781,13 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                     }
                 });
             }finally {
-                indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
         }
 
         public int getMessageCount(String clientId, String subscriptionName) throws IOException {
             final String subscriptionKey = subscriptionKey(clientId, subscriptionName);
-            indexLock.writeLock().lock();
+            Lock lock = lockIndex(dest);
             try {
                 return pageFile.tx().execute(new Transaction.CallableClosure<Integer, IOException>() {
                     public Integer execute(Transaction tx) throws IOException {
@@ -800,7 +802,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                     }
                 });
             }finally {
-                indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
         }
 
@@ -809,7 +811,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
             final String subscriptionKey = subscriptionKey(clientId, subscriptionName);
             @SuppressWarnings("unused")
             final SubscriptionInfo info = lookupSubscription(clientId, subscriptionName);
-            indexLock.writeLock().lock();
+            Lock lock = lockIndex(dest);
             try {
                 pageFile.tx().execute(new Transaction.Closure<Exception>() {
                     public void execute(Transaction tx) throws Exception {
@@ -825,7 +827,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                     }
                 });
             }finally {
-                indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
         }
 
@@ -834,7 +836,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
             final String subscriptionKey = subscriptionKey(clientId, subscriptionName);
             @SuppressWarnings("unused")
             final SubscriptionInfo info = lookupSubscription(clientId, subscriptionName);
-            indexLock.writeLock().lock();
+            Lock lock = lockIndex(dest);
             try {
                 pageFile.tx().execute(new Transaction.Closure<Exception>() {
                     public void execute(Transaction tx) throws Exception {
@@ -873,14 +875,14 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                     }
                 });
             }finally {
-                indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
         }
 
         public void resetBatching(String clientId, String subscriptionName) {
             try {
                 final String subscriptionKey = subscriptionKey(clientId, subscriptionName);
-                indexLock.writeLock().lock();
+                Lock lock = lockIndex(dest);
                 try {
                     pageFile.tx().execute(new Transaction.Closure<IOException>() {
                         public void execute(Transaction tx) throws IOException {
@@ -889,7 +891,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                         }
                     });
                 }finally {
-                    indexLock.writeLock().unlock();
+                    unlockIndex(lock);
                 }
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -978,7 +980,10 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
     public long getLastProducerSequenceId(ProducerId id) {
         indexLock.readLock().lock();
         try {
-            return metadata.producerSequenceIdTracker.getLastSeqId(id);
+            ActiveMQMessageAuditNoSync producerSequenceIdTracker = metadata.producerSequenceIdTracker;
+            synchronized (producerSequenceIdTracker) {
+                return producerSequenceIdTracker.getLastSeqId(id);
+            }
         } finally {
             indexLock.readLock().unlock();
         }
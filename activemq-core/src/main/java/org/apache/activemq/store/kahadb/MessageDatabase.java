@@ -45,8 +45,11 @@ import java.util.SortedSet;
 import java.util.Stack;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.activemq.ActiveMQMessageAuditNoSync;
@@ -108,6 +111,8 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
     }
     private static final Logger LOG = LoggerFactory.getLogger(MessageDatabase.class);
     private static final int DEFAULT_DATABASE_LOCKED_WAIT_DELAY = 10 * 1000;
+    // the size of the records read ahead of a parallel journal replay, per data file
+    static final int JOURNAL_RECOVERY_READ_AHEAD = 4 * 1024 * 1024;
 
     static final int CLOSED_STATE = 1;
     static final int OPEN_STATE = 2;
@@ -205,6 +210,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
     protected File directory = DEFAULT_DIRECTORY;
     protected Thread checkpointThread;
     protected boolean enableJournalDiskSyncs=true;
+    protected boolean enableJournalMemoryMappedReads=false;
     protected boolean archiveDataLogs;
     protected File directoryArchive;
     protected AtomicLong storeSize = new AtomicLong(0);
@@ -219,6 +225,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
     private LockFile lockFile;
     private boolean ignoreMissingJournalfiles = false;
     private int indexCacheSize = 10000;
+    private long indexOffHeapCacheSize = 0;
     private boolean checkForCorruptJournalFiles = false;
     private boolean checksumJournalFiles = false;
     private int databaseLockedWaitDelay = DEFAULT_DATABASE_LOCKED_WAIT_DELAY;
@@ -231,6 +238,16 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
     private boolean enableIndexDiskSyncs = true;
     private boolean enableIndexRecoveryFile = true;
     private boolean enableIndexPageCaching = true;
+    private boolean enableIndexLockStriping = false;
+    private boolean enableIndexIncrementalCheckpoint = false;
+    private ReentrantLock[] indexLockStripes = createIndexLockStripes(DEFAULT_INDEX_LOCK_STRIPES);
+    private int journalRecoveryThreads = 1;
+    // the journal bytes before each data file to replay, and the progress of
+    // the replay
+    private final Map<Integer, Long> recoveryFileOffsets = new HashMap<Integer, Long>();
+    private volatile long recoveryBytes;
+    private volatile long recoveredBytes;
+    private volatile long recoveryStartTime;
 
     public MessageDatabase() {
     }
@@ -528,15 +545,34 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
             if (recoveryPosition != null) {
                 int redoCounter = 0;
                 LOG.info("Recovering from the journal ...");
-                while (recoveryPosition != null) {
-                    JournalCommand<?> message = load(recoveryPosition);
-                    metadata.lastUpdate = recoveryPosition;
-                    process(message, recoveryPosition, lastIndoubtPosition);
-                    redoCounter++;
-                    recoveryPosition = journal.getNextLocation(recoveryPosition);
-                     if (LOG.isInfoEnabled() && redoCounter % 100000 == 0) {
-                         LOG.info("@" + recoveryPosition +  ", "  + redoCounter + " entries recovered ..");
-                     }
+                startRecoveryProgress(recoveryPosition);
+                try {
+                    if (journalRecoveryThreads > 1) {
+                        JournalReplay replay = new JournalReplay(this, journal, recoveryPosition, journalRecoveryThreads, JOURNAL_RECOVERY_READ_AHEAD);
+                        replay.start();
+                        try {
+                            for (JournalReplay.Record record = replay.next(); record != null; record = replay.next()) {
+                                metadata.lastUpdate = record.location;
+                                process(record.command, record.location, lastIndoubtPosition);
+                                redoCounter++;
+                                recovered(record.location, redoCounter);
+                            }
+                        } finally {
+                            replay.stop();
+                        }
+                    } else {
+                        while (recoveryPosition != null) {
+                            JournalCommand<?> message = load(recoveryPosition);
+                            metadata.lastUpdate = recoveryPosition;
+                            process(message, recoveryPosition, lastIndoubtPosition);
+                            redoCounter++;
+                            recovered(recoveryPosition, redoCounter);
+                            recoveryPosition = journal.getNextLocation(recoveryPosition);
+                        }
+                    }
+                } finally {
+                    // no recovery in progress, failed or not
+                    recoveryBytes = 0;
                 }
                 if (LOG.isInfoEnabled()) {
                     long end = System.currentTimeMillis();
@@ -572,6 +608,58 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         }
     }
 
+    private void startRecoveryProgress(Location recoveryPosition) {
+        recoveryFileOffsets.clear();
+        long bytes = -recoveryPosition.getOffset();
+        for (DataFile dataFile = journal.getFileMap().get(recoveryPosition.getDataFileId()); dataFile != null; dataFile = dataFile.getNext()) {
+            recoveryFileOffsets.put(dataFile.getDataFileId(), bytes);
+            bytes += dataFile.getLength();
+        }
+        recoveredBytes = 0;
+        recoveryStartTime = System.currentTimeMillis();
+        recoveryBytes = Math.max(bytes, 1);
+    }
+
+    private void recovered(Location location, int redoCounter) {
+        Long fileOffset = recoveryFileOffsets.get(location.getDataFileId());
+        if (fileOffset != null) {
+            recoveredBytes = fileOffset + location.getOffset() + Math.max(location.getSize(), 0);
+        }
+        if (LOG.isInfoEnabled() && redoCounter % 100000 == 0) {
+            long remaining = getRecoveryTimeRemaining();
+            LOG.info("@" + location + ", " + redoCounter + " entries recovered, "
+                    + String.format("%.1f", getRecoveryProgress()) + "% of the journal"
+                    + (remaining >= 0 ? ", about " + (remaining / 1000) + " seconds left .." : " .."));
+        }
+    }
+
+    /**
+     * @return the percentage of the journal replayed by the recovery in
+     *         progress, 100 if there is none
+     */
+    public float getRecoveryProgress() {
+        long total = recoveryBytes;
+        if (total == 0) {
+            return 100;
+        }
+        return Math.min(100, recoveredBytes * 100f / total);
+    }
+
+    /**
+     * @return an estimate of the milliseconds it takes the recovery in
+     *         progress to replay the rest of the journal, at the rate it
+     *         replayed it so far, -1 if there is no estimate
+     */
+    public long getRecoveryTimeRemaining() {
+        long total = recoveryBytes;
+        long recovered = recoveredBytes;
+        if (total == 0 || recovered == 0) {
+            return -1;
+        }
+        long elapsed = System.currentTimeMillis() - recoveryStartTime;
+        return Math.max(0, (long) (elapsed * ((double) (total - recovered) / recovered)));
+    }
+
     @SuppressWarnings("unused")
     private KahaTransactionInfo createLocalTransactionInfo(TransactionId tx) {
         return TransactionIdConversion.convertToLocal(tx);
@@ -803,6 +891,9 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
 
     protected void checkpointCleanup(final boolean cleanup) throws IOException {
         long start;
+        if (enableIndexIncrementalCheckpoint) {
+            flushIndex();
+        }
         this.indexLock.writeLock().lock();
         try {
             start = System.currentTimeMillis();
@@ -826,6 +917,25 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         }
     }
 
+    /**
+     * Writes the index pages dirtied so far to disk without holding the index
+     * lock, so the checkpoint that follows only has to write the pages dirtied
+     * meanwhile while index updates are blocked.
+     */
+    private void flushIndex() throws IOException {
+        if (!opened.get()) {
+            return;
+        }
+        try {
+            pageFile.flush();
+        } catch (IOException e) {
+            // the page file may have been unloaded by a concurrent close.
+            if (opened.get()) {
+                throw e;
+            }
+        }
+    }
+
     public void checkpoint(Callback closure) throws Exception {
         this.indexLock.writeLock().lock();
         try {
@@ -1020,7 +1130,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
             List<Operation> inflightTx = getInflightTx(command.getTransactionInfo(), location);
             inflightTx.add(new AddOpperation(command, location));
         } else {
-            this.indexLock.writeLock().lock();
+            Lock lock = lockIndex(command.getDestination());
             try {
                 pageFile.tx().execute(new Transaction.Closure<IOException>() {
                     public void execute(Transaction tx) throws IOException {
@@ -1028,7 +1138,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                     }
                 });
             } finally {
-                this.indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
         }
     }
@@ -1039,7 +1149,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
            List<Operation> inflightTx = getInflightTx(command.getTransactionInfo(), location);
            inflightTx.add(new RemoveOpperation(command, location));
         } else {
-            this.indexLock.writeLock().lock();
+            Lock lock = lockIndex(command.getDestination());
             try {
                 pageFile.tx().execute(new Transaction.Closure<IOException>() {
                     public void execute(Transaction tx) throws IOException {
@@ -1047,7 +1157,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                     }
                 });
             } finally {
-                this.indexLock.writeLock().unlock();
+                unlockIndex(lock);
             }
         }
     }
@@ -1180,6 +1290,85 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
     protected final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
     private final HashSet<Integer> journalFilesBeingReplicated = new HashSet<Integer>();
 
+    static final int DEFAULT_INDEX_LOCK_STRIPES = 32;
+    private final AtomicLong indexLockWaitTime = new AtomicLong();
+    private final AtomicLong indexLockCount = new AtomicLong();
+    private final AtomicLong maxIndexLockWaitTime = new AtomicLong();
+
+    /**
+     * Locks the index for an update or a lookup that only touches the indexes
+     * of the given destination.
+     *
+     * With index lock striping enabled, and the destination already loaded,
+     * that is the shared index lock plus the stripe the destination hashes to,
+     * so other destinations can update the index at the same time and only a
+     * checkpoint or another global update excludes them. Otherwise, or when
+     * the destination first needs loading into the destinations index, it is
+     * the exclusive index lock.
+     *
+     * @return the lock to hand to {@link #unlockIndex(Lock)}
+     */
+    protected Lock lockIndex(KahaDestination destination) {
+        long start = System.nanoTime();
+        Lock rc = indexLock.writeLock();
+        if (enableIndexLockStriping) {
+            indexLock.readLock().lock();
+            String key = key(destination);
+            if (storedDestinations.containsKey(key)) {
+                ReentrantLock[] stripes = indexLockStripes;
+                rc = stripes[(key.hashCode() & Integer.MAX_VALUE) % stripes.length];
+                rc.lock();
+                recordIndexLockWait(System.nanoTime() - start);
+                return rc;
+            }
+            indexLock.readLock().unlock();
+        }
+        rc.lock();
+        recordIndexLockWait(System.nanoTime() - start);
+        return rc;
+    }
+
+    protected void unlockIndex(Lock lock) {
+        lock.unlock();
+        if (lock != indexLock.writeLock()) {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private void recordIndexLockWait(long nanos) {
+        indexLockWaitTime.addAndGet(nanos);
+        indexLockCount.incrementAndGet();
+        long max = maxIndexLockWaitTime.get();
+        while (nanos > max && !maxIndexLockWaitTime.compareAndSet(max, nanos)) {
+            max = maxIndexLockWaitTime.get();
+        }
+    }
+
+    private static ReentrantLock[] createIndexLockStripes(int count) {
+        ReentrantLock[] rc = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            rc[i] = new ReentrantLock();
+        }
+        return rc;
+    }
+
+    /**
+     * Records the last journal location applied to the index. Updates of
+     * different destinations may complete out of journal order when the index
+     * lock is striped, so the location only ever moves forward.
+     */
+    private void updateLastUpdate(Location location) {
+        if (enableIndexLockStriping) {
+            synchronized (metadata) {
+                if (metadata.lastUpdate == null || metadata.lastUpdate.compareTo(location) < 0) {
+                    metadata.lastUpdate = location;
+                }
+            }
+        } else {
+            metadata.lastUpdate = location;
+        }
+    }
+
     void upadateIndex(Transaction tx, KahaAddMessageCommand command, Location location) throws IOException {
         StoredDestination sd = getStoredDestination(command.getDestination(), tx);
 
@@ -1219,8 +1408,11 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
             sd.locationIndex.put(tx, location, previous);
         }
         // record this id in any event, initial send or recovery
-        metadata.producerSequenceIdTracker.isDuplicate(command.getMessageId());
-        metadata.lastUpdate = location;
+        ActiveMQMessageAuditNoSync producerSequenceIdTracker = metadata.producerSequenceIdTracker;
+        synchronized (producerSequenceIdTracker) {
+            producerSequenceIdTracker.isDuplicate(command.getMessageId());
+        }
+        updateLastUpdate(location);
     }
 
     abstract void rollbackStatsOnDuplicate(KahaDestination commandDestination);
@@ -1262,20 +1454,22 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
             }
 
         }
-        metadata.lastUpdate = ackLocation;
+        updateLastUpdate(ackLocation);
     }
 
     Map<Integer, Set<Integer>> ackMessageFileMap = new HashMap<Integer, Set<Integer>>();
     private void recordAckMessageReferenceLocation(Location ackLocation, Location messageLocation) {
-        Set<Integer> referenceFileIds = ackMessageFileMap.get(Integer.valueOf(ackLocation.getDataFileId()));
-        if (referenceFileIds == null) {
-            referenceFileIds = new HashSet<Integer>();
-            referenceFileIds.add(messageLocation.getDataFileId());
-            ackMessageFileMap.put(ackLocation.getDataFileId(), referenceFileIds);
-        } else {
-            Integer id = Integer.valueOf(messageLocation.getDataFileId());
-            if (!referenceFileIds.contains(id)) {
-                referenceFileIds.add(id);
+        synchronized (ackMessageFileMap) {
+            Set<Integer> referenceFileIds = ackMessageFileMap.get(Integer.valueOf(ackLocation.getDataFileId()));
+            if (referenceFileIds == null) {
+                referenceFileIds = new HashSet<Integer>();
+                referenceFileIds.add(messageLocation.getDataFileId());
+                ackMessageFileMap.put(ackLocation.getDataFileId(), referenceFileIds);
+            } else {
+                Integer id = Integer.valueOf(messageLocation.getDataFileId());
+                if (!referenceFileIds.contains(id)) {
+                    referenceFileIds.add(id);
+                }
             }
         }
     }
@@ -2152,6 +2346,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         index.setEnableWriteThread(isEnableIndexWriteAsync());
         index.setWriteBatchSize(getIndexWriteBatchSize());
         index.setPageCacheSize(indexCacheSize);
+        index.setOffHeapPageCacheSize(indexOffHeapCacheSize);
         index.setUseLFRUEviction(isUseIndexLFRUEviction());
         index.setLFUEvictionFactor(getIndexLFUEvictionFactor());
         index.setEnableDiskSyncs(isEnableIndexDiskSyncs());
@@ -2170,6 +2365,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         manager.setArchiveDataLogs(isArchiveDataLogs());
         manager.setSizeAccumulator(storeSize);
         manager.setEnableAsyncDiskSync(isEnableJournalDiskSyncs());
+        manager.setEnableMemoryMappedReads(isEnableJournalMemoryMappedReads());
         if (getDirectoryArchive() != null) {
             IOHelper.mkdirs(getDirectoryArchive());
             manager.setDirectoryArchive(getDirectoryArchive());
@@ -2225,6 +2421,22 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         this.enableJournalDiskSyncs = syncWrites;
     }
 
+    public boolean isEnableJournalMemoryMappedReads() {
+        return enableJournalMemoryMappedReads;
+    }
+
+    public void setEnableJournalMemoryMappedReads(boolean enableJournalMemoryMappedReads) {
+        this.enableJournalMemoryMappedReads = enableJournalMemoryMappedReads;
+    }
+
+    public int getJournalRecoveryThreads() {
+        return journalRecoveryThreads;
+    }
+
+    public void setJournalRecoveryThreads(int journalRecoveryThreads) {
+        this.journalRecoveryThreads = journalRecoveryThreads;
+    }
+
     public long getCheckpointInterval() {
         return checkpointInterval;
     }
@@ -2303,6 +2515,36 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         this.indexCacheSize = indexCacheSize;
     }
 
+    public long getIndexOffHeapCacheSize() {
+        return indexOffHeapCacheSize;
+    }
+
+    public void setIndexOffHeapCacheSize(long indexOffHeapCacheSize) {
+        this.indexOffHeapCacheSize = indexOffHeapCacheSize;
+    }
+
+    public long getIndexOffHeapCacheHits() {
+        return pageFile != null ? pageFile.getOffHeapPageCacheHits() : 0;
+    }
+
+    public long getIndexOffHeapCacheMisses() {
+        return pageFile != null ? pageFile.getOffHeapPageCacheMisses() : 0;
+    }
+
+    public long getIndexOffHeapCacheEvictions() {
+        return pageFile != null ? pageFile.getOffHeapPageCacheEvictions() : 0;
+    }
+
+    public long getIndexOffHeapCacheUsage() {
+        return pageFile != null ? pageFile.getOffHeapPageCacheUsage() : 0;
+    }
+
+    public void resetIndexOffHeapCacheStatistics() {
+        if (pageFile != null) {
+            pageFile.resetOffHeapPageCacheStatistics();
+        }
+    }
+
     public boolean isCheckForCorruptJournalFiles() {
         return checkForCorruptJournalFiles;
     }
@@ -2421,6 +2663,59 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         return enableIndexPageCaching;
     }
 
+    public boolean isEnableIndexLockStriping() {
+        return enableIndexLockStriping;
+    }
+
+    public void setEnableIndexLockStriping(boolean enableIndexLockStriping) {
+        this.enableIndexLockStriping = enableIndexLockStriping;
+    }
+
+    public boolean isEnableIndexIncrementalCheckpoint() {
+        return enableIndexIncrementalCheckpoint;
+    }
+
+    public void setEnableIndexIncrementalCheckpoint(boolean enableIndexIncrementalCheckpoint) {
+        this.enableIndexIncrementalCheckpoint = enableIndexIncrementalCheckpoint;
+    }
+
+    public int getIndexLockStripes() {
+        return indexLockStripes.length;
+    }
+
+    public void setIndexLockStripes(int indexLockStripes) {
+        this.indexLockStripes = createIndexLockStripes(indexLockStripes);
+    }
+
+    /**
+     * @return the total time, in milliseconds, spent waiting for the index lock
+     *         by destination updates and lookups
+     */
+    public long getIndexLockWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(indexLockWaitTime.get());
+    }
+
+    /**
+     * @return the longest wait, in milliseconds, for the index lock
+     */
+    public long getMaxIndexLockWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxIndexLockWaitTime.get());
+    }
+
+    /**
+     * @return the number of times destination updates and lookups took the
+     *         index lock
+     */
+    public long getIndexLockCount() {
+        return indexLockCount.get();
+    }
+
+    public void resetIndexLockStatistics() {
+        indexLockWaitTime.set(0);
+        indexLockCount.set(0);
+        maxIndexLockWaitTime.set(0);
+    }
+
     // /////////////////////////////////////////////////////////////////
     // Internal conversion methods.
     // /////////////////////////////////////////////////////////////////
@@ -27,6 +27,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.activemq.broker.BrokerService;
 import org.apache.activemq.broker.BrokerServiceAware;
@@ -80,6 +82,14 @@ public class PListStore extends ServiceSupport implements BrokerServiceAware, Ru
     private int indexWriteBatchSize = PageFile.DEFAULT_WRITE_BATCH_SIZE;
     private boolean indexEnablePageCaching = true;
 
+    private File segmentsDirectory;
+    private final ConcurrentHashMap<String, SegmentedPList> segmentedLists = new ConcurrentHashMap<String, SegmentedPList>();
+    private final AtomicLong segmentedListIds = new AtomicLong();
+    private final AtomicLong segmentsSize = new AtomicLong();
+    private int segmentLength = 4 * 1024 * 1024;
+    private int segmentWriteBufferSize = 32 * 1024;
+    private int segmentReadAheadSize = 64 * 1024;
+
     public Object getIndexLock() {
         return indexLock;
     }
@@ -211,7 +221,7 @@ public class PListStore extends ServiceSupport implements BrokerServiceAware, Ru
             }
         }
         try {
-            return journal.getDiskSize() + pageFile.getDiskSize();
+            return journal.getDiskSize() + pageFile.getDiskSize() + segmentsSize.get();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -269,6 +279,38 @@ public class PListStore extends ServiceSupport implements BrokerServiceAware, Ru
         return result;
     }
 
+    /**
+     * @return the segmented list with the name, created if there is none
+     */
+    public SegmentedPList getSegmentedPList(final String name) throws Exception {
+        if (!isStarted()) {
+            throw new IllegalStateException("Not started");
+        }
+        intialize();
+        SegmentedPList result = this.segmentedLists.get(name);
+        if (result == null) {
+            SegmentedPList list = new SegmentedPList(this, name, this.segmentsDirectory,
+                    this.segmentedListIds.incrementAndGet());
+            result = this.segmentedLists.putIfAbsent(name, list);
+            if (result == null) {
+                result = list;
+            }
+        }
+        return result;
+    }
+
+    public boolean removeSegmentedPList(final String name) throws Exception {
+        SegmentedPList list = this.segmentedLists.remove(name);
+        if (list != null) {
+            list.close();
+        }
+        return list != null;
+    }
+
+    void segmentsResized(long delta) {
+        this.segmentsSize.addAndGet(delta);
+    }
+
     protected synchronized void intialize() throws Exception {
         if (isStarted()) {
             if (this.initialized == false) {
@@ -277,6 +319,10 @@ public class PListStore extends ServiceSupport implements BrokerServiceAware, Ru
                 }
                 IOHelper.mkdirs(this.directory);
                 lock();
+                // segmented lists are not recovered
+                this.segmentsDirectory = new File(this.directory, "segments");
+                IOHelper.mkdirs(this.segmentsDirectory);
+                IOHelper.deleteChildren(this.segmentsDirectory);
                 this.journal = new Journal();
                 this.journal.setDirectory(directory);
                 this.journal.setMaxFileLength(getJournalMaxFileLength());
@@ -342,6 +388,10 @@ public class PListStore extends ServiceSupport implements BrokerServiceAware, Ru
         for (PList pl : this.persistentLists.values()) {
             pl.unload(null);
         }
+        for (SegmentedPList list : this.segmentedLists.values()) {
+            list.close();
+        }
+        this.segmentedLists.clear();
         if (this.pageFile != null) {
             this.pageFile.unload();
         }
@@ -473,6 +523,38 @@ public class PListStore extends ServiceSupport implements BrokerServiceAware, Ru
         this.cleanupInterval = cleanupInterval;
     }
 
+    public int getSegmentLength() {
+        return segmentLength;
+    }
+
+    /**
+     * @param segmentLength the length a segment of a segmented list grows
+     *        to before the list starts a new one
+     */
+    public void setSegmentLength(int segmentLength) {
+        this.segmentLength = segmentLength;
+    }
+
+    public int getSegmentWriteBufferSize() {
+        return segmentWriteBufferSize;
+    }
+
+    public void setSegmentWriteBufferSize(int segmentWriteBufferSize) {
+        this.segmentWriteBufferSize = segmentWriteBufferSize;
+    }
+
+    public int getSegmentReadAheadSize() {
+        return segmentReadAheadSize;
+    }
+
+    /**
+     * @param segmentReadAheadSize the most a segmented list reads from a
+     *        segment at a time
+     */
+    public void setSegmentReadAheadSize(int segmentReadAheadSize) {
+        this.segmentReadAheadSize = segmentReadAheadSize;
+    }
+
     public boolean isLazyInit() {
         return lazyInit;
     }
@@ -0,0 +1,512 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.plist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.kahadb.util.ByteSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A temporary list of entries kept in append only segment files of its own.
+ *
+ * Unlike a {@link PList}, which shares the index and journal of its store
+ * with every other list, a segmented list shares nothing, so lists are
+ * written and read concurrently, each only locking itself. Entries are
+ * appended to the last segment through a write buffer, and a segment file is
+ * deleted as a whole once all of its entries are removed. The order of the
+ * list, and the location of each entry, is kept in memory, so entries added
+ * first are written after the others but read back first. Reads go through a
+ * bounded read ahead buffer, so a list iterated in the order it was written
+ * is read sequentially, a block at a time.
+ *
+ * The id of an entry is written to the segment with its payload; in memory
+ * an entry is only indexed by the hash of its id, and the ids of the entries
+ * with the same hash are read back to find the one to remove. So a spooled
+ * entry costs one small object, and no String.
+ *
+ * Nothing is recovered on restart, the store deletes the segment files it
+ * finds when it is initialized.
+ */
+public class SegmentedPList {
+    static final Logger LOG = LoggerFactory.getLogger(SegmentedPList.class);
+    private static final int INITIAL_BUCKETS = 16;
+    // the length of the id, ahead of the id and the payload of a record
+    private static final int RECORD_HEAD_SPACE = 2;
+
+    private final PListStore store;
+    private final String name;
+    private final File directory;
+    private final long listId;
+    // chained through Entry.sameBucket
+    private Entry[] buckets = new Entry[INITIAL_BUCKETS];
+    private Entry head;
+    private Entry tail;
+    private long size;
+
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private Segment writeSegment;
+    private long nextSegmentId;
+    private byte[] writeBuffer;
+    private int writeBufferLength;
+
+    private Segment readSegment;
+    private long readOffset;
+    private byte[] readBuffer;
+    private int readBufferLength;
+    private boolean closed;
+
+    SegmentedPList(PListStore store, String name, File directory, long listId) {
+        this.store = store;
+        this.name = name;
+        this.directory = directory;
+        this.listId = listId;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public synchronized void addLast(String id, ByteSequence bs) throws IOException {
+        Entry entry = write(id, bs);
+        if (tail == null) {
+            head = entry;
+        } else {
+            tail.next = entry;
+            entry.prev = tail;
+        }
+        tail = entry;
+    }
+
+    public synchronized void addFirst(String id, ByteSequence bs) throws IOException {
+        Entry entry = write(id, bs);
+        if (head == null) {
+            tail = entry;
+        } else {
+            head.prev = entry;
+            entry.next = head;
+        }
+        head = entry;
+    }
+
+    /**
+     * Removes the first entry with the id.
+     *
+     * @return true if the list had an entry with the id
+     */
+    public synchronized boolean remove(String id) throws IOException {
+        int hash = id.hashCode();
+        List<Entry> matches = null;
+        for (Entry e = buckets[bucket(hash)]; e != null; e = e.sameBucket) {
+            if (e.hash == hash && id.equals(readId(e))) {
+                if (matches == null) {
+                    matches = new ArrayList<Entry>(1);
+                }
+                matches.add(e);
+            }
+        }
+        if (matches == null) {
+            return false;
+        }
+        Entry entry = matches.get(0);
+        if (matches.size() > 1) {
+            for (Entry e = head; e != null; e = e.next) {
+                if (e.hash == hash && matches.contains(e)) {
+                    entry = e;
+                    break;
+                }
+            }
+        }
+        unlink(entry);
+        return true;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return an iterator over the entries in list order. Entries added or
+     *         removed while iterating may or may not be seen, the iterator
+     *         never fails because of them.
+     */
+    public synchronized Iterator<PListEntry> iterator() {
+        return new PListIterator(head);
+    }
+
+    /**
+     * Removes all the entries, and deletes the segment files.
+     */
+    public synchronized void clear() throws IOException {
+        for (Entry entry = head; entry != null; entry = entry.next) {
+            entry.removed = true;
+        }
+        head = null;
+        tail = null;
+        buckets = new Entry[INITIAL_BUCKETS];
+        size = 0;
+        for (Segment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        writeSegment = null;
+        writeBuffer = null;
+        writeBufferLength = 0;
+        readSegment = null;
+        readBuffer = null;
+    }
+
+    synchronized void close() throws IOException {
+        clear();
+        closed = true;
+    }
+
+    private Entry write(String id, ByteSequence bs) throws IOException {
+        if (closed) {
+            throw new IOException("List " + name + " is closed");
+        }
+        byte[] idBytes = id.getBytes("UTF-8");
+        if (idBytes.length > 0xFFFF) {
+            throw new IOException("Id of " + idBytes.length + " bytes is too long: " + id);
+        }
+        int length = RECORD_HEAD_SPACE + idBytes.length + bs.getLength();
+        if (writeSegment == null || (writeSegment.length > 0 && writeSegment.length + length > store.getSegmentLength())) {
+            flushWriteBuffer();
+            writeSegment = new Segment(new File(directory, listId + "-" + nextSegmentId++ + ".seg"));
+            segments.add(writeSegment);
+        }
+        if (writeBuffer == null) {
+            writeBuffer = new byte[store.getSegmentWriteBufferSize()];
+        }
+        if (writeBufferLength + length > writeBuffer.length) {
+            flushWriteBuffer();
+        }
+        Entry entry = new Entry(id.hashCode(), writeSegment, writeSegment.length, length);
+        byte[] recordHead = writeBuffer;
+        int recordHeadOffset = writeBufferLength;
+        if (length > writeBuffer.length) {
+            recordHead = new byte[RECORD_HEAD_SPACE + idBytes.length];
+            recordHeadOffset = 0;
+        }
+        recordHead[recordHeadOffset] = (byte) (idBytes.length >>> 8);
+        recordHead[recordHeadOffset + 1] = (byte) idBytes.length;
+        System.arraycopy(idBytes, 0, recordHead, recordHeadOffset + RECORD_HEAD_SPACE, idBytes.length);
+        if (length > writeBuffer.length) {
+            writeSegment.write(writeSegment.length, recordHead, 0, recordHead.length);
+            writeSegment.write(writeSegment.length + recordHead.length, bs.getData(), bs.getOffset(), bs.getLength());
+        } else {
+            System.arraycopy(bs.getData(), bs.getOffset(), writeBuffer, writeBufferLength + RECORD_HEAD_SPACE
+                    + idBytes.length, bs.getLength());
+            writeBufferLength += length;
+        }
+        writeSegment.length += length;
+        writeSegment.live++;
+        store.segmentsResized(length);
+
+        index(entry);
+        size++;
+        return entry;
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        if (writeBufferLength > 0) {
+            writeSegment.write(writeSegment.length - writeBufferLength, writeBuffer, 0, writeBufferLength);
+            writeBufferLength = 0;
+        }
+    }
+
+    private String readId(Entry entry) throws IOException {
+        byte[] data = read(entry, 0, RECORD_HEAD_SPACE);
+        int idLength = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+        return new String(read(entry, RECORD_HEAD_SPACE, idLength), "UTF-8");
+    }
+
+    private PListEntry readEntry(Entry entry) throws IOException {
+        byte[] data = read(entry, 0, entry.length);
+        int idLength = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+        String id = new String(data, RECORD_HEAD_SPACE, idLength, "UTF-8");
+        int payloadOffset = RECORD_HEAD_SPACE + idLength;
+        return new PListEntry(id, new ByteSequence(data, payloadOffset, data.length - payloadOffset));
+    }
+
+    /**
+     * @return a copy of length bytes at the offset within the record of the
+     *         entry
+     */
+    private byte[] read(Entry entry, int offset, int length) throws IOException {
+        Segment segment = entry.segment;
+        long position = entry.offset + offset;
+        if (segment == writeSegment && position >= segment.length - writeBufferLength) {
+            // not flushed yet
+            return copy(writeBuffer, (int) (position - (segment.length - writeBufferLength)), length);
+        }
+        if (segment != readSegment || position < readOffset
+                || position + length > readOffset + readBufferLength) {
+            int readLength = (int) Math.min(Math.max(store.getSegmentReadAheadSize(), length), segment.length
+                    - position);
+            if (readBuffer == null || readBuffer.length < readLength) {
+                readBuffer = new byte[readLength];
+            }
+            // up to the written part of the segment
+            long flushed = segment == writeSegment ? segment.length - writeBufferLength : segment.length;
+            readBufferLength = (int) Math.min(readLength, flushed - position);
+            segment.read(position, readBuffer, readBufferLength);
+            readSegment = segment;
+            readOffset = position;
+        }
+        return copy(readBuffer, (int) (position - readOffset), length);
+    }
+
+    private byte[] copy(byte[] data, int offset, int length) {
+        byte[] rc = new byte[length];
+        System.arraycopy(data, offset, rc, 0, length);
+        return rc;
+    }
+
+    private int bucket(int hash) {
+        // spread the high bits, as String hash codes differ mostly in the low ones
+        hash ^= (hash >>> 16);
+        return hash & (buckets.length - 1);
+    }
+
+    private void index(Entry entry) {
+        if (size >= buckets.length * 3L / 4) {
+            Entry[] old = buckets;
+            buckets = new Entry[old.length * 2];
+            for (Entry first : old) {
+                for (Entry e = first; e != null;) {
+                    Entry next = e.sameBucket;
+                    int bucket = bucket(e.hash);
+                    e.sameBucket = buckets[bucket];
+                    buckets[bucket] = e;
+                    e = next;
+                }
+            }
+        }
+        int bucket = bucket(entry.hash);
+        entry.sameBucket = buckets[bucket];
+        buckets[bucket] = entry;
+    }
+
+    private void unindex(Entry entry) {
+        int bucket = bucket(entry.hash);
+        if (buckets[bucket] == entry) {
+            buckets[bucket] = entry.sameBucket;
+        } else {
+            for (Entry e = buckets[bucket]; e != null; e = e.sameBucket) {
+                if (e.sameBucket == entry) {
+                    e.sameBucket = entry.sameBucket;
+                    break;
+                }
+            }
+        }
+        entry.sameBucket = null;
+    }
+
+    private void unlink(Entry entry) throws IOException {
+        // the removed entry keeps its next pointer, so iterators positioned
+        // on it can move on.
+        if (entry.prev == null) {
+            head = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next == null) {
+            tail = entry.prev;
+        } else {
+            entry.next.prev = entry.prev;
+        }
+        entry.removed = true;
+        size--;
+        if (size == 0) {
+            // let a table grown by a burst go
+            buckets = new Entry[INITIAL_BUCKETS];
+        } else {
+            unindex(entry);
+        }
+
+        Segment segment = entry.segment;
+        if (--segment.live == 0) {
+            if (segment == readSegment) {
+                readSegment = null;
+            }
+            if (segment == writeSegment) {
+                // start over at the beginning of the file
+                writeBufferLength = 0;
+                segment.truncate();
+            } else {
+                segment.delete();
+                segments.remove(segment);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + "[listId=" + listId + ", size=" + size + "]";
+    }
+
+    /**
+     * A segment file, open from its first write until it is deleted.
+     */
+    private final class Segment {
+        final File file;
+        long length;
+        int live;
+        private RandomAccessFile raf;
+        private FileChannel channel;
+
+        Segment(File file) {
+            this.file = file;
+        }
+
+        private FileChannel channel() throws IOException {
+            if (channel == null) {
+                raf = new RandomAccessFile(file, "rw");
+                channel = raf.getChannel();
+            }
+            return channel;
+        }
+
+        void write(long offset, byte[] data, int dataOffset, int dataLength) throws IOException {
+            FileChannel channel = channel();
+            ByteBuffer buffer = ByteBuffer.wrap(data, dataOffset, dataLength);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position() - dataOffset);
+            }
+        }
+
+        void read(long offset, byte[] data, int dataLength) throws IOException {
+            FileChannel channel = channel();
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, dataLength);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of segment " + file + " at " + (offset + buffer.position()));
+                }
+            }
+        }
+
+        void truncate() throws IOException {
+            if (channel != null) {
+                channel.truncate(0);
+            }
+            store.segmentsResized(-length);
+            length = 0;
+        }
+
+        void delete() {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    LOG.debug("Failed to close segment " + file + ": " + e);
+                }
+                raf = null;
+                channel = null;
+            }
+            if (file.exists() && !file.delete()) {
+                LOG.warn("Failed to delete segment " + file);
+            }
+            store.segmentsResized(-length);
+            length = 0;
+        }
+    }
+
+    private static final class Entry {
+        final int hash;
+        final Segment segment;
+        final long offset;
+        final int length;
+        Entry next;
+        Entry prev;
+        Entry sameBucket;
+        boolean removed;
+
+        Entry(int hash, Segment segment, long offset, int length) {
+            this.hash = hash;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final class PListIterator implements Iterator<PListEntry> {
+        private Entry next;
+        private Entry last;
+
+        PListIterator(Entry first) {
+            next = first;
+        }
+
+        public boolean hasNext() {
+            synchronized (SegmentedPList.this) {
+                while (next != null && next.removed) {
+                    next = next.next;
+                }
+                return next != null;
+            }
+        }
+
+        public PListEntry next() {
+            synchronized (SegmentedPList.this) {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = next.next;
+                try {
+                    return readEntry(last);
+                } catch (IOException unexpected) {
+                    NoSuchElementException e = new NoSuchElementException(unexpected.getLocalizedMessage());
+                    e.initCause(unexpected);
+                    throw e;
+                }
+            }
+        }
+
+        public void remove() {
+            synchronized (SegmentedPList.this) {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                if (!last.removed) {
+                    try {
+                        unlink(last);
+                    } catch (IOException unexpected) {
+                        IllegalStateException e = new IllegalStateException(unexpected);
+                        e.initCause(unexpected);
+                        throw e;
+                    }
+                }
+                last = null;
+            }
+        }
+    }
+}
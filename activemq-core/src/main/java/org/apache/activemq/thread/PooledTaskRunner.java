@@ -73,7 +73,7 @@ class PooledTaskRunner implements TaskRunner {
             // The runTask() method will do this for me once we are done
             // iterating.
             if (!iterating) {
-                executor.execute(runable);
+                execute();
             }
         }
     }
@@ -102,6 +102,16 @@ class PooledTaskRunner implements TaskRunner {
         shutdown(0);
     }
 
+    private void execute() {
+        try {
+            executor.execute(runable);
+        } catch (RuntimeException e) {
+            // not queued after all, so a later wakeup can try again
+            queued = false;
+            throw e;
+        }
+    }
+
     final void runTask() {
 
         synchronized (runable) {
@@ -141,7 +151,7 @@ class PooledTaskRunner implements TaskRunner {
                 }
 
                 if (queued) {
-                    executor.execute(runable);
+                    execute();
                 }
 
             }
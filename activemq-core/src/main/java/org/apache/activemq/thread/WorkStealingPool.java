@@ -0,0 +1,288 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.thread;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed set of worker threads, each with its own deque of work. Work is
+ * submitted to a preferred worker so that the same task keeps running on the
+ * same thread while it can, and idle workers steal from the tail of busy
+ * workers' deques so one long running task cannot hold up the others queued
+ * behind it.
+ *
+ * Tasks may block, on a socket write or on producer flow control. When work
+ * is queued and every worker has been running its current task for longer
+ * than the blocked threshold, a spare worker is started that steals queued
+ * work until there is none left, so blocked tasks cannot starve the pool.
+ *
+ * After shutdown the workers drain the work already queued and further work
+ * is rejected.
+ */
+class WorkStealingPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkStealingPool.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String name;
+    private final int priority;
+    private final boolean daemon;
+    private final long blockedNanos;
+    private final Worker[] workers;
+    private final CopyOnWriteArrayList<Worker> spares = new CopyOnWriteArrayList<Worker>();
+    private final Thread monitor;
+    private final AtomicLong spareCount = new AtomicLong();
+    private volatile boolean shutdown;
+
+    WorkStealingPool(String name, int size, int priority, boolean daemon, long blockedThreshold) {
+        this.name = name;
+        this.priority = priority;
+        this.daemon = daemon;
+        this.blockedNanos = TimeUnit.MILLISECONDS.toNanos(blockedThreshold);
+        workers = new Worker[size];
+        for (int i = 0; i < size; i++) {
+            workers[i] = new Worker(i, name + "-" + i, false);
+            workers[i].setPriority(priority);
+            workers[i].setDaemon(daemon);
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+        monitor = new Thread(name + "-Monitor") {
+            @Override
+            public void run() {
+                while (!shutdown) {
+                    LockSupport.parkNanos(this, Math.max(blockedNanos / 2, 1));
+                    if (!shutdown && getQueueDepth() > 0 && isBlocked()) {
+                        startSpare();
+                    }
+                }
+            }
+        };
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    int size() {
+        return workers.length;
+    }
+
+    /**
+     * Queues the runnable on the worker selected by the affinity key, waking
+     * an idle worker to steal it if that worker is busy.
+     *
+     * @throws RejectedExecutionException if the pool is shut down
+     */
+    void execute(Runnable runnable, int affinity) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Shutdown: " + name);
+        }
+        Worker worker = workers[(affinity & Integer.MAX_VALUE) % workers.length];
+        worker.deque.offerLast(runnable);
+        if (shutdown && worker.deque.removeLastOccurrence(runnable)) {
+            // the workers may have drained their work and exited already
+            throw new RejectedExecutionException("Shutdown: " + name);
+        }
+        worker.submitted.incrementAndGet();
+        if (worker.idle) {
+            LockSupport.unpark(worker);
+        } else {
+            for (Worker other : workers) {
+                if (other.idle) {
+                    LockSupport.unpark(other);
+                    break;
+                }
+            }
+        }
+    }
+
+    void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+        LockSupport.unpark(monitor);
+    }
+
+    long getQueueDepth() {
+        long rc = 0;
+        for (Worker worker : workers) {
+            rc += worker.deque.size();
+        }
+        return rc;
+    }
+
+    long getStolenCount() {
+        long rc = 0;
+        for (Worker worker : workers) {
+            rc += worker.stolen.get();
+        }
+        for (Worker spare : spares) {
+            rc += spare.stolen.get();
+        }
+        return rc;
+    }
+
+    /**
+     * @return the number of spare workers started because all the workers
+     *         were blocked
+     */
+    long getSpareCount() {
+        return spareCount.get();
+    }
+
+    String[] getWorkerStatistics() {
+        String[] rc = new String[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[i];
+            rc[i] = worker.getName() + ": queueDepth=" + worker.deque.size()
+                    + ", submitted=" + worker.submitted.get()
+                    + ", executed=" + worker.executed.get()
+                    + ", stolen=" + worker.stolen.get()
+                    + ", runTimeMs=" + TimeUnit.NANOSECONDS.toMillis(worker.runTime.get())
+                    + ", maxRunTimeMs=" + TimeUnit.NANOSECONDS.toMillis(worker.maxRunTime);
+        }
+        return rc;
+    }
+
+    /**
+     * @return true if every worker, spare or not, has been running its
+     *         current task for longer than the blocked threshold
+     */
+    private boolean isBlocked() {
+        long now = System.nanoTime();
+        for (Worker worker : workers) {
+            if (!worker.isBlocked(now)) {
+                return false;
+            }
+        }
+        for (Worker spare : spares) {
+            if (!spare.isBlocked(now)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startSpare() {
+        Worker spare = new Worker(0, name + "-Spare-" + spareCount.incrementAndGet(), true);
+        spare.setPriority(priority);
+        spare.setDaemon(daemon);
+        spares.add(spare);
+        LOG.debug("All workers of " + name + " are blocked, started " + spare.getName());
+        spare.start();
+    }
+
+    private Runnable steal(Worker thief) {
+        for (int i = 0; i < workers.length; i++) {
+            Worker victim = workers[(thief.index + i) % workers.length];
+            if (victim == thief) {
+                continue;
+            }
+            Runnable rc = victim.deque.pollLast();
+            if (rc != null) {
+                thief.stolen.incrementAndGet();
+                return rc;
+            }
+        }
+        return null;
+    }
+
+    private final class Worker extends Thread {
+        final int index;
+        final boolean spare;
+        final LinkedBlockingDeque<Runnable> deque = new LinkedBlockingDeque<Runnable>();
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong executed = new AtomicLong();
+        final AtomicLong stolen = new AtomicLong();
+        final AtomicLong runTime = new AtomicLong();
+        volatile long maxRunTime;
+        volatile boolean idle;
+        // when the current task was started, 0 when there is none
+        volatile long runStart;
+
+        Worker(int index, String name, boolean spare) {
+            super(name);
+            this.index = index;
+            this.spare = spare;
+        }
+
+        boolean isBlocked(long now) {
+            long start = runStart;
+            return start != 0 && now - start > blockedNanos;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Runnable runnable = next();
+                    if (runnable == null) {
+                        if (spare || shutdown) {
+                            break;
+                        }
+                        idle = true;
+                        // re-check after advertising we are idle so a concurrent
+                        // submit either sees the flag or we see its work
+                        runnable = next();
+                        if (runnable == null) {
+                            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                            idle = false;
+                            continue;
+                        }
+                        idle = false;
+                    }
+                    long start = System.nanoTime();
+                    runStart = start;
+                    try {
+                        runnable.run();
+                    } catch (Throwable e) {
+                        LOG.warn("Task " + runnable + " failed: " + e, e);
+                    } finally {
+                        runStart = 0;
+                        long duration = System.nanoTime() - start;
+                        executed.incrementAndGet();
+                        runTime.addAndGet(duration);
+                        if (duration > maxRunTime) {
+                            maxRunTime = duration;
+                        }
+                    }
+                }
+            } finally {
+                if (spare) {
+                    spares.remove(this);
+                }
+            }
+        }
+
+        private Runnable next() {
+            Runnable rc = deque.pollFirst();
+            if (rc == null) {
+                rc = steal(this);
+            }
+            return rc;
+        }
+    }
+}
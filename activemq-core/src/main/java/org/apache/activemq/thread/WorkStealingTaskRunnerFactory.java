@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.thread;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link TaskRunnerFactory} that runs tasks created through
+ * {@link #createTaskRunner(Task, String)} on a fixed size, work stealing pool
+ * rather than on a thread per task or an unbounded thread pool.
+ *
+ * Each task runner has an affinity to one worker, derived from its name, so a
+ * destination is normally iterated by the same thread. A run is bounded by
+ * maxIterationsPerRun after which the task is re-queued behind the other work
+ * of its worker, and idle workers steal queued runs from busy ones so that one
+ * busy destination does not delay the others sharing its worker.
+ *
+ * Task runners may block, like those of connections writing to a slow
+ * consumer, so when work is queued and every worker has been running its
+ * current task for longer than blockedThreshold, the pool starts a spare
+ * worker to run it. Runnables passed to {@link #execute(Runnable, String)}
+ * are still run by the default executor.
+ *
+ * @org.apache.xbean.XBean
+ */
+public class WorkStealingTaskRunnerFactory extends TaskRunnerFactory {
+
+    private int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+    private long blockedThreshold = 1000;
+    private WorkStealingPool pool;
+
+    public WorkStealingTaskRunnerFactory() {
+        super("ActiveMQ Task", Thread.NORM_PRIORITY, true, 100, false);
+    }
+
+    public WorkStealingTaskRunnerFactory(String name, int priority, boolean daemon, int maxIterationsPerRun, int poolSize) {
+        super(name, priority, daemon, maxIterationsPerRun, false);
+        this.poolSize = poolSize;
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        synchronized (this) {
+            if (pool == null) {
+                pool = new WorkStealingPool(getName() + " Worker", poolSize, getPriority(), isDaemon(), blockedThreshold);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+        }
+        super.shutdown();
+    }
+
+    @Override
+    public TaskRunner createTaskRunner(Task task, String name) {
+        init();
+        final WorkStealingPool pool = getPool();
+        final int affinity = name != null ? name.hashCode() : System.identityHashCode(task);
+        return new PooledTaskRunner(new Executor() {
+            public void execute(Runnable runnable) {
+                pool.execute(runnable, affinity);
+            }
+        }, task, getMaxIterationsPerRun());
+    }
+
+    private synchronized WorkStealingPool getPool() {
+        return pool;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @param poolSize the number of worker threads shared by all task runners
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public long getBlockedThreshold() {
+        return blockedThreshold;
+    }
+
+    /**
+     * @param blockedThreshold the time in milliseconds after which a worker
+     *                running the same task is considered blocked
+     */
+    public void setBlockedThreshold(long blockedThreshold) {
+        this.blockedThreshold = blockedThreshold;
+    }
+
+    /**
+     * @return the number of task runs waiting for a worker
+     */
+    public long getQueueDepth() {
+        WorkStealingPool pool = getPool();
+        return pool != null ? pool.getQueueDepth() : 0;
+    }
+
+    /**
+     * @return the number of task runs executed by a worker other than the
+     *         one they were queued on
+     */
+    public long getStolenCount() {
+        WorkStealingPool pool = getPool();
+        return pool != null ? pool.getStolenCount() : 0;
+    }
+
+    /**
+     * @return the number of spare workers started because every worker was
+     *         blocked
+     */
+    public long getSpareCount() {
+        WorkStealingPool pool = getPool();
+        return pool != null ? pool.getSpareCount() : 0;
+    }
+
+    /**
+     * @return queue depth and run time statistics, one entry per worker
+     */
+    public String[] getWorkerStatistics() {
+        WorkStealingPool pool = getPool();
+        return pool != null ? pool.getWorkerStatistics() : new String[0];
+    }
+}
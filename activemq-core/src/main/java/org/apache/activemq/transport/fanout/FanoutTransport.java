@@ -417,6 +417,10 @@ public class FanoutTransport implements CompositeTransport {
                     }
                 }
 
+                // Cache the message for replay, also when a send above failed:
+                // the transports that failed get it again once they are restored.
+                stateTracker.trackBack(command);
+
             }
         } catch (InterruptedException e) {
             // Some one may be trying to stop our thread.
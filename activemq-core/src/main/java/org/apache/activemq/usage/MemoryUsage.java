@@ -16,6 +16,8 @@
  */
 package org.apache.activemq.usage;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Used to keep track of how much of something is being used so that a
  * productive working set usage can be controlled. Main use case is manage
@@ -26,7 +28,9 @@ package org.apache.activemq.usage;
  */
 public class MemoryUsage extends Usage<MemoryUsage> {
 
-    private long usage;
+    // updated without taking the usageMutex, which is only taken when the
+    // percentage used changes.
+    private final AtomicLong usage = new AtomicLong();
 
     public MemoryUsage() {
         this(null, null);
@@ -63,8 +67,10 @@ public class MemoryUsage extends Usage<MemoryUsage> {
             parent.waitForSpace();
         }
         synchronized (usageMutex) {
-            for (int i = 0; percentUsage >= 100; i++) {
-                usageMutex.wait();
+            while (caclPercentUsage() >= 100) {
+                // don't rely on the notification alone, the usage changes
+                // without the usageMutex
+                usageMutex.wait(getPollingTime());
             }
         }
     }
@@ -81,10 +87,10 @@ public class MemoryUsage extends Usage<MemoryUsage> {
             }
         }
         synchronized (usageMutex) {
-            if (percentUsage >= 100) {
+            if (caclPercentUsage() >= 100) {
                 usageMutex.wait(timeout);
             }
-            return percentUsage < 100;
+            return caclPercentUsage() < 100;
         }
     }
 
@@ -92,8 +98,34 @@ public class MemoryUsage extends Usage<MemoryUsage> {
         if (parent != null && parent.isFull()) {
             return true;
         }
+        // calculated from the usage rather than read from percentUsage, which
+        // can lag behind concurrent changes
+        return caclPercentUsage() >= 100;
+    }
+
+    public boolean isFull(int highWaterMark) {
+        if (parent != null && parent.isFull(highWaterMark)) {
+            return true;
+        }
+        // not written back to percentUsage, which would skip the events of
+        // the change
+        return caclPercentUsage() >= highWaterMark;
+    }
+
+    public boolean waitForSpace(long timeout, int highWaterMark) throws InterruptedException {
+        if (parent != null) {
+            if (!parent.waitForSpace(timeout, highWaterMark)) {
+                return false;
+            }
+        }
         synchronized (usageMutex) {
-            return percentUsage >= 100;
+            long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+            long timeleft = deadline;
+            while (caclPercentUsage() >= highWaterMark && timeleft > 0) {
+                usageMutex.wait(getPollingTime());
+                timeleft = deadline - System.currentTimeMillis();
+            }
+            return caclPercentUsage() < highWaterMark;
         }
     }
 
@@ -118,12 +150,8 @@ public class MemoryUsage extends Usage<MemoryUsage> {
         if (value == 0) {
             return;
         }
-        int percentUsage;
-        synchronized (usageMutex) {
-            usage += value;
-            percentUsage = caclPercentUsage();
-        }
-        setPercentUsage(percentUsage);
+        usage.addAndGet(value);
+        updatePercentUsage();
         if (parent != null) {
             ((MemoryUsage)parent).increaseUsage(value);
         }
@@ -138,26 +166,31 @@ public class MemoryUsage extends Usage<MemoryUsage> {
         if (value == 0) {
             return;
         }
-        int percentUsage;
-        synchronized (usageMutex) {
-            usage -= value;
-            percentUsage = caclPercentUsage();
-        }
-        setPercentUsage(percentUsage);
+        usage.addAndGet(-value);
+        updatePercentUsage();
         if (parent != null) {
             parent.decreaseUsage(value);
         }
     }
 
+    protected void updatePercentUsage() {
+        // most changes leave the percentage as it is, those don't need the
+        // usageMutex. A change that races with one under the mutex is picked
+        // up there, as it calculates again until the percentage holds still.
+        if (caclPercentUsage() != percentUsage) {
+            super.updatePercentUsage();
+        }
+    }
+
     protected long retrieveUsage() {
-        return usage;
+        return usage.get();
     }
 
     public long getUsage() {
-        return usage;
+        return usage.get();
     }
 
     public void setUsage(long usage) {
-        this.usage = usage;
+        this.usage.set(usage);
     }
 }
@@ -39,7 +39,7 @@ public abstract class Usage<T extends Usage> implements Service {
 
     private static final Logger LOG = LoggerFactory.getLogger(Usage.class);
     protected final Object usageMutex = new Object();
-    protected int percentUsage;
+    protected volatile int percentUsage;
     protected T parent;
     private UsageCapacity limiter = new DefaultUsageCapacity();
     private int percentUsageMinDelta = 1;
@@ -233,6 +233,20 @@ public abstract class Usage<T extends Usage> implements Service {
         }
     }
 
+    /**
+     * Brings the cached percentage up to date with the usage, firing the
+     * events for the change. The usage can change without the usageMutex, so
+     * the percentage is calculated again until it holds still.
+     */
+    protected void updatePercentUsage() {
+        synchronized (usageMutex) {
+            int value;
+            while ((value = caclPercentUsage()) != percentUsage) {
+                setPercentUsage(value);
+            }
+        }
+    }
+
     protected int caclPercentUsage() {
         if (limiter.getLimit() == 0) {
             return 0;
@@ -346,6 +360,7 @@ public abstract class Usage<T extends Usage> implements Service {
 
                 public void run() {
                     synchronized (usageMutex) {
+                        updatePercentUsage();
                         if (percentUsage >= 100) {
                             callbacks.add(callback);
                         } else {
@@ -359,6 +374,9 @@ public abstract class Usage<T extends Usage> implements Service {
             }
         }
         synchronized (usageMutex) {
+            // a callback only runs when the cached percentage drops below
+            // 100, so it has to be current before the callback waits on it
+            updatePercentUsage();
             if (percentUsage >= 100) {
                 callbacks.add(callback);
                 return true;
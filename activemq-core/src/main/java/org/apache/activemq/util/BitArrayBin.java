@@ -16,21 +16,42 @@
  */
 package org.apache.activemq.util;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.LinkedList;
 
 /**
  * Holder for many bitArrays - used for message audit
- * 
- * 
+ *
+ * The arrays are kept as a ring of longs rather than as a list of
+ * {@link BitArray} objects, so an audit of many producers only takes a few
+ * bytes per message of the window. The serialized form is still the list of
+ * BitArrays, so audits stored by earlier versions can be read and the other
+ * way around.
  */
 public class BitArrayBin implements Serializable {
 
     private static final long serialVersionUID = 1L;
-    private LinkedList<BitArray> list;
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("list", LinkedList.class),
+        new ObjectStreamField("maxNumberOfArrays", Integer.TYPE),
+        new ObjectStreamField("firstIndex", Integer.TYPE),
+        new ObjectStreamField("lastInOrderBit", Long.TYPE)
+    };
+    // the length of an array that was never created
+    private static final byte NO_ARRAY = -1;
+
     private int maxNumberOfArrays;
     private int firstIndex = -1;
-    private long lastInOrderBit=-1;
+    private long lastInOrderBit = -1;
+    // the bits and lengths of the arrays, the first one at head
+    private transient long[] bits;
+    private transient byte[] lengths;
+    private transient int head;
 
     /**
      * Create a BitArrayBin to a certain window size (number of messages to
@@ -41,10 +62,9 @@ public class BitArrayBin implements Serializable {
     public BitArrayBin(int windowSize) {
         maxNumberOfArrays = ((windowSize + 1) / BitArray.LONG_SIZE) + 1;
         maxNumberOfArrays = Math.max(maxNumberOfArrays, 1);
-        list = new LinkedList<BitArray>();
-        for (int i = 0; i < maxNumberOfArrays; i++) {
-            list.add(null);
-        }
+        bits = new long[maxNumberOfArrays];
+        lengths = new byte[maxNumberOfArrays];
+        Arrays.fill(lengths, NO_ARRAY);
     }
 
     /**
@@ -56,11 +76,18 @@ public class BitArrayBin implements Serializable {
      */
     public boolean setBit(long index, boolean value) {
         boolean answer = false;
-        BitArray ba = getBitArray(index);
-        if (ba != null) {
+        int array = getBitArray(index);
+        if (array >= 0) {
             int offset = getOffset(index);
             if (offset >= 0) {
-                answer = ba.set(offset, value);
+                long bit = 1L << offset;
+                lengths[array] = (byte) Math.max(lengths[array], offset + 1);
+                answer = (bits[array] & bit) != 0;
+                if (value) {
+                    bits[array] |= bit;
+                } else {
+                    bits[array] &= ~bit;
+                }
             }
         }
         return answer;
@@ -91,11 +118,11 @@ public class BitArrayBin implements Serializable {
      */
     public boolean getBit(long index) {
         boolean answer = index >= firstIndex;
-        BitArray ba = getBitArray(index);
-        if (ba != null) {
+        int array = getBitArray(index);
+        if (array >= 0) {
             int offset = getOffset(index);
             if (offset >= 0) {
-                answer = ba.get(offset);
+                answer = (bits[array] & (1L << offset)) != 0;
                 return answer;
             }
         } else {
@@ -106,30 +133,32 @@ public class BitArrayBin implements Serializable {
     }
 
     /**
-     * Get the BitArray for the index
+     * Get the position in the ring of the array for the index, creating the
+     * array, and moving the window on, if needed
      * 
      * @param index
-     * @return BitArray
+     * @return the position of the array, -1 if the index is before the window
      */
-    private BitArray getBitArray(long index) {
+    private int getBitArray(long index) {
         int bin = getBin(index);
-        BitArray answer = null;
+        int answer = -1;
         if (bin >= 0) {
             if (bin >= maxNumberOfArrays) {
                 int overShoot = bin - maxNumberOfArrays + 1;
-                while (overShoot > 0) {
-                    list.removeFirst();
-                    firstIndex += BitArray.LONG_SIZE;
-                    list.add(new BitArray());
-                    overShoot--;
+                // arrays moved out of the window are replaced by new ones
+                firstIndex += overShoot * BitArray.LONG_SIZE;
+                int replaced = Math.min(overShoot, maxNumberOfArrays);
+                for (int i = 0; i < replaced; i++) {
+                    bits[head] = 0;
+                    lengths[head] = 0;
+                    head = (head + 1) % maxNumberOfArrays;
                 }
-                
                 bin = maxNumberOfArrays - 1;
             }
-            answer = list.get(bin);
-            if (answer == null) {
-                answer = new BitArray();
-                list.set(bin, answer);
+            answer = (head + bin) % maxNumberOfArrays;
+            if (lengths[answer] == NO_ARRAY) {
+                bits[answer] = 0;
+                lengths[answer] = 0;
             }
         }
         return answer;
@@ -170,11 +199,10 @@ public class BitArrayBin implements Serializable {
         
         if (firstIndex >=0) {
             result = firstIndex;   
-            BitArray last = null;
             for (int lastBitArrayIndex = maxNumberOfArrays -1; lastBitArrayIndex >= 0; lastBitArrayIndex--) {
-                last = list.get(lastBitArrayIndex);
-                if (last != null) {
-                    result += last.length() -1;
+                int length = lengths[(head + lastBitArrayIndex) % maxNumberOfArrays];
+                if (length != NO_ARRAY) {
+                    result += length -1;
                     result += lastBitArrayIndex * BitArray.LONG_SIZE;
                     break;
                 }
@@ -182,4 +210,50 @@ public class BitArrayBin implements Serializable {
         }
         return result;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        LinkedList<BitArray> list = new LinkedList<BitArray>();
+        for (int i = 0; i < maxNumberOfArrays; i++) {
+            int array = (head + i) % maxNumberOfArrays;
+            BitArray bitArray = null;
+            if (lengths[array] != NO_ARRAY) {
+                bitArray = new BitArray();
+                bitArray.reset(bits[array]);
+                if (lengths[array] > 0) {
+                    int last = lengths[array] - 1;
+                    bitArray.set(last, bitArray.get(last));
+                }
+            }
+            list.add(bitArray);
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("list", list);
+        fields.put("maxNumberOfArrays", maxNumberOfArrays);
+        fields.put("firstIndex", firstIndex);
+        fields.put("lastInOrderBit", lastInOrderBit);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        LinkedList<BitArray> list = (LinkedList<BitArray>) fields.get("list", null);
+        maxNumberOfArrays = fields.get("maxNumberOfArrays", 1);
+        firstIndex = fields.get("firstIndex", -1);
+        lastInOrderBit = fields.get("lastInOrderBit", -1L);
+        bits = new long[maxNumberOfArrays];
+        lengths = new byte[maxNumberOfArrays];
+        Arrays.fill(lengths, NO_ARRAY);
+        head = 0;
+        if (list != null) {
+            int i = 0;
+            for (BitArray bitArray : list) {
+                if (bitArray != null && i < maxNumberOfArrays) {
+                    bits[i] = bitArray.getBits();
+                    lengths[i] = (byte) bitArray.length();
+                }
+                i++;
+            }
+        }
+    }
 }
@@ -20,6 +20,7 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.UTFDataFormatException;
 import java.util.ArrayList;
@@ -97,6 +98,144 @@ public final class MarshallingSupport {
 
     }
 
+    /**
+     * Looks up the value of one entry of a map marshalled by
+     * {@link #marshalPrimitiveMap(Map, DataOutputStream)} without
+     * unmarshalling the map. The names are compared in their encoded form and
+     * the values of the other entries are skipped, so only the value found is
+     * allocated.
+     *
+     * @return the value, or null if the map has no entry with the name
+     */
+    public static Object lookupPrimitiveMapValue(ByteSequence map, String name) throws IOException {
+        byte[] data = map.getData();
+        int end = map.getOffset() + map.getLength();
+        int pos = map.getOffset();
+        int size = readInt(data, pos, end);
+        pos += 4;
+        for (int i = 0; i < size; i++) {
+            int nameLength = readUnsignedShort(data, pos, end);
+            pos += 2;
+            if (pos + nameLength > end) {
+                throw new EOFException();
+            }
+            if (encodedNameEquals(data, pos, nameLength, name)) {
+                pos += nameLength;
+                return unmarshalPrimitive(new DataInputStream(new ByteArrayInputStream(data, pos, end - pos)));
+            }
+            pos = skipPrimitive(data, pos + nameLength, end);
+        }
+        return null;
+    }
+
+    private static boolean encodedNameEquals(byte[] data, int pos, int length, String name) {
+        int end = pos + length;
+        for (int i = 0; i < name.length(); i++) {
+            // the modified UTF-8 encoding of writeUTF
+            char c = name.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                if (pos >= end || data[pos++] != (byte)c) {
+                    return false;
+                }
+            } else if (c > 0x07FF) {
+                if (pos + 3 > end
+                    || data[pos++] != (byte)(0xE0 | ((c >> 12) & 0x0F))
+                    || data[pos++] != (byte)(0x80 | ((c >> 6) & 0x3F))
+                    || data[pos++] != (byte)(0x80 | (c & 0x3F))) {
+                    return false;
+                }
+            } else {
+                if (pos + 2 > end
+                    || data[pos++] != (byte)(0xC0 | ((c >> 6) & 0x1F))
+                    || data[pos++] != (byte)(0x80 | (c & 0x3F))) {
+                    return false;
+                }
+            }
+        }
+        return pos == end;
+    }
+
+    /**
+     * @return the position following the marshalled primitive at pos
+     */
+    private static int skipPrimitive(byte[] data, int pos, int end) throws IOException {
+        if (pos >= end) {
+            throw new EOFException();
+        }
+        byte type = data[pos++];
+        switch (type) {
+        case NULL:
+            break;
+        case BYTE_TYPE:
+        case BOOLEAN_TYPE:
+            pos += 1;
+            break;
+        case CHAR_TYPE:
+        case SHORT_TYPE:
+            pos += 2;
+            break;
+        case INTEGER_TYPE:
+        case FLOAT_TYPE:
+            pos += 4;
+            break;
+        case LONG_TYPE:
+        case DOUBLE_TYPE:
+            pos += 8;
+            break;
+        case BYTE_ARRAY_TYPE: {
+            int length = readInt(data, pos, end);
+            if (length < 0) {
+                throw new IOException("Invalid byte array length: " + length);
+            }
+            pos += 4 + length;
+            break;
+        }
+        case STRING_TYPE:
+            pos += 2 + readUnsignedShort(data, pos, end);
+            break;
+        case BIG_STRING_TYPE:
+            pos += 4 + Math.max(0, readInt(data, pos, end));
+            break;
+        case MAP_TYPE: {
+            int size = readInt(data, pos, end);
+            pos += 4;
+            for (int i = 0; i < size; i++) {
+                pos += 2 + readUnsignedShort(data, pos, end);
+                pos = skipPrimitive(data, pos, end);
+            }
+            break;
+        }
+        case LIST_TYPE: {
+            int size = readInt(data, pos, end);
+            pos += 4;
+            for (int i = 0; i < size; i++) {
+                pos = skipPrimitive(data, pos, end);
+            }
+            break;
+        }
+        default:
+            throw new IOException("Unknown primitive type: " + type);
+        }
+        if (pos < 0 || pos > end) {
+            throw new EOFException();
+        }
+        return pos;
+    }
+
+    private static int readInt(byte[] data, int pos, int end) throws IOException {
+        if (pos + 4 > end) {
+            throw new EOFException();
+        }
+        return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16) | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+    }
+
+    private static int readUnsignedShort(byte[] data, int pos, int end) throws IOException {
+        if (pos + 2 > end) {
+            throw new EOFException();
+        }
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
     public static void marshalPrimitiveList(List list, DataOutputStream out) throws IOException {
         out.writeInt(list.size());
         for (Iterator iter = list.iterator(); iter.hasNext();) {
@@ -270,14 +409,11 @@ public final class MarshallingSupport {
         if (text != null) {
             int strlen = text.length();
             int utflen = 0;
-            char[] charr = new char[strlen];
             int c = 0;
             int count = 0;
 
-            text.getChars(0, strlen, charr, 0);
-
             for (int i = 0; i < strlen; i++) {
-                c = charr[i];
+                c = text.charAt(i);
                 if ((c >= 0x0001) && (c <= 0x007F)) {
                     utflen++;
                 } else if (c > 0x07FF) {
@@ -295,7 +431,7 @@ public final class MarshallingSupport {
             bytearr[count++] = (byte)((utflen >>> 8) & 0xFF);
             bytearr[count++] = (byte)((utflen >>> 0) & 0xFF);
             for (int i = 0; i < strlen; i++) {
-                c = charr[i];
+                c = text.charAt(i);
                 if ((c >= 0x0001) && (c <= 0x007F)) {
                     bytearr[count++] = (byte)c;
                 } else if (c > 0x07FF) {
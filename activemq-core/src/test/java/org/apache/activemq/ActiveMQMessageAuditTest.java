@@ -104,6 +104,40 @@ public class ActiveMQMessageAuditTest extends TestCase {
         }
     }
 
+    public void testIsDuplicateManyProducers() {
+        int producers = 5000;
+        // the producers are tracked by id and by string
+        ActiveMQMessageAudit audit = new ActiveMQMessageAudit(64, 2 * producers);
+        List<MessageId> list = new ArrayList<MessageId>();
+        for (int i = 0; i < producers; i++) {
+            ProducerId pid = new ProducerId();
+            pid.setConnectionId("test-" + (i / 10));
+            pid.setSessionId(0);
+            pid.setValue(i % 10);
+            for (int j = 0; j < 10; j++) {
+                MessageId id = new MessageId(pid, j);
+                list.add(id);
+                assertFalse(audit.isDuplicate(id));
+                assertFalse(audit.isDuplicate(id.toString()));
+            }
+            assertEquals(9, audit.getLastSeqId(pid));
+        }
+        for (MessageId id : list) {
+            assertTrue("duplicate, id:" + id, audit.isDuplicate(id));
+            assertTrue("duplicate, id:" + id, audit.isDuplicate(id.toString()));
+        }
+        for (MessageId id : list) {
+            audit.rollback(id);
+            audit.rollback(id.toString());
+            assertFalse("rolled back, id:" + id, audit.isDuplicate(id));
+            assertFalse("rolled back, id:" + id, audit.isDuplicate(id.toString()));
+        }
+        audit.clear();
+        for (MessageId id : list) {
+            assertFalse("cleared, id:" + id, audit.isDuplicate(id));
+        }
+    }
+
     public void testIsInOrderString() {
         int count = 10000;
         ActiveMQMessageAudit audit = new ActiveMQMessageAudit();
@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import javax.jms.DeliveryMode;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+
+public class AsyncProducerFlowControlTest extends ProducerFlowControlTest {
+
+    public void testAsyncSendsResumeInOrder() throws Exception {
+        ActiveMQConnectionFactory factory = (ActiveMQConnectionFactory)createConnectionFactory();
+        factory.setUseAsyncSend(true);
+        connection = (ActiveMQConnection)factory.createConnection();
+        connections.add(connection);
+        connection.start();
+
+        final Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+        final MessageProducer producer = session.createProducer(queueA);
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        Thread thread = new Thread("Producer") {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        producer.send(session.createTextMessage("Test message " + i));
+                    }
+                } catch (Exception e) {
+                    LOG.error("send failed", e);
+                }
+            }
+        };
+        thread.start();
+
+        Session consumerSession = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+        MessageConsumer consumer = consumerSession.createConsumer(queueA);
+        for (int i = 0; i < 20; i++) {
+            TextMessage msg = (TextMessage)consumer.receive(5000);
+            assertNotNull("Got message " + i, msg);
+            assertEquals("Test message " + i, msg.getText());
+            msg.acknowledge();
+        }
+        thread.join(5000);
+    }
+
+    protected BrokerService createBroker() throws Exception {
+        BrokerService service = super.createBroker();
+        PolicyEntry policy = service.getDestinationPolicy().getDefaultEntry();
+        policy.setAsyncFlowControl(true);
+        return service;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.MessageId;
+
+public class DispatchedMessageListTest extends TestCase {
+
+    private DispatchedMessageList list;
+    private List<MessageReference> messages;
+
+    protected void setUp() throws Exception {
+        list = new DispatchedMessageList();
+        messages = new ArrayList<MessageReference>();
+        for (int i = 0; i < 10; i++) {
+            MessageReference message = createMessage(i);
+            messages.add(message);
+            list.add(message);
+        }
+    }
+
+    public void testGetAndRemove() throws Exception {
+        assertEquals(10, list.size());
+        assertSame(messages.get(3), list.get(id(3)));
+        assertNull(list.get(id(42)));
+
+        assertTrue(list.remove(messages.get(3)));
+        assertFalse(list.remove(messages.get(3)));
+        assertNull(list.get(id(3)));
+        assertFalse(list.contains(messages.get(3)));
+        assertEquals(9, list.size());
+
+        assertTrue(list.remove(messages.get(0)));
+        assertTrue(list.remove(messages.get(9)));
+        assertEquals(7, list.size());
+        assertOrder(list.iterator(), 1, 2, 4, 5, 6, 7, 8);
+
+        list.clear();
+        assertEquals(0, list.size());
+        assertFalse(list.iterator().hasNext());
+    }
+
+    public void testIterateFrom() throws Exception {
+        assertOrder(list.iterator(id(7)), 7, 8, 9);
+        assertOrder(list.iterator(null), 0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        assertFalse(list.iterator(id(42)).hasNext());
+
+        list.remove(messages.get(7));
+        assertFalse(list.iterator(id(7)).hasNext());
+    }
+
+    public void testIteratorIsWeaklyConsistent() throws Exception {
+        Iterator<MessageReference> iter = list.iterator(id(2));
+        assertSame(messages.get(2), iter.next());
+        // remove the message the iterator is on and the next one
+        list.remove(messages.get(2));
+        list.remove(messages.get(3));
+        assertSame(messages.get(4), iter.next());
+        iter.remove();
+        assertNull(list.get(id(4)));
+        MessageReference added = createMessage(10);
+        list.add(added);
+        assertOrder(iter, 5, 6, 7, 8, 9, 10);
+        assertEquals(8, list.size());
+    }
+
+    public void testDuplicateMessageIds() throws Exception {
+        MessageReference duplicate = createMessage(5);
+        list.add(duplicate);
+        assertEquals(11, list.size());
+        assertSame(messages.get(5), list.get(id(5)));
+
+        assertTrue(list.remove(duplicate));
+        assertSame(messages.get(5), list.get(id(5)));
+
+        list.add(duplicate);
+        assertTrue(list.remove(messages.get(5)));
+        assertSame(duplicate, list.get(id(5)));
+        assertTrue(list.remove(duplicate));
+        assertNull(list.get(id(5)));
+        assertEquals(9, list.size());
+    }
+
+    private void assertOrder(Iterator<MessageReference> iter, int... sequenceIds) {
+        for (int sequenceId : sequenceIds) {
+            assertTrue(iter.hasNext());
+            assertEquals(id(sequenceId), iter.next().getMessageId());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    private MessageReference createMessage(int sequenceId) {
+        ActiveMQMessage message = new ActiveMQMessage();
+        message.setMessageId(id(sequenceId));
+        return message;
+    }
+
+    private MessageId id(int sequenceId) {
+        return new MessageId("ID:producer:1:1:1", sequenceId);
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.filter.BooleanExpression;
+import org.apache.activemq.selector.SelectorParser;
+
+public class QueueSelectorIndexTest extends TestCase {
+
+    private static final String[] REGIONS = {"north", "south", "east", "west"};
+
+    private BrokerService broker;
+    private Connection connection;
+
+    public void testIndexableSelectors() throws Exception {
+        assertIndexed("region", 1, "region = 'north'");
+        assertIndexed("region", 1, "'north' = region");
+        assertIndexed("region", 3, "region IN ('north', 'south', 'east')");
+        assertIndexed("region", 2, "region = 'north' OR region = 'south'");
+        assertIndexed("region", 1, "region = 'north' AND price > 10");
+        assertIndexed("region", 1, "price > 10 AND region = 'north'");
+        assertIndexed("JMSType", 1, "JMSType = 'order'");
+
+        assertNotIndexed("region <> 'north'");
+        assertNotIndexed("region NOT IN ('north', 'south')");
+        assertNotIndexed("region = 'north' OR colour = 'red'");
+        assertNotIndexed("region = 'north' OR price > 10");
+        assertNotIndexed("price = 10");
+        assertNotIndexed("region IS NULL");
+        assertNotIndexed("region LIKE 'n%'");
+    }
+
+    public void testDispatchToIndexedConsumers() throws Exception {
+        startBroker();
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        ActiveMQQueue queue = new ActiveMQQueue("TEST");
+
+        List<MessageConsumer> consumers = new ArrayList<MessageConsumer>();
+        for (String region : REGIONS) {
+            consumers.add(session.createConsumer(queue, "region = '" + region + "'"));
+        }
+        MessageConsumer any = session.createConsumer(queue, "region IN ('east', 'west') OR priority > 5");
+        MessageConsumer numbers = session.createConsumer(queue, "region = '42'");
+
+        Queue destination = (Queue) ((RegionBroker) broker.getRegionBroker()).getDestinationMap().get(queue);
+        assertTrue(destination.isUseSelectorIndex());
+
+        MessageProducer producer = session.createProducer(queue);
+        for (int i = 0; i < 20; i++) {
+            Message message = session.createTextMessage("message " + i);
+            message.setStringProperty("region", REGIONS[i % REGIONS.length]);
+            producer.send(message);
+        }
+        // not a string, so the selector decides: 42 = '42'
+        Message message = session.createTextMessage("number");
+        message.setIntProperty("region", 42);
+        producer.send(message);
+
+        for (int i = 0; i < REGIONS.length; i++) {
+            Message received;
+            while ((received = consumers.get(i).receive(1000)) != null) {
+                assertEquals(REGIONS[i], received.getStringProperty("region"));
+            }
+        }
+        while ((message = any.receive(500)) != null) {
+            String region = message.getStringProperty("region");
+            assertTrue(region, "east".equals(region) || "west".equals(region));
+        }
+        assertNotNull(numbers.receive(1000));
+    }
+
+    private void assertIndexed(String property, int values, String selector) throws Exception {
+        BooleanExpression expression = SelectorParser.parse(selector);
+        QueueSelectorIndex.Entry entry = QueueSelectorIndex.createEntry(expression, expression);
+        assertNotNull(selector, entry);
+        assertEquals(property, entry.property.getName());
+        assertEquals(values, entry.values.size());
+    }
+
+    private void assertNotIndexed(String selector) throws Exception {
+        BooleanExpression expression = SelectorParser.parse(selector);
+        assertNull(selector, QueueSelectorIndex.createEntry(expression, expression));
+    }
+
+    private void startBroker() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        PolicyEntry policy = new PolicyEntry();
+        policy.setUseSelectorIndex(true);
+        PolicyMap policyMap = new PolicyMap();
+        policyMap.setDefaultEntry(policy);
+        broker.setDestinationPolicy(policyMap);
+        broker.start();
+
+        connection = new ActiveMQConnectionFactory("vm://localhost").createConnection();
+        connection.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+}
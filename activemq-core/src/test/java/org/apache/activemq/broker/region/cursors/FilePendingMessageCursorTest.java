@@ -27,8 +27,8 @@ import org.apache.activemq.command.ActiveMQMessage;
 import org.apache.activemq.command.ActiveMQQueue;
 import org.apache.activemq.command.MessageId;
 import org.apache.activemq.store.kahadb.plist.PList;
+import org.apache.activemq.store.kahadb.plist.PListStore;
 import org.apache.activemq.usage.SystemUsage;
-import org.apache.kahadb.page.PageFile;
 import org.apache.kahadb.util.ByteSequence;
 import org.junit.After;
 import org.junit.Test;
@@ -78,7 +78,7 @@ public class FilePendingMessageCursorTest {
     }
 
     @Test
-    public void testAddRemoveAddIndexSize() throws Exception {
+    public void testAddRemoveAddTempStoreSize() throws Exception {
         brokerService = new BrokerService();
         SystemUsage usage = brokerService.getSystemUsage();
         usage.getMemoryUsage().setLimit(1024*150);
@@ -89,17 +89,15 @@ public class FilePendingMessageCursorTest {
         underTest.setSystemUsage(usage);
 
         LOG.info("start");
-        final PageFile pageFile =  underTest.getDiskList().getPageFile();
-        LOG.info("page count: " +pageFile.getPageCount());
-        LOG.info("free count: " + pageFile.getFreePageCount());
-        LOG.info("content size: " +pageFile.getPageContentSize());
-
-        final long initialPageCount =  pageFile.getPageCount();
+        underTest.getDiskList();
+        final PListStore store = brokerService.getTempDataStore();
+        final long initialSize = store.size();
+        LOG.info("temp store size: " + initialSize);
 
         final int numMessages = 1000;
 
         for (int j=0; j<10; j++) {
-            // ensure free pages are reused
+            // ensure segments are deleted once read
             for (int i=0; i< numMessages; i++) {
                 ActiveMQMessage mqMessage = new ActiveMQMessage();
                 mqMessage.setStringProperty("body", body);
@@ -109,6 +107,7 @@ public class FilePendingMessageCursorTest {
                 underTest.addMessageLast(new IndirectMessageReference(mqMessage));
             }
             assertFalse("cursor is not full " + usage.getTempUsage(), underTest.isFull());
+            assertFalse("messages spooled to disk", underTest.getDiskList().isEmpty());
 
             underTest.reset();
             long receivedCount = 0;
@@ -118,18 +117,12 @@ public class FilePendingMessageCursorTest {
                 assertEquals("id is correct", receivedCount++, ref.getMessageId().getProducerSequenceId());
             }
             assertEquals("got all messages back", receivedCount, numMessages);
-            LOG.info("page count: " +pageFile.getPageCount());
-            LOG.info("free count: " + pageFile.getFreePageCount());
-            LOG.info("content size: " + pageFile.getPageContentSize());
+            LOG.info("temp store size: " + store.size());
+            assertEquals("expected temp store size", initialSize, store.size());
         }
 
-        assertEquals("expected page usage", initialPageCount, pageFile.getPageCount() - pageFile.getFreePageCount() );
-
         LOG.info("Destroy");
         underTest.destroy();
-        LOG.info("page count: " + pageFile.getPageCount());
-        LOG.info("free count: " + pageFile.getFreePageCount());
-        LOG.info("content size: " + pageFile.getPageContentSize());
-        assertEquals("expected page usage", initialPageCount -1, pageFile.getPageCount() - pageFile.getFreePageCount() );
+        assertEquals("expected temp store size", initialSize, store.size());
     }
 }
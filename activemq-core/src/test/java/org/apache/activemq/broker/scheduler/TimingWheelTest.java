@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TimingWheelTest extends TestCase {
+
+    private static final long START = 1000000;
+
+    private TimingWheel wheel;
+
+    @Override
+    protected void setUp() throws Exception {
+        wheel = new TimingWheel(10, 8, START);
+    }
+
+    public void testExpiresInTimeOrder() {
+        Random random = new Random(42);
+        List<Long> times = new ArrayList<Long>();
+        for (int i = 0; i < 1000; i++) {
+            // spread over several levels of the wheel
+            long time = START + random.nextInt(100000);
+            times.add(time);
+            wheel.add(job("id" + i, time));
+        }
+        assertEquals(1000, wheel.size());
+
+        List<JobLocation> expired = new ArrayList<JobLocation>();
+        for (long now = START; now <= START + 100000; now += 1 + random.nextInt(500)) {
+            for (JobLocation job : wheel.expire(now)) {
+                assertTrue(job.getNextTime() <= now);
+                expired.add(job);
+            }
+            long next = wheel.getNextTime();
+            assertTrue(next == -1 || next > now);
+        }
+        expired.addAll(wheel.expire(START + 100000));
+        assertEquals(1000, expired.size());
+        assertEquals(0, wheel.size());
+        assertEquals(-1, wheel.getNextTime());
+        for (int i = 1; i < expired.size(); i++) {
+            assertTrue(expired.get(i - 1).getNextTime() <= expired.get(i).getNextTime());
+        }
+    }
+
+    public void testJobsDueAtTheSameTimeExpireInOrderAdded() {
+        for (int i = 0; i < 10; i++) {
+            wheel.add(job("id" + i, START + 5000));
+        }
+        assertTrue(wheel.expire(START + 4999).isEmpty());
+        List<JobLocation> expired = wheel.expire(START + 5000);
+        assertEquals(10, expired.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("id" + i, expired.get(i).getJobId());
+        }
+    }
+
+    public void testOverdueJobsExpireAtOnce() {
+        wheel.add(job("late", START - 5000));
+        wheel.add(job("now", START));
+        assertTrue(wheel.getNextTime() <= START);
+        assertEquals(2, wheel.expire(START).size());
+    }
+
+    public void testRemove() {
+        wheel.add(job("a", START + 50));
+        wheel.add(job("b", START + 5000));
+        wheel.add(job("c", START + 5000));
+        wheel.add(job("d", START + 90000));
+
+        assertNull(wheel.remove(START + 50, "b"));
+        assertEquals("b", wheel.remove(START + 5000, "b").getJobId());
+        assertEquals(START + 90000, wheel.getTime("d"));
+        wheel.remove(START, START + 60000);
+        assertEquals(1, wheel.size());
+        assertEquals(-1, wheel.getTime("c"));
+
+        List<JobLocation> expired = wheel.expire(START + 100000);
+        assertEquals(1, expired.size());
+        assertEquals("d", expired.get(0).getJobId());
+    }
+
+    public void testSameJobIdAtDifferentTimes() {
+        wheel.add(job("a", START + 100));
+        wheel.add(job("a", START + 200));
+        assertEquals(2, wheel.size());
+        assertEquals(START + 200, wheel.remove(START + 200, "a").getNextTime());
+        assertEquals(START + 100, wheel.getTime("a"));
+        assertEquals(1, wheel.expire(START + 1000).size());
+        assertEquals(-1, wheel.getTime("a"));
+    }
+
+    public void testClear() {
+        for (int i = 0; i < 100; i++) {
+            wheel.add(job("id" + i, START + i * 100));
+        }
+        wheel.clear();
+        assertEquals(0, wheel.size());
+        assertTrue(wheel.expire(START + 100000).isEmpty());
+        wheel.add(job("again", START + 50));
+        assertEquals(1, wheel.expire(START + 100000).size());
+    }
+
+    private JobLocation job(String jobId, long time) {
+        JobLocation job = new JobLocation();
+        job.setJobId(jobId);
+        job.setNextTime(time);
+        return job;
+    }
+}
@@ -311,6 +311,36 @@ public class DestinationMapTest extends TestCase {
 
     }
 
+    public void testCachedMatchesFollowChanges() throws Exception {
+        put("TEST.D1", v1);
+        assertMapValue("TEST.D1", v1);
+        assertMapValue("TEST.*", v1);
+
+        // the caller may modify the answer without changing the map
+        map.get(d1).clear();
+        assertMapValue("TEST.D1", v1);
+
+        put("TEST.*", v2);
+        assertMapValue("TEST.D1", v1, v2);
+        assertMapValue("TEST.*", v1, v2);
+
+        remove("TEST.D1", v1);
+        assertMapValue("TEST.D1", v2);
+
+        remove("TEST.*", v2);
+        assertMapValue("TEST.D1", null);
+
+        put("TEST.D1", v3);
+        assertMapValue("TEST.D1", v3);
+        map.removeAll(d1);
+        assertMapValue("TEST.D1", null);
+
+        put("TEST.D1", v4);
+        assertMapValue("TEST.D1", v4);
+        map.reset();
+        assertMapValue("TEST.D1", null);
+    }
+
     protected void loadSample2() {
         put("TEST.FOO", v1);
         put("TEST.*", v2);
@@ -33,6 +33,7 @@ public class DemandForwardingBridgeTest extends NetworkTestSupport {
     public ActiveMQDestination destination;
     public byte destinationType;
     public int deliveryMode;
+    public int forwardBatchSize;
     private DemandForwardingBridge bridge;
 
     public void initCombosForTestSendThenAddConsumer() {
@@ -125,11 +126,61 @@ public class DemandForwardingBridgeTest extends NetworkTestSupport {
         Message m = receiveMessage(connection2);
     }
 
+    public void initCombosForTestForwardBatchAcked() {
+        addCombinationValues("deliveryMode", new Object[] {new Integer(DeliveryMode.NON_PERSISTENT), new Integer(DeliveryMode.PERSISTENT)});
+        addCombinationValues("destinationType", new Object[] {new Byte(ActiveMQDestination.QUEUE_TYPE), new Byte(ActiveMQDestination.TOPIC_TYPE)});
+        addCombinationValues("forwardBatchSize", new Object[] {new Integer(0), new Integer(10)});
+    }
+
+    public void testForwardBatchAcked() throws Exception {
+        final int count = 25;
+
+        // Start a producer on local broker
+        StubConnection connection1 = createConnection();
+        ConnectionInfo connectionInfo1 = createConnectionInfo();
+        SessionInfo sessionInfo1 = createSessionInfo(connectionInfo1);
+        ProducerInfo producerInfo = createProducerInfo(sessionInfo1);
+        connection1.send(connectionInfo1);
+        connection1.send(sessionInfo1);
+        connection1.send(producerInfo);
+
+        destination = createDestinationInfo(connection1, connectionInfo1, destinationType);
+
+        // Start a consumer on a remote broker
+        StubConnection connection2 = createRemoteConnection();
+        ConnectionInfo connectionInfo2 = createConnectionInfo();
+        SessionInfo sessionInfo2 = createSessionInfo(connectionInfo2);
+        connection2.send(connectionInfo2);
+        connection2.send(sessionInfo2);
+        ConsumerInfo consumerInfo = createConsumerInfo(sessionInfo2, destination);
+        connection2.send(consumerInfo);
+
+        // Give demand forwarding bridge a chance to finish forwarding the
+        // subscriptions.
+        Thread.sleep(1000);
+
+        // more messages than a batch, and not a whole number of batches
+        for (int i = 0; i < count; i++) {
+            connection1.request(createMessage(producerInfo, destination, deliveryMode));
+        }
+        for (int i = 0; i < count; i++) {
+            assertNotNull("message " + i + " was received", receiveMessage(connection2));
+        }
+
+        assertTrue("all forwards acked locally", Wait.waitFor(new Wait.Condition() {
+            public boolean isSatisified() throws Exception {
+                return bridge.getDequeueCounter() == count && bridge.getForwardWindowSize() == 0;
+            }
+        }));
+        assertEquals("nothing left on the local broker", 0, broker.getDestination(destination).getDestinationStatistics().getMessages().getCount());
+    }
+
     protected void setUp() throws Exception {
         super.setUp();
         NetworkBridgeConfiguration config = new NetworkBridgeConfiguration();
         config.setBrokerName("local");
         config.setDispatchAsync(false);
+        config.setForwardBatchSize(forwardBatchSize);
         bridge = new DemandForwardingBridge(config, createTransport(), createRemoteTransport());
         bridge.setBrokerService(broker);
         bridge.start();
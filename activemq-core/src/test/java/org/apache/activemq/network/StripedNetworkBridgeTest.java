@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.network;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.transport.Transport;
+import org.apache.activemq.transport.TransportFactory;
+import org.apache.activemq.util.ServiceSupport;
+import org.apache.activemq.util.Wait;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class StripedNetworkBridgeTest extends TestCase {
+    private static final Logger LOG = LoggerFactory.getLogger(StripedNetworkBridgeTest.class);
+
+    private static final String LOCAL_BROKER_TRANSPORT_URI = "tcp://localhost:61616";
+    private static final String REMOTE_BROKER_TRANSPORT_URI = "tcp://localhost:61617";
+    private static final int STRIPES = 3;
+    private static final int QUEUES = 10;
+    private static final int MESSAGE_COUNT = 20;
+
+    private BrokerService localBroker;
+    private BrokerService remoteBroker;
+
+    public void testDestinationsStriped() throws Exception {
+        startBridge(false);
+        assertInOrder(false);
+    }
+
+    public void testMessageGroupsStriped() throws Exception {
+        startBridge(true);
+        assertInOrder(true);
+    }
+
+    public void testStripesRegisteredInJmx() throws Exception {
+        localBroker.stop();
+        localBroker.waitUntilStopped();
+        localBroker = createLocalBroker(true);
+
+        NetworkConnector nc = startBridge(false);
+        final ObjectName query = new ObjectName("org.apache.activemq:BrokerName=LocalBroker,Type=NetworkBridge,*");
+        assertTrue("bridges registered", Wait.waitFor(new Wait.Condition() {
+            public boolean isSatisified() throws Exception {
+                return localBroker.getManagementContext().queryNames(query, null).size() == STRIPES + 1;
+            }
+        }));
+
+        ObjectName striped = nc.activeBridges().iterator().next().getMbeanObjectName();
+        assertNotNull("striped bridge registered", striped);
+        assertNull(striped.getKeyProperty("Stripe"));
+        Set<String> stripes = new HashSet<String>();
+        for (ObjectName name : localBroker.getManagementContext().queryNames(query, null)) {
+            if (!name.equals(striped)) {
+                stripes.add(name.getKeyProperty("Stripe"));
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("0", "1", "2")), stripes);
+
+        nc.stop();
+        assertTrue("bridges unregistered", Wait.waitFor(new Wait.Condition() {
+            public boolean isSatisified() throws Exception {
+                return localBroker.getManagementContext().queryNames(query, null).isEmpty();
+            }
+        }));
+    }
+
+    public void testMessageGroupsRejectMarshallingLocalTransport() throws Exception {
+        NetworkBridgeConfiguration config = new NetworkBridgeConfiguration();
+        config.setBrokerName("LocalBroker");
+        config.setParallelConnections(STRIPES);
+        config.setStripeByMessageGroup(true);
+        Transport localTransport = TransportFactory.connect(new URI("vm://LocalBroker?marshal=true"));
+        Transport remoteTransport = TransportFactory.connect(new URI(REMOTE_BROKER_TRANSPORT_URI));
+        try {
+            NetworkBridgeFactory.createBridge(config, localTransport, remoteTransport).start();
+            fail("the stripe filter does not survive marshalling");
+        } catch (IllegalStateException expected) {
+        } finally {
+            ServiceSupport.dispose(localTransport);
+            ServiceSupport.dispose(remoteTransport);
+        }
+    }
+
+    public void testStripeOf() throws Exception {
+        assertEquals(0, DemandForwardingBridgeSupport.stripeOf(null, STRIPES));
+        int[] counts = new int[STRIPES];
+        for (int i = 0; i < 1000; i++) {
+            int stripe = DemandForwardingBridgeSupport.stripeOf("queue://TEST." + i, STRIPES);
+            assertEquals(stripe, DemandForwardingBridgeSupport.stripeOf("queue://TEST." + i, STRIPES));
+            counts[stripe]++;
+        }
+        for (int count : counts) {
+            assertTrue("every stripe is used: " + count, count > 0);
+        }
+    }
+
+    private NetworkConnector startBridge(boolean stripeByMessageGroup) throws Exception {
+        final NetworkConnector nc = localBroker.addNetworkConnector("static:(" + REMOTE_BROKER_TRANSPORT_URI + ")");
+        nc.setName("NC1");
+        nc.setParallelConnections(STRIPES);
+        nc.setStripeByMessageGroup(stripeByMessageGroup);
+        nc.start();
+        assertTrue("bridge started", Wait.waitFor(new Wait.Condition() {
+            public boolean isSatisified() throws Exception {
+                return nc.activeBridges().size() == 1;
+            }
+        }));
+        Collection<NetworkBridge> bridges = nc.activeBridges();
+        NetworkBridge bridge = bridges.iterator().next();
+        assertTrue("striped: " + bridge, bridge instanceof StripedNetworkBridge);
+        assertEquals(STRIPES, ((StripedNetworkBridge) bridge).getStripes().size());
+        return nc;
+    }
+
+    private void assertInOrder(boolean grouped) throws Exception {
+        Connection remoteConnection = new ActiveMQConnectionFactory(REMOTE_BROKER_TRANSPORT_URI).createConnection();
+        Connection localConnection = new ActiveMQConnectionFactory(LOCAL_BROKER_TRANSPORT_URI).createConnection();
+        try {
+            remoteConnection.start();
+            Session remoteSession = remoteConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer[] consumers = new MessageConsumer[QUEUES];
+            for (int i = 0; i < QUEUES; i++) {
+                consumers[i] = remoteSession.createConsumer(new ActiveMQQueue("TEST.STRIPED." + i));
+            }
+            final ActiveMQQueue first = new ActiveMQQueue("TEST.STRIPED.0");
+            assertTrue("demand bridged", Wait.waitFor(new Wait.Condition() {
+                public boolean isSatisified() throws Exception {
+                    return localBroker.getDestination(first) != null
+                            && localBroker.getDestination(first).getConsumers().size() > 0;
+                }
+            }));
+            // let the demand of the other queues reach the bridges
+            Thread.sleep(1000);
+
+            localConnection.start();
+            Session localSession = localConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            for (int i = 0; i < QUEUES; i++) {
+                MessageProducer producer = localSession.createProducer(new ActiveMQQueue("TEST.STRIPED." + i));
+                for (int j = 0; j < MESSAGE_COUNT; j++) {
+                    TextMessage message = localSession.createTextMessage(String.valueOf(j));
+                    if (grouped) {
+                        message.setStringProperty("JMSXGroupID", "group-" + (j % STRIPES));
+                    }
+                    producer.send(message);
+                }
+                producer.close();
+            }
+
+            for (int i = 0; i < QUEUES; i++) {
+                int[] last = new int[STRIPES];
+                Arrays.fill(last, -1);
+                for (int j = 0; j < MESSAGE_COUNT; j++) {
+                    Message message = consumers[i].receive(10000);
+                    assertNotNull("message " + j + " of queue " + i, message);
+                    int sequence = Integer.parseInt(((TextMessage) message).getText());
+                    int group = grouped ? sequence % STRIPES : 0;
+                    LOG.debug("queue " + i + " received " + sequence);
+                    assertTrue("in order within its group: " + sequence, sequence > last[group]);
+                    last[group] = sequence;
+                }
+            }
+        } finally {
+            localConnection.close();
+            remoteConnection.close();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        localBroker = createLocalBroker(false);
+
+        remoteBroker = new BrokerService();
+        remoteBroker.setBrokerName("RemoteBroker");
+        remoteBroker.setUseJmx(false);
+        remoteBroker.setPersistent(false);
+        remoteBroker.setTransportConnectorURIs(new String[]{REMOTE_BROKER_TRANSPORT_URI});
+        remoteBroker.start();
+        remoteBroker.waitUntilStarted();
+    }
+
+    private BrokerService createLocalBroker(boolean useJmx) throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName("LocalBroker");
+        broker.setUseJmx(useJmx);
+        broker.getManagementContext().setCreateConnector(false);
+        broker.setPersistent(false);
+        broker.setTransportConnectorURIs(new String[]{LOCAL_BROKER_TRANSPORT_URI});
+        broker.start();
+        broker.waitUntilStarted();
+        return broker;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        localBroker.stop();
+        localBroker.waitUntilStopped();
+        remoteBroker.stop();
+        remoteBroker.waitUntilStopped();
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.util.ByteSequence;
+
+/**
+ * Marshals and unmarshals through one format from several threads.
+ */
+public class OpenWireFormatConcurrencyTest extends TestCase {
+
+    private static final int THREADS = 10;
+    private static final int ITERATIONS = 1000;
+
+    public void testTightEncoding() throws Exception {
+        doTestConcurrentMarshalling(createWireFormat(true));
+    }
+
+    public void testLooseEncoding() throws Exception {
+        doTestConcurrentMarshalling(createWireFormat(false));
+    }
+
+    private void doTestConcurrentMarshalling(final OpenWireFormat format) throws Exception {
+        final Vector<Throwable> exceptions = new Vector<Throwable>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final ProducerId producerId = new ProducerId("ID:producer-" + i + ":1:1");
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < ITERATIONS; j++) {
+                            ActiveMQTextMessage message = createMessage(producerId, j);
+
+                            ByteSequence sequence = format.marshal(message);
+                            assertMessage(producerId, j, format.unmarshal(sequence));
+
+                            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                            format.marshal(message, new DataOutputStream(buffer));
+                            DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+                            assertMessage(producerId, j, format.unmarshal(in));
+                        }
+                    } catch (Throwable e) {
+                        exceptions.add(e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue("finished ok", executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertTrue("no exceptions: " + exceptions, exceptions.isEmpty());
+    }
+
+    private ActiveMQTextMessage createMessage(ProducerId producerId, int sequence) throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setMessageId(new MessageId(producerId, sequence));
+        message.setProducerId(producerId);
+        message.setDestination(new ActiveMQQueue("TEST"));
+        message.setText(producerId + ":" + sequence);
+        message.setIntProperty("sequence", sequence);
+        return message;
+    }
+
+    private void assertMessage(ProducerId producerId, int sequence, Object command) throws Exception {
+        ActiveMQTextMessage message = (ActiveMQTextMessage) command;
+        assertEquals(new MessageId(producerId, sequence), message.getMessageId());
+        assertEquals(producerId + ":" + sequence, message.getText());
+        assertEquals(sequence, message.getIntProperty("sequence"));
+    }
+
+    private OpenWireFormat createWireFormat(boolean tightEncoding) {
+        OpenWireFormat format = new OpenWireFormat();
+        format.setTightEncodingEnabled(tightEncoding);
+        return format;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.region.DispatchedMessageList;
+import org.apache.activemq.broker.region.MessageReference;
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.MessageId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the cost of dispatching a full prefetch window and acknowledging
+ * it one message at a time with the copy on write list subscriptions used to
+ * track their dispatched messages, and with the {@link DispatchedMessageList}.
+ */
+public class DispatchedMessageListBenchmark extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DispatchedMessageListBenchmark.class);
+
+    private static final int[] PREFETCH_SIZES = {1000, 4000, 16000, 32000};
+    private static final int ITERATIONS = Integer.parseInt(System.getProperty("ITERATIONS", "" + 5));
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(DispatchedMessageListBenchmark.class);
+    }
+
+    public void testIndividualAcks() throws Exception {
+        for (int prefetch : PREFETCH_SIZES) {
+            List<MessageReference> messages = createMessages(prefetch);
+            // warm up
+            run(new CopyOnWriteArrayList<MessageReference>(), messages);
+            run(new DispatchedMessageList(), messages);
+
+            long listTime = 0;
+            long indexedTime = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                listTime += run(new CopyOnWriteArrayList<MessageReference>(), messages);
+                indexedTime += run(new DispatchedMessageList(), messages);
+            }
+            LOG.info("prefetch " + prefetch + ": copy on write list " + rate(prefetch, listTime)
+                    + " acks/sec, indexed list " + rate(prefetch, indexedTime) + " acks/sec");
+        }
+    }
+
+    private long run(Collection<MessageReference> dispatched, List<MessageReference> messages) {
+        long start = System.nanoTime();
+        for (MessageReference message : messages) {
+            dispatched.add(message);
+        }
+        // acknowledge in dispatch order, finding each message by id the way
+        // the subscription did before the list was indexed
+        for (MessageReference message : messages) {
+            MessageReference node = find(dispatched, message.getMessageId());
+            assertNotNull(node);
+            dispatched.remove(node);
+        }
+        long time = System.nanoTime() - start;
+        assertTrue(dispatched.isEmpty());
+        return time;
+    }
+
+    private MessageReference find(Collection<MessageReference> dispatched, MessageId messageId) {
+        if (dispatched instanceof DispatchedMessageList) {
+            return ((DispatchedMessageList) dispatched).get(messageId);
+        }
+        for (MessageReference node : dispatched) {
+            if (messageId.equals(node.getMessageId())) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private List<MessageReference> createMessages(int count) {
+        List<MessageReference> rc = new ArrayList<MessageReference>(count);
+        for (int i = 0; i < count; i++) {
+            ActiveMQMessage message = new ActiveMQMessage();
+            message.setMessageId(new MessageId("ID:producer:1:1:1", i));
+            rc.add(message);
+        }
+        return rc;
+    }
+
+    private long rate(int prefetch, long nanos) {
+        return (long) (prefetch * ITERATIONS / (nanos / 1000000000.0));
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.scheduler.JobListener;
+import org.apache.activemq.broker.scheduler.JobScheduler;
+import org.apache.activemq.broker.scheduler.JobSchedulerStore;
+import org.apache.activemq.util.IOHelper;
+import org.apache.kahadb.util.ByteSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how fast producer threads can schedule delayed jobs, and how fast
+ * the scheduler then fires them.
+ */
+public class JobSchedulerBenchmark extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobSchedulerBenchmark.class);
+
+    private static final int THREADS = Integer.parseInt(System.getProperty("THREADS", "" + 16));
+    private static final int JOBS_PER_THREAD = Integer.parseInt(System.getProperty("JOBS_PER_THREAD", "" + 2000));
+    private static final int PAYLOAD_SIZE = Integer.parseInt(System.getProperty("PAYLOAD_SIZE", "" + 1024));
+    // the jobs are spread over this many milliseconds after the delay
+    private static final int SPREAD = Integer.parseInt(System.getProperty("SPREAD", "" + 5000));
+    private static final long DELAY = 2000;
+
+    private JobSchedulerStore store;
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(JobSchedulerBenchmark.class);
+    }
+
+    public void testScheduleAndFire() throws Exception {
+        final int count = THREADS * JOBS_PER_THREAD;
+        final JobScheduler scheduler = store.getJobScheduler("benchmark");
+        final CountDownLatch fired = new CountDownLatch(count);
+        scheduler.addListener(new JobListener() {
+            public void scheduledJob(String id, ByteSequence job) {
+                fired.countDown();
+            }
+        });
+
+        final byte[] payload = new byte[PAYLOAD_SIZE];
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread[] producers = new Thread[THREADS];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < THREADS; i++) {
+            final int producer = i;
+            producers[i] = new Thread("Producer " + i) {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < JOBS_PER_THREAD; j++) {
+                            long delay = DELAY + (j * 31 + producer) % SPREAD;
+                            scheduler.schedule("job:" + producer + ":" + j, new ByteSequence(payload), delay);
+                        }
+                    } catch (Exception e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long scheduled = System.currentTimeMillis();
+        assertNull(failure.get());
+        LOG.info(THREADS + " threads scheduled " + count + " jobs at " + rate(count, scheduled - start) + " jobs/sec");
+
+        assertTrue("jobs not fired: " + fired.getCount(), fired.await(DELAY + SPREAD + 60000, TimeUnit.MILLISECONDS));
+        long done = System.currentTimeMillis();
+        LOG.info("all jobs fired " + (done - scheduled) + " ms after the last was scheduled");
+    }
+
+    private long rate(int count, long millis) {
+        return count * 1000L / Math.max(1, millis);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        File directory = new File("target/test-data/JobSchedulerBenchmark");
+        IOHelper.mkdirs(directory);
+        IOHelper.deleteChildren(directory);
+        store = new JobSchedulerStore();
+        store.setDirectory(directory);
+        store.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (store != null) {
+            store.stop();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.store.MessageStore;
+import org.apache.activemq.store.kahadb.KahaDBPersistenceAdapter;
+import org.apache.activemq.util.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates a KahaDB journal, then measures how long it takes to rebuild
+ * the index from it with the journal read on one thread, and on several.
+ */
+public class KahaDBRecoveryBenchmark extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KahaDBRecoveryBenchmark.class);
+
+    private static final int THREADS = Integer.parseInt(System.getProperty("THREADS", "" + 4));
+    private static final int DESTINATIONS = Integer.parseInt(System.getProperty("DESTINATIONS", "" + 10));
+    private static final int MESSAGE_COUNT = Integer.parseInt(System.getProperty("MESSAGE_COUNT", "" + 100000));
+    private static final int MESSAGE_SIZE = Integer.parseInt(System.getProperty("MESSAGE_SIZE", "" + 1024));
+    private static final int JOURNAL_FILE_LENGTH = Integer.parseInt(System.getProperty("JOURNAL_FILE_LENGTH", "" + 4 * 1024 * 1024));
+
+    private final File directory = new File("target/KahaDBRecoveryBenchmark");
+    private final File journal = new File(directory, "journal");
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(KahaDBRecoveryBenchmark.class);
+    }
+
+    public void testIndexRebuild() throws Exception {
+        generateJournal();
+        // warm up
+        rebuild(1);
+        long single = rebuild(1);
+        long parallel = rebuild(THREADS);
+        LOG.info(MESSAGE_COUNT + " messages of " + MESSAGE_SIZE + " bytes, " + DESTINATIONS + " destinations, index rebuilt in "
+                 + single + " ms reading the journal on one thread, " + parallel + " ms on " + THREADS + " threads");
+    }
+
+    private void generateJournal() throws Exception {
+        IOHelper.mkdirs(journal);
+        IOHelper.deleteChildren(journal);
+        KahaDBPersistenceAdapter adapter = createAdapter(journal, 1);
+        adapter.start();
+        try {
+            MessageStore[] stores = new MessageStore[DESTINATIONS];
+            for (int i = 0; i < DESTINATIONS; i++) {
+                stores[i] = adapter.createQueueMessageStore(new ActiveMQQueue("TEST." + i));
+            }
+            ProducerId producerId = new ProducerId("1:1:1");
+            ConnectionContext context = new ConnectionContext();
+            String text = new String(new byte[MESSAGE_SIZE]);
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                MessageStore store = stores[i % DESTINATIONS];
+                ActiveMQTextMessage message = new ActiveMQTextMessage();
+                message.setMessageId(new MessageId(producerId, i));
+                message.setDestination(store.getDestination());
+                message.setPersistent(true);
+                message.setText(text);
+                store.addMessage(context, message);
+            }
+        } finally {
+            adapter.stop();
+        }
+    }
+
+    private long rebuild(int threads) throws Exception {
+        File copy = new File(directory, "rebuild");
+        IOHelper.mkdirs(copy);
+        IOHelper.deleteChildren(copy);
+        IOHelper.copyFile(journal, copy);
+        // a missing index is rebuilt from the whole journal
+        new File(copy, "db.data").delete();
+        new File(copy, "db.redo").delete();
+
+        KahaDBPersistenceAdapter adapter = createAdapter(copy, threads);
+        long start = System.currentTimeMillis();
+        adapter.start();
+        long duration = System.currentTimeMillis() - start;
+        try {
+            assertEquals(100f, adapter.getRecoveryProgress());
+            for (int i = 0; i < DESTINATIONS; i++) {
+                MessageStore store = adapter.createQueueMessageStore(new ActiveMQQueue("TEST." + i));
+                assertEquals("messages of TEST." + i, MESSAGE_COUNT / DESTINATIONS + (i < MESSAGE_COUNT % DESTINATIONS ? 1 : 0),
+                             store.getMessageCount());
+            }
+        } finally {
+            adapter.stop();
+        }
+        return duration;
+    }
+
+    private KahaDBPersistenceAdapter createAdapter(File dir, int threads) {
+        KahaDBPersistenceAdapter adapter = new KahaDBPersistenceAdapter();
+        adapter.setDirectory(dir);
+        adapter.setJournalMaxFileLength(JOURNAL_FILE_LENGTH);
+        adapter.setJournalRecoveryThreads(threads);
+        return adapter;
+    }
+}
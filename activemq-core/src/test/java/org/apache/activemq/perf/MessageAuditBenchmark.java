@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQMessageAudit;
+import org.apache.activemq.ActiveMQMessageAuditNoSync;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the rate at which threads audit messages of many producers
+ * through the striped ActiveMQMessageAudit, and through a single audit behind
+ * one lock as ActiveMQMessageAudit used to be, and the heap an audit of many
+ * producers takes.
+ */
+public class MessageAuditBenchmark extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageAuditBenchmark.class);
+
+    private static final int THREADS = Integer.parseInt(System.getProperty("THREADS", "" + 8));
+    private static final int PRODUCERS = Integer.parseInt(System.getProperty("PRODUCERS", "" + 10000));
+    private static final int AUDIT_DEPTH = Integer.parseInt(System.getProperty("AUDIT_DEPTH", "" + ActiveMQMessageAudit.DEFAULT_WINDOW_SIZE));
+    private static final int MESSAGE_COUNT = Integer.parseInt(System.getProperty("MESSAGE_COUNT", "" + 2000000));
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(MessageAuditBenchmark.class);
+    }
+
+    public void testAuditRate() throws Exception {
+        // warm up
+        run(createLockedAuditor());
+        run(createStripedAuditor());
+        LOG.info(THREADS + " threads, " + PRODUCERS + " producers, one lock: " + rate(run(createLockedAuditor())) + " messages/sec");
+        LOG.info(THREADS + " threads, " + PRODUCERS + " producers, striped: " + rate(run(createStripedAuditor())) + " messages/sec");
+    }
+
+    public void testAuditHeap() throws Exception {
+        long before = usedMemory();
+        ActiveMQMessageAudit audit = new ActiveMQMessageAudit(AUDIT_DEPTH, PRODUCERS);
+        for (int i = 0; i < PRODUCERS; i++) {
+            ProducerId producerId = createProducerId(i);
+            // fill the whole window
+            for (int j = 0; j < AUDIT_DEPTH; j += 64) {
+                assertFalse(audit.isDuplicate(new MessageId(producerId, j)));
+            }
+        }
+        long used = usedMemory() - before;
+        LOG.info(PRODUCERS + " producers, audit depth " + AUDIT_DEPTH + ": " + (used / 1024) + " KB, "
+                 + (used / PRODUCERS) + " bytes/producer");
+        assertTrue(audit.isDuplicate(new MessageId(createProducerId(0), 0)));
+    }
+
+    private long run(final Auditor auditor) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            new Thread("MessageAuditBenchmark:" + i) {
+                public void run() {
+                    try {
+                        // each thread has its own producers, as connections do
+                        ProducerId[] producers = new ProducerId[PRODUCERS / THREADS];
+                        for (int j = 0; j < producers.length; j++) {
+                            producers[j] = createProducerId(thread * producers.length + j);
+                        }
+                        long[] sequences = new long[producers.length];
+                        start.await();
+                        for (int j = 0; j < MESSAGE_COUNT / THREADS; j++) {
+                            int producer = j % producers.length;
+                            if (auditor.isDuplicate(new MessageId(producers[producer], sequences[producer]++))) {
+                                throw new AssertionError("not a duplicate");
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long time = System.nanoTime() - begin;
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return time;
+    }
+
+    private Auditor createLockedAuditor() {
+        final ActiveMQMessageAuditNoSync audit = new ActiveMQMessageAuditNoSync(AUDIT_DEPTH, PRODUCERS);
+        return new Auditor() {
+            public boolean isDuplicate(MessageId id) {
+                synchronized (audit) {
+                    return audit.isDuplicate(id);
+                }
+            }
+        };
+    }
+
+    private Auditor createStripedAuditor() {
+        final ActiveMQMessageAudit audit = new ActiveMQMessageAudit(AUDIT_DEPTH, PRODUCERS);
+        return new Auditor() {
+            public boolean isDuplicate(MessageId id) {
+                return audit.isDuplicate(id);
+            }
+        };
+    }
+
+    private ProducerId createProducerId(int i) {
+        ProducerId producerId = new ProducerId();
+        producerId.setConnectionId("ID:benchmark-" + (i / 100));
+        producerId.setSessionId(1);
+        producerId.setValue(i % 100);
+        return producerId;
+    }
+
+    private long rate(long nanos) {
+        return (long) (MESSAGE_COUNT / (nanos / 1000000000.0));
+    }
+
+    private long usedMemory() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    private interface Auditor {
+        boolean isDuplicate(MessageId id);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.ConnectionId;
+import org.apache.activemq.command.ConsumerId;
+import org.apache.activemq.command.MessageDispatch;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.command.SessionId;
+import org.apache.activemq.openwire.OpenWireFormat;
+import org.apache.activemq.transport.tcp.TcpBufferedOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the bytes allocated, and the rate, marshalling messages onto a
+ * tcp transport's output stream the way TcpTransport.oneway does: messages
+ * dispatched by the broker, which are already marshalled, and new messages
+ * sent by a client, which have their text and properties marshalled first.
+ */
+public class OpenWireAllocationBenchmark extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenWireAllocationBenchmark.class);
+
+    private static final int WARMUP_COUNT = Integer.parseInt(System.getProperty("WARMUP_COUNT", "" + 100000));
+    private static final int MESSAGE_COUNT = Integer.parseInt(System.getProperty("MESSAGE_COUNT", "" + 1000000));
+    private static final int PAYLOAD_SIZE = Integer.parseInt(System.getProperty("PAYLOAD_SIZE", "" + 1024));
+
+    private final ActiveMQQueue destination = new ActiveMQQueue("TEST");
+    private final ProducerId producerId = new ProducerId("ID:producer-1:1:1");
+    private final ConsumerId consumerId = new ConsumerId(new SessionId(new ConnectionId("ID:consumer-1"), 1), 1);
+    private String text;
+    private com.sun.management.ThreadMXBean threadBean;
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(OpenWireAllocationBenchmark.class);
+    }
+
+    protected void setUp() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < PAYLOAD_SIZE) {
+            builder.append('x');
+        }
+        text = builder.toString();
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        }
+    }
+
+    public void testTightEncoding() throws Exception {
+        run(true);
+    }
+
+    public void testLooseEncoding() throws Exception {
+        run(false);
+    }
+
+    private void run(boolean tightEncoding) throws Exception {
+        OpenWireFormat format = new OpenWireFormat(9);
+        format.setTightEncodingEnabled(tightEncoding);
+        DataOutputStream dataOut = new DataOutputStream(new TcpBufferedOutputStream(new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        MessageDispatch dispatch = new MessageDispatch();
+        dispatch.setConsumerId(consumerId);
+        dispatch.setDestination(destination);
+        dispatch.setMessage(createMessage(1));
+        dispatch.getMessage().beforeMarshall(format);
+
+        String encoding = tightEncoding ? "tight" : "loose";
+        dispatch(format, dataOut, dispatch, WARMUP_COUNT);
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        dispatch(format, dataOut, dispatch, MESSAGE_COUNT);
+        report(encoding + " dispatch", start, allocated);
+
+        send(format, dataOut, WARMUP_COUNT);
+        allocated = allocatedBytes();
+        start = System.nanoTime();
+        send(format, dataOut, MESSAGE_COUNT);
+        report(encoding + " send", start, allocated);
+    }
+
+    private void dispatch(OpenWireFormat format, DataOutputStream dataOut, MessageDispatch dispatch, int count)
+        throws Exception {
+        for (int i = 0; i < count; i++) {
+            format.marshal(dispatch, dataOut);
+            dataOut.flush();
+        }
+    }
+
+    private void send(OpenWireFormat format, DataOutputStream dataOut, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            format.marshal(createMessage(i), dataOut);
+            dataOut.flush();
+        }
+    }
+
+    private ActiveMQTextMessage createMessage(long sequence) throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setMessageId(new MessageId(producerId, sequence));
+        message.setProducerId(producerId);
+        message.setDestination(destination);
+        message.setText(text);
+        message.setStringProperty("region", "emea");
+        message.setIntProperty("price", 120);
+        return message;
+    }
+
+    private void report(String name, long start, long allocatedBefore) {
+        long time = System.nanoTime() - start;
+        long rate = (long) (MESSAGE_COUNT / (time / 1000000000.0));
+        if (allocatedBefore < 0) {
+            LOG.info(name + ": " + rate + " messages/sec");
+        } else {
+            long allocated = (allocatedBytes() - allocatedBefore) / MESSAGE_COUNT;
+            LOG.info(name + ": " + rate + " messages/sec, " + allocated + " bytes allocated/message, "
+                     + (allocated * rate / (1024 * 1024)) + " MB allocated/sec");
+        }
+    }
+
+    /**
+     * @return the bytes allocated by the thread so far, -1 if the jvm doesn't
+     *         tell
+     */
+    private long allocatedBytes() {
+        if (threadBean == null || !threadBean.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.ConnectionId;
+import org.apache.activemq.command.ConsumerId;
+import org.apache.activemq.command.DataStructure;
+import org.apache.activemq.command.MessageAck;
+import org.apache.activemq.command.MessageDispatch;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.command.SessionId;
+import org.apache.activemq.openwire.OpenWireFormat;
+import org.apache.activemq.util.ByteSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the rate at which threads marshal and unmarshal typical commands
+ * through the openwire v9 marshallers, sharing one format and with a format
+ * each.
+ */
+public class OpenWireFormatBenchmark extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenWireFormatBenchmark.class);
+
+    private static final int THREADS = Integer.parseInt(System.getProperty("THREADS", "" + 4));
+    private static final int WARMUP_COUNT = Integer.parseInt(System.getProperty("WARMUP_COUNT", "" + 100000));
+    private static final int MARSHAL_COUNT = Integer.parseInt(System.getProperty("MARSHAL_COUNT", "" + 1000000));
+    private static final int PAYLOAD_SIZE = Integer.parseInt(System.getProperty("PAYLOAD_SIZE", "" + 1024));
+
+    private DataStructure[] commands;
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(OpenWireFormatBenchmark.class);
+    }
+
+    protected void setUp() throws Exception {
+        ActiveMQQueue destination = new ActiveMQQueue("TEST");
+        ProducerId producerId = new ProducerId("ID:producer-1:1:1");
+        MessageId messageId = new MessageId(producerId, 1);
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < PAYLOAD_SIZE) {
+            text.append('x');
+        }
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setMessageId(messageId);
+        message.setProducerId(producerId);
+        message.setDestination(destination);
+        message.setText(text.toString());
+        message.setStringProperty("region", "emea");
+        message.setIntProperty("price", 120);
+
+        ConsumerId consumerId = new ConsumerId(new SessionId(new ConnectionId("ID:consumer-1"), 1), 1);
+        MessageDispatch dispatch = new MessageDispatch();
+        dispatch.setConsumerId(consumerId);
+        dispatch.setDestination(destination);
+        dispatch.setMessage(message);
+
+        MessageAck ack = new MessageAck();
+        ack.setAckType(MessageAck.STANDARD_ACK_TYPE);
+        ack.setConsumerId(consumerId);
+        ack.setDestination(destination);
+        ack.setFirstMessageId(messageId);
+        ack.setLastMessageId(messageId);
+        ack.setMessageCount(1);
+
+        commands = new DataStructure[] {message, dispatch, ack};
+    }
+
+    public void testMarshalling() throws Exception {
+        OpenWireFormat shared = createWireFormat();
+        run(shared, 1, WARMUP_COUNT);
+        long time = run(shared, 1, MARSHAL_COUNT);
+        LOG.info("1 thread: " + rate(1, time) + " marshal/unmarshal per sec");
+
+        run(shared, THREADS, WARMUP_COUNT);
+        time = run(shared, THREADS, MARSHAL_COUNT);
+        LOG.info(THREADS + " threads sharing a format: " + rate(THREADS, time) + " marshal/unmarshal per sec");
+
+        run(null, THREADS, WARMUP_COUNT);
+        time = run(null, THREADS, MARSHAL_COUNT);
+        LOG.info(THREADS + " threads with a format each: " + rate(THREADS, time) + " marshal/unmarshal per sec");
+    }
+
+    private OpenWireFormat createWireFormat() {
+        OpenWireFormat format = new OpenWireFormat(9);
+        format.setTightEncodingEnabled(true);
+        format.setCacheEnabled(false);
+        return format;
+    }
+
+    /**
+     * @param format the format shared by the threads, null for a format each
+     * @return the time the threads took, in nanos
+     */
+    private long run(final OpenWireFormat format, int threads, final int count) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int i = 0; i < threads; i++) {
+            final OpenWireFormat threadFormat = format != null ? format : createWireFormat();
+            Thread worker = new Thread("OpenWireFormatBenchmark:" + i) {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < count; j++) {
+                            DataStructure command = commands[j % commands.length];
+                            ByteSequence sequence = threadFormat.marshal(command);
+                            Object result = threadFormat.unmarshal(sequence);
+                            if (result.getClass() != command.getClass()) {
+                                throw new AssertionError("Unmarshalled " + result + " from " + command);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            worker.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long time = System.nanoTime() - begin;
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return time;
+    }
+
+    private long rate(int threads, long nanos) {
+        return (long) ((long) threads * MARSHAL_COUNT / (nanos / 1000000000.0));
+    }
+}
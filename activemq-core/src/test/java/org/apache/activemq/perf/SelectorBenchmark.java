@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.filter.BooleanExpression;
+import org.apache.activemq.filter.MessageEvaluationContext;
+import org.apache.activemq.selector.SelectorCompiler;
+import org.apache.activemq.selector.SelectorParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the evaluation rate of interpreted and compiled selectors on some
+ * typical selectors.
+ */
+public class SelectorBenchmark extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SelectorBenchmark.class);
+
+    private static final int WARMUP_COUNT = Integer.parseInt(System.getProperty("WARMUP_COUNT", "" + 1000000));
+    private static final int EVALUATION_COUNT = Integer.parseInt(System.getProperty("EVALUATION_COUNT", "" + 10000000));
+
+    private static final String[] SELECTORS = {
+        "region = 'emea'",
+        "region IN ('apac', 'amer', 'emea')",
+        "price > 100 AND quantity <= 500",
+        "region = 'emea' AND (price BETWEEN 50 AND 150 OR urgent)",
+        "JMSType = 'order' AND NOT (customer IS NULL)",
+        "symbol LIKE 'AB%' AND price > 10.5"
+    };
+
+    private MessageEvaluationContext context;
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(SelectorBenchmark.class);
+    }
+
+    protected void setUp() throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setJMSDestination(new ActiveMQQueue("TEST"));
+        message.setJMSType("order");
+        message.setText("order");
+        message.setStringProperty("region", "emea");
+        message.setStringProperty("customer", "acme");
+        message.setStringProperty("symbol", "ABC");
+        message.setIntProperty("price", 120);
+        message.setIntProperty("quantity", 400);
+        message.setBooleanProperty("urgent", false);
+        context = new MessageEvaluationContext();
+        context.setMessageReference(message);
+    }
+
+    public void testSelectorEvaluation() throws Exception {
+        for (String selector : SELECTORS) {
+            BooleanExpression interpreted = SelectorParser.parse(selector);
+            BooleanExpression compiled = SelectorCompiler.compile(selector);
+            assertEquals(selector, interpreted.matches(context), compiled.matches(context));
+
+            run(interpreted, WARMUP_COUNT);
+            run(compiled, WARMUP_COUNT);
+            long interpretedTime = run(interpreted, EVALUATION_COUNT);
+            long compiledTime = run(compiled, EVALUATION_COUNT);
+            LOG.info(selector + ": interpreted " + rate(interpretedTime) + " evaluations/sec, compiled "
+                    + rate(compiledTime) + " evaluations/sec");
+        }
+    }
+
+    private long run(BooleanExpression selector, int count) throws Exception {
+        int matches = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            if (selector.matches(context)) {
+                matches++;
+            }
+        }
+        long time = System.nanoTime() - start;
+        // use the result so the loop can't be optimized away
+        assertTrue(matches == 0 || matches == count);
+        return time;
+    }
+
+    private long rate(long nanos) {
+        return (long) (EVALUATION_COUNT / (nanos / 1000000000.0));
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.selector;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.apache.activemq.filter.BooleanExpression;
+import org.apache.activemq.filter.MessageEvaluationContext;
+
+/**
+ * Runs the selector tests against compiled selectors, checking they evaluate
+ * to the same result as the interpreted ones.
+ */
+public class CompiledSelectorTest extends SelectorTest {
+
+    public void testMixedTypeComparisons() throws Exception {
+        Message message = createMessage();
+        message.setStringProperty("stringNumber", "123");
+
+        assertSelector(message, "intProp = 123.0", true);
+        assertSelector(message, "floatProp > 122", true);
+        assertSelector(message, "doubleProp <= 123", true);
+        assertSelector(message, "longProp < 123.5", true);
+        assertSelector(message, "stringNumber = 123", true);
+        assertSelector(message, "stringNumber > 100", true);
+        assertSelector(message, "name = 123", false);
+        assertSelector(message, "trueProp = 1", false);
+        assertSelector(message, "intProp = '123'", true);
+        assertSelector(message, "missing = 'x'", false);
+        assertSelector(message, "NOT (missing = 'x')", true);
+        assertSelector(message, "NOT (missing > 1)", false);
+        assertSelector(message, "missing > 1 OR rank > 100", true);
+        assertSelector(message, "rank > 100 AND missing IN ('a', 'b')", false);
+        assertSelector(message, "NOT (rank > 100 AND missing IN ('a', 'b'))", false);
+    }
+
+    public void testCompiledSelectorIsCached() throws Exception {
+        BooleanExpression selector = SelectorCompiler.compile("rank > 100 AND name = 'James'");
+        assertTrue(selector instanceof SelectorCompiler.CompiledExpression);
+        assertSame(selector, SelectorCompiler.compile("rank > 100 AND name = 'James'"));
+
+        // nothing to specialize, so the interpreted expression is used
+        BooleanExpression like = SelectorCompiler.compile("name LIKE 'J%'");
+        assertSame(SelectorParser.parse("name LIKE 'J%'"), like);
+    }
+
+    protected void assertSelector(Message message, String text, boolean expected) throws JMSException {
+        BooleanExpression interpreted = SelectorParser.parse(text);
+        BooleanExpression compiled = SelectorCompiler.compile(text);
+        MessageEvaluationContext context = new MessageEvaluationContext();
+        context.setMessageReference((org.apache.activemq.command.Message)message);
+        assertEquals("Selector for: " + text, expected, compiled.matches(context));
+        assertEquals("Evaluation of: " + text, interpreted.evaluate(context), compiled.evaluate(context));
+    }
+}
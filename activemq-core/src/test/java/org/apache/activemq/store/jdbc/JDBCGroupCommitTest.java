@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.jdbc;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.util.Wait;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class JDBCGroupCommitTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JDBCGroupCommitTest.class);
+
+    private static final int PRODUCERS = 10;
+    private static final int MESSAGE_COUNT = 100;
+
+    private BrokerService broker;
+    private EmbeddedDataSource dataSource;
+    private JDBCPersistenceAdapter jdbc;
+
+    public void testConcurrentSendsAndAcks() throws Exception {
+        final ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://localhost?create=false");
+        final ActiveMQQueue queue = new ActiveMQQueue("TEST.GROUP.COMMIT");
+        final Vector<Throwable> exceptions = new Vector<Throwable>();
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+        for (int i = 0; i < PRODUCERS; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        Connection connection = factory.createConnection();
+                        try {
+                            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                            MessageProducer producer = session.createProducer(queue);
+                            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+                            for (int j = 0; j < MESSAGE_COUNT; j++) {
+                                producer.send(session.createTextMessage("message " + j));
+                            }
+                        } finally {
+                            connection.close();
+                        }
+                    } catch (Throwable e) {
+                        exceptions.add(e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue("sent", executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertTrue("no exceptions: " + exceptions, exceptions.isEmpty());
+        // every send returned after its message was committed
+        assertEquals(PRODUCERS * MESSAGE_COUNT, messageCount());
+        // the sends to the one queue were grouped, though the queue sends one at a time
+        GroupCommitter groupCommitter = jdbc.getGroupCommitter();
+        LOG.info("groups: " + groupCommitter.getGroupCount() + ", largest: " + groupCommitter.getLargestGroupSize());
+        assertTrue("grouped sends", groupCommitter.getLargestGroupSize() > 1);
+
+        Connection connection = factory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(queue);
+            for (int i = 0; i < PRODUCERS * MESSAGE_COUNT; i++) {
+                assertNotNull("message " + i, consumer.receive(5000));
+            }
+        } finally {
+            connection.close();
+        }
+        assertTrue("acks committed", Wait.waitFor(new Wait.Condition() {
+            public boolean isSatisified() throws Exception {
+                return messageCount() == 0;
+            }
+        }));
+    }
+
+    public void testFailureOnlyReportedToItsCaller() throws Exception {
+        final GroupCommitter groupCommitter = jdbc.getGroupCommitter();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Vector<Throwable> exceptions = new Vector<Throwable>();
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+        for (int i = 0; i < PRODUCERS; i++) {
+            final boolean fail = i == 0;
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        groupCommitter.execute(new GroupCommitter.Work() {
+                            public void run(TransactionContext c) throws SQLException, IOException {
+                                if (fail) {
+                                    throw new SQLException("expected");
+                                }
+                                c.getConnection().createStatement().executeQuery("SELECT COUNT(*) FROM ACTIVEMQ_MSGS").close();
+                            }
+                        });
+                    } catch (SQLException expected) {
+                        LOG.info("failed: " + expected);
+                        exceptions.add(expected);
+                    } catch (Throwable e) {
+                        exceptions.add(e);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue("executed", executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertEquals("one failure: " + exceptions, 1, exceptions.size());
+        assertEquals("expected", exceptions.get(0).getMessage());
+    }
+
+    private int messageCount() throws Exception {
+        java.sql.Connection connection = dataSource.getConnection();
+        try {
+            ResultSet result = connection.createStatement().executeQuery("SELECT COUNT(*) FROM ACTIVEMQ_MSGS");
+            result.next();
+            return result.getInt(1);
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        dataSource = new EmbeddedDataSource();
+        dataSource.setDatabaseName("derbyDb");
+        dataSource.setCreateDatabase("create");
+        jdbc = new JDBCPersistenceAdapter();
+        jdbc.setDataSource(dataSource);
+        jdbc.setGroupCommit(true);
+        jdbc.setGroupCommitLinger(1);
+        broker = new BrokerService();
+        broker.setUseJmx(false);
+        broker.setPersistenceAdapter(jdbc);
+        broker.setDeleteAllMessagesOnStartup(true);
+        broker.start();
+        broker.waitUntilStarted();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+}
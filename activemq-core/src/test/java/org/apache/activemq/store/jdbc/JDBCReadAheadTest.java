@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.jdbc;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.TestCase;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class JDBCReadAheadTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JDBCReadAheadTest.class);
+
+    private static final int MESSAGE_COUNT = 1000;
+
+    private BrokerService broker;
+    private JDBCPersistenceAdapter jdbc;
+
+    public void testRecoverInOrder() throws Exception {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://localhost?create=false");
+        ActiveMQQueue queue = new ActiveMQQueue("TEST.READ.AHEAD");
+        Connection connection = factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(queue);
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                producer.send(session.createTextMessage(String.valueOf(i)));
+            }
+
+            connection.start();
+            MessageConsumer consumer = session.createConsumer(queue);
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                TextMessage message = (TextMessage) consumer.receive(5000);
+                assertNotNull("message " + i, message);
+                assertEquals(String.valueOf(i), message.getText());
+            }
+            assertNull(consumer.receive(500));
+        } finally {
+            connection.close();
+        }
+
+        LOG.info("recover query time: " + jdbc.getRecoverQueryTime() + ", wait time: " + jdbc.getRecoverWaitTime()
+                + ", read ahead hits: " + jdbc.getReadAheadHits());
+        assertTrue("pages recovered", jdbc.getRecoverQueryTime().getCount() > 1);
+        assertTrue("pages waited for", jdbc.getRecoverWaitTime().getCount() > 1);
+        assertTrue("pages taken from a read ahead", jdbc.getReadAheadHits().getCount() > 0);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        EmbeddedDataSource dataSource = new EmbeddedDataSource();
+        dataSource.setDatabaseName("derbyDb");
+        dataSource.setCreateDatabase("create");
+        jdbc = new JDBCPersistenceAdapter();
+        jdbc.setDataSource(dataSource);
+        jdbc.setReadAhead(true);
+        broker = new BrokerService();
+        broker.setUseJmx(false);
+        broker.setPersistenceAdapter(jdbc);
+        broker.setDeleteAllMessagesOnStartup(true);
+        PolicyMap map = new PolicyMap();
+        PolicyEntry entry = new PolicyEntry();
+        // page every message in from the store
+        entry.setUseCache(false);
+        map.setDefaultEntry(entry);
+        broker.setDestinationPolicy(map);
+        broker.start();
+        broker.waitUntilStarted();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+
+public class KahaDBIndexLockStripingTest extends TestCase {
+
+    private static final int QUEUES = 8;
+    private static final int MESSAGES = 200;
+
+    private BrokerService broker;
+
+    protected BrokerService createBroker(boolean delete) throws Exception {
+        KahaDBPersistenceAdapter kaha = new KahaDBPersistenceAdapter();
+        kaha.setDirectory(new File("target/activemq-data/kahadb-striped"));
+        kaha.setEnableIndexLockStriping(true);
+        kaha.setIndexLockStripes(4);
+        kaha.setCheckpointInterval(100);
+        if (delete) {
+            kaha.deleteAllMessages();
+        }
+
+        BrokerService broker = new BrokerService();
+        broker.setUseJmx(false);
+        broker.setPersistenceAdapter(kaha);
+        broker.start();
+        return broker;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    public void testConcurrentSendAndReceiveOverRestart() throws Exception {
+        broker = createBroker(true);
+        final ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://localhost");
+        final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < QUEUES; i++) {
+            final String queue = "Queue." + i;
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        sendMessages(factory, queue, MESSAGES);
+                        assertEquals(MESSAGES / 2, receiveMessages(factory, queue, MESSAGES / 2));
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue("unexpected errors: " + errors, errors.isEmpty());
+
+        KahaDBPersistenceAdapter kaha = (KahaDBPersistenceAdapter) broker.getPersistenceAdapter();
+        assertTrue(kaha.getIndexLockCount() > 0);
+
+        broker.stop();
+        broker = createBroker(false);
+
+        ActiveMQConnectionFactory restarted = new ActiveMQConnectionFactory("vm://localhost");
+        for (int i = 0; i < QUEUES; i++) {
+            assertEquals(MESSAGES / 2, receiveMessages(restarted, "Queue." + i, MESSAGES));
+        }
+    }
+
+    private void sendMessages(ActiveMQConnectionFactory factory, String queue, int count) throws Exception {
+        Connection connection = factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(new ActiveMQQueue(queue));
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+            for (int i = 0; i < count; i++) {
+                producer.send(session.createTextMessage("message " + i));
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private int receiveMessages(ActiveMQConnectionFactory factory, String queue, int max) throws Exception {
+        int rc = 0;
+        Connection connection = factory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(new ActiveMQQueue(queue));
+            while (rc < max && consumer.receive(2000) != null) {
+                rc++;
+            }
+        } finally {
+            connection.close();
+        }
+        return rc;
+    }
+}
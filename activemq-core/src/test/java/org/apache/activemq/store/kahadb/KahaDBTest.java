@@ -170,6 +170,28 @@ public class KahaDBTest extends TestCase {
         broker.stop();
     }
 
+    public void testParallelIndexRebuild() throws Exception {
+        KahaDBStore kaha = createStore(true);
+        kaha.setJournalMaxFileLength(1024*100);
+        BrokerService broker = createBroker(kaha);
+        sendMessages(1000);
+        broker.stop();
+
+        // Delete the index, so it is rebuilt from the whole journal
+        assertExistsAndDelete(new File(kaha.getDirectory(), "db.data"));
+        new File(kaha.getDirectory(), "db.redo").delete();
+
+        kaha = createStore(false);
+        kaha.setJournalMaxFileLength(1024*100);
+        kaha.setJournalRecoveryThreads(4);
+        broker = createBroker(kaha);
+        assertEquals(100f, kaha.getRecoveryProgress());
+
+        assertEquals(1000, receiveMessages());
+
+        broker.stop();
+    }
+
     private void assertExistsAndDelete(File file) {
         assertTrue(file.exists());
         file.delete();
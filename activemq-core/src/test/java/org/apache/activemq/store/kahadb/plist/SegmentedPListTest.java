@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.plist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.util.IOHelper;
+import org.apache.kahadb.util.ByteSequence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentedPListTest {
+    private PListStore store;
+    private SegmentedPList list;
+
+    @Test
+    public void testAddLastAddFirst() throws Exception {
+        list.addLast("B", payload("B", 10));
+        list.addLast("C", payload("C", 10));
+        list.addFirst("A", payload("A", 10));
+        assertEquals(3, list.size());
+        assertEntries("A", "B", "C");
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            list.addLast(String.valueOf(i), payload(String.valueOf(i), 100));
+        }
+        assertTrue(list.remove("0"));
+        assertTrue(list.remove("5"));
+        assertTrue(list.remove("9"));
+        assertFalse(list.remove("5"));
+        assertFalse(list.remove("doesNotExist"));
+        assertEntries("1", "2", "3", "4", "6", "7", "8");
+
+        Iterator<PListEntry> iterator = list.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void testRemoveDuplicateIds() throws Exception {
+        list.addLast("A", payload("first", 10));
+        list.addLast("B", payload("B", 10));
+        list.addFirst("A", payload("second", 10));
+        assertTrue(list.remove("A"));
+        Iterator<PListEntry> iterator = list.iterator();
+        assertEquals("first", value(iterator.next()));
+        assertTrue(list.remove("A"));
+        assertFalse(list.remove("A"));
+        assertEntries("B");
+    }
+
+    @Test
+    public void testRemoveIdsWithTheSameHash() throws Exception {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        for (int i = 0; i < 100; i++) {
+            list.addLast(String.valueOf(i), payload(String.valueOf(i), 10));
+        }
+        list.addLast("Aa", payload("Aa", 10));
+        list.addLast("BB", payload("BB", 10));
+        assertFalse(list.remove("C#"));
+        assertTrue(list.remove("BB"));
+        assertFalse(list.remove("BB"));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(list.remove(String.valueOf(i)));
+        }
+        assertEntries("Aa");
+    }
+
+    @Test
+    public void testSegmentsDeletedOnceRead() throws Exception {
+        File segments = new File(store.getDirectory(), "segments");
+        long initialSize = store.size();
+        long written = 0;
+        for (int i = 0; i < 1000; i++) {
+            list.addLast(String.valueOf(i), payload(String.valueOf(i), 1000));
+            // the id is written with the payload, after its length
+            written += 2 + String.valueOf(i).length() + 1000;
+        }
+        assertTrue("several segments " + segments.list().length, segments.list().length > 1);
+        assertEquals(initialSize + written, store.size());
+
+        int count = 0;
+        for (Iterator<PListEntry> iterator = list.iterator(); iterator.hasNext();) {
+            PListEntry entry = iterator.next();
+            assertEquals(String.valueOf(count++), entry.getId());
+            assertEquals(entry.getId(), value(entry));
+            iterator.remove();
+        }
+        assertEquals(1000, count);
+        assertEquals(initialSize, store.size());
+        // only the segment being written to is kept
+        assertTrue(segments.list().length <= 1);
+        for (File file : segments.listFiles()) {
+            assertEquals(0, file.length());
+        }
+
+        list.addLast("A", payload("A", 10));
+        store.removeSegmentedPList(list.getName());
+        assertEquals(0, segments.list().length);
+    }
+
+    @Test
+    public void testLargeEntries() throws Exception {
+        // larger than the write buffer and the read ahead
+        for (int i = 0; i < 10; i++) {
+            list.addLast(String.valueOf(i), payload(String.valueOf(i), i % 2 == 0 ? 100 : 100 * 1024));
+        }
+        assertEntries("0", "1", "2", "3", "4", "5", "6", "7", "8", "9");
+    }
+
+    @Test
+    public void testConcurrentLists() throws Exception {
+        final int numLists = 10;
+        final int iterations = 1000;
+        final Vector<Throwable> exceptions = new Vector<Throwable>();
+        ExecutorService executor = Executors.newFixedThreadPool(numLists);
+        for (int i = 0; i < numLists; i++) {
+            final SegmentedPList candidate = store.getSegmentedPList("list" + i);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < iterations; j++) {
+                            candidate.addLast(String.valueOf(j), payload(String.valueOf(j), 1024));
+                            if (j % 3 == 0) {
+                                Iterator<PListEntry> iterator = candidate.iterator();
+                                PListEntry entry = iterator.next();
+                                assertEquals(entry.getId(), value(entry));
+                                iterator.remove();
+                            }
+                        }
+                        while (!candidate.isEmpty()) {
+                            Iterator<PListEntry> iterator = candidate.iterator();
+                            iterator.next();
+                            iterator.remove();
+                        }
+                    } catch (Throwable e) {
+                        exceptions.add(e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue("finished ok", executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertTrue("no exceptions: " + exceptions, exceptions.isEmpty());
+    }
+
+    private void assertEntries(String... ids) throws Exception {
+        Iterator<PListEntry> iterator = list.iterator();
+        for (String id : ids) {
+            assertTrue(iterator.hasNext());
+            PListEntry entry = iterator.next();
+            assertEquals(id, entry.getId());
+            assertEquals(id, value(entry));
+        }
+        assertFalse(iterator.hasNext());
+        assertEquals(ids.length, list.size());
+    }
+
+    private ByteSequence payload(String value, int length) {
+        byte[] data = new byte[length];
+        byte[] bytes = value.getBytes();
+        System.arraycopy(bytes, 0, data, 0, bytes.length);
+        return new ByteSequence(data);
+    }
+
+    private String value(PListEntry entry) {
+        ByteSequence bs = entry.getByteSequence();
+        int length = 0;
+        while (length < bs.getLength() && bs.getData()[bs.getOffset() + length] != 0) {
+            length++;
+        }
+        return new String(bs.getData(), bs.getOffset(), length);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File directory = new File("target/test/SegmentedPListDB");
+        IOHelper.mkdirs(directory);
+        IOHelper.deleteChildren(directory);
+        store = new PListStore();
+        store.setDirectory(directory);
+        store.setSegmentLength(64 * 1024);
+        store.start();
+        list = store.getSegmentedPList("main");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.stop();
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.thread;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class WorkStealingTaskRunnerFactoryTest extends TestCase {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkStealingTaskRunnerFactoryTest.class);
+
+    private WorkStealingTaskRunnerFactory factory;
+
+    protected void setUp() throws Exception {
+        factory = new WorkStealingTaskRunnerFactory("WorkStealingTest", Thread.NORM_PRIORITY, true, 10, 4);
+    }
+
+    protected void tearDown() throws Exception {
+        factory.shutdown();
+    }
+
+    public void testManyRunnersFewThreads() throws Exception {
+        final int runnerCount = 500;
+        final int workPerRunner = 200;
+        final CountDownLatch done = new CountDownLatch(runnerCount);
+        final AtomicBoolean concurrentIterate = new AtomicBoolean(false);
+        final CountingTask[] tasks = new CountingTask[runnerCount];
+        final TaskRunner[] runners = new TaskRunner[runnerCount];
+        for (int i = 0; i < runnerCount; i++) {
+            tasks[i] = new CountingTask(workPerRunner, done, concurrentIterate);
+            runners[i] = factory.createTaskRunner(tasks[i], "Queue:" + i);
+        }
+
+        for (int i = 0; i < workPerRunner; i++) {
+            for (int j = 0; j < runnerCount; j++) {
+                tasks[j].pending.incrementAndGet();
+                runners[j].wakeup();
+            }
+        }
+
+        assertTrue("all work done", done.await(30, TimeUnit.SECONDS));
+        assertFalse("a task was iterated concurrently", concurrentIterate.get());
+        assertEquals(4, factory.getWorkerStatistics().length);
+        for (String stat : factory.getWorkerStatistics()) {
+            LOG.info(stat);
+        }
+        for (TaskRunner runner : runners) {
+            runner.shutdown();
+        }
+    }
+
+    public void testSlowTaskDoesNotBlockOthers() throws Exception {
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+
+        // same name so both have an affinity to the same worker
+        TaskRunner slow = factory.createTaskRunner(new Task() {
+            public boolean iterate() {
+                slowStarted.countDown();
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+                return false;
+            }
+        }, "Queue:same");
+        TaskRunner fast = factory.createTaskRunner(new Task() {
+            public boolean iterate() {
+                fastDone.countDown();
+                return false;
+            }
+        }, "Queue:same");
+
+        slow.wakeup();
+        assertTrue(slowStarted.await(10, TimeUnit.SECONDS));
+        fast.wakeup();
+        assertTrue("fast task was stolen by an idle worker", fastDone.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        slow.shutdown();
+        fast.shutdown();
+    }
+
+    public void testBlockedWorkersGetASpare() throws Exception {
+        factory.setBlockedThreshold(100);
+        final CountDownLatch blocked = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        TaskRunner[] blocking = new TaskRunner[4];
+        for (int i = 0; i < blocking.length; i++) {
+            blocking[i] = factory.createTaskRunner(new Task() {
+                public boolean iterate() {
+                    blocked.countDown();
+                    try {
+                        release.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                    }
+                    return false;
+                }
+            }, "Connection:" + i);
+            blocking[i].wakeup();
+        }
+        assertTrue("every worker blocked", blocked.await(10, TimeUnit.SECONDS));
+
+        TaskRunner runner = factory.createTaskRunner(new Task() {
+            public boolean iterate() {
+                done.countDown();
+                return false;
+            }
+        }, "Queue:starved");
+        runner.wakeup();
+        assertTrue("run by a spare worker", done.await(10, TimeUnit.SECONDS));
+        assertTrue(factory.getSpareCount() > 0);
+
+        release.countDown();
+        for (TaskRunner blocker : blocking) {
+            blocker.shutdown();
+        }
+        runner.shutdown();
+    }
+
+    public void testWakeupRejectedAfterShutdown() throws Exception {
+        final AtomicInteger iterations = new AtomicInteger();
+        TaskRunner runner = factory.createTaskRunner(new Task() {
+            public boolean iterate() {
+                iterations.incrementAndGet();
+                return false;
+            }
+        }, "Queue:shutdown");
+        factory.shutdown();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                runner.wakeup();
+                fail("expected the wakeup to be rejected");
+            } catch (RejectedExecutionException expected) {
+            }
+        }
+        assertEquals(0, iterations.get());
+        // not left queued, so shutting the runner down does not wait
+        runner.shutdown();
+    }
+
+    static class CountingTask implements Task {
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicBoolean iterating = new AtomicBoolean();
+        final int expected;
+        final CountDownLatch done;
+        final AtomicBoolean concurrentIterate;
+
+        CountingTask(int expected, CountDownLatch done, AtomicBoolean concurrentIterate) {
+            this.expected = expected;
+            this.done = done;
+            this.concurrentIterate = concurrentIterate;
+        }
+
+        public boolean iterate() {
+            if (!iterating.compareAndSet(false, true)) {
+                concurrentIterate.set(true);
+            }
+            try {
+                if (pending.get() == 0) {
+                    return false;
+                }
+                pending.decrementAndGet();
+                if (processed.incrementAndGet() == expected) {
+                    done.countDown();
+                }
+                return true;
+            } finally {
+                iterating.set(false);
+            }
+        }
+    }
+}
@@ -16,12 +16,17 @@
  */
 package org.apache.activemq.transport.failover;
 
+import org.apache.activemq.command.ActiveMQTextMessage;
 import org.apache.activemq.command.ConnectionId;
 import org.apache.activemq.command.ConnectionInfo;
+import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageAck;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
 import org.apache.activemq.command.RemoveInfo;
 import org.apache.activemq.command.ShutdownInfo;
 import org.apache.activemq.state.ConnectionStateTracker;
+import org.apache.activemq.transport.StubTransport;
 import org.apache.activemq.transport.Transport;
 import org.apache.activemq.transport.TransportFactory;
 import org.apache.activemq.transport.TransportListener;
@@ -126,6 +131,31 @@ public class FailoverTransportTest {
 		assertNotNull("Should have received a Response", this.transport.request(info));
 	}
 
+    @Test
+    public void testTrackedMessagesReplayedWithinMaxCacheSize() throws Exception {
+        ConnectionStateTracker tracker = new ConnectionStateTracker();
+        tracker.setMaxCacheSize(10 * Message.DEFAULT_MINIMUM_MESSAGE_SIZE);
+        ProducerId producerId = new ProducerId("ID:producer-1:1:1");
+        for (int i = 0; i < 25; i++) {
+            ActiveMQTextMessage message = new ActiveMQTextMessage();
+            message.setMessageId(new MessageId(producerId, i));
+            message.setProducerId(producerId);
+            tracker.track(message);
+            tracker.trackBack(message);
+        }
+        assertEquals(10, tracker.getCachedMessageCount());
+        assertEquals(10 * Message.DEFAULT_MINIMUM_MESSAGE_SIZE, tracker.getCurrentCacheSize());
+        assertEquals(15, tracker.getEvictedMessageCount());
+
+        StubTransport replayed = new StubTransport();
+        tracker.restore(replayed);
+        assertEquals(10, replayed.getQueue().size());
+        for (int i = 15; i < 25; i++) {
+            assertEquals(new MessageId(producerId, i), ((Message) replayed.getQueue().poll()).getMessageId());
+        }
+        assertEquals(10, tracker.getReplayedMessageCount());
+    }
+
     protected Transport createTransport() throws Exception {
     	Transport transport = TransportFactory.connect(
     			new URI("failover://(tcp://localhost:1234)"));
@@ -184,6 +184,42 @@ public class FanoutTransportBrokerTest extends NetworkTestSupport {
 
     }
 
+    public void testOnewayMessageReplayedOnReconnect() throws Exception {
+        destination = new ActiveMQQueue("TEST");
+
+        // Start a fanout publisher.
+        StubConnection connection3 = createFanoutConnection();
+        ConnectionInfo connectionInfo3 = createConnectionInfo();
+        SessionInfo sessionInfo3 = createSessionInfo(connectionInfo3);
+        ProducerInfo producerInfo3 = createProducerInfo(sessionInfo3);
+        connection3.send(connectionInfo3);
+        connection3.send(sessionInfo3);
+        connection3.send(producerInfo3);
+
+        // Lose the message on its way to the remote broker
+        MockTransport mt = (MockTransport)connection3.getTransport().narrow(MockTransport.class);
+        mt.install(new TransportFilter(mt.getNext()) {
+            public void oneway(Object command) throws IOException {
+                LOG.info("Dropping: " + command);
+            }
+        });
+        connection3.send(createMessage(producerInfo3, destination, DeliveryMode.NON_PERSISTENT));
+
+        // The message is replayed when the fanout transport reconnects.
+        restartRemoteBroker();
+
+        StubConnection connection2 = createRemoteConnection();
+        ConnectionInfo connectionInfo2 = createConnectionInfo();
+        SessionInfo sessionInfo2 = createSessionInfo(connectionInfo2);
+        ConsumerInfo consumerInfo2 = createConsumerInfo(sessionInfo2, destination);
+        connection2.send(connectionInfo2);
+        connection2.send(sessionInfo2);
+        connection2.request(consumerInfo2);
+
+        assertNotNull(receiveMessage(connection2, 20000));
+        assertNoMessagesLeft(connection2);
+    }
+
     protected String getLocalURI() {
         return "tcp://localhost:61616";
     }
@@ -25,6 +25,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -67,6 +68,105 @@ public class MemoryUsageTest {
         assertEquals("new thread created with listener", activeThreadCount + 1, Thread.activeCount());        
     }
     
+    @Test
+    public final void testConcurrentUsageChanges() throws Exception {
+        underTest.setLimit(100);
+        underTest.start();
+        // every change moves the percentage between 99 and 100 or more
+        underTest.increaseUsage(99);
+        final AtomicInteger registered = new AtomicInteger();
+        final AtomicInteger called = new AtomicInteger();
+        final Runnable callback = new Runnable() {
+            public void run() {
+                called.incrementAndGet();
+            }
+        };
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            new Thread("Usage changer " + i) {
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        underTest.increaseUsage(1);
+                        if (underTest.notifyCallbackWhenNotFull(callback)) {
+                            registered.incrementAndGet();
+                        }
+                        underTest.decreaseUsage(1);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        assertTrue("changes done", done.await(60, TimeUnit.SECONDS));
+        assertEquals("usage is correct", 99, underTest.getUsage());
+        assertEquals("percent usage is correct", underTest.caclPercentUsage(), underTest.getPercentUsage());
+        assertEquals("percent usage is correct", 99, underTest.getPercentUsage());
+        assertTrue("callbacks registered", registered.get() > 0);
+        long deadline = System.currentTimeMillis() + 30000;
+        while (called.get() < registered.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("waiting callbacks called", registered.get(), called.get());
+    }
+
+    @Test
+    public final void testUsageLoweredWhilePercentUsageIsSet() throws Exception {
+        final CountDownLatch setting = new CountDownLatch(1);
+        final CountDownLatch lowered = new CountDownLatch(1);
+        underTest = new MemoryUsage() {
+            protected void setPercentUsage(int value) {
+                if (value == 100 && setting.getCount() > 0) {
+                    setting.countDown();
+                    // the usage drops back before the percentage it was calculated from is set
+                    try {
+                        lowered.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.setPercentUsage(value);
+            }
+        };
+        underTest.setExecutor(executor);
+        underTest.setLimit(100);
+        underTest.start();
+        underTest.increaseUsage(99);
+
+        Thread raiser = new Thread("Usage raiser") {
+            public void run() {
+                underTest.increaseUsage(1);
+            }
+        };
+        raiser.start();
+        assertTrue("percentage being set", setting.await(30, TimeUnit.SECONDS));
+        underTest.decreaseUsage(1);
+        lowered.countDown();
+        raiser.join(30000);
+
+        assertEquals("usage is correct", 99, underTest.getUsage());
+        assertEquals("percent usage is correct", 99, underTest.getPercentUsage());
+        assertTrue("not full", !underTest.notifyCallbackWhenNotFull(new Runnable() {
+            public void run() {
+            }
+        }));
+    }
+
+    @Test
+    public final void testCallbackWhenNotFull() throws Exception {
+        underTest.setLimit(10);
+        underTest.start();
+        underTest.increaseUsage(10);
+        assertTrue("full", underTest.isFull());
+        final CountDownLatch called = new CountDownLatch(1);
+        assertTrue("callback registered", underTest.notifyCallbackWhenNotFull(new Runnable() {
+            public void run() {
+                called.countDown();
+            }
+        }));
+        underTest.decreaseUsage(1);
+        assertTrue("callback called", called.await(30, TimeUnit.SECONDS));
+        assertTrue("space", underTest.waitForSpace(0));
+    }
+
     @Before
     public void setUp() throws Exception {
         underTest = new MemoryUsage();
@@ -16,6 +16,12 @@
  */
 package org.apache.activemq.util;
 
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import junit.framework.TestCase;
@@ -58,4 +64,50 @@ public class MarshallingSupportTest extends TestCase {
         Properties props2 = MarshallingSupport.stringToProperties(str);
         assertEquals(props, props2);
     }
+
+    public void testLookupPrimitiveMapValue() throws Exception {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("region", "nested");
+        List<Object> list = new ArrayList<Object>();
+        list.add("element");
+        list.add(Integer.valueOf(1));
+        char[] big = new char[Short.MAX_VALUE];
+        Arrays.fill(big, 'x');
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("boolean", Boolean.TRUE);
+        map.put("byte", Byte.valueOf((byte)1));
+        map.put("char", Character.valueOf('c'));
+        map.put("short", Short.valueOf((short)2));
+        map.put("int", Integer.valueOf(3));
+        map.put("long", Long.valueOf(4));
+        map.put("float", Float.valueOf(5.5f));
+        map.put("double", Double.valueOf(6.5));
+        map.put("bytes", new byte[] {1, 2, 3});
+        map.put("big", new String(big));
+        map.put("map", nested);
+        map.put("list", list);
+        map.put("null", null);
+        map.put("r\u00e9gion", "accented");
+        map.put("\u5730\u57df", "cjk");
+        map.put("region", "emea");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        MarshallingSupport.marshalPrimitiveMap(map, out);
+        out.close();
+        ByteSequence marshalled = baos.toByteSequence();
+
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            Object value = MarshallingSupport.lookupPrimitiveMapValue(marshalled, entry.getKey());
+            if (entry.getValue() instanceof byte[]) {
+                assertTrue(Arrays.equals((byte[])entry.getValue(), (byte[])value));
+            } else {
+                assertEquals(entry.getKey(), entry.getValue(), value);
+            }
+        }
+        assertNull(MarshallingSupport.lookupPrimitiveMapValue(marshalled, "missing"));
+        assertNull(MarshallingSupport.lookupPrimitiveMapValue(marshalled, "regio"));
+        assertNull(MarshallingSupport.lookupPrimitiveMapValue(marshalled, "regions"));
+    }
 }
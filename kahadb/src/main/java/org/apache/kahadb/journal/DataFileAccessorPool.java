@@ -18,21 +18,25 @@ package org.apache.kahadb.journal;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Used to pool DataFileAccessors.
  *
+ * Accessors are pooled per data file and each per file pool has its own
+ * monitor, so readers of different data files do not contend with each other
+ * and readers of the same data file only contend while taking or returning
+ * an accessor, not while reading.
+ *
  * @author chirino
  */
 public class DataFileAccessorPool {
 
     private final Journal journal;
-    private final Map<Integer, Pool> pools = new HashMap<Integer, Pool>();
-    private boolean closed;
+    private final ConcurrentHashMap<Integer, Pool> pools = new ConcurrentHashMap<Integer, Pool>();
+    private volatile boolean closed;
     private int maxOpenReadersPerFile = 5;
 
     class Pool {
@@ -47,7 +51,13 @@ public class DataFileAccessorPool {
             this.file = file;
         }
 
-        public DataFileAccessor openDataFileReader() throws IOException {
+        /**
+         * @return an accessor, or null if this pool has been disposed
+         */
+        public synchronized DataFileAccessor openDataFileReader() throws IOException {
+            if (disposed) {
+                return null;
+            }
             DataFileAccessor rc = null;
             if (pool.isEmpty()) {
                 rc = new DataFileAccessor(journal, file);
@@ -116,29 +126,37 @@ public class DataFileAccessorPool {
         }
         Pool pool = pools.get(dataFile.getDataFileId());
         if (pool != null) {
-            if (pool.getOpenCounter() == 0) {
-                pool.dispose();
-                pools.remove(dataFile.getDataFileId());
-            } else {
-                throw new IllegalStateException("The data file is still in use: " + dataFile + ", use count: " + pool.getOpenCounter());
-            }
+            // reads no longer hold the journal monitor, so a reader may still
+            // have an accessor open; it gets disposed when it is returned.
+            pool.dispose();
+            pools.remove(dataFile.getDataFileId());
         }
     }
 
-    synchronized DataFileAccessor openDataFileAccessor(DataFile dataFile) throws IOException {
-        if (closed) {
-            throw new IOException("Closed.");
-        }
+    DataFileAccessor openDataFileAccessor(DataFile dataFile) throws IOException {
+        while (true) {
+            if (closed) {
+                throw new IOException("Closed.");
+            }
 
-        Pool pool = pools.get(dataFile.getDataFileId());
-        if (pool == null) {
-            pool = new Pool(dataFile);
-            pools.put(dataFile.getDataFileId(), pool);
+            Pool pool = pools.get(dataFile.getDataFileId());
+            if (pool == null) {
+                Pool newPool = new Pool(dataFile);
+                pool = pools.putIfAbsent(dataFile.getDataFileId(), newPool);
+                if (pool == null) {
+                    pool = newPool;
+                }
+            }
+            DataFileAccessor rc = pool.openDataFileReader();
+            if (rc != null) {
+                return rc;
+            }
+            // raced with disposeUnused(), try again with a fresh pool
+            pools.remove(dataFile.getDataFileId(), pool);
         }
-        return pool.openDataFileReader();
     }
 
-    synchronized void closeDataFileAccessor(DataFileAccessor reader) {
+    void closeDataFileAccessor(DataFileAccessor reader) {
         Pool pool = pools.get(reader.getDataFile().getDataFileId());
         if (pool == null || closed) {
             reader.dispose();
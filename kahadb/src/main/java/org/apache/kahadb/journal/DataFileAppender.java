@@ -87,6 +87,7 @@ class DataFileAppender implements FileAppender {
         public final CountDownLatch latch = new CountDownLatch(1);
         protected final int offset;
         public int size = Journal.BATCH_CONTROL_RECORD_SIZE;
+        public int writeCount;
         public AtomicReference<IOException> exception = new AtomicReference<IOException>();
 
         public WriteBatch(DataFile dataFile,int offset) {
@@ -112,6 +113,7 @@ class DataFileAppender implements FileAppender {
 
         public void append(Journal.WriteCommand write) throws IOException {
             this.writes.addLast(write);
+            writeCount++;
             write.location.setDataFileId(dataFile.getDataFileId());
             write.location.setOffset(offset+size);
             int s = write.location.getSize();
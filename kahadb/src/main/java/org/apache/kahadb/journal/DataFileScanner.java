@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kahadb.journal;
+
+import java.io.IOException;
+
+/**
+ * Iterates the records of one data file with an accessor of its own, rather
+ * than a pooled one, and without taking the journal monitor, so the records
+ * of several data files can be located in parallel, as on recovery.
+ *
+ * Like a {@link DataFileAccessor}, a scanner is not safe for concurrent use.
+ */
+public final class DataFileScanner {
+
+    private final DataFile dataFile;
+    private final DataFileAccessor reader;
+
+    DataFileScanner(Journal journal, DataFile dataFile) throws IOException {
+        this.dataFile = dataFile;
+        this.reader = new DataFileAccessor(journal, dataFile);
+    }
+
+    public DataFile getDataFile() {
+        return dataFile;
+    }
+
+    /**
+     * Same as {@link Journal#getNextLocation(DataFile, Location, boolean)}
+     * for this data file only.
+     *
+     * @param lastLocation the location of the previous record, null for the
+     *            first record of the file
+     * @return the location of the next record, null at the end of the file
+     *         or of its records
+     */
+    public Location getNextLocation(Location lastLocation) throws IOException {
+        Location cur;
+        if (lastLocation == null) {
+            cur = new Location();
+            cur.setDataFileId(dataFile.getDataFileId());
+            cur.setOffset(0);
+        } else {
+            cur = new Location(lastLocation);
+            cur.setOffset(cur.getOffset() + cur.getSize());
+        }
+        while (true) {
+            if (dataFile.getLength() <= cur.getOffset()) {
+                return null;
+            }
+
+            // Load in location size and type.
+            reader.readLocationDetails(cur);
+
+            if (cur.getType() == 0) {
+                return null;
+            } else if (cur.getType() > 0) {
+                return cur;
+            }
+            cur.setOffset(cur.getOffset() + cur.getSize());
+        }
+    }
+
+    public void close() {
+        reader.dispose();
+    }
+}
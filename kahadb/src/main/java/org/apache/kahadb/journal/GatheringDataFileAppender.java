@@ -0,0 +1,264 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kahadb.journal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Adler32;
+import java.util.zip.Checksum;
+
+import org.apache.kahadb.util.ByteSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A group commit appender. Like the {@link DataFileAppender} concurrent writes
+ * are collected into a batch that is written and synced as one, but:
+ * <ul>
+ * <li>the batch is written with a single gathering
+ * {@link FileChannel#write(ByteBuffer[])} of the record headers and the
+ * callers' own data buffers, so the data is not copied into an intermediate
+ * buffer first.</li>
+ * <li>the batch size limit and the time the writer thread lingers for more
+ * writes to join a batch adapt to the observed fsync latency: when syncs are
+ * slow and writes arrive concurrently the batches grow, when the load drops
+ * they shrink back to the configured journal write batch size.</li>
+ * </ul>
+ * Completion callbacks run in write order once the batch is on disk.
+ */
+class GatheringDataFileAppender extends DataFileAppender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GatheringDataFileAppender.class);
+
+    // upper bound of any lingering, whatever the fsync latency is.
+    static final long MAX_LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    static final long LINGER_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+    private final int minWriteBatchSize;
+    private final int maxAdaptiveWriteBatchSize;
+    // exponentially weighted moving average of fsync latency.
+    private long syncLatencyNanos;
+    private int lastBatchWriteCount;
+
+    public GatheringDataFileAppender(Journal journal) {
+        super(journal);
+        this.minWriteBatchSize = maxWriteBatchSize;
+        this.maxAdaptiveWriteBatchSize = Math.max(minWriteBatchSize, Math.min(Journal.MAX_BATCH_SIZE, minWriteBatchSize * 8));
+    }
+
+    @Override
+    protected void processQueue() {
+        DataFile dataFile = null;
+        RandomAccessFile file = null;
+        FileChannel channel = null;
+        WriteBatch wb = null;
+        try {
+            while (true) {
+
+                // Block till we get a command.
+                synchronized (enqueueMutex) {
+                    while (nextWriteBatch == null) {
+                        if (shutdown) {
+                            return;
+                        }
+                        enqueueMutex.wait();
+                    }
+                }
+
+                linger();
+
+                synchronized (enqueueMutex) {
+                    wb = nextWriteBatch;
+                    nextWriteBatch = null;
+                    enqueueMutex.notifyAll();
+                }
+
+                if (dataFile != wb.dataFile) {
+                    if (file != null) {
+                        file.setLength(dataFile.getLength());
+                        dataFile.closeRandomAccessFile(file);
+                    }
+                    dataFile = wb.dataFile;
+                    file = dataFile.openRandomAccessFile();
+                    channel = file.getChannel();
+                    if( file.length() < journal.preferedFileLength ) {
+                        file.setLength(journal.preferedFileLength);
+                    }
+                }
+
+                int writeCount = wb.writeCount;
+
+                // one buffer for the batch control record and two per write:
+                // its record header and its data.
+                ByteBuffer[] buffers = new ByteBuffer[1 + writeCount * 2];
+                ByteBuffer headers = ByteBuffer.allocate(Journal.BATCH_CONTROL_RECORD_SIZE + writeCount * Journal.RECORD_HEAD_SPACE);
+                Checksum checksum = journal.isChecksum() ? new Adler32() : null;
+                boolean forceToDisk = false;
+
+                headers.position(Journal.BATCH_CONTROL_RECORD_SIZE);
+                int i = 1;
+                for (Journal.WriteCommand write = wb.writes.getHead(); write != null; write = write.getNext()) {
+                    forceToDisk |= write.sync | (syncOnComplete && write.onComplete != null);
+                    int start = headers.position();
+                    headers.putInt(write.location.getSize());
+                    headers.put(write.location.getType());
+                    ByteBuffer header = headers.duplicate();
+                    header.position(start);
+                    header.limit(headers.position());
+                    buffers[i++] = header.slice();
+                    buffers[i++] = ByteBuffer.wrap(write.data.getData(), write.data.getOffset(), write.data.getLength()).slice();
+                    if (checksum != null) {
+                        checksum.update(headers.array(), start, Journal.RECORD_HEAD_SPACE);
+                        checksum.update(write.data.getData(), write.data.getOffset(), write.data.getLength());
+                    }
+                }
+
+                // Now we can fill in the batch control record.
+                headers.position(0);
+                headers.put(Journal.BATCH_CONTROL_RECORD_HEADER);
+                headers.putInt(wb.size - Journal.BATCH_CONTROL_RECORD_SIZE);
+                headers.putLong(checksum != null ? checksum.getValue() : 0);
+                ByteBuffer control = headers.duplicate();
+                control.position(0);
+                control.limit(Journal.BATCH_CONTROL_RECORD_SIZE);
+                buffers[0] = control.slice();
+
+                // Now do the 1 big gathering write.
+                channel.position(wb.offset);
+                long remaining = wb.size;
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+
+                ReplicationTarget replicationTarget = journal.getReplicationTarget();
+                if( replicationTarget!=null ) {
+                    replicationTarget.replicate(wb.writes.getHead().location, toByteSequence(buffers, wb.size), forceToDisk);
+                }
+
+                if (forceToDisk) {
+                    long start = System.nanoTime();
+                    channel.force(false);
+                    recordSync(System.nanoTime() - start);
+                }
+
+                Journal.WriteCommand lastWrite = wb.writes.getTail();
+                journal.setLastAppendLocation(lastWrite.location);
+
+                adapt(wb, writeCount);
+                signalDone(wb);
+            }
+        } catch (IOException e) {
+            synchronized (enqueueMutex) {
+                firstAsyncException = e;
+                if (wb != null) {
+                    wb.exception.set(e);
+                    wb.latch.countDown();
+                }
+                if (nextWriteBatch != null) {
+                    nextWriteBatch.exception.set(e);
+                    nextWriteBatch.latch.countDown();
+                }
+            }
+        } catch (InterruptedException e) {
+        } finally {
+            try {
+                if (file != null) {
+                    dataFile.closeRandomAccessFile(file);
+                }
+            } catch (Throwable ignore) {
+            }
+            shutdownDone.countDown();
+            running = false;
+        }
+    }
+
+    /**
+     * Gives writers that are expected to join the pending batch a chance to
+     * do so before it is written. Only lingers while the batch has fewer
+     * writes than the previous one, so a single writer never waits, and for
+     * at most a fraction of an fsync.
+     */
+    private void linger() {
+        if (lastBatchWriteCount <= 1) {
+            return;
+        }
+        long linger = Math.min(MAX_LINGER_NANOS, syncLatencyNanos / 4);
+        long deadline = System.nanoTime() + linger;
+        while (true) {
+            synchronized (enqueueMutex) {
+                if (shutdown || nextWriteBatch.writeCount >= lastBatchWriteCount
+                        || nextWriteBatch.size >= maxWriteBatchSize / 2) {
+                    return;
+                }
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            LockSupport.parkNanos(Math.min(remaining, LINGER_POLL_NANOS));
+        }
+    }
+
+    private void recordSync(long nanos) {
+        syncLatencyNanos = syncLatencyNanos == 0 ? nanos : (syncLatencyNanos * 7 + nanos) / 8;
+    }
+
+    /**
+     * Grow the batch size limit while batches fill up, shrink it back when
+     * they don't.
+     */
+    private void adapt(WriteBatch wb, int writeCount) {
+        lastBatchWriteCount = writeCount;
+        synchronized (enqueueMutex) {
+            int limit = maxWriteBatchSize;
+            if (wb.size >= limit * 3 / 4 && limit < maxAdaptiveWriteBatchSize) {
+                limit = Math.min(maxAdaptiveWriteBatchSize, limit * 2);
+            } else if (wb.size < limit / 4 && limit > minWriteBatchSize) {
+                limit = Math.max(minWriteBatchSize, limit / 2);
+            }
+            if (limit != maxWriteBatchSize) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Write batch size limit now " + limit + ", fsync latency " + syncLatencyNanos / 1000 + "us");
+                }
+                maxWriteBatchSize = limit;
+            }
+        }
+    }
+
+    private ByteSequence toByteSequence(ByteBuffer[] buffers, int size) {
+        byte[] data = new byte[size];
+        int pos = 0;
+        for (ByteBuffer buffer : buffers) {
+            ByteBuffer b = buffer.duplicate();
+            b.rewind();
+            int length = b.remaining();
+            b.get(data, pos, length);
+            pos += length;
+        }
+        return new ByteSequence(data);
+    }
+
+    int getMaxWriteBatchSize() {
+        synchronized (enqueueMutex) {
+            return maxWriteBatchSize;
+        }
+    }
+}
@@ -22,7 +22,6 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -55,7 +54,10 @@ public class Journal {
     public static final String CALLER_BUFFER_APPENDER = "org.apache.kahadb.journal.CALLER_BUFFER_APPENDER";
     public static final boolean callerBufferAppender = Boolean.parseBoolean(System.getProperty(CALLER_BUFFER_APPENDER, "false"));
 
-    private static final int MAX_BATCH_SIZE = 32*1024*1024;
+    public static final String GATHERING_APPENDER = "org.apache.kahadb.journal.GATHERING_APPENDER";
+    public static final boolean gatheringAppender = Boolean.parseBoolean(System.getProperty(GATHERING_APPENDER, "false"));
+
+    static final int MAX_BATCH_SIZE = 32*1024*1024;
 
     // ITEM_HEAD_SPACE = length + type+ reserved space + SOR
     public static final int RECORD_HEAD_SPACE = 4 + 1;
@@ -105,9 +107,9 @@ public class Journal {
     protected int writeBatchSize = DEFAULT_MAX_WRITE_BATCH_SIZE;
 
     protected FileAppender appender;
-    protected DataFileAccessorPool accessorPool;
+    protected volatile DataFileAccessorPool accessorPool;
 
-    protected Map<Integer, DataFile> fileMap = new HashMap<Integer, DataFile>();
+    protected Map<Integer, DataFile> fileMap = new ConcurrentHashMap<Integer, DataFile>();
     protected Map<File, DataFile> fileByFileMap = new LinkedHashMap<File, DataFile>();
     protected LinkedNodeList<DataFile> dataFiles = new LinkedNodeList<DataFile>();
 
@@ -119,6 +121,9 @@ public class Journal {
     protected boolean checksum;
     protected boolean checkForCorruptionOnStartup;
     protected boolean enableAsyncDiskSync = true;
+    protected boolean enableMemoryMappedReads;
+    protected boolean useGatheringAppender = gatheringAppender;
+    protected final ConcurrentHashMap<Integer, MappedDataFileAccessor> mappedAccessors = new ConcurrentHashMap<Integer, MappedDataFileAccessor>();
     private Timer timer;
 
     public synchronized void start() throws IOException {
@@ -131,7 +136,7 @@ public class Journal {
         started = true;
         preferedFileLength = Math.max(PREFERED_DIFF, getMaxFileLength() - PREFERED_DIFF);
 
-        appender = callerBufferAppender ? new CallerBufferingDataFileAppender(this) : new DataFileAppender(this);
+        appender = createAppender();
 
         File[] files = directory.listFiles(new FilenameFilter() {
             public boolean accept(File dir, String n) {
@@ -191,6 +196,13 @@ public class Journal {
         LOG.trace("Startup took: "+(end-start)+" ms");
     }
 
+    protected FileAppender createAppender() {
+        if (useGatheringAppender) {
+            return new GatheringDataFileAppender(this);
+        }
+        return callerBufferAppender ? new CallerBufferingDataFileAppender(this) : new DataFileAppender(this);
+    }
+
     private static byte[] bytes(String string) {
         try {
             return string.getBytes("UTF-8");
@@ -345,7 +357,7 @@ public class Journal {
         return file;
     }
 
-    synchronized DataFile getDataFile(Location item) throws IOException {
+    DataFile getDataFile(Location item) throws IOException {
         Integer key = Integer.valueOf(item.getDataFileId());
         DataFile dataFile = fileMap.get(key);
         if (dataFile == null) {
@@ -355,7 +367,7 @@ public class Journal {
         return dataFile;
     }
 
-    synchronized File getFile(Location item) throws IOException {
+    File getFile(Location item) throws IOException {
         Integer key = Integer.valueOf(item.getDataFileId());
         DataFile dataFile = fileMap.get(key);
         if (dataFile == null) {
@@ -378,6 +390,7 @@ public class Journal {
         }
         accessorPool.close();
         appender.close();
+        closeMappedAccessors();
         fileMap.clear();
         fileByFileMap.clear();
         dataFiles.clear();
@@ -385,6 +398,13 @@ public class Journal {
         started = false;
     }
 
+    private void closeMappedAccessors() {
+        for (MappedDataFileAccessor mapped : mappedAccessors.values()) {
+            mapped.close();
+        }
+        mappedAccessors.clear();
+    }
+
     protected synchronized void cleanup() {
         if (accessorPool != null) {
             accessorPool.disposeUnused();
@@ -396,6 +416,7 @@ public class Journal {
         // Close all open file handles...
         appender.close();
         accessorPool.close();
+        closeMappedAccessors();
 
         boolean result = true;
         for (Iterator<DataFile> i = fileMap.values().iterator(); i.hasNext();) {
@@ -410,7 +431,7 @@ public class Journal {
 
         // reopen open file handles...
         accessorPool = new DataFileAccessorPool(this);
-        appender = new DataFileAppender(this);
+        appender = createAppender();
         return result;
     }
 
@@ -431,6 +452,11 @@ public class Journal {
         accessorPool.disposeDataFileAccessors(dataFile);
         fileByFileMap.remove(dataFile.getFile());
         fileMap.remove(dataFile.getDataFileId());
+        // after the file map, see readMapped
+        MappedDataFileAccessor mapped = mappedAccessors.remove(dataFile.getDataFileId());
+        if (mapped != null) {
+            mapped.close();
+        }
         totalLength.addAndGet(-dataFile.getLength());
         dataFile.unlink();
         if (archiveDataLogs) {
@@ -540,6 +566,14 @@ public class Journal {
         }
     }
 
+    /**
+     * @return a scanner of the records of the data file, to close once done,
+     *         that does not take the journal monitor
+     */
+    public DataFileScanner openScanner(DataFile dataFile) throws IOException {
+        return new DataFileScanner(this, dataFile);
+    }
+
     public synchronized Location getNextLocation(File file, Location lastLocation, boolean thisFileOnly) throws IllegalStateException, IOException {
         DataFile df = fileByFileMap.get(file);
         return getNextLocation(df, lastLocation, thisFileOnly);
@@ -596,18 +630,60 @@ public class Journal {
         }
     }
 
-    public synchronized ByteSequence read(Location location) throws IOException, IllegalStateException {
+    /**
+     * Reads the record at the given location. Does not take the journal
+     * monitor; the data file is resolved through the concurrent file map and
+     * read with a pooled accessor so reads of different locations proceed in
+     * parallel with each other and with appends.
+     */
+    public ByteSequence read(Location location) throws IOException, IllegalStateException {
         DataFile dataFile = getDataFile(location);
-        DataFileAccessor reader = accessorPool.openDataFileAccessor(dataFile);
+        if (enableMemoryMappedReads) {
+            ByteSequence rc = readMapped(dataFile, location);
+            if (rc != null) {
+                return rc;
+            }
+        }
+        DataFileAccessorPool pool = accessorPool;
+        DataFileAccessor reader = pool.openDataFileAccessor(dataFile);
         ByteSequence rc = null;
         try {
             rc = reader.readRecord(location);
         } finally {
-            accessorPool.closeDataFileAccessor(reader);
+            pool.closeDataFileAccessor(reader);
         }
         return rc;
     }
 
+    /**
+     * Reads through a memory mapping if the data file is sealed, that is a
+     * write to a later data file has completed so nothing more will be
+     * appended to it.
+     *
+     * @return the record, or null if it has to be read with an accessor
+     */
+    private ByteSequence readMapped(DataFile dataFile, Location location) throws IOException {
+        Location lastAppend = lastAppendLocation.get();
+        if (lastAppend == null || dataFile.getDataFileId() >= lastAppend.getDataFileId()) {
+            return null;
+        }
+        MappedDataFileAccessor accessor = mappedAccessors.get(dataFile.getDataFileId());
+        if (accessor == null) {
+            accessor = new MappedDataFileAccessor(dataFile);
+            MappedDataFileAccessor existing = mappedAccessors.putIfAbsent(dataFile.getDataFileId(), accessor);
+            if (existing != null) {
+                accessor.close();
+                accessor = existing;
+            } else if (fileMap.get(dataFile.getDataFileId()) != dataFile) {
+                // removed meanwhile, and its mappings closed before this one was added
+                mappedAccessors.remove(dataFile.getDataFileId(), accessor);
+                accessor.close();
+                return null;
+            }
+        }
+        return accessor.readRecord(location);
+    }
+
     public Location write(ByteSequence data, boolean sync) throws IOException, IllegalStateException {
         Location loc = appender.storeItem(data, Location.USER_TYPE, sync);
         return loc;
@@ -620,11 +696,12 @@ public class Journal {
 
     public void update(Location location, ByteSequence data, boolean sync) throws IOException {
         DataFile dataFile = getDataFile(location);
-        DataFileAccessor updater = accessorPool.openDataFileAccessor(dataFile);
+        DataFileAccessorPool pool = accessorPool;
+        DataFileAccessor updater = pool.openDataFileAccessor(dataFile);
         try {
             updater.updateRecord(location, data, sync);
         } finally {
-            accessorPool.closeDataFileAccessor(updater);
+            pool.closeDataFileAccessor(updater);
         }
     }
 
@@ -756,6 +833,31 @@ public class Journal {
         this.enableAsyncDiskSync = val;
     }
 
+    /**
+     * @param enableMemoryMappedReads read records of data files that are no
+     *        longer appended to through a read only memory mapping
+     */
+    public void setEnableMemoryMappedReads(boolean enableMemoryMappedReads) {
+        this.enableMemoryMappedReads = enableMemoryMappedReads;
+    }
+
+    public boolean isEnableMemoryMappedReads() {
+        return enableMemoryMappedReads;
+    }
+
+    /**
+     * @param useGatheringAppender append with the group commit appender that
+     *        does gathering writes and adapts its batching to fsync latency,
+     *        takes effect on start
+     */
+    public void setUseGatheringAppender(boolean useGatheringAppender) {
+        this.useGatheringAppender = useGatheringAppender;
+    }
+
+    public boolean isUseGatheringAppender() {
+        return useGatheringAppender;
+    }
+
     public boolean isEnableAsyncDiskSync() {
         return enableAsyncDiskSync;
     }
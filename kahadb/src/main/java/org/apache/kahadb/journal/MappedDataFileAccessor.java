@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kahadb.journal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.kahadb.util.ByteSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads records of a sealed data file, one that is no longer appended to,
+ * through a read only memory mapping of the whole file. A read is a single
+ * bulk copy out of the mapping; there is no seek or read system call and no
+ * pooled accessor to check out. Unlike {@link DataFileAccessor} this class is
+ * safe for concurrent use.
+ *
+ * The mapping is released by {@link #close()} rather than left to the garbage
+ * collector, so the file can be deleted and its address space reused as soon
+ * as the data file is removed. Reads hold a read lock so the mapping is never
+ * released under a read in progress.
+ */
+final class MappedDataFileAccessor {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedDataFileAccessor.class);
+
+    private final DataFile dataFile;
+    private final MappedByteBuffer buffer;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    public MappedDataFileAccessor(DataFile dataFile) throws IOException {
+        this.dataFile = dataFile;
+        RandomAccessFile file = new RandomAccessFile(dataFile.getFile(), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = Math.min(channel.size(), dataFile.getLength());
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            // the mapping stays valid after the channel is closed
+            file.close();
+        }
+    }
+
+    public DataFile getDataFile() {
+        return dataFile;
+    }
+
+    /**
+     * @return the record or null if the location is not within the mapped
+     *         region of the file or the mapping is closed
+     */
+    public ByteSequence readRecord(Location location) throws IOException {
+        if (!location.isValid()) {
+            throw new IOException("Invalid location: " + location);
+        }
+
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return null;
+            }
+            return readRecord(buffer.duplicate(), location);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Releases the mapping once the reads in progress have completed.
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (!closed) {
+                closed = true;
+                unmap(buffer);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static ByteSequence readRecord(ByteBuffer view, Location location) {
+        int offset = location.getOffset();
+        int size = location.getSize();
+        if (size == Location.NOT_SET) {
+            if (offset + Journal.RECORD_HEAD_SPACE > view.limit()) {
+                return null;
+            }
+            size = view.getInt(offset);
+            location.setSize(size);
+            location.setType(view.get(offset + 4));
+        }
+        if (size < Journal.RECORD_HEAD_SPACE || offset + size > view.limit()) {
+            return null;
+        }
+
+        byte[] data = new byte[size - Journal.RECORD_HEAD_SPACE];
+        view.position(offset + Journal.RECORD_HEAD_SPACE);
+        view.get(data);
+        return new ByteSequence(data, 0, data.length);
+    }
+
+    /**
+     * Unmaps the buffer with its cleaner, which is not public API, so this
+     * falls back to leaving it to the garbage collector on JVMs without one.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        } catch (Exception e) {
+            try {
+                // since Java 9 the cleaner is only reachable through Unsafe
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (Exception ignore) {
+                LOG.debug("Could not unmap the data file mapping, leaving it to the garbage collector: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kahadb.page;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * A cache of raw page images held outside of the java heap, in direct
+ * {@link ByteBuffer} slabs. It sits below the {@link PageFile} page cache of
+ * deserialized pages, in front of the disk, so a large cache costs no GC time.
+ *
+ * The cache is split into segments, each a fixed number of page sized slots
+ * guarded by its own lock, and each evicts with the CLOCK (second chance)
+ * policy: a hit marks the slot referenced, eviction sweeps the slots clearing
+ * the marks and reuses the first slot found unmarked.
+ */
+class OffHeapPageCache {
+
+    static final int DEFAULT_SEGMENTS = 16;
+    static final int MIN_SEGMENT_SLOTS = 64;
+
+    private final int pageSize;
+    private final Segment[] segments;
+
+    /**
+     * @param capacity the size of the cache in bytes
+     * @param pageSize the page size of the page file
+     * @param segmentCount the number of independently locked segments
+     */
+    OffHeapPageCache(long capacity, int pageSize, int segmentCount) {
+        this.pageSize = pageSize;
+        long slots = Math.max(1, capacity / pageSize);
+        // small caches use fewer segments so eviction stays close to global.
+        segmentCount = (int) Math.max(1, Math.min(segmentCount, slots / MIN_SEGMENT_SLOTS));
+        // a single direct buffer can't be larger than 2G
+        int slotsPerSegment = (int) Math.min(Integer.MAX_VALUE / pageSize, slots / segmentCount);
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(slotsPerSegment);
+        }
+    }
+
+    private Segment segment(long pageId) {
+        long h = pageId * 0x9E3779B97F4A7C15L;
+        return segments[(int) ((h >>> 32) & Integer.MAX_VALUE) % segments.length];
+    }
+
+    /**
+     * Copies the cached page, or the head of it if data is shorter than a
+     * page, into data.
+     *
+     * @return true if the page was cached
+     */
+    boolean get(long pageId, byte[] data) {
+        return segment(pageId).get(pageId, data);
+    }
+
+    /**
+     * @return a version to hand to {@link #putIfUnchanged(long, byte[], long)}
+     *         after the page is read from disk.
+     */
+    long version(long pageId) {
+        return segment(pageId).version(pageId);
+    }
+
+    /**
+     * Caches a page read from disk unless it was written or removed since
+     * the version was taken, since the read could then have seen an old image.
+     */
+    void putIfUnchanged(long pageId, byte[] data, long version) {
+        segment(pageId).put(pageId, data, version);
+    }
+
+    /**
+     * Caches the image of a page just written to disk.
+     */
+    void put(long pageId, byte[] data) {
+        segment(pageId).put(pageId, data, -1);
+    }
+
+    void remove(long pageId) {
+        segment(pageId).remove(pageId);
+    }
+
+    void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    long getCapacity() {
+        long rc = 0;
+        for (Segment segment : segments) {
+            rc += (long) segment.slotPage.length * pageSize;
+        }
+        return rc;
+    }
+
+    long getSize() {
+        long rc = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                rc += (long) segment.index.size() * pageSize;
+            }
+        }
+        return rc;
+    }
+
+    long getHits() {
+        long rc = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                rc += segment.hits;
+            }
+        }
+        return rc;
+    }
+
+    long getMisses() {
+        long rc = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                rc += segment.misses;
+            }
+        }
+        return rc;
+    }
+
+    long getEvictions() {
+        long rc = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                rc += segment.evictions;
+            }
+        }
+        return rc;
+    }
+
+    void resetStatistics() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.hits = 0;
+                segment.misses = 0;
+                segment.evictions = 0;
+            }
+        }
+    }
+
+    private final class Segment {
+        final ByteBuffer slab;
+        final HashMap<Long, Integer> index = new HashMap<Long, Integer>();
+        final long[] slotPage;
+        final boolean[] referenced;
+        int hand;
+        int used;
+        // bumped on every write or removal, so a disk read that raced with
+        // one does not cache the image it read.
+        long version;
+        long hits;
+        long misses;
+        long evictions;
+
+        Segment(int slots) {
+            slab = ByteBuffer.allocateDirect(slots * pageSize);
+            slotPage = new long[slots];
+            referenced = new boolean[slots];
+        }
+
+        synchronized boolean get(long pageId, byte[] data) {
+            Integer slot = index.get(pageId);
+            if (slot == null) {
+                misses++;
+                return false;
+            }
+            hits++;
+            referenced[slot] = true;
+            ByteBuffer view = slab.duplicate();
+            view.position(slot * pageSize);
+            view.get(data, 0, Math.min(data.length, pageSize));
+            return true;
+        }
+
+        synchronized long version(long pageId) {
+            return version;
+        }
+
+        synchronized void put(long pageId, byte[] data, long expectedVersion) {
+            if (expectedVersion >= 0 && expectedVersion != version) {
+                return;
+            }
+            if (expectedVersion < 0) {
+                version++;
+            }
+            Integer slot = index.get(pageId);
+            if (slot == null) {
+                slot = allocate();
+                index.put(pageId, slot);
+                slotPage[slot] = pageId;
+            }
+            referenced[slot] = true;
+            ByteBuffer view = slab.duplicate();
+            view.position(slot * pageSize);
+            view.put(data, 0, Math.min(data.length, pageSize));
+        }
+
+        synchronized void remove(long pageId) {
+            version++;
+            Integer slot = index.remove(pageId);
+            if (slot != null) {
+                referenced[slot] = false;
+                // move the last used slot into the hole so the used slots
+                // stay contiguous.
+                int last = --used;
+                if (slot != last) {
+                    long lastPage = slotPage[last];
+                    ByteBuffer from = slab.duplicate();
+                    from.position(last * pageSize);
+                    from.limit(last * pageSize + pageSize);
+                    ByteBuffer to = slab.duplicate();
+                    to.position(slot * pageSize);
+                    to.put(from);
+                    slotPage[slot] = lastPage;
+                    referenced[slot] = referenced[last];
+                    referenced[last] = false;
+                    index.put(lastPage, slot);
+                }
+            }
+        }
+
+        synchronized void clear() {
+            version++;
+            index.clear();
+            used = 0;
+            hand = 0;
+        }
+
+        private int allocate() {
+            if (used < slotPage.length) {
+                return used++;
+            }
+            while (true) {
+                int slot = hand;
+                hand = (hand + 1) % slotPage.length;
+                if (referenced[slot]) {
+                    referenced[slot] = false;
+                } else {
+                    index.remove(slotPage[slot]);
+                    evictions++;
+                    return slot;
+                }
+            }
+        }
+    }
+}
@@ -17,6 +17,8 @@
 package org.apache.kahadb.page;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -46,7 +48,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A PageFile provides you random access to fixed sized disk pages. This object is not thread safe and therefore access to it should
- * be externally synchronized.
+ * be externally synchronized. The exception is transactions that load and update disjoint sets of pages, those may be executed
+ * concurrently as long as nothing flushes or unloads the page file at the same time.
  * <p/>
  * The file has 3 parts:
  * Metadata Space: 4k : Reserved metadata area. Used to store persistent config about the file.
@@ -65,6 +68,8 @@ public class PageFile {
     public static final int DEFAULT_PAGE_CACHE_SIZE = Integer.getInteger("defaultPageCacheSize", 100);;
 
     private static final int RECOVERY_FILE_HEADER_SIZE = 1024 * 4;
+    // The most adjacent pages coalesced into a single page file write.
+    private static final int MAX_COALESCED_PAGES = 256;
     private static final int PAGE_FILE_HEADER_SIZE = 1024 * 4;
 
     // Recovery header is (long offset)
@@ -81,6 +86,8 @@ public class PageFile {
     private RandomAccessFile writeFile;
     // File handle used for writing pages..
     private RandomAccessFile recoveryFile;
+    // Held while a write batch goes to disk.
+    private final Object writeBatchMutex = new Object();
 
     // The size of pages
     private int pageSize = DEFAULT_PAGE_SIZE;
@@ -104,6 +111,10 @@ public class PageFile {
     private boolean enablePageCaching = true;
     // How many pages will we keep in the cache?
     private int pageCacheSize = DEFAULT_PAGE_CACHE_SIZE;
+    // Raw page images kept off the java heap, between the page cache and the disk.
+    private OffHeapPageCache offHeapPageCache;
+    // The size in bytes of the off heap page cache, 0 disables it.
+    private long offHeapPageCacheSize = 0;
 
     // Should first log the page write to the recovery buffer? Avoids partial
     // page write failures..
@@ -124,6 +135,9 @@ public class PageFile {
     // Keeps track of free pages.
     private final AtomicLong nextFreePageId = new AtomicLong();
     private SequenceSet freeList = new SequenceSet();
+    // Guards the free list, transactions on disjoint pages may allocate and
+    // free concurrently.
+    private final Object freeListMutex = new Object();
 
     private AtomicLong nextTxid = new AtomicLong();
 
@@ -418,6 +432,9 @@ public class PageFile {
                 writeFile.setLength(PAGE_FILE_HEADER_SIZE);
             }
             nextFreePageId.set((writeFile.length() - PAGE_FILE_HEADER_SIZE) / pageSize);
+            if (offHeapPageCacheSize > 0) {
+                offHeapPageCache = new OffHeapPageCache(offHeapPageCacheSize, pageSize, OffHeapPageCache.DEFAULT_SEGMENTS);
+            }
             startWriter();
 
         } else {
@@ -466,6 +483,10 @@ public class PageFile {
                 if (pageCache != null) {
                     pageCache = null;
                 }
+                if (offHeapPageCache != null) {
+                    offHeapPageCache.clear();
+                    offHeapPageCache = null;
+                }
                 synchronized (writes) {
                     writes.clear();
                 }
@@ -503,10 +524,13 @@ public class PageFile {
                 checkpointLatch = this.checkpointLatch;
                 writes.notify();
             } else {
-                writeBatch();
-                return;
+                checkpointLatch = null;
             }
         }
+        if (checkpointLatch == null) {
+            writeBatch();
+            return;
+        }
         try {
             checkpointLatch.await();
         } catch (InterruptedException e) {
@@ -721,6 +745,61 @@ public class PageFile {
         this.pageCacheSize = pageCacheSize;
     }
 
+    /**
+     * @return the size in bytes of the off heap cache of page images, 0 if it is disabled.
+     */
+    public long getOffHeapPageCacheSize() {
+        return offHeapPageCacheSize;
+    }
+
+    /**
+     * @param offHeapPageCacheSize Sets the size in bytes of a cache of raw page images kept in direct memory, outside of
+     *                             the java heap, that is checked before pages are read from disk. 0 disables it.
+     */
+    public void setOffHeapPageCacheSize(long offHeapPageCacheSize) {
+        assertNotLoaded();
+        this.offHeapPageCacheSize = offHeapPageCacheSize;
+    }
+
+    /**
+     * @return the number of page reads served by the off heap page cache
+     */
+    public long getOffHeapPageCacheHits() {
+        OffHeapPageCache cache = offHeapPageCache;
+        return cache != null ? cache.getHits() : 0;
+    }
+
+    /**
+     * @return the number of page reads that missed the off heap page cache and went to disk
+     */
+    public long getOffHeapPageCacheMisses() {
+        OffHeapPageCache cache = offHeapPageCache;
+        return cache != null ? cache.getMisses() : 0;
+    }
+
+    /**
+     * @return the number of pages evicted from the off heap page cache to make room for others
+     */
+    public long getOffHeapPageCacheEvictions() {
+        OffHeapPageCache cache = offHeapPageCache;
+        return cache != null ? cache.getEvictions() : 0;
+    }
+
+    /**
+     * @return the number of bytes of the off heap page cache holding pages
+     */
+    public long getOffHeapPageCacheUsage() {
+        OffHeapPageCache cache = offHeapPageCache;
+        return cache != null ? cache.getSize() : 0;
+    }
+
+    public void resetOffHeapPageCacheStatistics() {
+        OffHeapPageCache cache = offHeapPageCache;
+        if (cache != null) {
+            cache.resetStatistics();
+        }
+    }
+
     public boolean isEnabledWriteThread() {
         return enabledWriteThread;
     }
@@ -747,7 +826,9 @@ public class PageFile {
 
     public long getFreePageCount() {
         assertLoaded();
-        return freeList.rangeSize();
+        synchronized (freeListMutex) {
+            return freeList.rangeSize();
+        }
     }
 
     public void setRecoveryFileMinPageCount(int recoveryFileMinPageCount) {
@@ -821,7 +902,10 @@ public class PageFile {
             throw new IllegalArgumentException("The allocation count must be larger than zero");
         }
 
-        Sequence seq = freeList.removeFirstSequence(count);
+        Sequence seq;
+        synchronized (freeListMutex) {
+            seq = freeList.removeFirstSequence(count);
+        }
 
         // We may need to create new free pages...
         if (seq == null) {
@@ -841,7 +925,10 @@ public class PageFile {
                     first = page;
                 }
 
-                addToCache(page);
+                // Not cached, the pending write makes it visible. The caller
+                // goes on to use the page, as the overflow page of a chain
+                // for example, and the cache would keep its header after the
+                // page is written again.
                 DataByteArrayOutputStream out = new DataByteArrayOutputStream(pageSize);
                 page.write(out);
                 write(page, out.getData());
@@ -863,13 +950,41 @@ public class PageFile {
     }
 
     void readPage(long pageId, byte[] data) throws IOException {
-        readFile.seek(toOffset(pageId));
-        readFile.readFully(data);
+        OffHeapPageCache cache = offHeapPageCache;
+        long version = 0;
+        if (cache != null) {
+            if (cache.get(pageId, data)) {
+                return;
+            }
+            version = cache.version(pageId);
+        }
+
+        // positional reads so concurrent transactions don't race on the
+        // file pointer.
+        FileChannel channel = readFile.getChannel();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long offset = toOffset(pageId);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Page " + pageId + " is past the end of the page file");
+            }
+        }
+
+        // only whole pages are cached, not page header reads.
+        if (cache != null && data.length == pageSize) {
+            cache.putIfUnchanged(pageId, data, version);
+        }
     }
 
     public void freePage(long pageId) {
-        freeList.add(pageId);
+        synchronized (freeListMutex) {
+            freeList.add(pageId);
+        }
         removeFromCache(pageId);
+        OffHeapPageCache cache = offHeapPageCache;
+        if (cache != null) {
+            cache.remove(pageId);
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -893,6 +1008,7 @@ public class PageFile {
     }
 
     void write(Collection<Map.Entry<Long, PageWrite>> updates) throws IOException {
+        boolean startWriteBatch = false;
         synchronized (writes) {
             if (enabledWriteThread) {
                 while (writes.size() >= writeBatchSize && !stopWriter.get()) {
@@ -931,10 +1047,15 @@ public class PageFile {
                 if (enabledWriteThread) {
                     writes.notify();
                 } else {
-                    writeBatch();
+                    startWriteBatch = true;
                 }
             }
         }
+        // write the batch once the write cache is released, so other
+        // transactions can keep committing to it meanwhile.
+        if (startWriteBatch) {
+            writeBatch();
+        }
     }
 
     private boolean canStartWriteBatch() {
@@ -1010,6 +1131,14 @@ public class PageFile {
     }
 
     private void writeBatch() throws IOException {
+        // only one batch is written at a time, but transactions keep adding
+        // to the write cache while it is.
+        synchronized (writeBatchMutex) {
+            doWriteBatch();
+        }
+    }
+
+    private void doWriteBatch() throws IOException {
 
         CountDownLatch checkpointLatch;
         ArrayList<PageWrite> batch;
@@ -1034,51 +1163,45 @@ public class PageFile {
             this.checkpointLatch = null;
         }
 
-        Checksum checksum = new Adler32();
-        if (enableRecoveryFile) {
-            recoveryFile.seek(RECOVERY_FILE_HEADER_SIZE);
-        }
-        for (PageWrite w : batch) {
-            if (enableRecoveryFile) {
-                try {
-                    checksum.update(w.getDiskBound(), 0, pageSize);
-                } catch (Throwable t) {
-                    throw IOExceptionSupport.create("Cannot create recovery file. Reason: " + t, t);
-                }
-                recoveryFile.writeLong(w.page.getPageId());
-                recoveryFile.write(w.getDiskBound(), 0, pageSize);
+        try {
+            int size = batch.size();
+            long[] pageIds = new long[size];
+            byte[][] images = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                pageIds[i] = batch.get(i).page.getPageId();
+                images[i] = batch.get(i).getDiskBound();
             }
 
-            writeFile.seek(toOffset(w.page.getPageId()));
-            writeFile.write(w.getDiskBound(), 0, pageSize);
-            w.done();
-        }
+            // The recovery buffer must be on disk before any page it protects is
+            // touched, otherwise a torn page write has no intact copy to redo from.
+            if (enableRecoveryFile && size > 0) {
+                writeRecoveryBuffer(pageIds, images);
+            }
 
-        try {
-            if (enableRecoveryFile) {
-                // Can we shrink the recovery buffer??
-                if (recoveryPageCount > recoveryFileMaxPageCount) {
-                    int t = Math.max(recoveryFileMinPageCount, batch.size());
-                    recoveryFile.setLength(recoveryFileSizeForPages(t));
+            // The batch is in page order (the write cache is sorted), so runs of
+            // adjacent pages go to the page file in single sequential writes.
+            FileChannel channel = writeFile.getChannel();
+            int start = 0;
+            while (start < size) {
+                int end = start + 1;
+                while (end < size && end - start < MAX_COALESCED_PAGES && pageIds[end] == pageIds[end - 1] + 1) {
+                    end++;
                 }
-
-                // Record the page writes in the recovery buffer.
-                recoveryFile.seek(0);
-                // Store the next tx id...
-                recoveryFile.writeLong(nextTxid.get());
-                // Store the checksum for thw write batch so that on recovery we
-                // know if we have a consistent
-                // write batch on disk.
-                recoveryFile.writeLong(checksum.getValue());
-                // Write the # of pages that will follow
-                recoveryFile.writeInt(batch.size());
+                ByteBuffer[] run = new ByteBuffer[end - start];
+                for (int i = start; i < end; i++) {
+                    run[i - start] = ByteBuffer.wrap(images[i], 0, pageSize);
+                }
+                writePages(channel, pageIds[start], run);
+                for (int i = start; i < end; i++) {
+                    if (offHeapPageCache != null) {
+                        offHeapPageCache.put(pageIds[i], images[i]);
+                    }
+                    batch.get(i).done();
+                }
+                start = end;
             }
 
             if (enableDiskSyncs) {
-                // Sync to make sure recovery buffer writes land on disk..
-                if (enableRecoveryFile) {
-                    recoveryFile.getFD().sync();
-                }
                 writeFile.getFD().sync();
             }
         } finally {
@@ -1104,6 +1227,60 @@ public class PageFile {
         }
     }
 
+    /**
+     * Writes a run of adjacent pages starting at the given page id.
+     */
+    void writePages(FileChannel channel, long pageId, ByteBuffer[] run) throws IOException {
+        channel.position(toOffset(pageId));
+        long remaining = (long) run.length * pageSize;
+        while (remaining > 0) {
+            remaining -= channel.write(run);
+        }
+    }
+
+    /**
+     * Writes a batch to the recovery buffer, in one write, and syncs it.
+     */
+    private void writeRecoveryBuffer(long[] pageIds, byte[][] images) throws IOException {
+        Checksum checksum = new Adler32();
+        ByteBuffer records = ByteBuffer.allocate(pageIds.length * (8 + pageSize));
+        for (int i = 0; i < pageIds.length; i++) {
+            checksum.update(images[i], 0, pageSize);
+            records.putLong(pageIds[i]);
+            records.put(images[i], 0, pageSize);
+        }
+        records.flip();
+
+        FileChannel channel = recoveryFile.getChannel();
+        // Can we shrink the recovery buffer??
+        if (recoveryPageCount > recoveryFileMaxPageCount) {
+            int t = Math.max(recoveryFileMinPageCount, pageIds.length);
+            recoveryFile.setLength(recoveryFileSizeForPages(t));
+        }
+        long position = RECOVERY_FILE_HEADER_SIZE;
+        while (records.hasRemaining()) {
+            position += channel.write(records, position);
+        }
+
+        // Record the page writes in the recovery buffer: the next tx id, the
+        // checksum for the write batch so that on recovery we know if we have
+        // a consistent write batch on disk and the # of pages that follow.
+        ByteBuffer header = ByteBuffer.allocate(20);
+        header.putLong(nextTxid.get());
+        header.putLong(checksum.getValue());
+        header.putInt(pageIds.length);
+        header.flip();
+        position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+
+        if (enableDiskSyncs) {
+            // Sync to make sure recovery buffer writes land on disk..
+            channel.force(false);
+        }
+    }
+
     public void removeTmpFile(File file) {
         tmpFilesForRemoval.add(file);
     }
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kahadb.util;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kahadb.journal.Journal;
+
+/**
+ * This class is used to benchmark concurrent synced appends to a
+ * {@link Journal}, with the default appender and with the gathering, group
+ * commit appender, as the number of concurrent writers grows.
+ */
+public class JournalBenchmark {
+
+    boolean verbose;
+    // size of each appended record.
+    int bs = 1024;
+    // benchmark 1, 2, 4 .. maxWriters concurrent writers.
+    int maxWriters = 64;
+    long sampleInterval = 10 * 1000;
+
+    public static void main(String[] args) {
+
+        JournalBenchmark benchmark = new JournalBenchmark();
+        args = CommandLineSupport.setOptions(benchmark, args);
+        File dir = new File(args.length == 0 ? "journal-benchmark" : args[0]);
+        if (dir.exists()) {
+            System.out.println("Directory " + dir + " allready exists, will not benchmark.");
+            return;
+        }
+
+        try {
+            for (int writers = 1; writers <= benchmark.maxWriters; writers *= 2) {
+                for (boolean gathering : new boolean[] {false, true}) {
+                    Report report = benchmark.benchmark(dir, writers, gathering);
+                    IOHelper.delete(dir);
+                    System.out.println(report.toString());
+                }
+            }
+        } catch (Throwable e) {
+            if (benchmark.verbose) {
+                System.out.println("ERROR:");
+                e.printStackTrace(System.out);
+            } else {
+                System.out.println("ERROR: " + e);
+            }
+        }
+    }
+
+    public static class Report {
+
+        public String appender;
+        public int writers;
+        public int size;
+        public long writes;
+        public long writeDuration;
+
+        @Override
+        public String toString() {
+            return
+            appender + " appender, " + writers + " writers:\n" +
+            "  " + writes + " synced writes of size " + size + " written in " + (writeDuration / 1000.0) + " seconds.\n" +
+            "  " + getWriteRate() + " writes/second.\n" +
+            "  " + getWriteSizeRate() + " megs/second.\n";
+        }
+
+        private float getWriteRate() {
+            float rc = writes;
+            rc /= (writeDuration / 1000.0); // get rate.
+            return rc;
+        }
+
+        private float getWriteSizeRate() {
+            float rc = writes;
+            rc *= size;
+            rc /= (1024 * 1024); // put it in megs
+            rc /= (writeDuration / 1000.0); // get rate.
+            return rc;
+        }
+    }
+
+    public Report benchmark(File dir, int writerCount, boolean gathering) throws Exception {
+        final Journal journal = new Journal();
+        IOHelper.mkdirs(dir);
+        journal.setDirectory(dir);
+        journal.setUseGatheringAppender(gathering);
+        journal.start();
+
+        byte[] data = new byte[bs];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)('a' + (i % 26));
+        }
+        final ByteSequence sequence = new ByteSequence(data);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong writes = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(writerCount);
+        final Throwable[] failure = new Throwable[1];
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < writerCount; i++) {
+            new Thread("JournalBenchmark Writer-" + i) {
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            journal.write(sequence, true);
+                            writes.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        Thread.sleep(sampleInterval);
+        running.set(false);
+        done.await();
+        long end = System.currentTimeMillis();
+        journal.close();
+        if (failure[0] != null) {
+            throw new Exception("Writer failed: " + failure[0], failure[0]);
+        }
+
+        Report rc = new Report();
+        rc.appender = gathering ? "Gathering" : "Default";
+        rc.writers = writerCount;
+        rc.size = bs;
+        rc.writes = writes.get();
+        rc.writeDuration = end - start;
+        return rc;
+    }
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public int getBs() {
+        return bs;
+    }
+
+    public void setBs(int bs) {
+        this.bs = bs;
+    }
+
+    public int getMaxWriters() {
+        return maxWriters;
+    }
+
+    public void setMaxWriters(int maxWriters) {
+        this.maxWriters = maxWriters;
+    }
+
+    public long getSampleInterval() {
+        return sampleInterval;
+    }
+
+    public void setSampleInterval(long sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kahadb.journal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kahadb.util.ByteSequence;
+
+public class GatheringAppenderJournalTest extends JournalTest {
+
+    @Override
+    protected void configure(Journal dataManager) {
+        dataManager.setUseGatheringAppender(true);
+        dataManager.setChecksum(true);
+    }
+
+    public void testCallbacksCompleteInOrder() throws Exception {
+        final int iterations = 1000;
+        final List<Integer> completed = new ArrayList<Integer>();
+        final CountDownLatch latch = new CountDownLatch(iterations);
+        for (int i=0; i<iterations; i++) {
+            final int id = i;
+            dataManager.write(new ByteSequence(("DATA-" + i).getBytes()), new Runnable() {
+                public void run() {
+                    synchronized (completed) {
+                        completed.add(id);
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue("all callbacks complete", latch.await(10, TimeUnit.SECONDS));
+        for (int i=0; i<iterations; i++) {
+            assertEquals(Integer.valueOf(i), completed.get(i));
+        }
+    }
+
+    public void testWrittenBatchesPassRecoveryCheck() throws Exception {
+        List<Location> locations = new ArrayList<Location>();
+        for (int i=0; i<100; i++) {
+            locations.add(dataManager.write(new ByteSequence(("DATA-" + i).getBytes()), i % 10 == 0));
+        }
+        dataManager.close();
+
+        // checksums are verified when the journal is recovered
+        dataManager.setCheckForCorruptionOnStartup(true);
+        dataManager.start();
+        assertTrue(dataManager.getFileMap().values().iterator().next().getCorruptedBlocks().isEmpty());
+        for (int i=0; i<locations.size(); i++) {
+            ByteSequence data = dataManager.read(locations.get(i));
+            assertEquals("DATA-" + i, new String(data.getData(), data.getOffset(), data.getLength()));
+        }
+    }
+}
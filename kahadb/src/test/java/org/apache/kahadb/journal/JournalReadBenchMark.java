@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kahadb.journal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+import org.apache.kahadb.util.ByteSequence;
+import org.apache.kahadb.util.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures random read throughput of a {@link Journal} as the number of
+ * concurrent reader threads grows.
+ */
+public class JournalReadBenchMark extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalReadBenchMark.class);
+
+    private static final long SAMPLE_DURATION = Integer.parseInt(System.getProperty("SAMPLE_DURATION", "" + 1000 * 5));
+    private static final int RECORD_COUNT = Integer.parseInt(System.getProperty("RECORD_COUNT", "" + 50000));
+    private static final int RECORD_SIZE = Integer.parseInt(System.getProperty("RECORD_SIZE", "" + 1024));
+    private static final int MAX_READERS = Integer.parseInt(System.getProperty("MAX_READERS", "" + 16));
+
+    private Journal journal;
+    private File dir;
+    private final List<Location> locations = new ArrayList<Location>();
+
+    @Override
+    public void setUp() throws Exception {
+        dir = new File("target/tests/JournalReadBenchMark");
+        IOHelper.delete(dir);
+        dir.mkdirs();
+        journal = new Journal();
+        journal.setDirectory(dir);
+        journal.start();
+
+        ByteSequence data = new ByteSequence(new byte[RECORD_SIZE]);
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            locations.add(journal.write(data, false));
+        }
+        journal.write(data, true);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        journal.close();
+        IOHelper.delete(dir);
+    }
+
+    public void testReadScaling() throws Exception {
+        for (int readers = 1; readers <= MAX_READERS; readers *= 2) {
+            double rate = sample(readers);
+            LOG.info(readers + " reader(s): " + String.format("%.0f", rate) + " reads/sec");
+        }
+    }
+
+    private double sample(int readerCount) throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(readerCount);
+        final Throwable[] failure = new Throwable[1];
+
+        for (int i = 0; i < readerCount; i++) {
+            final Random random = new Random(i);
+            new Thread("JournalReader-" + i) {
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            journal.read(locations.get(random.nextInt(locations.size())));
+                            reads.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long start = System.currentTimeMillis();
+        Thread.sleep(SAMPLE_DURATION);
+        running.set(false);
+        done.await(30, TimeUnit.SECONDS);
+        long end = System.currentTimeMillis();
+        assertNull("Reader failed: " + failure[0], failure[0]);
+        return reads.get() * 1000.0 / (end - start);
+    }
+}
@@ -17,8 +17,12 @@
 package org.apache.kahadb.journal;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 import org.apache.kahadb.journal.Journal;
@@ -120,4 +124,140 @@ public class JournalTest extends TestCase {
             assertTrue("queued data is written", dataManager.getInflightWrites().isEmpty());
         }
     }
+
+    public void testConcurrentReads() throws Exception {
+        final List<Location> locations = new ArrayList<Location>();
+        for (int i=0; i<1000; i++) {
+            locations.add(dataManager.write(new ByteSequence(("DATA-" + i).getBytes()), false));
+        }
+        dataManager.write(new ByteSequence("LAST".getBytes()), true);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[8];
+        for (int t=0; t<readers.length; t++) {
+            readers[t] = new Thread("reader-" + t) {
+                public void run() {
+                    try {
+                        for (int i=0; i<locations.size(); i++) {
+                            ByteSequence data = dataManager.read(locations.get(i));
+                            assertEquals("DATA-" + i, new String(data.getData(), data.getOffset(), data.getLength()));
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (Thread reader : readers) {
+            reader.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        assertNull("no read failure: " + failure.get(), failure.get());
+    }
+
+    public void testMemoryMappedReadsOfSealedFiles() throws Exception {
+        File mappedDir = new File(dir, "mapped");
+        mappedDir.mkdirs();
+        Journal journal = new Journal();
+        journal.setDirectory(mappedDir);
+        journal.setMaxFileLength(1024 * 4);
+        journal.setEnableMemoryMappedReads(true);
+        journal.start();
+        try {
+            List<Location> locations = new ArrayList<Location>();
+            for (int i=0; i<1000; i++) {
+                locations.add(journal.write(new ByteSequence(("DATA-" + i).getBytes()), false));
+            }
+            journal.write(new ByteSequence("LAST".getBytes()), true);
+            assertTrue("data spans several files", journal.getFileMap().size() > 1);
+
+            for (int i=0; i<locations.size(); i++) {
+                ByteSequence data = journal.read(locations.get(i));
+                assertEquals("DATA-" + i, new String(data.getData(), data.getOffset(), data.getLength()));
+            }
+            assertFalse("sealed files were mapped", journal.mappedAccessors.isEmpty());
+            assertFalse("current write file is not mapped",
+                    journal.mappedAccessors.containsKey(journal.getCurrentDataFileId()));
+        } finally {
+            journal.close();
+        }
+    }
+
+    public void testMappingsClosedWhenDataFilesRemoved() throws Exception {
+        File mappedDir = new File(dir, "unmapped");
+        mappedDir.mkdirs();
+        Journal journal = new Journal();
+        journal.setDirectory(mappedDir);
+        journal.setMaxFileLength(1024 * 4);
+        journal.setEnableMemoryMappedReads(true);
+        journal.start();
+        MappedDataFileAccessor remaining;
+        try {
+            List<Location> locations = new ArrayList<Location>();
+            for (int i=0; i<1000; i++) {
+                locations.add(journal.write(new ByteSequence(("DATA-" + i).getBytes()), false));
+            }
+            journal.write(new ByteSequence("LAST".getBytes()), true);
+            for (Location location : locations) {
+                journal.read(location);
+            }
+
+            Location first = locations.get(0);
+            Location last = locations.get(locations.size() - 1);
+            assertTrue("data spans several files", first.getDataFileId() != last.getDataFileId());
+            MappedDataFileAccessor removed = journal.mappedAccessors.get(first.getDataFileId());
+            assertNotNull(removed);
+            File file = journal.getFileMap().get(first.getDataFileId()).getFile();
+
+            journal.removeDataFiles(Collections.singleton(first.getDataFileId()));
+            assertFalse("mapping dropped", journal.mappedAccessors.containsKey(first.getDataFileId()));
+            assertNull("mapping closed", removed.readRecord(new Location(first)));
+            assertFalse("file deleted", file.exists());
+
+            remaining = journal.mappedAccessors.get(locations.get(500).getDataFileId());
+            assertNotNull(remaining);
+        } finally {
+            journal.close();
+        }
+        assertTrue(journal.mappedAccessors.isEmpty());
+        assertNull("mapping closed with the journal",
+                remaining.readRecord(new Location(remaining.getDataFile().getDataFileId(), 0)));
+    }
+
+    public void testScannerFindsTheLocationsOfOneFile() throws Exception {
+        File scannedDir = new File(dir, "scanned");
+        scannedDir.mkdirs();
+        Journal journal = new Journal();
+        journal.setDirectory(scannedDir);
+        journal.setMaxFileLength(1024 * 4);
+        journal.start();
+        try {
+            for (int i=0; i<500; i++) {
+                journal.write(new ByteSequence(("DATA-" + i).getBytes()), false);
+            }
+            journal.write(new ByteSequence("LAST".getBytes()), true);
+
+            for (DataFile dataFile : journal.getFileMap().values()) {
+                DataFileScanner scanner = journal.openScanner(dataFile);
+                try {
+                    Location head = new Location(dataFile.getDataFileId(), 0);
+                    head.setSize(0);
+                    Location expected = journal.getNextLocation(dataFile, head, true);
+                    Location location = scanner.getNextLocation(null);
+                    while (expected != null) {
+                        assertEquals(expected, location);
+                        assertEquals(expected.getSize(), location.getSize());
+                        assertEquals(expected.getType(), location.getType());
+                        expected = journal.getNextLocation(dataFile, expected, true);
+                        location = scanner.getNextLocation(location);
+                    }
+                    assertNull(location);
+                } finally {
+                    scanner.close();
+                }
+            }
+        } finally {
+            journal.close();
+        }
+    }
 }
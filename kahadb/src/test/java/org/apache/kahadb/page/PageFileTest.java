@@ -22,7 +22,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.kahadb.util.StringMarshaller;
 
@@ -123,6 +128,164 @@ public class PageFileTest extends TestCase {
         pf.unload();
     }
 
+    public void testOffHeapPageCache() throws IOException {
+
+        PageFile pf = new PageFile(new File("target/test-data"), getName());
+        pf.delete();
+        pf.setEnablePageCaching(false);
+        pf.setOffHeapPageCacheSize(16 * pf.getPageSize());
+        pf.load();
+
+        Transaction tx = pf.tx();
+        long[] pageIds = new long[100];
+        for (int i = 0; i < pageIds.length; i++) {
+            Page<String> page = tx.allocate();
+            page.set("page:" + i);
+            tx.store(page, StringMarshaller.INSTANCE, false);
+            tx.commit();
+            pageIds[i] = page.getPageId();
+        }
+        pf.flush();
+
+        // the most recently written pages are served from the cache
+        long hits = pf.getOffHeapPageCacheHits();
+        for (int i = pageIds.length - 8; i < pageIds.length; i++) {
+            assertEquals("page:" + i, tx.load(pageIds[i], StringMarshaller.INSTANCE).get());
+        }
+        assertEquals(hits + 8, pf.getOffHeapPageCacheHits());
+        assertTrue(pf.getOffHeapPageCacheEvictions() > 0);
+        assertEquals(16 * pf.getPageSize(), pf.getOffHeapPageCacheUsage());
+
+        // the rest are read from disk, and still correct
+        for (int i = 0; i < pageIds.length; i++) {
+            assertEquals("page:" + i, tx.load(pageIds[i], StringMarshaller.INSTANCE).get());
+        }
+        assertTrue(pf.getOffHeapPageCacheMisses() > 0);
+
+        // updates replace the cached images
+        for (int i = 0; i < pageIds.length; i++) {
+            Page<String> page = tx.load(pageIds[i], StringMarshaller.INSTANCE);
+            page.set("page:" + i + ":updated");
+            tx.store(page, StringMarshaller.INSTANCE, false);
+        }
+        tx.commit();
+        pf.flush();
+        for (int j = 0; j < 2; j++) {
+            for (int i = 0; i < pageIds.length; i++) {
+                assertEquals("page:" + i + ":updated", tx.load(pageIds[i], StringMarshaller.INSTANCE).get());
+            }
+        }
+
+        pf.unload();
+    }
+
+    public void testCoalescedWrites() throws IOException {
+        for (boolean writeThread : new boolean[] {false, true}) {
+            PageFile pf = new PageFile(new File("target/test-data"), getName());
+            pf.delete();
+            pf.setEnableWriteThread(writeThread);
+            pf.load();
+
+            // runs of adjacent pages, with gaps between the runs
+            Transaction tx = pf.tx();
+            Page<String> first = tx.allocate(1000);
+            long start = first.getPageId();
+            for (int i = 0; i < 1000; i++) {
+                if (i % 300 < 290) {
+                    Page<String> page = tx.load(start + i, null);
+                    page.set("page:" + i);
+                    tx.store(page, StringMarshaller.INSTANCE, false);
+                }
+            }
+            tx.commit();
+            pf.flush();
+            pf.unload();
+
+            pf = new PageFile(new File("target/test-data"), getName());
+            pf.setEnablePageCaching(false);
+            pf.load();
+            tx = pf.tx();
+            for (int i = 0; i < 1000; i++) {
+                if (i % 300 < 290) {
+                    assertEquals("page:" + i, tx.load(start + i, StringMarshaller.INSTANCE).get());
+                }
+            }
+            pf.unload();
+        }
+    }
+
+    public void testTornPageWriteIsRedone() throws IOException {
+        File directory = new File("target/test-data");
+        final AtomicBoolean failPageWrites = new AtomicBoolean();
+        final AtomicLong previousChecksum = new AtomicLong();
+        PageFile pf = new PageFile(directory, getName()) {
+            @Override
+            void writePages(FileChannel channel, long pageId, ByteBuffer[] run) throws IOException {
+                if (failPageWrites.get()) {
+                    // the batch must already be in the recovery buffer
+                    assertTrue(recoveryChecksum(this) != previousChecksum.get());
+                    // tear the first page of the run, as a crash half way through the write would
+                    ByteBuffer half = ByteBuffer.allocate(getPageSize() / 2);
+                    channel.write(half, toOffset(pageId));
+                    throw new IOException("Simulated crash during a page write");
+                }
+                super.writePages(channel, pageId, run);
+            }
+        };
+        pf.delete();
+        pf.setEnableWriteThread(false);
+        pf.load();
+
+        Transaction tx = pf.tx();
+        Page<String> first = tx.allocate(10);
+        long start = first.getPageId();
+        for (int i = 0; i < 10; i++) {
+            Page<String> page = tx.load(start + i, null);
+            page.set("before:" + i);
+            tx.store(page, StringMarshaller.INSTANCE, false);
+        }
+        tx.commit();
+        pf.flush();
+
+        previousChecksum.set(recoveryChecksum(pf));
+        failPageWrites.set(true);
+        tx = pf.tx();
+        for (int i = 0; i < 10; i++) {
+            Page<String> page = tx.load(start + i, null);
+            page.set("after:" + i);
+            tx.store(page, StringMarshaller.INSTANCE, false);
+        }
+        tx.commit();
+        try {
+            pf.flush();
+            fail("Expected the page write to fail");
+        } catch (IOException expected) {
+        }
+
+        // reopen without a clean shutdown, the recovery buffer must restore the torn page
+        PageFile recovered = new PageFile(directory, getName());
+        recovered.setEnablePageCaching(false);
+        recovered.load();
+        tx = recovered.tx();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("after:" + i, tx.load(start + i, StringMarshaller.INSTANCE).get());
+        }
+        recovered.unload();
+
+        failPageWrites.set(false);
+        pf.unload();
+    }
+
+    private long recoveryChecksum(PageFile pf) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(pf.getRecoveryFile(), "r");
+        try {
+            file.seek(8);
+            return file.readLong();
+        } finally {
+            file.close();
+        }
+    }
+
     public void testStreams() throws IOException {
 
         PageFile pf = new PageFile(new File("target/test-data"), getName());
@@ -199,4 +362,45 @@ public class PageFileTest extends TestCase {
         }
         assertEquals(expected, actual);
     }
+
+    public void testShrinkOverflowChain() throws IOException {
+
+        PageFile pf = new PageFile(new File("target/test-data"), getName());
+        pf.delete();
+        pf.load();
+
+        // a value spanning three pages, all allocated by growing the file
+        Transaction tx = pf.tx();
+        Page<String> page = tx.allocate();
+        page.set(createString(pf.getPageSize() * 5 / 2));
+        tx.store(page, StringMarshaller.INSTANCE, true);
+        tx.commit();
+        pf.flush();
+
+        // rewritten to span two pages, the third one is freed
+        tx = pf.tx();
+        page = tx.load(page.getPageId(), StringMarshaller.INSTANCE);
+        String value = createString(pf.getPageSize() * 3 / 2);
+        page.set(value);
+        tx.store(page, StringMarshaller.INSTANCE, true);
+        tx.commit();
+        pf.flush();
+
+        tx = pf.tx();
+        page = tx.load(page.getPageId(), null);
+        assertEquals(Page.PAGE_PART_TYPE, page.getType());
+        Page<String> last = tx.load(page.getNext(), null);
+        assertEquals(Page.PAGE_END_TYPE, last.getType());
+        assertEquals(value, tx.load(page.getPageId(), StringMarshaller.INSTANCE).get());
+
+        pf.unload();
+    }
+
+    private String createString(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
 }